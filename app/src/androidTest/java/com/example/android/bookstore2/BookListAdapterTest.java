@@ -0,0 +1,80 @@
+package com.example.android.bookstore2;
+
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Binds a long list of books through {@link BookListAdapter} and counts the objects allocated
+ * on the way, so a change that brings back per-row lookups, listeners or formatters shows up
+ * here before it shows up as dropped frames.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookListAdapterTest {
+
+    private static final String TAG = BookListAdapterTest.class.getSimpleName();
+
+    private static final int ROWS = 10000;
+    private static final int WARM_UP_ROWS = 100;
+
+    /**
+     * Allocations allowed per bound row. What is left is the summary String handed to the
+     * TextView and the formatter's scratch objects.
+     */
+    private static final int MAX_ALLOCATIONS_PER_ROW = 10;
+
+    @Test
+    public void onBindViewHolder_allocatesLittlePerRow() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final ArrayList<BookRow> rows = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(new BookRow(i + 1, "Book " + i, 999 + i, i % 20));
+        }
+        final int[] allocations = new int[1];
+
+        // Views belong on the main thread
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                BookListAdapter adapter = new BookListAdapter(context);
+                // The first list is shown as it is, without a diff
+                adapter.submitList(rows);
+                RecyclerView parent = new RecyclerView(context);
+                parent.setLayoutManager(new LinearLayoutManager(context));
+                BookListAdapter.ViewHolder holder = adapter.onCreateViewHolder(parent, 0);
+
+                // Let the first binds load classes and fill caches before counting
+                for (int i = 0; i < WARM_UP_ROWS; i++) {
+                    adapter.onBindViewHolder(holder, i);
+                }
+
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                for (int i = 0; i < ROWS; i++) {
+                    adapter.onBindViewHolder(holder, i);
+                }
+                Debug.stopAllocCounting();
+                allocations[0] = Debug.getThreadAllocCount();
+
+                assertEquals(ROWS, holder.row.id);
+                assertTrue(holder.summaryTextView.getText().toString().endsWith(
+                        (ROWS - 1) % 20 + context.getString(R.string.label_book_in_stock)));
+            }
+        });
+
+        Log.i(TAG, allocations[0] + " allocations for " + ROWS + " rows");
+        assertTrue(allocations[0] + " allocations for " + ROWS + " rows",
+                allocations[0] <= MAX_ALLOCATIONS_PER_ROW * ROWS);
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.android.bookstore2;
+
+import android.app.Instrumentation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.Choreographer;
+
+import com.example.android.bookstore2.data.BenchmarkDatabase;
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays rapid taps on the sell buttons of a 10k row book list and records the time between
+ * frames while the list takes in the changes. Results are written to the log.
+ *
+ * The app's provider is moved onto a database file of its own for the benchmark, see
+ * {@link BenchmarkDatabase}, so the books and their sales never reach the app's inventory. The
+ * app's first screen snapshot is put aside and back again afterwards.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookListFrameBenchmark {
+
+    private static final String TAG = BookListFrameBenchmark.class.getSimpleName();
+    private static final String TEST_DATABASE_NAME = "bookstore_benchmark.db";
+    private static final String BOOK_NAME_PREFIX = "Benchmark book ";
+
+    /** Where the app's own snapshot is kept during the benchmark */
+    private static final String APP_SNAPSHOT_NAME = FirstScreenSnapshot.FILE_NAME + ".app";
+
+    private static final int BOOKS = 10000;
+    private static final int TAPS = 100;
+    private static final long TAP_INTERVAL_MILLIS = 30;
+    private static final long LOAD_TIMEOUT_MILLIS = 60000;
+
+    /** Frames slower than this missed a vsync at 60 Hz */
+    private static final long JANK_MICROS = 17000;
+
+    @Rule
+    public ActivityTestRule<BookStoreActivity> mActivityRule =
+            new ActivityTestRule<>(BookStoreActivity.class, false, false);
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private BenchmarkDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mResolver = mContext.getContentResolver();
+        mDatabase = BenchmarkDatabase.open(mContext, TEST_DATABASE_NAME);
+        File appSnapshot = snapshotFile();
+        if (appSnapshot.exists()) {
+            assertTrue(appSnapshot.renameTo(new File(mContext.getFilesDir(), APP_SNAPSHOT_NAME)));
+        }
+        ContentValues[] values = new ContentValues[BOOKS];
+        for (int i = 0; i < BOOKS; i++) {
+            values[i] = new ContentValues();
+            values[i].put(BookEntry.COLUMN_PRODUCT_NAME, BOOK_NAME_PREFIX + i);
+            values[i].put(BookEntry.COLUMN_PRODUCT_PRICE, 1250L);
+            values[i].put(BookEntry.COLUMN_PRODUCT_QUANTITY, 1000);
+            values[i].put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+            values[i].put(BookEntry.COLUMN_SUPPLIER_PHONE, 5551234L);
+        }
+        mResolver.bulkInsert(BookEntry.CONTENT_URI, values);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        // Let the snapshot of the benchmark's books be written before it is deleted
+        final CountDownLatch written = new CountDownLatch(1);
+        FirstScreenSnapshot.WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                written.countDown();
+            }
+        });
+        written.await();
+        mContext.deleteFile(FirstScreenSnapshot.FILE_NAME);
+        File appSnapshot = new File(mContext.getFilesDir(), APP_SNAPSHOT_NAME);
+        if (appSnapshot.exists()) {
+            assertTrue(appSnapshot.renameTo(snapshotFile()));
+        }
+        mDatabase.close();
+    }
+
+    private File snapshotFile() {
+        return new File(mContext.getFilesDir(), FirstScreenSnapshot.FILE_NAME);
+    }
+
+    @Test
+    public void frameTimesWhileSelling() throws Exception {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        final BookStoreActivity activity = mActivityRule.launchActivity(null);
+        final RecyclerView list = (RecyclerView) activity.findViewById(R.id.list_view_book);
+
+        // Scroll through the list so every page is loaded and the list holds all the books
+        long deadline = SystemClock.uptimeMillis() + LOAD_TIMEOUT_MILLIS;
+        while (list.getAdapter().getItemCount() < BOOKS && SystemClock.uptimeMillis() < deadline) {
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    list.scrollToPosition(Math.max(0, list.getAdapter().getItemCount() - 1));
+                }
+            });
+            SystemClock.sleep(50);
+        }
+        assertTrue("Only " + list.getAdapter().getItemCount() + " books loaded",
+                list.getAdapter().getItemCount() >= BOOKS);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                list.scrollToPosition(0);
+            }
+        });
+        instrumentation.waitForIdleSync();
+
+        final FrameRecorder recorder = new FrameRecorder();
+        instrumentation.runOnMainSync(recorder);
+        for (int i = 0; i < TAPS; i++) {
+            final int tap = i;
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    // Tap the sell button of one of the visible rows, all of them the benchmark's
+                    BookListAdapter.ViewHolder holder = (BookListAdapter.ViewHolder)
+                            list.findViewHolderForAdapterPosition(tap % 5);
+                    if (holder != null && holder.row.name.startsWith(BOOK_NAME_PREFIX)) {
+                        holder.sellButton.performClick();
+                    }
+                }
+            });
+            SystemClock.sleep(TAP_INTERVAL_MILLIS);
+        }
+        // Let the last changes reach the screen
+        SystemClock.sleep(1000);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                recorder.stop();
+                // Finish the list before its database is put back
+                activity.finish();
+            }
+        });
+        long finishDeadline = SystemClock.uptimeMillis() + LOAD_TIMEOUT_MILLIS;
+        while (!activity.isDestroyed() && SystemClock.uptimeMillis() < finishDeadline) {
+            SystemClock.sleep(10);
+        }
+
+        long[] frames = recorder.sortedFrameMicros();
+        assertTrue("No frames recorded", frames.length > 0);
+        int janky = 0;
+        for (long frame : frames) {
+            if (frame > JANK_MICROS) {
+                janky++;
+            }
+        }
+        Log.i(TAG, frames.length + " frames: median " + frames[frames.length / 2]
+                + " us, p90 " + frames[frames.length * 90 / 100]
+                + " us, p99 " + frames[frames.length * 99 / 100]
+                + " us, max " + frames[frames.length - 1]
+                + " us, " + janky + " over " + JANK_MICROS + " us");
+    }
+
+    /**
+     * Records the time between consecutive frames, from the main thread.
+     */
+    private static class FrameRecorder implements Runnable, Choreographer.FrameCallback {
+        private long[] mFrameMicros = new long[256];
+        private int mFrames;
+        private long mLastFrameNanos;
+        private boolean mStopped;
+
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (mStopped) {
+                return;
+            }
+            if (mLastFrameNanos != 0) {
+                if (mFrames == mFrameMicros.length) {
+                    mFrameMicros = Arrays.copyOf(mFrameMicros, mFrames * 2);
+                }
+                mFrameMicros[mFrames++] = (frameTimeNanos - mLastFrameNanos) / 1000;
+            }
+            mLastFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            mStopped = true;
+        }
+
+        long[] sortedFrameMicros() {
+            long[] frames = Arrays.copyOf(mFrameMicros, mFrames);
+            Arrays.sort(frames);
+            return frames;
+        }
+    }
+}
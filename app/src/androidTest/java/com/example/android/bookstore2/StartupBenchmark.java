@@ -0,0 +1,223 @@
+package com.example.android.bookstore2;
+
+import android.app.Activity;
+import android.app.Application;
+import android.app.Instrumentation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.ViewTreeObserver;
+
+import com.example.android.bookstore2.data.BenchmarkDatabase;
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Launches the book list over a 10k row inventory and measures the time to its first
+ * meaningful frame: from asking for the activity to the first frame that draws rows in the
+ * list. Launches with the first screen snapshot are compared with launches without it.
+ * Results are written to the log.
+ *
+ * The benchmark runs in the app's process, which is already started and has its database
+ * open, so it measures the activity's part of a cold start. The whole of it, warm-up of the
+ * database included, is what {@code adb shell am start -W} reports for a stopped app.
+ *
+ * The app's provider is moved onto a database file of its own for the benchmark, see
+ * {@link BenchmarkDatabase}, and the app's snapshot is put aside and back again afterwards.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmark {
+
+    private static final String TAG = StartupBenchmark.class.getSimpleName();
+    private static final String TEST_DATABASE_NAME = "bookstore_benchmark.db";
+
+    /** Where the app's own snapshot is kept during the benchmark */
+    private static final String APP_SNAPSHOT_NAME = FirstScreenSnapshot.FILE_NAME + ".app";
+
+    private static final int BOOKS = 10000;
+    private static final int LAUNCHES = 10;
+    private static final long FRAME_TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public ActivityTestRule<BookStoreActivity> mActivityRule =
+            new ActivityTestRule<>(BookStoreActivity.class, false, false);
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private BenchmarkDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mResolver = mContext.getContentResolver();
+        mDatabase = BenchmarkDatabase.open(mContext, TEST_DATABASE_NAME);
+        File appSnapshot = snapshotFile();
+        if (appSnapshot.exists()) {
+            assertTrue(appSnapshot.renameTo(new File(mContext.getFilesDir(), APP_SNAPSHOT_NAME)));
+        }
+        ContentValues[] values = new ContentValues[BOOKS];
+        for (int i = 0; i < BOOKS; i++) {
+            values[i] = new ContentValues();
+            values[i].put(BookEntry.COLUMN_PRODUCT_NAME, "Benchmark book " + i);
+            values[i].put(BookEntry.COLUMN_PRODUCT_PRICE, 1250L);
+            values[i].put(BookEntry.COLUMN_PRODUCT_QUANTITY, 1000);
+            values[i].put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+            values[i].put(BookEntry.COLUMN_SUPPLIER_PHONE, 5551234L);
+        }
+        mResolver.bulkInsert(BookEntry.CONTENT_URI, values);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        awaitSnapshotWrites();
+        mContext.deleteFile(FirstScreenSnapshot.FILE_NAME);
+        File appSnapshot = new File(mContext.getFilesDir(), APP_SNAPSHOT_NAME);
+        if (appSnapshot.exists()) {
+            assertTrue(appSnapshot.renameTo(snapshotFile()));
+        }
+        mDatabase.close();
+    }
+
+    @Test
+    public void timeToFirstMeaningfulFrame() throws Exception {
+        long[] withoutSnapshot = new long[LAUNCHES];
+        for (int i = 0; i < LAUNCHES; i++) {
+            mContext.deleteFile(FirstScreenSnapshot.FILE_NAME);
+            withoutSnapshot[i] = launch();
+        }
+        // The last launch saved the first screen once its first page was loaded
+        assertTrue("No snapshot saved", snapshotFile().exists());
+
+        long[] withSnapshot = new long[LAUNCHES];
+        for (int i = 0; i < LAUNCHES; i++) {
+            withSnapshot[i] = launch();
+        }
+
+        Arrays.sort(withoutSnapshot);
+        Arrays.sort(withSnapshot);
+        Log.i(TAG, "Time to first meaningful frame over " + LAUNCHES + " launches: without snapshot median "
+                + withoutSnapshot[LAUNCHES / 2] + " ms, max " + withoutSnapshot[LAUNCHES - 1]
+                + " ms; with snapshot median " + withSnapshot[LAUNCHES / 2] + " ms, max "
+                + withSnapshot[LAUNCHES - 1] + " ms");
+    }
+
+    private File snapshotFile() {
+        return new File(mContext.getFilesDir(), FirstScreenSnapshot.FILE_NAME);
+    }
+
+    /** Wait until the snapshots saved so far are written */
+    private static void awaitSnapshotWrites() throws InterruptedException {
+        final CountDownLatch written = new CountDownLatch(1);
+        FirstScreenSnapshot.WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                written.countDown();
+            }
+        });
+        written.await();
+    }
+
+    /**
+     * Launch the list, wait for its first page and finish it again. Return the time from the
+     * launch to the first frame that drew rows in the list, in milliseconds.
+     */
+    private long launch() throws Exception {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        Application application = (Application) mContext.getApplicationContext();
+        FirstFrameWatcher watcher = new FirstFrameWatcher();
+        application.registerActivityLifecycleCallbacks(watcher);
+        try {
+            long start = SystemClock.uptimeMillis();
+            final BookStoreActivity activity = mActivityRule.launchActivity(null);
+            assertTrue("No rows drawn", watcher.mDrawn.await(FRAME_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            long firstFrame = watcher.mFirstFrameMillis - start;
+
+            // Let the first page load and be saved before the next launch
+            SystemClock.sleep(500);
+            awaitSnapshotWrites();
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    activity.finish();
+                }
+            });
+            long deadline = SystemClock.uptimeMillis() + FRAME_TIMEOUT_MILLIS;
+            while (!activity.isDestroyed() && SystemClock.uptimeMillis() < deadline) {
+                SystemClock.sleep(10);
+            }
+            return firstFrame;
+        } finally {
+            application.unregisterActivityLifecycleCallbacks(watcher);
+        }
+    }
+
+    /**
+     * Watches the list of the book list activity that is started next, from the main thread,
+     * and notes the time of the first frame that draws rows in it.
+     */
+    private static class FirstFrameWatcher implements Application.ActivityLifecycleCallbacks {
+        final CountDownLatch mDrawn = new CountDownLatch(1);
+        volatile long mFirstFrameMillis;
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+            if (!(activity instanceof BookStoreActivity) || mDrawn.getCount() == 0) {
+                return;
+            }
+            // Started, so the list is inflated, but nothing has been drawn yet
+            final RecyclerView list = (RecyclerView) activity.findViewById(R.id.list_view_book);
+            list.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+                @Override
+                public void onDraw() {
+                    if (mDrawn.getCount() != 0 && list.getChildCount() > 0) {
+                        mFirstFrameMillis = SystemClock.uptimeMillis();
+                        mDrawn.countDown();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.android.bookstore2.data;
+
+import android.content.ContentProviderClient;
+import android.content.Context;
+
+/**
+ * Moves the app's own {@link BookProvider} onto a database file of its own, so a benchmark can
+ * drive the app's screens without touching the app's inventory, and back onto the app's
+ * database when closed.
+ */
+public final class BenchmarkDatabase {
+
+    private final Context mContext;
+    private final String mName;
+    private final BookProvider mProvider;
+    private final BookDbHelper mDbHelper;
+    private final BookDbHelper mAppDbHelper;
+
+    private BenchmarkDatabase(Context context, String name, BookProvider provider) {
+        mContext = context;
+        mName = name;
+        mProvider = provider;
+        context.deleteDatabase(name);
+        mDbHelper = new BookDbHelper(context, name);
+        mAppDbHelper = provider.swapDbHelper(mDbHelper);
+    }
+
+    /**
+     * Move the provider running in this process onto a new, empty database file of the given
+     * name. Nothing may be using the provider meanwhile.
+     */
+    public static BenchmarkDatabase open(Context context, String name) {
+        ContentProviderClient client = context.getContentResolver()
+                .acquireContentProviderClient(BookContract.CONTENT_AUTHORITY);
+        try {
+            return new BenchmarkDatabase(context, name,
+                    (BookProvider) client.getLocalContentProvider());
+        } finally {
+            client.release();
+        }
+    }
+
+    /** Move the provider back onto the app's database and delete the benchmark's one. */
+    public void close() {
+        mProvider.swapDbHelper(mAppDbHelper);
+        mDbHelper.close();
+        mContext.deleteDatabase(mName);
+    }
+}
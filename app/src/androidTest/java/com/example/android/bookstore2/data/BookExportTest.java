@@ -0,0 +1,193 @@
+package com.example.android.bookstore2.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for the export of {@link BookEntry#EXPORT_URI}, run against a separate
+ * database file.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookExportTest {
+
+    private static final String TAG = BookExportTest.class.getSimpleName();
+    private static final String TEST_DATABASE_NAME = "bookstore_test.db";
+
+    /** Books in the large export */
+    private static final int LARGE_EXPORT_BOOKS = 1000000;
+
+    /** How much more heap the large export may use than before it started */
+    private static final long MAX_HEAP_GROWTH_BYTES = 4 * 1024 * 1024;
+
+    private Context mContext;
+    private BookDbHelper mDbHelper;
+    private BookProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mDbHelper = new BookDbHelper(mContext, TEST_DATABASE_NAME);
+        mProvider = new BookProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    /** Insert books whose values need quoting or escaping */
+    private void insertAwkwardBooks() {
+        mProvider.insert(BookEntry.CONTENT_URI, BookProviderTest.book("Tale, \"Two\" Cities", 3));
+        // Without a supplier, so without a phone either
+        ContentValues lineBreak = BookProviderTest.book("Line\nbreak\\", 0);
+        lineBreak.putNull(BookEntry.COLUMN_SUPPLIER_NAME);
+        mProvider.insert(BookEntry.CONTENT_URI, lineBreak);
+        mProvider.insert(BookEntry.CONTENT_URI, BookProviderTest.book("\u03a9\u03bc\u03ad\u03b3\u03b1 \u2603\u0001", 7));
+    }
+
+    private byte[] export(String mimeType) throws IOException {
+        InputStream in = mProvider.openTypedAssetFile(BookEntry.EXPORT_URI, mimeType, null)
+                .createInputStream();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void csvExport_isExact() throws IOException {
+        insertAwkwardBooks();
+        String expected = "_id,name,price,stock,suppliername,suppliernumber\r\n"
+                + "1,\"Tale, \"\"Two\"\" Cities\",1250,3,Supplier,5551234\r\n"
+                + "2,\"Line\nbreak\\\",1250,0,,\r\n"
+                + "3,\u03a9\u03bc\u03ad\u03b3\u03b1 \u2603\u0001,1250,7,Supplier,5551234\r\n";
+        assertArrayEquals(expected.getBytes("UTF-8"), export(BookEntry.MIME_TYPE_CSV));
+    }
+
+    @Test
+    public void jsonLinesExport_isExact() throws IOException {
+        insertAwkwardBooks();
+        String expected = ""
+                + "{\"_id\":1,\"name\":\"Tale, \\\"Two\\\" Cities\",\"price\":1250,\"stock\":3,"
+                + "\"suppliername\":\"Supplier\",\"suppliernumber\":5551234}\n"
+                + "{\"_id\":2,\"name\":\"Line\\nbreak\\\\\",\"price\":1250,\"stock\":0,"
+                + "\"suppliername\":null,\"suppliernumber\":null}\n"
+                + "{\"_id\":3,\"name\":\"\u03a9\u03bc\u03ad\u03b3\u03b1 \u2603\\u0001\",\"price\":1250,\"stock\":7,"
+                + "\"suppliername\":\"Supplier\",\"suppliernumber\":5551234}\n";
+        assertArrayEquals(expected.getBytes("UTF-8"), export(BookEntry.MIME_TYPE_JSON_LINES));
+    }
+
+    @Test
+    public void export_readsEveryBookAcrossChunks() throws IOException {
+        // One book more than two whole chunks, with a gap in the _IDs at the first boundary
+        int books = 2 * BookExporter.CHUNK_ROWS + 1;
+        ContentValues[] values = new ContentValues[books + 1];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = BookProviderTest.book("Book " + i, 1);
+        }
+        mProvider.bulkInsert(BookEntry.CONTENT_URI, values);
+        mProvider.delete(ContentUris.withAppendedId(BookEntry.CONTENT_URI, BookExporter.CHUNK_ROWS),
+                null, null);
+
+        StringWriter out = new StringWriter();
+        BookExporter.write(mDbHelper.getReadableDatabase(), BookEntry.MIME_TYPE_JSON_LINES, out);
+        String[] lines = out.toString().split("\n");
+        assertEquals(books, lines.length);
+        assertTrue(lines[BookExporter.CHUNK_ROWS - 1].startsWith(
+                "{\"_id\":" + (BookExporter.CHUNK_ROWS + 1) + ","));
+        assertTrue(lines[books - 1].startsWith("{\"_id\":" + (books + 1) + ","));
+    }
+
+    @Test
+    public void export_offersBothTypes() {
+        assertArrayEquals(new String[]{BookEntry.MIME_TYPE_CSV, BookEntry.MIME_TYPE_JSON_LINES},
+                mProvider.getStreamTypes(BookEntry.EXPORT_URI, "*/*"));
+        assertArrayEquals(new String[]{BookEntry.MIME_TYPE_CSV},
+                mProvider.getStreamTypes(BookEntry.EXPORT_URI, "text/*"));
+        assertNull(mProvider.getStreamTypes(BookEntry.EXPORT_URI, "image/*"));
+        assertNull(mProvider.getStreamTypes(BookEntry.CONTENT_URI, "*/*"));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        runtime.runFinalization();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    public void largeExport_runsInConstantMemory() throws IOException {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        BookStatements statements = new BookStatements(db);
+        ContentValues values = BookProviderTest.book("", 5);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < LARGE_EXPORT_BOOKS; i++) {
+                values.put(BookEntry.COLUMN_PRODUCT_NAME, "Exported book " + i);
+                assertTrue(statements.insert(values, null) != -1);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        long baseline = usedHeap();
+        long maxHeap = baseline;
+        long bytes = 0;
+        long lines = 0;
+        InputStream in = mProvider.openTypedAssetFile(BookEntry.EXPORT_URI, BookEntry.MIME_TYPE_CSV,
+                null).createInputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes += read;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n' && ++lines % 100000 == 0) {
+                        maxHeap = Math.max(maxHeap, usedHeap());
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        Log.i(TAG, LARGE_EXPORT_BOOKS + " books, " + bytes + " bytes exported, heap grew by at most "
+                + (maxHeap - baseline) + " bytes");
+        assertEquals(LARGE_EXPORT_BOOKS + 1, lines);
+        assertTrue("Heap grew by " + (maxHeap - baseline) + " bytes",
+                maxHeap - baseline < MAX_HEAP_GROWTH_BYTES);
+        // The export is far larger than the heap it was allowed
+        assertTrue(bytes > 10 * MAX_HEAP_GROWTH_BYTES);
+    }
+}
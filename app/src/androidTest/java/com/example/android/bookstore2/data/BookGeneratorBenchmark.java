@@ -0,0 +1,82 @@
+package com.example.android.bookstore2.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import com.example.android.bookstore2.data.BookContract.StatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures how long {@link BookGenerator} takes to write a million books through the provider
+ * into an empty database. Fails if it takes longer than 20 seconds, the 50k rows per second
+ * the import also sustains. Results are written to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookGeneratorBenchmark {
+
+    private static final String TAG = BookGeneratorBenchmark.class.getSimpleName();
+    private static final String TEST_DATABASE_NAME = "bookstore_benchmark.db";
+
+    private static final int BOOKS = 1000000;
+
+    private static final long MAX_MILLIS = 20000;
+
+    private Context mContext;
+    private BookDbHelper mDbHelper;
+    private MockContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mDbHelper = new BookDbHelper(mContext, TEST_DATABASE_NAME);
+        BookProvider provider = new BookProvider(mDbHelper);
+        provider.attachInfo(mContext, null);
+        mResolver = new MockContentResolver();
+        mResolver.addProvider(BookContract.CONTENT_AUTHORITY, provider);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @Test
+    public void millionBooks() {
+        long start = SystemClock.elapsedRealtimeNanos();
+        int inserted = new BookGenerator(BookGenerator.DEFAULT_SEED).insert(mResolver, BOOKS, null);
+        long millis = (SystemClock.elapsedRealtimeNanos() - start) / 1000000;
+
+        assertEquals(BOOKS, inserted);
+        Log.i(TAG, BOOKS + " books generated in " + millis + " ms, "
+                + BOOKS * 1000L / Math.max(1, millis) + " rows/s");
+        assertTrue(millis + " ms", millis <= MAX_MILLIS);
+
+        // The most popular supplier has about 1 / H(200) = 17% of the books
+        Cursor cursor = mResolver.query(StatsEntry.SUPPLIERS_URI, null, null, null, null);
+        try {
+            long titles = -1;
+            while (cursor.moveToNext()) {
+                if (BookGenerator.supplierName(0).equals(cursor.getString(0))) {
+                    titles = cursor.getLong(1);
+                }
+            }
+            assertEquals(BookGenerator.SUPPLIERS, cursor.getCount());
+            assertEquals(0.17, (double) titles / BOOKS, 0.01);
+        } finally {
+            cursor.close();
+        }
+    }
+}
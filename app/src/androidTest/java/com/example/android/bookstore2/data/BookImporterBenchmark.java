@@ -0,0 +1,113 @@
+package com.example.android.bookstore2.data;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures how many rows per second {@link BookImporter} writes into an empty database, from a
+ * CSV catalogue of 200k books made up as it is read. Fails below the 50k rows per second the
+ * import is meant to sustain. Results are written to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookImporterBenchmark {
+
+    private static final String TAG = BookImporterBenchmark.class.getSimpleName();
+    private static final String TEST_DATABASE_NAME = "bookstore_benchmark.db";
+
+    private static final int BOOKS = 200000;
+
+    private static final int MIN_ROWS_PER_SECOND = 50000;
+
+    private Context mContext;
+    private BookDbHelper mDbHelper;
+    private MockContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mDbHelper = new BookDbHelper(mContext, TEST_DATABASE_NAME);
+        BookProvider provider = new BookProvider(mDbHelper);
+        provider.attachInfo(mContext, null);
+        mResolver = new MockContentResolver();
+        mResolver.addProvider(BookContract.CONTENT_AUTHORITY, provider);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    /**
+     * A catalogue of the given number of books, written one line at a time as it is read so
+     * the benchmark doesn't measure a huge string. One book in ten is quoted.
+     */
+    private static Reader catalogue(final int books) {
+        return new Reader() {
+            private final StringBuilder mLine = new StringBuilder(
+                    "name,price,stock,suppliername,suppliernumber\r\n");
+            private int mLinePosition;
+            private int mBook;
+
+            @Override
+            public int read(char[] buffer, int offset, int length) {
+                if (mLinePosition == mLine.length()) {
+                    if (mBook == books) {
+                        return -1;
+                    }
+                    mLine.setLength(0);
+                    mLinePosition = 0;
+                    if (mBook % 10 == 0) {
+                        mLine.append("\"Book, volume ").append(mBook).append('"');
+                    } else {
+                        mLine.append("Book ").append(mBook);
+                    }
+                    mLine.append(',').append(500 + mBook % 5000).append(',').append(mBook % 40)
+                            .append(",Supplier ").append(mBook % 100).append(",5551234\r\n");
+                    mBook++;
+                }
+                int count = Math.min(length, mLine.length() - mLinePosition);
+                mLine.getChars(mLinePosition, mLinePosition + count, buffer, offset);
+                mLinePosition += count;
+                return count;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Test
+    public void importRate() throws IOException {
+        // Warm up on a small catalogue, which is then replaced by the measured import
+        new BookImporter(mResolver).importBooks(catalogue(BookImporter.DEFAULT_CHUNK_SIZE), 0, null);
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        BookImporter.Progress progress = new BookImporter(mResolver).importBooks(catalogue(BOOKS), 0, null);
+        long nanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        assertEquals(BOOKS, progress.getImported());
+        long rowsPerSecond = BOOKS * 1000000000L / nanos;
+        Log.i(TAG, BOOKS + " books imported in " + nanos / 1000000 + " ms, " + rowsPerSecond
+                + " rows/s");
+        assertTrue(rowsPerSecond + " rows/s", rowsPerSecond >= MIN_ROWS_PER_SECOND);
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.android.bookstore2.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.mock.MockContentResolver;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for {@link BookImporter}, importing through a {@link BookProvider} on a
+ * separate database file.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookImporterTest {
+
+    private static final String TEST_DATABASE_NAME = "bookstore_test.db";
+
+    private static final String HEADER = "name,price,stock,suppliername,suppliernumber\r\n";
+
+    private Context mContext;
+    private BookDbHelper mDbHelper;
+    private BookProvider mProvider;
+    private MockContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mDbHelper = new BookDbHelper(mContext, TEST_DATABASE_NAME);
+        mProvider = new BookProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+        mResolver = new MockContentResolver();
+        mResolver.addProvider(BookContract.CONTENT_AUTHORITY, mProvider);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    private int countBooks() {
+        Cursor cursor = mProvider.query(BookEntry.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Return the stock of the only book with the given name, or -1 if there is none */
+    private long stockOf(String name) {
+        Cursor cursor = mProvider.query(BookEntry.CONTENT_URI,
+                new String[]{BookEntry.COLUMN_PRODUCT_QUANTITY},
+                BookEntry.COLUMN_PRODUCT_NAME + " = ?", new String[]{name}, null);
+        try {
+            assertTrue(cursor.getCount() <= 1);
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private BookImporter.Progress importBooks(String csv) throws IOException {
+        return new BookImporter(mResolver).importBooks(new StringReader(csv), 0, null);
+    }
+
+    @Test
+    public void import_insertsValidBooksAndSkipsTheRest() throws IOException {
+        // Columns in any order, unknown ones ignored
+        BookImporter.Progress progress = importBooks("notes,stock,name,suppliernumber,price\n"
+                + "first,3,Dune,5551234,999\n"
+                + "no name,3,,5551234,999\n"
+                + "bad price,3,Emma,5551234,-1\n"
+                + "bad stock,three,Emma,5551234,999\n"
+                + "too short,3,Emma\n"
+                + "last,0,\"Tale, \"\"Two\"\" Cities\",5551234,0\n");
+
+        assertTrue(progress.isFinished());
+        assertEquals(2, progress.getImported());
+        assertEquals(4, progress.getRejected());
+        assertEquals(6, progress.getCheckpoint());
+        assertEquals(2, countBooks());
+        assertEquals(0, stockOf("Tale, \"Two\" Cities"));
+    }
+
+    @Test(expected = IOException.class)
+    public void import_withoutARequiredColumn_fails() throws IOException {
+        importBooks("name,price,suppliernumber\nDune,999,5551234\n");
+    }
+
+    @Test
+    public void import_replacesTheSameBookFromTheSameSupplier() throws IOException {
+        mProvider.insert(BookEntry.CONTENT_URI, BookProviderTest.book("Dune", 1));
+        mProvider.insert(BookEntry.CONTENT_URI, BookProviderTest.book("Emma", 1));
+
+        BookImporter.Progress progress = importBooks(HEADER
+                // Same name ignoring case, same supplier: replaced, with the new spelling
+                + "DUNE,999,9,Supplier,5551234\r\n"
+                // Another supplier's book of the same name is a book of its own
+                + "Emma,999,5,Other,5551234\r\n");
+
+        assertEquals(2, progress.getImported());
+        assertEquals(3, countBooks());
+        assertEquals(9, stockOf("DUNE"));
+        assertEquals(-1, stockOf("Dune"));
+    }
+
+    @Test
+    public void import_ofTheSameFileTwice_addsNothingTheSecondTime() throws IOException {
+        String csv = HEADER + "Dune,999,9,,5551234\r\nEmma,999,5,Supplier,5551234\r\n";
+        importBooks(csv);
+        assertEquals(2, importBooks(csv).getImported());
+        // Books without a supplier are matched too
+        assertEquals(2, countBooks());
+    }
+
+    @Test
+    public void import_ofAnExport_replacesEveryBook() throws IOException {
+        mProvider.insert(BookEntry.CONTENT_URI, BookProviderTest.book("Tale, \"Two\" Cities", 3));
+        mProvider.insert(BookEntry.CONTENT_URI, BookProviderTest.book("Line\nbreak", 0));
+        InputStreamReader export = new InputStreamReader(mProvider.openTypedAssetFile(
+                BookEntry.EXPORT_URI, BookEntry.MIME_TYPE_CSV, null).createInputStream(), "UTF-8");
+
+        BookImporter.Progress progress = new BookImporter(mResolver).importBooks(export, 0, null);
+
+        assertEquals(2, progress.getImported());
+        assertEquals(0, progress.getRejected());
+        assertEquals(2, countBooks());
+        assertEquals(0, stockOf("Line\nbreak"));
+    }
+
+    @Test
+    public void import_ofAnExportWithoutSuppliers_replacesEveryBook() throws IOException {
+        ContentValues noSupplier = BookProviderTest.book("No supplier", 2);
+        noSupplier.remove(BookEntry.COLUMN_SUPPLIER_NAME);
+        noSupplier.remove(BookEntry.COLUMN_SUPPLIER_PHONE);
+        mProvider.insert(BookEntry.CONTENT_URI, noSupplier);
+        mProvider.insert(BookEntry.CONTENT_URI, BookProviderTest.book("Dune", 1));
+        InputStreamReader export = new InputStreamReader(mProvider.openTypedAssetFile(
+                BookEntry.EXPORT_URI, BookEntry.MIME_TYPE_CSV, null).createInputStream(), "UTF-8");
+
+        BookImporter.Progress progress = new BookImporter(mResolver).importBooks(export, 0, null);
+
+        assertEquals(2, progress.getImported());
+        assertEquals(0, progress.getRejected());
+        assertEquals(2, countBooks());
+        assertEquals(2, stockOf("No supplier"));
+    }
+
+    @Test
+    public void import_ofASupplierWithoutPhone_skipsTheBook() throws IOException {
+        BookImporter.Progress progress = importBooks("name,price,stock,suppliername\r\n"
+                + "Dune,999,9,\r\n"
+                + "Emma,999,5,Supplier\r\n");
+
+        assertEquals(1, progress.getImported());
+        assertEquals(1, progress.getRejected());
+        assertEquals(9, stockOf("Dune"));
+    }
+
+    @Test
+    public void stoppedImport_resumesFromItsCheckpoint() throws IOException {
+        StringBuilder csv = new StringBuilder(HEADER);
+        for (int i = 0; i < 35; i++) {
+            csv.append("Book ").append(i).append(",999,").append(i).append(",Supplier,5551234\r\n");
+        }
+        BookImporter importer = new BookImporter(mResolver, 10);
+
+        // Stop after the first chunk
+        BookImporter.Progress stopped = importer.importBooks(new StringReader(csv.toString()), 0,
+                new BookImporter.Listener() {
+                    @Override
+                    public boolean onChunkImported(BookImporter.Progress progress) {
+                        return false;
+                    }
+                });
+        assertFalse(stopped.isFinished());
+        assertEquals(10, stopped.getCheckpoint());
+        assertEquals(10, countBooks());
+
+        final int[] chunks = {0};
+        BookImporter.Progress resumed = importer.importBooks(new StringReader(csv.toString()),
+                stopped.getCheckpoint(), new BookImporter.Listener() {
+                    @Override
+                    public boolean onChunkImported(BookImporter.Progress progress) {
+                        chunks[0]++;
+                        return true;
+                    }
+                });
+        assertTrue(resumed.isFinished());
+        assertEquals(25, resumed.getImported());
+        assertEquals(35, resumed.getCheckpoint());
+        // Two full chunks, then the last one of 5 books
+        assertEquals(3, chunks[0]);
+        assertEquals(35, countBooks());
+        assertEquals(34, stockOf("Book 34"));
+    }
+
+    @Test
+    public void importedBooks_areDroppedFromTheRowCache() throws IOException {
+        long bookId = ContentUris.parseId(mProvider.insert(BookEntry.CONTENT_URI,
+                BookProviderTest.book("Dune", 1)));
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId),
+                null, null, null, null);
+        cursor.close();
+
+        importBooks(HEADER + "Dune,999,7,Supplier,5551234\r\n");
+
+        cursor = mProvider.query(ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId),
+                new String[]{BookEntry.COLUMN_PRODUCT_QUANTITY}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(7, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.android.bookstore2.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+import com.example.android.bookstore2.data.BookContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Upgrades databases created by older versions of the app and checks that no book is lost.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookMigrationsTest {
+
+    private static final String TEST_DATABASE_NAME = "bookstore_migration_test.db";
+
+    /** The books table as version 1 of the app created it */
+    private static final String SQL_CREATE_BOOKS_TABLE_V1 = "CREATE TABLE books (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            "name TEXT NOT NULL, " +
+            "price REAL NOT NULL DEFAULT 0, " +
+            "stock INTEGER NOT NULL DEFAULT 0, " +
+            "suppliername TEXT, " +
+            "suppliernumber INTEGER);";
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    private void createVersion1Database(int books) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(TEST_DATABASE_NAME, Context.MODE_PRIVATE, null);
+        try {
+            db.execSQL(SQL_CREATE_BOOKS_TABLE_V1);
+            for (int i = 0; i < books; i++) {
+                db.execSQL("INSERT INTO books (name, price, stock, suppliername, suppliernumber) "
+                        + "VALUES (?, ?, ?, ?, ?)", new Object[]{"Book " + i, 9.99, i, "Supplier " + (i % 3), 555});
+            }
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void lastMigrationMatchesDatabaseVersion() {
+        assertEquals(BookDbHelper.DATABASE_VERSION, BookMigrations.latestVersion());
+    }
+
+    @Test
+    public void upgradeFromVersion1_keepsEveryBook() {
+        createVersion1Database(100);
+
+        BookDbHelper helper = new BookDbHelper(mContext, TEST_DATABASE_NAME);
+        try {
+            SQLiteDatabase db = helper.getReadableDatabase();
+            assertEquals(BookDbHelper.DATABASE_VERSION, db.getVersion());
+
+            Cursor cursor = db.query(BookEntry.TABLE_NAME, new String[]{"count(*)"},
+                    null, null, null, null, null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals(100, cursor.getInt(0));
+            } finally {
+                cursor.close();
+            }
+
+            // Prices were converted to integer cents
+            cursor = db.rawQuery("SELECT DISTINCT price, typeof(price) FROM books", null);
+            try {
+                assertEquals(1, cursor.getCount());
+                assertTrue(cursor.moveToFirst());
+                assertEquals(999, cursor.getLong(0));
+                assertEquals("integer", cursor.getString(1));
+            } finally {
+                cursor.close();
+            }
+
+            // Existing books are in the search index
+            cursor = db.rawQuery("SELECT docid FROM " + BookDbHelper.SEARCH_TABLE_NAME
+                    + " WHERE " + BookDbHelper.SEARCH_TABLE_NAME + " MATCH 'book'", null);
+            try {
+                assertEquals(100, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+
+            // The journal is empty, so the stock view reads the stock of the books as it is
+            cursor = db.rawQuery("SELECT count(*), sum(" + BookEntry.COLUMN_PRODUCT_QUANTITY
+                    + ") FROM " + BookDbHelper.STOCK_VIEW_NAME, null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals(100, cursor.getInt(0));
+                assertEquals(99 * 100 / 2, cursor.getInt(1));
+            } finally {
+                cursor.close();
+            }
+
+            // Each supplier name became one supplier, joined back in by the view
+            assertEquals(3, DatabaseUtils.queryNumEntries(db, SupplierEntry.TABLE_NAME));
+            cursor = db.rawQuery("SELECT " + BookEntry.COLUMN_SUPPLIER_NAME + ", "
+                    + BookEntry.COLUMN_SUPPLIER_PHONE + " FROM " + BookDbHelper.BOOKS_VIEW_NAME
+                    + " WHERE " + BookEntry.COLUMN_PRODUCT_NAME + " = 'Book 40'", null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals("Supplier 1", cursor.getString(0));
+                assertEquals(555, cursor.getLong(1));
+            } finally {
+                cursor.close();
+            }
+
+            // The supplier names are still searchable
+            cursor = db.rawQuery("SELECT docid FROM " + BookDbHelper.SEARCH_TABLE_NAME
+                    + " WHERE " + BookDbHelper.SEARCH_TABLE_NAME + " MATCH 'supplier'", null);
+            try {
+                assertEquals(100, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            helper.close();
+        }
+    }
+}
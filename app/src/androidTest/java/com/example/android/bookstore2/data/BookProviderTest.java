@@ -0,0 +1,602 @@
+package com.example.android.bookstore2.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+import com.example.android.bookstore2.data.BookContract.StatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for {@link BookProvider}, run against a separate database file so the
+ * real inventory is never touched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookProviderTest {
+
+    private static final String TEST_DATABASE_NAME = "bookstore_test.db";
+
+    private Context mContext;
+    private BookDbHelper mDbHelper;
+    private BookProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mDbHelper = new BookDbHelper(mContext, TEST_DATABASE_NAME);
+        mProvider = new BookProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    static ContentValues book(String name, int stock) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(BookEntry.COLUMN_PRODUCT_PRICE, 1250L);
+        values.put(BookEntry.COLUMN_PRODUCT_QUANTITY, stock);
+        values.put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        values.put(BookEntry.COLUMN_SUPPLIER_PHONE, 5551234L);
+        return values;
+    }
+
+    private int countBooks() {
+        Cursor cursor = mProvider.query(BookEntry.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void bulkInsert_insertsEveryRow() {
+        ContentValues[] values = new ContentValues[50];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = book("Book " + i, i);
+        }
+        assertEquals(50, mProvider.bulkInsert(BookEntry.CONTENT_URI, values));
+        assertEquals(50, countBooks());
+    }
+
+    @Test
+    public void bulkInsert_invalidRowRollsBackTheBatch() {
+        ContentValues[] values = {book("Good", 1), book("", 1)};
+        try {
+            mProvider.bulkInsert(BookEntry.CONTENT_URI, values);
+            fail("Expected the nameless book to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // The whole transaction is rolled back
+        }
+        assertEquals(0, countBooks());
+    }
+
+    @Test
+    public void insert_rejectsABookWithoutStock() {
+        ContentValues values = book("No stock", 1);
+        values.remove(BookEntry.COLUMN_PRODUCT_QUANTITY);
+        try {
+            mProvider.insert(BookEntry.CONTENT_URI, values);
+            fail("Expected the book without stock to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // Not inserted
+        }
+        assertEquals(0, countBooks());
+    }
+
+    @Test
+    public void insert_acceptsABookWithoutPhone() {
+        ContentValues values = book("No phone", 1);
+        values.remove(BookEntry.COLUMN_SUPPLIER_NAME);
+        values.remove(BookEntry.COLUMN_SUPPLIER_PHONE);
+        assertNotNull(mProvider.insert(BookEntry.CONTENT_URI, values));
+        assertEquals(1, countBooks());
+    }
+
+    @Test
+    public void applyBatch_runsAllOperations() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            operations.add(ContentProviderOperation.newInsert(BookEntry.CONTENT_URI)
+                    .withValues(book("Batch " + i, 3))
+                    .build());
+        }
+        operations.add(ContentProviderOperation.newDelete(BookEntry.CONTENT_URI)
+                .withSelection(BookEntry.COLUMN_PRODUCT_NAME + "=?", new String[]{"Batch 0"})
+                .build());
+
+        mProvider.applyBatch(operations);
+        assertEquals(9, countBooks());
+    }
+
+    @Test
+    public void bulkInsert_isFasterThanPerRowInserts() {
+        final int rows = 2000;
+        ContentValues[] values = new ContentValues[rows];
+        for (int i = 0; i < rows; i++) {
+            values[i] = book("Book " + i, i);
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        for (ContentValues row : values) {
+            mProvider.insert(BookEntry.CONTENT_URI, row);
+        }
+        long perRowMillis = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        mProvider.bulkInsert(BookEntry.CONTENT_URI, values);
+        long batchedMillis = SystemClock.elapsedRealtime() - start;
+
+        Log.i("BookProviderTest", rows + " rows: per-row insert " + perRowMillis
+                + " ms, bulkInsert " + batchedMillis + " ms");
+        assertEquals(2 * rows, countBooks());
+        assertTrue("bulkInsert should beat per-row inserts", batchedMillis < perRowMillis);
+    }
+
+    @Test
+    public void pagedQuery_walksTheWholeTableInOrder() {
+        ContentValues[] values = new ContentValues[25];
+        for (int i = 0; i < values.length; i++) {
+            // Duplicate names, so the keyset has to fall back on _id
+            values[i] = book("Book " + (i % 7), i);
+        }
+        mProvider.bulkInsert(BookEntry.CONTENT_URI, values);
+
+        String[] projection = {BookEntry._ID, BookEntry.COLUMN_PRODUCT_NAME};
+        Uri pageUri = BookEntry.buildFirstPageUri(BookEntry.COLUMN_PRODUCT_NAME, 10);
+        ArrayList<Long> seen = new ArrayList<>();
+        String lastName = null;
+        while (true) {
+            Cursor page = mProvider.query(pageUri, projection, null, null, null);
+            try {
+                assertTrue(page.getCount() <= 10);
+                while (page.moveToNext()) {
+                    String name = page.getString(1);
+                    if (lastName != null) {
+                        assertTrue(name.compareToIgnoreCase(lastName) >= 0);
+                    }
+                    lastName = name;
+                    assertFalse("Row seen twice", seen.contains(page.getLong(0)));
+                    seen.add(page.getLong(0));
+                }
+                if (page.getCount() < 10) {
+                    break;
+                }
+                page.moveToLast();
+                pageUri = BookEntry.buildNextPageUri(BookEntry.COLUMN_PRODUCT_NAME,
+                        page.getString(1), page.getLong(0), 10);
+            } finally {
+                page.close();
+            }
+        }
+        assertEquals(values.length, seen.size());
+    }
+
+    private long sell(long bookId, int quantity) {
+        Bundle extras = new Bundle();
+        extras.putInt(BookEntry.EXTRA_QUANTITY, quantity);
+        return mProvider.call(BookEntry.METHOD_SELL, String.valueOf(bookId), extras)
+                .getLong(BookEntry.EXTRA_STOCK);
+    }
+
+    @Test
+    public void sell_refusesToGoBelowZero() {
+        long bookId = ContentUris.parseId(mProvider.insert(BookEntry.CONTENT_URI, book("Sell", 2)));
+        assertEquals(1, sell(bookId, 1));
+        assertEquals(-1, sell(bookId, 2));
+        assertEquals(0, sell(bookId, 1));
+        assertEquals(-1, sell(bookId, 1));
+    }
+
+    @Test
+    public void sell_concurrentSalesNeverLoseOrOversell() throws Exception {
+        final int stock = 500;
+        final int threads = 8;
+        final int attemptsPerThread = 100;
+        final long bookId = ContentUris.parseId(
+                mProvider.insert(BookEntry.CONTENT_URI, book("Contended", stock)));
+
+        final AtomicInteger sold = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for (int i = 0; i < attemptsPerThread; i++) {
+                        if (sell(bookId, 1) >= 0) {
+                            sold.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // 800 attempts on 500 copies: exactly 500 sales, nothing left
+        assertEquals(stock, sold.get());
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId),
+                new String[]{BookEntry.COLUMN_PRODUCT_QUANTITY}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(0, cursor.getInt(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void query_onlyReadsTheColumnsOfTheProfiles() {
+        Uri bookUri = mProvider.insert(BookEntry.CONTENT_URI, book("Profiled", 1));
+
+        // Without a projection, a book is read with the detail profile
+        Uri[] uris = {BookEntry.CONTENT_URI, bookUri, BookEntry.buildSearchUri("profiled")};
+        for (Uri uri : uris) {
+            Cursor cursor = mProvider.query(uri, null, null, null, null);
+            try {
+                assertArrayEquals(BookEntry.DETAIL_COLUMNS, cursor.getColumnNames());
+                assertEquals(1, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+        }
+
+        // Anything that is not a column of the books is refused, on every books URI
+        String[][] projections = {{BookEntry._ID, "hits.rank"}, {"count(*)"}, {"sqlite_version()"}};
+        for (Uri uri : uris) {
+            for (String[] projection : projections) {
+                try {
+                    mProvider.query(uri, projection, null, null, null).close();
+                    fail("Read " + Arrays.toString(projection) + " from " + uri);
+                } catch (IllegalArgumentException expected) {
+                }
+            }
+        }
+    }
+
+    private ArrayList<String> searchNames(String query) {
+        ArrayList<String> names = new ArrayList<>();
+        Cursor cursor = mProvider.query(BookEntry.buildSearchUri(query),
+                new String[]{BookEntry.COLUMN_PRODUCT_NAME}, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    @Test
+    public void search_matchesWordPrefixesInNamesAndSuppliers() {
+        ContentValues potter = book("Harry Potter", 1);
+        ContentValues hobbit = book("The Hobbit", 1);
+        hobbit.put(BookEntry.COLUMN_SUPPLIER_NAME, "Harper Collins");
+        mProvider.bulkInsert(BookEntry.CONTENT_URI, new ContentValues[]{potter, hobbit, book("Dune", 1)});
+
+        assertEquals(Arrays.asList("Harry Potter"), searchNames("harr pot"));
+        assertEquals(Arrays.asList("The Hobbit"), searchNames("COLLINS"));
+        assertEquals(2, searchNames("har").size());
+        assertTrue(searchNames("!!").isEmpty());
+
+        // Renames and deletes are picked up by the index
+        mProvider.update(BookEntry.CONTENT_URI, book("Dune Messiah", 1),
+                BookEntry.COLUMN_PRODUCT_NAME + "=?", new String[]{"Dune"});
+        assertEquals(Arrays.asList("Dune Messiah"), searchNames("mess"));
+        mProvider.delete(BookEntry.CONTENT_URI, BookEntry.COLUMN_PRODUCT_NAME + "=?",
+                new String[]{"Dune Messiah"});
+        assertTrue(searchNames("dune").isEmpty());
+    }
+
+    @Test
+    public void search_ranksBooksByTheNumberOfMatches() {
+        // The long title's one match is far into the name, which made a long offsets() list
+        ContentValues twice = book("Potter and the potter", 1);
+        ContentValues once = book("Apprentice potter", 1);
+        ContentValues onceLate = book("Zen and the art of a hundred and twenty years at the wheel "
+                + "of a village potter", 1);
+        ContentValues inSupplier = book("Clay potter", 1);
+        inSupplier.put(BookEntry.COLUMN_SUPPLIER_NAME, "Potter Press");
+        mProvider.bulkInsert(BookEntry.CONTENT_URI,
+                new ContentValues[]{onceLate, once, twice, inSupplier});
+
+        // Best matches first, books with as many matches by name
+        assertEquals(Arrays.asList("Clay potter", "Potter and the potter", "Apprentice potter",
+                onceLate.getAsString(BookEntry.COLUMN_PRODUCT_NAME)), searchNames("potter"));
+    }
+
+    @Test
+    public void buildMatchQuery_keepsOnlyWords() {
+        assertEquals("harry* pot*", BookProvider.buildMatchQuery("Harry  \"Pot\""));
+        assertEquals("or* near*", BookProvider.buildMatchQuery("OR NEAR"));
+        assertNull(BookProvider.buildMatchQuery(" -*) "));
+    }
+
+    @Test
+    public void prices_roundTripThroughCents() {
+        assertEquals(1999, BookEntry.toCents("19.99"));
+        assertEquals(1999, BookEntry.toCents("19.989999"));
+        assertEquals(500, BookEntry.toCents("5"));
+        assertEquals("19.99", BookEntry.toDecimalString(1999));
+        assertEquals("$19.99", BookEntry.formatPrice(1999, Locale.US));
+    }
+
+    /** Read the single row of totals: titles, units, value and out of stock count */
+    private long[] readTotals() {
+        Cursor cursor = mProvider.query(StatsEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return new long[]{
+                    cursor.getLong(cursor.getColumnIndexOrThrow(StatsEntry.COLUMN_TITLES)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(StatsEntry.COLUMN_UNITS)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(StatsEntry.COLUMN_VALUE)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(StatsEntry.COLUMN_OUT_OF_STOCK))
+            };
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void stats_followEveryKindOfWrite() {
+        assertArrayEquals(new long[]{0, 0, 0, 0}, readTotals());
+
+        mProvider.bulkInsert(BookEntry.CONTENT_URI, new ContentValues[]{book("A", 4), book("B", 0)});
+        assertArrayEquals(new long[]{2, 4, 4 * 1250, 1}, readTotals());
+
+        Uri c = mProvider.insert(BookEntry.CONTENT_URI, book("C", 2));
+        assertArrayEquals(new long[]{3, 6, 6 * 1250, 1}, readTotals());
+
+        // Selling the last two copies of C takes it out of stock
+        assertEquals(0, sell(ContentUris.parseId(c), 2));
+        assertArrayEquals(new long[]{3, 4, 4 * 1250, 2}, readTotals());
+
+        ContentValues restock = new ContentValues();
+        restock.put(BookEntry.COLUMN_PRODUCT_QUANTITY, 10);
+        mProvider.update(c, restock, null, null);
+        assertArrayEquals(new long[]{3, 14, 14 * 1250, 1}, readTotals());
+
+        mProvider.delete(c, null, null);
+        assertArrayEquals(new long[]{2, 4, 4 * 1250, 1}, readTotals());
+    }
+
+    @Test
+    public void stats_doNotShowWritesInFlight() {
+        mProvider.bulkInsert(BookEntry.CONTENT_URI, new ContentValues[]{book("A", 4)});
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        InventoryStats stats = new InventoryStats();
+        // Read once so the totals are cached
+        stats.totalsCursor(db, null).close();
+
+        // A write that has applied its book to the totals but not committed it
+        stats.beginWrite();
+        stats.addBook("Supplier", 6, 1250);
+        Cursor cursor = stats.totalsCursor(db, new String[]{StatsEntry.COLUMN_UNITS});
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(4, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+
+        // Rolled back, so the totals are read again
+        stats.endWrite(false);
+        cursor = stats.totalsCursor(db, new String[]{StatsEntry.COLUMN_UNITS});
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(4, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void supplierStats_groupBooksBySupplier() {
+        ContentValues other = book("Other", 3);
+        other.put(BookEntry.COLUMN_SUPPLIER_NAME, "Another supplier");
+        mProvider.bulkInsert(BookEntry.CONTENT_URI, new ContentValues[]{book("A", 1), book("B", 2), other});
+        // Read once so the cached totals are updated by the next insert
+        mProvider.query(StatsEntry.SUPPLIERS_URI, null, null, null, null).close();
+        mProvider.insert(BookEntry.CONTENT_URI, book("C", 0));
+
+        Cursor cursor = mProvider.query(StatsEntry.SUPPLIERS_URI, null, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+            int supplier = cursor.getColumnIndexOrThrow(BookEntry.COLUMN_SUPPLIER_NAME);
+            int titles = cursor.getColumnIndexOrThrow(StatsEntry.COLUMN_TITLES);
+            int units = cursor.getColumnIndexOrThrow(StatsEntry.COLUMN_UNITS);
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Another supplier", cursor.getString(supplier));
+            assertEquals(1, cursor.getLong(titles));
+            assertEquals(3, cursor.getLong(units));
+            assertTrue(cursor.moveToNext());
+            assertEquals("Supplier", cursor.getString(supplier));
+            assertEquals(3, cursor.getLong(titles));
+            assertEquals(3, cursor.getLong(units));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void supplierStats_countAnEmptySupplierAsNone() {
+        ContentValues none = book("None", 3);
+        none.remove(BookEntry.COLUMN_SUPPLIER_NAME);
+        mProvider.bulkInsert(BookEntry.CONTENT_URI, new ContentValues[]{none});
+        // Read once so the cached totals are updated by the next writes
+        mProvider.query(StatsEntry.SUPPLIERS_URI, null, null, null, null).close();
+        ContentValues empty = book("Empty", 2);
+        empty.put(BookEntry.COLUMN_SUPPLIER_NAME, "");
+        Uri emptyUri = mProvider.insert(BookEntry.CONTENT_URI, empty);
+        assertEquals(1, sell(ContentUris.parseId(emptyUri), 1));
+
+        Cursor cursor = mProvider.query(StatsEntry.SUPPLIERS_URI, null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertTrue(cursor.isNull(cursor.getColumnIndexOrThrow(BookEntry.COLUMN_SUPPLIER_NAME)));
+            assertEquals(2, cursor.getLong(cursor.getColumnIndexOrThrow(StatsEntry.COLUMN_TITLES)));
+            assertEquals(4, cursor.getLong(cursor.getColumnIndexOrThrow(StatsEntry.COLUMN_UNITS)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Read the stock of a single book through its URI, or -1 if there is no such book */
+    private long readStock(Uri bookUri) {
+        Cursor cursor = mProvider.query(bookUri, null, null, null, null);
+        try {
+            return cursor.moveToFirst()
+                    ? cursor.getLong(cursor.getColumnIndexOrThrow(BookEntry.COLUMN_PRODUCT_QUANTITY))
+                    : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void rowCache_servesRepeatedReadsFromMemory() {
+        Uri bookUri = mProvider.insert(BookEntry.CONTENT_URI, book("Cached", 5));
+        BookRowCache cache = mProvider.getRowCache();
+
+        assertEquals(5, readStock(bookUri));
+        assertEquals(0, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        assertEquals(5, readStock(bookUri));
+        assertEquals(1, cache.hitCount());
+
+        // Only the requested columns, in the requested order
+        Cursor cursor = mProvider.query(bookUri, new String[]{BookEntry.COLUMN_PRODUCT_NAME,
+                BookEntry._ID}, null, null, null);
+        try {
+            assertEquals(2, cursor.getColumnCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Cached", cursor.getString(0));
+            assertEquals(ContentUris.parseId(bookUri), cursor.getLong(1));
+        } finally {
+            cursor.close();
+        }
+        assertEquals(2, cache.hitCount());
+    }
+
+    @Test
+    public void rowCache_isInvalidatedByEveryKindOfWrite() {
+        Uri a = mProvider.insert(BookEntry.CONTENT_URI, book("A", 5));
+        Uri b = mProvider.insert(BookEntry.CONTENT_URI, book("B", 5));
+        assertEquals(5, readStock(a));
+        assertEquals(5, readStock(b));
+
+        sell(ContentUris.parseId(a), 1);
+        assertEquals(4, readStock(a));
+
+        ContentValues restock = new ContentValues();
+        restock.put(BookEntry.COLUMN_PRODUCT_QUANTITY, 9);
+        mProvider.update(a, restock, null, null);
+        assertEquals(9, readStock(a));
+
+        // Writes by selection drop exactly the books they change
+        restock.put(BookEntry.COLUMN_PRODUCT_QUANTITY, 7);
+        mProvider.update(BookEntry.CONTENT_URI, restock, BookEntry.COLUMN_PRODUCT_NAME + " = ?",
+                new String[]{"B"});
+        int hits = mProvider.getRowCache().hitCount();
+        assertEquals(9, readStock(a));
+        assertEquals(hits + 1, mProvider.getRowCache().hitCount());
+        assertEquals(7, readStock(b));
+
+        mProvider.delete(BookEntry.CONTENT_URI, BookEntry.COLUMN_PRODUCT_NAME + " = ?",
+                new String[]{"A"});
+        assertEquals(-1, readStock(a));
+        assertEquals(7, readStock(b));
+
+        mProvider.delete(BookEntry.CONTENT_URI, null, null);
+        assertEquals(-1, readStock(b));
+    }
+
+    @Test
+    public void rowCache_evictsTheLeastRecentlyReadBook() {
+        BookRowCache cache = new BookRowCache(2);
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        long a = ContentUris.parseId(mProvider.insert(BookEntry.CONTENT_URI, book("A", 1)));
+        long b = ContentUris.parseId(mProvider.insert(BookEntry.CONTENT_URI, book("B", 2)));
+        long c = ContentUris.parseId(mProvider.insert(BookEntry.CONTENT_URI, book("C", 3)));
+
+        cache.query(db, a, null, null).close();
+        cache.query(db, b, null, null).close();
+        cache.query(db, a, null, null).close();
+        cache.query(db, c, null, null).close();
+        assertEquals(1, cache.evictionCount());
+
+        // B was the least recently read, so it is the one read again
+        cache.query(db, a, null, null).close();
+        cache.query(db, b, null, null).close();
+        assertEquals(2, cache.hitCount());
+        assertEquals(4, cache.missCount());
+    }
+
+    @Test
+    public void statements_onlyInsertTheColumnsTheyBind() {
+        ContentValues values = book("Compiled", 1);
+        assertTrue(BookStatements.canInsert(values));
+        values.remove(BookEntry.COLUMN_SUPPLIER_PHONE);
+        assertTrue(BookStatements.canInsert(values));
+        // Without its value the stock would be inserted as NULL instead of its default
+        values.remove(BookEntry.COLUMN_PRODUCT_QUANTITY);
+        assertFalse(BookStatements.canInsert(values));
+        values = book("Compiled", 1);
+        values.put(BookEntry._ID, 42L);
+        assertFalse(BookStatements.canInsert(values));
+
+        // Both paths insert the same book
+        assertEquals(42, ContentUris.parseId(mProvider.insert(BookEntry.CONTENT_URI, values)));
+        Uri compiled = mProvider.insert(BookEntry.CONTENT_URI, book("Compiled", 1));
+        assertEquals(43, ContentUris.parseId(compiled));
+        assertEquals(1, readStock(compiled));
+        Cursor cursor = mProvider.query(compiled, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Compiled", cursor.getString(cursor.getColumnIndexOrThrow(BookEntry.COLUMN_PRODUCT_NAME)));
+            assertEquals(5551234L, cursor.getLong(cursor.getColumnIndexOrThrow(BookEntry.COLUMN_SUPPLIER_PHONE)));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.android.bookstore2.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs EXPLAIN QUERY PLAN on the queries {@link BookProvider} builds for the list views, so a
+ * query that stops using its index fails here instead of getting slow on a big inventory.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookQueryPlanTest {
+
+    private static final String TEST_DATABASE_NAME = "bookstore_plan_test.db";
+
+    /** A scan of the whole books table, as opposed to a walk along one of its indexes */
+    private static final Pattern FULL_SCAN = Pattern.compile("^SCAN (TABLE )?books(?! USING)");
+
+    private static final String[] LIST_PROJECTION = {
+            BookEntry._ID,
+            BookEntry.COLUMN_PRODUCT_NAME,
+            BookEntry.COLUMN_PRODUCT_PRICE,
+            BookEntry.COLUMN_PRODUCT_QUANTITY
+    };
+
+    private Context mContext;
+    private BookDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mDbHelper = new BookDbHelper(mContext, TEST_DATABASE_NAME);
+        mDatabase = mDbHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    private ArrayList<String> plan(Uri uri) {
+        BookProvider.SqlQuery query = BookProvider.buildBooksQuery(uri, LIST_PROJECTION, null, null, null);
+        ArrayList<String> details = new ArrayList<>();
+        Cursor cursor = mDatabase.rawQuery("EXPLAIN QUERY PLAN " + query.sql, query.args);
+        try {
+            int detailIndex = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                details.add(cursor.getString(detailIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return details;
+    }
+
+    /** Fail if the query sorts its result instead of reading it in order from an index */
+    private void assertNoSort(Uri uri) {
+        for (String detail : plan(uri)) {
+            assertFalse(uri + " sorts: " + detail, detail.contains("TEMP B-TREE"));
+        }
+    }
+
+    /** Fail if the query does not seek an index to where its rows start */
+    private void assertSeeks(Uri uri) {
+        boolean seeks = false;
+        for (String detail : plan(uri)) {
+            seeks |= detail.startsWith("SEARCH");
+        }
+        assertTrue(uri + " walks the table from the start", seeks);
+    }
+
+    /** Fail if the query reads the whole books table */
+    private void assertNoFullScan(Uri uri) {
+        for (String detail : plan(uri)) {
+            assertFalse(uri + " scans: " + detail, FULL_SCAN.matcher(detail).find());
+        }
+    }
+
+    @Test
+    public void sortedPages_readAnIndexInOrder() {
+        String[] sortColumns = {BookEntry._ID, BookEntry.COLUMN_PRODUCT_NAME, BookEntry.COLUMN_PRODUCT_PRICE};
+        for (String sortColumn : sortColumns) {
+            assertNoSort(BookEntry.buildFirstPageUri(sortColumn, 50));
+            Uri nextPage = BookEntry.buildNextPageUri(sortColumn, "42", 42, 50);
+            assertNoSort(nextPage);
+            assertSeeks(nextPage);
+        }
+    }
+
+    @Test
+    public void filteredPages_useAnIndex() {
+        Uri lowStock = BookEntry.buildFirstPageUri(BookEntry.COLUMN_PRODUCT_NAME, 50).buildUpon()
+                .appendQueryParameter(BookEntry.QUERY_PARAMETER_FILTER, BookEntry.FILTER_LOW_STOCK)
+                .build();
+        assertNoFullScan(lowStock);
+
+        Uri supplier = BookEntry.buildFirstPageUri(BookEntry._ID, 50).buildUpon()
+                .appendQueryParameter(BookEntry.QUERY_PARAMETER_SUPPLIER, "Penguin")
+                .build();
+        assertNoFullScan(supplier);
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.android.bookstore2.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+import com.example.android.bookstore2.data.BookContract.SalesEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the writes of {@link BookStatements} with the same writes made through
+ * {@link SQLiteDatabase#insert}, {@link SQLiteDatabase#update} and {@link SQLiteDatabase#delete}
+ * with {@link ContentValues}, over 100k operations each. Both run inside one transaction, so the
+ * time is spent building, parsing and binding the statements rather than syncing the file.
+ * Results are written to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookStatementsBenchmark {
+
+    private static final String TAG = BookStatementsBenchmark.class.getSimpleName();
+    private static final String TEST_DATABASE_NAME = "bookstore_benchmark.db";
+
+    /** Operations of each kind: inserts, stock updates, journaled sales and deletes add up to 100k */
+    private static final int BOOKS = 25000;
+
+    /** The time every sale is journaled at */
+    private static final long SALE_TIME = 1500000000000L;
+
+    private Context mContext;
+    private BookDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mDbHelper = new BookDbHelper(mContext, TEST_DATABASE_NAME);
+        mDatabase = mDbHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @Test
+    public void compiledStatementsAgainstContentValues() {
+        // Warm up both paths, so neither pays for loading classes and pages of the database
+        long[] firstIds = new long[BOOKS / 10];
+        runContentValues(firstIds);
+        runStatements(firstIds);
+
+        long[] ids = new long[BOOKS];
+        long[] contentValues = runContentValues(ids);
+        long[] statements = runStatements(ids);
+
+        String[] kinds = {"insert", "update stock", "append sale", "delete"};
+        for (int i = 0; i < kinds.length; i++) {
+            Log.i(TAG, kinds[i] + ": ContentValues " + contentValues[i] / BOOKS + " ns/op, statement "
+                    + statements[i] / BOOKS + " ns/op");
+        }
+    }
+
+    /** Return the values of a book without a supplier, as columns of the books table */
+    private static ContentValues bookRow(String name) {
+        ContentValues values = BookProviderTest.book(name, 10);
+        values.remove(BookEntry.COLUMN_SUPPLIER_NAME);
+        values.remove(BookEntry.COLUMN_SUPPLIER_PHONE);
+        return values;
+    }
+
+    /** Return the values of a journaled sale of one copy of a book, see {@link SalesJournal} */
+    private static ContentValues saleRow(long bookId) {
+        ContentValues values = new ContentValues();
+        values.put(SalesEntry.COLUMN_BOOK_ID, bookId);
+        values.put(SalesEntry.COLUMN_QUANTITY, 1);
+        values.put(SalesEntry.COLUMN_PRICE, 1250L);
+        values.put(SalesEntry.COLUMN_TIME, SALE_TIME);
+        values.put(SalesEntry.COLUMN_DAY, SalesJournal.dayOf(SALE_TIME));
+        return values;
+    }
+
+    /**
+     * Insert, restock, journal a sale of and delete ids.length books with ContentValues and SQL
+     * built per call. Return the nanoseconds taken by each kind of write.
+     */
+    private long[] runContentValues(long[] ids) {
+        long[] nanos = new long[4];
+        mDatabase.beginTransaction();
+        try {
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = mDatabase.insert(BookEntry.TABLE_NAME, null, bookRow("Book " + i));
+            }
+            nanos[0] = SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < ids.length; i++) {
+                ContentValues values = new ContentValues();
+                values.put(BookEntry.COLUMN_PRODUCT_QUANTITY, 20);
+                assertEquals(1, mDatabase.update(BookEntry.TABLE_NAME, values, BookEntry._ID + "=?",
+                        new String[]{String.valueOf(ids[i])}));
+            }
+            nanos[1] = SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < ids.length; i++) {
+                assertTrue(mDatabase.insert(SalesEntry.TABLE_NAME, null, saleRow(ids[i])) != -1);
+            }
+            nanos[2] = SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < ids.length; i++) {
+                assertEquals(1, mDatabase.delete(BookEntry.TABLE_NAME, BookEntry._ID + "=?",
+                        new String[]{String.valueOf(ids[i])}));
+            }
+            nanos[3] = SystemClock.elapsedRealtimeNanos() - start;
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        return nanos;
+    }
+
+    /**
+     * Make the same writes as {@link #runContentValues} through {@link BookStatements}.
+     */
+    private long[] runStatements(long[] ids) {
+        BookStatements statements = new BookStatements(mDatabase);
+        long[] nanos = new long[4];
+        mDatabase.beginTransaction();
+        try {
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = statements.insert(bookRow("Book " + i), null);
+            }
+            nanos[0] = SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < ids.length; i++) {
+                assertEquals(1, statements.updateStock(ids[i], 20));
+            }
+            nanos[1] = SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            long day = SalesJournal.dayOf(SALE_TIME);
+            for (int i = 0; i < ids.length; i++) {
+                assertTrue(statements.appendSale(ids[i], 1, 1250L, SALE_TIME, day) != -1);
+            }
+            nanos[2] = SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < ids.length; i++) {
+                assertEquals(1, statements.delete(ids[i]));
+            }
+            nanos[3] = SystemClock.elapsedRealtimeNanos() - start;
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        return nanos;
+    }
+}
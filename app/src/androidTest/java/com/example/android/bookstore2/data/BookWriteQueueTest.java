@@ -0,0 +1,276 @@
+package com.example.android.bookstore2.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.mock.MockContentResolver;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for {@link BookWriteQueue}, writing through a {@link BookProvider} on a
+ * separate database file. The write thread is held while writes are queued, so they are merged
+ * the same way on every run.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookWriteQueueTest {
+
+    private static final String TEST_DATABASE_NAME = "bookstore_test.db";
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private Context mContext;
+    private BookDbHelper mDbHelper;
+    private BookProvider mProvider;
+    private HandlerThread mWriteThread;
+    private BookWriteQueue mQueue;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mDbHelper = new BookDbHelper(mContext, TEST_DATABASE_NAME);
+        mProvider = new BookProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(BookContract.CONTENT_AUTHORITY, mProvider);
+        mWriteThread = new HandlerThread("BookWriteQueueTest");
+        mWriteThread.start();
+        mQueue = new BookWriteQueue(resolver, mWriteThread.getLooper());
+    }
+
+    @After
+    public void tearDown() {
+        mWriteThread.quit();
+        mDbHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    /**
+     * Keep the write thread busy until the returned latch is counted down, so the writes queued
+     * in the meantime wait together.
+     */
+    private CountDownLatch holdWriteThread() {
+        final CountDownLatch release = new CountDownLatch(1);
+        new Handler(mWriteThread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        return release;
+    }
+
+    /** Collects the results of writes, in the order they are delivered */
+    private static class Results implements BookWriteQueue.Callback {
+        final List<Long> results = new ArrayList<>();
+        final CountDownLatch done;
+
+        Results(int writes) {
+            done = new CountDownLatch(writes);
+        }
+
+        @Override
+        public synchronized void onWriteDone(long result) {
+            results.add(result);
+            done.countDown();
+        }
+
+        List<Long> await() throws InterruptedException {
+            assertTrue("Writes not done", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            synchronized (this) {
+                return new ArrayList<>(results);
+            }
+        }
+    }
+
+    private long insertBook(String name, int stock) {
+        return ContentUris.parseId(mProvider.insert(BookEntry.CONTENT_URI, BookProviderTest.book(name, stock)));
+    }
+
+    private Cursor queryBook(long bookId) {
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId),
+                null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        return cursor;
+    }
+
+    @Test
+    public void consecutiveSales_areMadeAsOneSale() throws InterruptedException {
+        long bookId = insertBook("Sold", 10);
+        Results results = new Results(10);
+
+        CountDownLatch release = holdWriteThread();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(mQueue.sell(bookId, 1, results));
+        }
+        assertEquals(1, mQueue.pendingCount());
+        release.countDown();
+
+        // Each sale reports the stock left right after it
+        List<Long> stocks = results.await();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(9 - i, (long) stocks.get(i));
+        }
+    }
+
+    @Test
+    public void mergedSales_goThroughOneByOneWithoutEnoughStock() throws InterruptedException {
+        long bookId = insertBook("Scarce", 3);
+        Results results = new Results(5);
+
+        CountDownLatch release = holdWriteThread();
+        for (int i = 0; i < 5; i++) {
+            mQueue.sell(bookId, 1, results);
+        }
+        release.countDown();
+
+        List<Long> stocks = results.await();
+        assertEquals(2, (long) stocks.get(0));
+        assertEquals(1, (long) stocks.get(1));
+        assertEquals(0, (long) stocks.get(2));
+        assertEquals(-1, (long) stocks.get(3));
+        assertEquals(-1, (long) stocks.get(4));
+    }
+
+    @Test
+    public void consecutiveUpdates_mergeTheirValues() throws InterruptedException {
+        long bookId = insertBook("Old name", 1);
+        Uri bookUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId);
+        Results results = new Results(2);
+
+        CountDownLatch release = holdWriteThread();
+        ContentValues stock = new ContentValues();
+        stock.put(BookEntry.COLUMN_PRODUCT_QUANTITY, 5);
+        mQueue.update(bookUri, stock, results);
+        ContentValues name = new ContentValues();
+        name.put(BookEntry.COLUMN_PRODUCT_NAME, "New name");
+        mQueue.update(bookUri, name, results);
+        assertEquals(1, mQueue.pendingCount());
+        release.countDown();
+
+        assertEquals(1, (long) results.await().get(1));
+        Cursor cursor = queryBook(bookId);
+        try {
+            assertEquals("New name", cursor.getString(cursor.getColumnIndexOrThrow(BookEntry.COLUMN_PRODUCT_NAME)));
+            assertEquals(5, cursor.getLong(cursor.getColumnIndexOrThrow(BookEntry.COLUMN_PRODUCT_QUANTITY)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void stockChanges_waitToBeMadeAsOneChange() throws InterruptedException {
+        long bookId = insertBook("Received", 2);
+        Results results = new Results(7);
+
+        // Nothing holds the write thread, the changes wait for more of their own
+        for (int i = 0; i < 5; i++) {
+            assertTrue(mQueue.adjustStock(bookId, 1, results));
+        }
+        assertTrue(mQueue.adjustStock(bookId, -1, results));
+        assertTrue(mQueue.adjustStock(bookId, -1, results));
+        assertEquals(1, mQueue.pendingCount());
+
+        // Each change reports the stock left right after it
+        List<Long> stocks = results.await();
+        assertEquals(3, (long) stocks.get(0));
+        assertEquals(7, (long) stocks.get(4));
+        assertEquals(5, (long) stocks.get(6));
+        Cursor cursor = queryBook(bookId);
+        try {
+            assertEquals(5, cursor.getLong(cursor.getColumnIndexOrThrow(BookEntry.COLUMN_PRODUCT_QUANTITY)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void stockChanges_waitForTheLastChange() throws InterruptedException {
+        long bookId = insertBook("Restocked", 2);
+        Results results = new Results(3);
+
+        // Each tap comes before the delay is up, though the run takes longer than the delay
+        long pause = BookWriteQueue.ADJUST_DELAY_MILLIS * 3 / 5;
+        assertTrue(mQueue.adjustStock(bookId, 1, results));
+        SystemClock.sleep(pause);
+        assertTrue(mQueue.adjustStock(bookId, 1, results));
+        SystemClock.sleep(pause);
+        assertEquals(1, mQueue.pendingCount());
+        assertTrue(mQueue.adjustStock(bookId, 1, results));
+
+        assertEquals(5, (long) results.await().get(2));
+    }
+
+    @Test
+    public void otherWrites_doNotWaitForStockChanges() throws InterruptedException {
+        long bookId = insertBook("Counted", 2);
+        Results results = new Results(2);
+
+        long start = SystemClock.uptimeMillis();
+        mQueue.adjustStock(bookId, -1, results);
+        mQueue.sell(bookId, 1, results);
+        List<Long> stocks = results.await();
+        assertTrue(SystemClock.uptimeMillis() - start < BookWriteQueue.ADJUST_DELAY_MILLIS);
+        assertEquals(1, (long) stocks.get(0));
+        assertEquals(0, (long) stocks.get(1));
+    }
+
+    @Test
+    public void fullQueue_refusesNewWrites() throws InterruptedException {
+        Results results = new Results(BookWriteQueue.MAX_PENDING + 1);
+
+        CountDownLatch release = holdWriteThread();
+        for (int i = 1; i <= BookWriteQueue.MAX_PENDING; i++) {
+            assertTrue(mQueue.sell(i, 1, results));
+        }
+        assertFalse(mQueue.sell(BookWriteQueue.MAX_PENDING + 1, 1, results));
+        // A write that merges into the last one still fits
+        assertTrue(mQueue.sell(BookWriteQueue.MAX_PENDING, 1, results));
+        release.countDown();
+
+        // None of the books exist, so every sale is refused
+        for (long stock : results.await()) {
+            assertEquals(-1, stock);
+        }
+        assertEquals(0, mQueue.pendingCount());
+    }
+
+    @Test
+    public void failedWrite_doesNotStopTheQueue() throws InterruptedException {
+        Results results = new Results(3);
+        ContentValues noName = BookProviderTest.book("", 1);
+        mQueue.insert(noName, results);
+        mQueue.insert(BookProviderTest.book("Saved", 1), results);
+        mQueue.delete(BookEntry.CONTENT_URI, null, null, results);
+
+        List<Long> ids = results.await();
+        assertEquals(-1, (long) ids.get(0));
+        assertTrue(ids.get(1) > 0);
+        // The delete removed the one book that was saved
+        assertEquals(1, (long) ids.get(2));
+    }
+}
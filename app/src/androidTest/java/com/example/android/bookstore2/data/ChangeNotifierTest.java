@@ -0,0 +1,114 @@
+package com.example.android.bookstore2.data;
+
+import android.content.ContentUris;
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks how {@link ChangeNotifier} merges the notifications of transactions and bursts.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChangeNotifierTest {
+
+    private static final Uri BOOK_1 = ContentUris.withAppendedId(BookEntry.CONTENT_URI, 1);
+    private static final Uri BOOK_2 = ContentUris.withAppendedId(BookEntry.CONTENT_URI, 2);
+
+    /** Records the dispatched URIs, and counts down for each */
+    private static class RecordingDispatcher implements ChangeNotifier.Dispatcher {
+        final List<Uri> dispatched = new ArrayList<>();
+        final CountDownLatch latch;
+
+        RecordingDispatcher(int expected) {
+            latch = new CountDownLatch(expected);
+        }
+
+        @Override
+        public synchronized void dispatch(Uri uri) {
+            dispatched.add(uri);
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void transaction_sendsOneNotificationWhenItCommits() {
+        RecordingDispatcher dispatcher = new RecordingDispatcher(1);
+        ChangeNotifier notifier = new ChangeNotifier(dispatcher);
+
+        notifier.beginTransaction();
+        notifier.notifyChange(BOOK_1);
+        notifier.notifyChange(BOOK_2);
+        assertTrue(dispatcher.dispatched.isEmpty());
+        notifier.endTransaction(true);
+
+        assertEquals(1, dispatcher.dispatched.size());
+        assertEquals(BookEntry.CONTENT_URI, dispatcher.dispatched.get(0));
+    }
+
+    @Test
+    public void transaction_keepsTheUriOfASingleBook() {
+        RecordingDispatcher dispatcher = new RecordingDispatcher(1);
+        ChangeNotifier notifier = new ChangeNotifier(dispatcher);
+
+        notifier.beginTransaction();
+        notifier.beginTransaction();
+        notifier.notifyChange(BOOK_1);
+        notifier.endTransaction(true);
+        notifier.notifyChange(BOOK_1);
+        notifier.endTransaction(true);
+
+        assertEquals(1, dispatcher.dispatched.size());
+        assertEquals(BOOK_1, dispatcher.dispatched.get(0));
+    }
+
+    @Test
+    public void rolledBackTransaction_sendsNothing() {
+        RecordingDispatcher dispatcher = new RecordingDispatcher(1);
+        ChangeNotifier notifier = new ChangeNotifier(dispatcher);
+
+        notifier.beginTransaction();
+        notifier.beginTransaction();
+        notifier.notifyChange(BOOK_1);
+        notifier.endTransaction(false);
+        notifier.endTransaction(true);
+
+        assertTrue(dispatcher.dispatched.isEmpty());
+    }
+
+    @Test
+    public void burst_isSentOnceAfterTheWindow() throws InterruptedException {
+        RecordingDispatcher dispatcher = new RecordingDispatcher(1);
+        ChangeNotifier notifier = new ChangeNotifier(dispatcher);
+
+        for (int i = 0; i < 10; i++) {
+            notifier.notifyChange(BOOK_1);
+        }
+        assertTrue(dispatcher.latch.await(ChangeNotifier.WINDOW_MILLIS * 20, TimeUnit.MILLISECONDS));
+        // Give a second dispatch the chance to show up
+        Thread.sleep(ChangeNotifier.WINDOW_MILLIS * 2);
+
+        synchronized (dispatcher) {
+            assertEquals(1, dispatcher.dispatched.size());
+            assertEquals(BOOK_1, dispatcher.dispatched.get(0));
+        }
+    }
+
+    @Test
+    public void merge_keepsTheCommonPath() {
+        assertEquals(BOOK_1, ChangeNotifier.merge(null, BOOK_1));
+        assertEquals(BOOK_1, ChangeNotifier.merge(BOOK_1, BOOK_1));
+        assertEquals(BookEntry.CONTENT_URI, ChangeNotifier.merge(BOOK_1, BOOK_2));
+        assertEquals(BookEntry.CONTENT_URI, ChangeNotifier.merge(BookEntry.CONTENT_URI, BOOK_2));
+    }
+}
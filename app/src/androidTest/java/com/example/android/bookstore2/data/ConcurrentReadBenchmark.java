@@ -0,0 +1,130 @@
+package com.example.android.bookstore2.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures how long the list query takes while another thread keeps updating books through
+ * {@link BookProvider#update}, once with SQLite's default settings and once with the app's
+ * {@link BookDbHelper.Config#DEFAULT} settings. Results are written to the log, and the
+ * tuned settings must have been applied and must not make the slowest reads slower.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ConcurrentReadBenchmark {
+
+    private static final String TAG = ConcurrentReadBenchmark.class.getSimpleName();
+    private static final String TEST_DATABASE_NAME = "bookstore_benchmark.db";
+
+    private static final int BOOKS = 5000;
+    private static final int READS = 300;
+
+    @Test
+    public void readLatencyUnderWriteLoad() throws Exception {
+        long[] legacy = measure(BookDbHelper.Config.LEGACY);
+        long[] tuned = measure(BookDbHelper.Config.DEFAULT);
+        report("legacy", legacy);
+        report("tuned", tuned);
+        assertTrue("WAL made the p95 read latency worse",
+                p95(tuned) <= p95(legacy));
+    }
+
+    /**
+     * Return the sorted latencies in microseconds of READS page queries made while a writer
+     * thread hammers the provider with updates.
+     */
+    private long[] measure(BookDbHelper.Config config) throws InterruptedException {
+        Context context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(TEST_DATABASE_NAME);
+        BookDbHelper dbHelper = new BookDbHelper(context, TEST_DATABASE_NAME, config);
+        final BookProvider provider = new BookProvider(dbHelper);
+        provider.attachInfo(context, null);
+        try {
+            ContentValues[] values = new ContentValues[BOOKS];
+            for (int i = 0; i < BOOKS; i++) {
+                values[i] = BookProviderTest.book("Book " + i, 100);
+            }
+            provider.bulkInsert(BookEntry.CONTENT_URI, values);
+            assertConfigured(dbHelper.getWritableDatabase(), config);
+
+            final AtomicBoolean running = new AtomicBoolean(true);
+            final AtomicInteger writes = new AtomicInteger();
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ContentValues update = new ContentValues();
+                    int i = 0;
+                    while (running.get()) {
+                        update.put(BookEntry.COLUMN_PRODUCT_QUANTITY, i % 100);
+                        Uri bookUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, 1 + i % BOOKS);
+                        provider.update(bookUri, update, null, null);
+                        writes.incrementAndGet();
+                        i++;
+                    }
+                }
+            });
+            writer.start();
+
+            long[] latencies = new long[READS];
+            Uri pageUri = BookEntry.buildFirstPageUri(BookEntry._ID, 50);
+            for (int i = 0; i < READS; i++) {
+                long start = SystemClock.elapsedRealtimeNanos();
+                Cursor cursor = provider.query(pageUri, null, null, null, null);
+                cursor.getCount();
+                cursor.close();
+                latencies[i] = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+            }
+            running.set(false);
+            writer.join();
+
+            assertTrue("The writer never ran", writes.get() > 0);
+            Log.i(TAG, (config.writeAheadLogging ? "WAL" : "rollback journal") + ": "
+                    + writes.get() + " concurrent writes");
+            Arrays.sort(latencies);
+            return latencies;
+        } finally {
+            dbHelper.close();
+            context.deleteDatabase(TEST_DATABASE_NAME);
+        }
+    }
+
+    /** Check that the settings that change the database file itself took effect */
+    private static void assertConfigured(SQLiteDatabase database, BookDbHelper.Config config) {
+        // Without WAL the journal mode is the platform's default, which varies by device
+        String journalMode = DatabaseUtils.stringForQuery(database, "PRAGMA journal_mode", null);
+        assertEquals(config.writeAheadLogging, "wal".equalsIgnoreCase(journalMode));
+        if (config.pageSize > 0) {
+            assertEquals(config.pageSize,
+                    DatabaseUtils.longForQuery(database, "PRAGMA page_size", null));
+        }
+    }
+
+    private static long p95(long[] sortedMicros) {
+        return sortedMicros[sortedMicros.length * 95 / 100];
+    }
+
+    private static void report(String name, long[] sortedMicros) {
+        Log.i(TAG, name + " read latency: median " + sortedMicros[sortedMicros.length / 2]
+                + " us, p95 " + p95(sortedMicros)
+                + " us, max " + sortedMicros[sortedMicros.length - 1] + " us");
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.android.bookstore2.data;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.DatabaseUtils;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures how many bytes of the CursorWindow a book takes with each projection profile of
+ * {@link BookEntry}, by filling one window from the books query and counting the rows that fit.
+ * Fails if a list row is not smaller than a detail row. Results are written to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProjectionWindowBenchmark {
+
+    private static final String TAG = ProjectionWindowBenchmark.class.getSimpleName();
+    private static final String TEST_DATABASE_NAME = "bookstore_benchmark.db";
+
+    /** More books than one window holds with any of the profiles */
+    private static final int BOOKS = 50000;
+
+    /** The size of a CursorWindow if the platform does not say, in bytes */
+    private static final int DEFAULT_WINDOW_BYTES = 2048 * 1024;
+
+    private Context mContext;
+    private BookDbHelper mDbHelper;
+    private BookProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mDbHelper = new BookDbHelper(mContext, TEST_DATABASE_NAME);
+        mProvider = new BookProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+        mProvider.bulkInsert(BookEntry.CONTENT_URI,
+                new BookGenerator(BookGenerator.DEFAULT_SEED).next(BOOKS));
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    /** Return the size of the CursorWindow the platform gives each cursor, in bytes */
+    private static int windowBytes() {
+        Resources system = Resources.getSystem();
+        int id = system.getIdentifier("config_cursorWindowSize", "integer", "android");
+        return id == 0 ? DEFAULT_WINDOW_BYTES : system.getInteger(id) * 1024;
+    }
+
+    /** Return the number of books that fit in one window with the given projection */
+    private int rowsPerWindow(String[] projection) {
+        Cursor cursor = mProvider.query(BookEntry.CONTENT_URI, projection, null, null, null);
+        CursorWindow window = new CursorWindow(TAG);
+        try {
+            DatabaseUtils.cursorFillWindow(cursor, 0, window);
+            return window.getNumRows();
+        } finally {
+            window.close();
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void bytesPerRowOfEachProfile() {
+        String[] names = {"list", "detail", "export"};
+        String[][] profiles = {BookEntry.LIST_COLUMNS, BookEntry.DETAIL_COLUMNS, BookEntry.EXPORT_COLUMNS};
+        int windowBytes = windowBytes();
+        int[] bytesPerRow = new int[profiles.length];
+        for (int i = 0; i < profiles.length; i++) {
+            int rows = rowsPerWindow(profiles[i]);
+            assertTrue(names[i] + " rows fill more than one window", rows < BOOKS);
+            bytesPerRow[i] = windowBytes / rows;
+            Log.i(TAG, names[i] + " (" + profiles[i].length + " columns): " + rows
+                    + " rows per " + windowBytes / 1024 + " KB window, " + bytesPerRow[i] + " bytes/row");
+        }
+        assertTrue("list " + bytesPerRow[0] + " bytes/row, detail " + bytesPerRow[1],
+                bytesPerRow[0] < bytesPerRow[1]);
+    }
+}
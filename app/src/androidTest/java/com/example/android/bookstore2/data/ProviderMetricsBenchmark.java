@@ -0,0 +1,136 @@
+package com.example.android.bookstore2.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures what {@link ProviderMetrics} adds to the time of the provider's everyday operations:
+ * reading a page of the list, reading a book, setting its stock and selling a copy. Rounds with
+ * the metrics on and off alternate, and the fastest round of each is compared, so a slow
+ * moment of the device doesn't count against either. Fails if the metrics add 1% or more.
+ * Results are written to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProviderMetricsBenchmark {
+
+    private static final String TAG = ProviderMetricsBenchmark.class.getSimpleName();
+    private static final String TEST_DATABASE_NAME = "bookstore_benchmark.db";
+
+    private static final int BOOKS = 1000;
+    private static final int ROUNDS = 15;
+    private static final int OPERATIONS_PER_ROUND = 2000;
+    private static final double MAX_OVERHEAD = 0.01;
+
+    private Context mContext;
+    private BookDbHelper mDbHelper;
+    private BookProvider mProvider;
+    private long[] mIds = new long[BOOKS];
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mDbHelper = new BookDbHelper(mContext, TEST_DATABASE_NAME);
+        mProvider = new BookProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+
+        ContentValues[] books = new ContentValues[BOOKS];
+        for (int i = 0; i < BOOKS; i++) {
+            books[i] = BookProviderTest.book("Book " + i, 1000000);
+        }
+        mProvider.bulkInsert(BookEntry.CONTENT_URI, books);
+        Cursor cursor = mProvider.query(BookEntry.CONTENT_URI, new String[]{BookEntry._ID},
+                null, null, BookEntry._ID);
+        try {
+            for (int i = 0; cursor.moveToNext(); i++) {
+                mIds[i] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    /** Run a round of operations and return how long it took, in nanoseconds. */
+    private long runRound() {
+        ContentValues stock = new ContentValues();
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < OPERATIONS_PER_ROUND; i++) {
+            long bookId = mIds[i % BOOKS];
+            Uri bookUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId);
+            switch (i % 4) {
+                case 0:
+                    Uri page = BookEntry.buildFirstPageUri(BookEntry.COLUMN_PRODUCT_NAME, 50);
+                    readAll(mProvider.query(page, null, null, null, null));
+                    break;
+                case 1:
+                    readAll(mProvider.query(bookUri, null, null, null, null));
+                    break;
+                case 2:
+                    stock.put(BookEntry.COLUMN_PRODUCT_QUANTITY, 1000000 - i);
+                    mProvider.update(bookUri, stock, null, null);
+                    break;
+                default:
+                    mProvider.call(BookEntry.METHOD_SELL, String.valueOf(bookId), null);
+                    break;
+            }
+        }
+        return SystemClock.elapsedRealtimeNanos() - start;
+    }
+
+    private static void readAll(Cursor cursor) {
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void metricsOverhead() {
+        ProviderMetrics metrics = mProvider.getMetrics();
+        // Warm up both ways
+        metrics.setEnabled(false);
+        runRound();
+        metrics.setEnabled(true);
+        runRound();
+
+        long fastestOff = Long.MAX_VALUE;
+        long fastestOn = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            metrics.setEnabled(false);
+            fastestOff = Math.min(fastestOff, runRound());
+            metrics.setEnabled(true);
+            fastestOn = Math.min(fastestOn, runRound());
+        }
+
+        double overhead = (double) (fastestOn - fastestOff) / fastestOff;
+        Log.i(TAG, "Metrics off " + fastestOff / OPERATIONS_PER_ROUND + " ns/op, on "
+                + fastestOn / OPERATIONS_PER_ROUND + " ns/op, overhead "
+                + String.format("%.2f%%", overhead * 100));
+        assertTrue("Overhead " + overhead, overhead < MAX_OVERHEAD);
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.android.bookstore2.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+import com.example.android.bookstore2.data.BookContract.MetricsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for the {@link MetricsEntry} URIs of {@link BookProvider}, run against a
+ * separate database file.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProviderMetricsTest {
+
+    private static final String TEST_DATABASE_NAME = "bookstore_test.db";
+
+    private Context mContext;
+    private BookDbHelper mDbHelper;
+    private BookProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mDbHelper = new BookDbHelper(mContext, TEST_DATABASE_NAME);
+        mProvider = new BookProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    /**
+     * Return the count and the rows of the metrics of a match and operation, or null if none
+     * were recorded.
+     */
+    private long[] metrics(String match, String operation) {
+        Cursor cursor = mProvider.query(MetricsEntry.CONTENT_URI, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (match.equals(cursor.getString(cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_MATCH)))
+                        && operation.equals(cursor.getString(cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_OPERATION)))) {
+                    return new long[]{
+                            cursor.getLong(cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_COUNT)),
+                            cursor.getLong(cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_ROWS))};
+                }
+            }
+            return null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Read every row of a query, as a client would */
+    private void readAll(Uri uri) {
+        Cursor cursor = mProvider.query(uri, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getString(0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void operations_areCountedPerUriAndOperation() {
+        Uri bookUri = mProvider.insert(BookEntry.CONTENT_URI, BookProviderTest.book("Dune", 3));
+        mProvider.insert(BookEntry.CONTENT_URI, BookProviderTest.book("Emma", 3));
+        mProvider.bulkInsert(BookEntry.CONTENT_URI, new ContentValues[]{
+                BookProviderTest.book("Ulysses", 1), BookProviderTest.book("Walden", 1)});
+        readAll(BookEntry.CONTENT_URI);
+        readAll(bookUri);
+        ContentValues stock = new ContentValues();
+        stock.put(BookEntry.COLUMN_PRODUCT_QUANTITY, 5);
+        mProvider.update(bookUri, stock, null, null);
+        mProvider.call(BookEntry.METHOD_SELL, String.valueOf(ContentUris.parseId(bookUri)), null);
+        mProvider.delete(BookEntry.CONTENT_URI, BookEntry.COLUMN_PRODUCT_QUANTITY + " = 1", null);
+
+        assertTrue(Arrays.equals(new long[]{2, 2}, metrics("books", "insert")));
+        assertTrue(Arrays.equals(new long[]{1, 2}, metrics("books", "bulk_insert")));
+        assertTrue(Arrays.equals(new long[]{1, 4}, metrics("books", "query")));
+        assertTrue(Arrays.equals(new long[]{1, 1}, metrics("book", "query")));
+        assertTrue(Arrays.equals(new long[]{1, 1}, metrics("book", "update")));
+        assertTrue(Arrays.equals(new long[]{1, 2}, metrics("books", "delete")));
+        assertTrue(Arrays.equals(new long[]{1, 1}, metrics("book", "call")));
+        // The delete by selection and the bulk insert ran in transactions of their own
+        assertTrue(metrics("*", "transaction")[0] >= 2);
+    }
+
+    @Test
+    public void slowOperations_areLoggedInARing() {
+        mProvider.call(MetricsEntry.METHOD_SET_SLOW_THRESHOLD, "0", null);
+        for (int i = 0; i < ProviderMetrics.SLOW_LOG_SIZE + 5; i++) {
+            mProvider.insert(BookEntry.CONTENT_URI, BookProviderTest.book("Book " + i, 1));
+        }
+        mProvider.insert(BookEntry.CONTENT_URI, BookProviderTest.book("Last", 1));
+
+        Cursor slow = mProvider.query(MetricsEntry.SLOW_URI, null, null, null, null);
+        try {
+            assertEquals(ProviderMetrics.SLOW_LOG_SIZE, slow.getCount());
+            // Oldest first, the newest is the last insert
+            assertTrue(slow.moveToLast());
+            assertEquals("insert", slow.getString(slow.getColumnIndexOrThrow(MetricsEntry.COLUMN_OPERATION)));
+            assertEquals(BookEntry.CONTENT_URI.toString(),
+                    slow.getString(slow.getColumnIndexOrThrow(MetricsEntry.COLUMN_URI)));
+            assertEquals(1, slow.getLong(slow.getColumnIndexOrThrow(MetricsEntry.COLUMN_ROWS)));
+        } finally {
+            slow.close();
+        }
+    }
+
+    @Test
+    public void fastOperations_areNotLogged() {
+        mProvider.call(MetricsEntry.METHOD_SET_SLOW_THRESHOLD, "60000", null);
+        mProvider.insert(BookEntry.CONTENT_URI, BookProviderTest.book("Dune", 1));
+        Cursor slow = mProvider.query(MetricsEntry.SLOW_URI, null, null, null, null);
+        try {
+            assertEquals(0, slow.getCount());
+        } finally {
+            slow.close();
+        }
+    }
+
+    @Test
+    public void windowFills_areTimed() {
+        // About 4 MB of names, more than one cursor window holds
+        char[] name = new char[200];
+        Arrays.fill(name, 'x');
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        BookStatements statements = new BookStatements(db);
+        ContentValues values = BookProviderTest.book(new String(name), 1);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < 20000; i++) {
+                statements.insert(values, null);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        readAll(BookEntry.CONTENT_URI);
+
+        assertTrue(Arrays.equals(new long[]{1, 20000}, metrics("books", "query")));
+        assertTrue(metrics("*", "window_fill")[0] > 0);
+    }
+
+    @Test
+    public void unreadQuery_isTimedWhenClosed() {
+        mProvider.query(BookEntry.CONTENT_URI, null, null, null, null).close();
+        assertTrue(Arrays.equals(new long[]{1, 0}, metrics("books", "query")));
+    }
+
+    @Test
+    public void disabledMetrics_recordNothing() {
+        mProvider.getMetrics().setEnabled(false);
+        mProvider.insert(BookEntry.CONTENT_URI, BookProviderTest.book("Dune", 1));
+        readAll(ContentUris.withAppendedId(BookEntry.CONTENT_URI, 1));
+        assertNull(metrics("books", "insert"));
+        assertNull(metrics("book", "query"));
+    }
+}
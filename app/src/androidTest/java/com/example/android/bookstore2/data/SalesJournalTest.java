@@ -0,0 +1,234 @@
+package com.example.android.bookstore2.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+import com.example.android.bookstore2.data.BookContract.SalesEntry;
+import com.example.android.bookstore2.data.BookContract.StatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for the sales journal of {@link BookProvider}: sales are journaled rather
+ * than written to their book, every read takes them off the stock, and compacting them keeps
+ * the stock and adds them to the daily sales. Changes of the stock leave the journal alone.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SalesJournalTest {
+
+    private static final String TEST_DATABASE_NAME = "bookstore_sales_test.db";
+
+    private Context mContext;
+    private BookDbHelper mDbHelper;
+    private BookProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mDbHelper = new BookDbHelper(mContext, TEST_DATABASE_NAME);
+        mProvider = new BookProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    private long insert(String name, int stock) {
+        return ContentUris.parseId(mProvider.insert(BookEntry.CONTENT_URI,
+                BookProviderTest.book(name, stock)));
+    }
+
+    private long sell(long bookId, int quantity) {
+        Bundle extras = new Bundle();
+        extras.putInt(BookEntry.EXTRA_QUANTITY, quantity);
+        return mProvider.call(BookEntry.METHOD_SELL, String.valueOf(bookId), extras)
+                .getLong(BookEntry.EXTRA_STOCK);
+    }
+
+    private long adjust(long bookId, int count) {
+        Bundle extras = new Bundle();
+        extras.putInt(BookEntry.EXTRA_QUANTITY, count);
+        return mProvider.call(BookEntry.METHOD_ADJUST_STOCK, String.valueOf(bookId), extras)
+                .getLong(BookEntry.EXTRA_STOCK);
+    }
+
+    private void compact() {
+        mProvider.call(SalesEntry.METHOD_COMPACT, null, null);
+    }
+
+    /** Return the stock of a book as the provider reads it from the given URI */
+    private long stockAt(Uri uri, long bookId) {
+        Cursor cursor = mProvider.query(uri, new String[]{BookEntry._ID, BookEntry.COLUMN_PRODUCT_QUANTITY},
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (cursor.getLong(0) == bookId) {
+                    return cursor.getLong(1);
+                }
+            }
+            fail("No book " + bookId + " at " + uri);
+            return -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Return the stock of a book as stored in the books table, without the journal */
+    private long storedStock(long bookId) {
+        return DatabaseUtils.longForQuery(mDbHelper.getReadableDatabase(),
+                "SELECT " + BookEntry.COLUMN_PRODUCT_QUANTITY + " FROM " + BookEntry.TABLE_NAME
+                        + " WHERE " + BookEntry._ID + " = ?", new String[]{String.valueOf(bookId)});
+    }
+
+    private long journaled() {
+        return DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(), SalesEntry.TABLE_NAME);
+    }
+
+    @Test
+    public void sell_journalsTheSaleAndReadsTakeItOff() {
+        long bookId = insert("Journaled", 10);
+        assertEquals(7, sell(bookId, 3));
+        assertEquals(6, sell(bookId, 1));
+
+        // The book itself is untouched until the journal is compacted
+        assertEquals(10, storedStock(bookId));
+        assertEquals(2, journaled());
+
+        assertEquals(6, stockAt(ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId), bookId));
+        assertEquals(6, stockAt(BookEntry.CONTENT_URI, bookId));
+        assertEquals(6, stockAt(BookEntry.buildSearchUri("journaled"), bookId));
+    }
+
+    @Test
+    public void sell_refusesMoreThanTheStockLeft() {
+        long bookId = insert("Scarce", 2);
+        assertEquals(1, sell(bookId, 1));
+        assertEquals(-1, sell(bookId, 2));
+        assertEquals(0, sell(bookId, 1));
+        assertEquals(-1, sell(bookId, 1));
+        assertEquals(2, journaled());
+    }
+
+    @Test
+    public void compact_foldsTheStockAndKeepsTheDailySales() {
+        long first = insert("First", 10);
+        long second = insert("Second", 10);
+        sell(first, 2);
+        sell(first, 1);
+        sell(second, 4);
+
+        compact();
+        assertEquals(0, journaled());
+        assertEquals(7, storedStock(first));
+        assertEquals(6, storedStock(second));
+        assertEquals(7, stockAt(BookEntry.CONTENT_URI, first));
+
+        // Sales after the compaction are added to the same day
+        sell(first, 1);
+        Cursor cursor = mProvider.query(SalesEntry.DAILY_URI, null,
+                SalesEntry.COLUMN_BOOK_ID + " = ?", new String[]{String.valueOf(first)}, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(SalesJournal.dayOf(System.currentTimeMillis()),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(SalesEntry.COLUMN_DAY)));
+            assertEquals(4, cursor.getLong(cursor.getColumnIndexOrThrow(SalesEntry.COLUMN_UNITS)));
+            assertEquals(4 * 1250, cursor.getLong(cursor.getColumnIndexOrThrow(SalesEntry.COLUMN_REVENUE)));
+        } finally {
+            cursor.close();
+        }
+
+        // And compacted into it
+        compact();
+        cursor = mProvider.query(SalesEntry.DAILY_URI, null, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void update_replacesTheStockLeft() {
+        long bookId = insert("Recounted", 10);
+        sell(bookId, 3);
+
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_PRODUCT_QUANTITY, 20);
+        mProvider.update(ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId), values, null, null);
+
+        // The journaled sale was taken off before the new stock was set
+        assertEquals(0, journaled());
+        assertEquals(20, stockAt(BookEntry.CONTENT_URI, bookId));
+    }
+
+    @Test
+    public void delete_compactsTheJournalInItsTransaction() {
+        long sold = insert("Sold", 10);
+        long other = insert("Other", 10);
+        sell(sold, 2);
+        sell(other, 1);
+
+        assertEquals(1, mProvider.delete(ContentUris.withAppendedId(BookEntry.CONTENT_URI, sold),
+                null, null));
+        assertEquals(0, journaled());
+        assertEquals(9, storedStock(other));
+
+        // The selection matches the stock left once the journal is compacted
+        sell(other, 9);
+        assertEquals(1, mProvider.delete(BookEntry.CONTENT_URI,
+                BookEntry.COLUMN_PRODUCT_QUANTITY + " = 0", null));
+        assertEquals(0, journaled());
+    }
+
+    @Test
+    public void adjustStock_changesTheStockLeftAndKeepsTheSales() {
+        long bookId = insert("Received", 10);
+        sell(bookId, 3);
+
+        assertEquals(12, adjust(bookId, 5));
+        assertEquals(15, storedStock(bookId));
+        assertEquals(1, journaled());
+
+        // The stock left can't go below zero
+        assertEquals(-1, adjust(bookId, -13));
+        assertEquals(0, adjust(bookId, -12));
+        assertEquals(0, stockAt(BookEntry.CONTENT_URI, bookId));
+    }
+
+    @Test
+    public void stats_takeTheJournalOff() {
+        long bookId = insert("Counted", 5);
+        sell(bookId, 5);
+
+        // Computed from scratch, not from the totals kept in memory
+        BookProvider provider = new BookProvider(mDbHelper);
+        provider.attachInfo(mContext, null);
+        Cursor cursor = provider.query(StatsEntry.CONTENT_URI,
+                new String[]{StatsEntry.COLUMN_UNITS, StatsEntry.COLUMN_OUT_OF_STOCK}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(0, cursor.getLong(0));
+            assertEquals(1, cursor.getLong(1));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.android.bookstore2.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+import com.example.android.bookstore2.data.BookContract.StatsEntry;
+import com.example.android.bookstore2.data.BookContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for the suppliers of {@link BookProvider}: books written with a supplier
+ * name share one supplier row, and changing the supplier shows on every one of its books.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SupplierProviderTest {
+
+    private static final String TEST_DATABASE_NAME = "bookstore_supplier_test.db";
+
+    private Context mContext;
+    private BookDbHelper mDbHelper;
+    private BookProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mDbHelper = new BookDbHelper(mContext, TEST_DATABASE_NAME);
+        mProvider = new BookProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    private Uri insert(String name, String supplier, long phone) {
+        ContentValues values = BookProviderTest.book(name, 1);
+        values.put(BookEntry.COLUMN_SUPPLIER_NAME, supplier);
+        values.put(BookEntry.COLUMN_SUPPLIER_PHONE, phone);
+        return mProvider.insert(BookEntry.CONTENT_URI, values);
+    }
+
+    private long suppliers() {
+        return DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(), SupplierEntry.TABLE_NAME);
+    }
+
+    /** Return the supplier name and phone of a book, as the provider reads them */
+    private String supplierOf(Uri bookUri) {
+        Cursor cursor = mProvider.query(bookUri, new String[]{BookEntry.COLUMN_SUPPLIER_NAME,
+                BookEntry.COLUMN_SUPPLIER_PHONE}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.isNull(0) ? null : cursor.getString(0) + " " + cursor.getLong(1);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long supplierId(String name) {
+        return DatabaseUtils.longForQuery(mDbHelper.getReadableDatabase(), "SELECT "
+                + SupplierEntry._ID + " FROM " + SupplierEntry.TABLE_NAME + " WHERE "
+                + SupplierEntry.COLUMN_NAME + " = ?", new String[]{name});
+    }
+
+    @Test
+    public void books_ofTheSameSupplier_shareOneRow() {
+        Uri dune = insert("Dune", "Penguin", 5551234);
+        insert("Emma", "Penguin", 5551234);
+        insert("Ulysses", "Vintage", 5550000);
+        Uri unknown = insert("Anonymous", "", 5559999);
+
+        assertEquals(2, suppliers());
+        assertEquals("Penguin 5551234", supplierOf(dune));
+        // An empty supplier name is no supplier
+        assertNull(supplierOf(unknown));
+
+        // The supplier filter of the list goes through the suppliers table
+        Uri penguin = BookEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(BookEntry.QUERY_PARAMETER_SUPPLIER, "Penguin").build();
+        Cursor cursor = mProvider.query(penguin, null, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void phone_belongsToTheSupplier() {
+        Uri dune = insert("Dune", "Penguin", 5551234);
+        Uri emma = insert("Emma", "Penguin", 5551234);
+        supplierOf(emma);
+
+        // A new phone saved with one book is the phone of all the books of its supplier, even
+        // the one in the row cache
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_SUPPLIER_NAME, "Penguin");
+        values.put(BookEntry.COLUMN_SUPPLIER_PHONE, 5554321L);
+        assertEquals(1, mProvider.update(dune, values, null, null));
+        assertEquals("Penguin 5554321", supplierOf(emma));
+
+        // And so is a phone saved without the name
+        values.remove(BookEntry.COLUMN_SUPPLIER_NAME);
+        values.put(BookEntry.COLUMN_SUPPLIER_PHONE, 5550000L);
+        assertEquals(1, mProvider.update(emma, values, null, null));
+        assertEquals("Penguin 5550000", supplierOf(dune));
+        assertEquals(1, suppliers());
+    }
+
+    @Test
+    public void renamingASupplier_renamesItOnEveryBook() {
+        Uri dune = insert("Dune", "Penguin", 5551234);
+        insert("Emma", "Penguin", 5551234);
+        supplierOf(dune);
+
+        Uri supplierUri = ContentUris.withAppendedId(SupplierEntry.CONTENT_URI, supplierId("Penguin"));
+        ContentValues values = new ContentValues();
+        values.put(SupplierEntry.COLUMN_NAME, "Puffin");
+        assertEquals(1, mProvider.update(supplierUri, values, null, null));
+
+        assertEquals("Puffin 5551234", supplierOf(dune));
+        Cursor cursor = mProvider.query(BookEntry.buildSearchUri("puffin"), null, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+
+        // The old name is not cached any more, saving a book with it adds a new supplier
+        insert("Ulysses", "Penguin", 5551234);
+        assertEquals(2, suppliers());
+
+        // The totals per supplier are by the new name
+        cursor = mProvider.query(StatsEntry.SUPPLIERS_URI, null, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void deletingASupplier_leavesItsBooksWithoutOne() {
+        Uri dune = insert("Dune", "Penguin", 5551234);
+        insert("Ulysses", "Vintage", 5550000);
+
+        Uri supplierUri = ContentUris.withAppendedId(SupplierEntry.CONTENT_URI, supplierId("Penguin"));
+        assertEquals(1, mProvider.delete(supplierUri, null, null));
+
+        assertEquals(2, DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(),
+                BookEntry.TABLE_NAME));
+        assertNull(supplierOf(dune));
+        Cursor cursor = mProvider.query(BookEntry.buildSearchUri("penguin"), null, null, null, null);
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void suppliers_areListedByName() {
+        insert("Ulysses", "Vintage", 5550000);
+        insert("Dune", "Penguin", 5551234);
+        ContentValues values = new ContentValues();
+        values.put(SupplierEntry.COLUMN_NAME, "Faber");
+        assertNotNull(mProvider.insert(SupplierEntry.CONTENT_URI, values));
+
+        Cursor cursor = mProvider.query(SupplierEntry.CONTENT_URI,
+                new String[]{SupplierEntry.COLUMN_NAME}, null, null, null);
+        try {
+            assertEquals(3, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Faber", cursor.getString(0));
+            assertTrue(cursor.moveToLast());
+            assertEquals("Vintage", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+}
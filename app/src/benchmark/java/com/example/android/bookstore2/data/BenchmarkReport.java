@@ -0,0 +1,165 @@
+package com.example.android.bookstore2.data;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Collects the timings of the JVM benchmarks, writes them out as JSON and compares them with a
+ * stored baseline. The build passes the file names and the allowed slowdown as system
+ * properties, see app/build.gradle.
+ *
+ * <p>Both files have the same form: a "results" array of objects holding the benchmark "name",
+ * the "rows" in the table it ran against, the "operations" it timed and "ns_per_op". A result
+ * is a regression if it is slower than its baseline by more than the tolerance. Results missing
+ * from the baseline are only reported, but a missing baseline file fails the run.
+ */
+final class BenchmarkReport {
+
+    /** Comma separated table sizes to run the benchmarks at */
+    static final String PROPERTY_SIZES = "benchmark.sizes";
+
+    /** File the results are written to */
+    static final String PROPERTY_RESULTS = "benchmark.results";
+
+    /** File holding the stored baseline */
+    static final String PROPERTY_BASELINE = "benchmark.baseline";
+
+    /** Fraction a result may be slower than its baseline, 0.25 being 25% */
+    static final String PROPERTY_TOLERANCE = "benchmark.tolerance";
+
+    /** When "true", the results replace the baseline instead of being compared with it */
+    static final String PROPERTY_UPDATE_BASELINE = "benchmark.updateBaseline";
+
+    private static final String DEFAULT_SIZES = "1000,100000,1000000";
+    private static final String DEFAULT_RESULTS = "build/benchmark/results.json";
+    private static final String DEFAULT_BASELINE = "benchmark/baseline.json";
+    private static final double DEFAULT_TOLERANCE = 0.25;
+
+    private final List<JSONObject> mResults = new ArrayList<>();
+
+    /** Return the table sizes to run the benchmarks at. */
+    static int[] sizes() {
+        String[] values = System.getProperty(PROPERTY_SIZES, DEFAULT_SIZES).split(",");
+        int[] sizes = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            sizes[i] = Integer.parseInt(values[i].trim());
+        }
+        return sizes;
+    }
+
+    /**
+     * Record that a benchmark made the given number of operations in the given time, on a table
+     * of the given number of rows.
+     */
+    synchronized void add(String name, int rows, int operations, long nanos) throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("name", name);
+        result.put("rows", rows);
+        result.put("operations", operations);
+        result.put("ns_per_op", nanos / operations);
+        mResults.add(result);
+        System.out.println(String.format(Locale.US, "%-16s %,10d rows %,14d ns/op",
+                name, rows, nanos / operations));
+    }
+
+    /**
+     * Write the results, then compare them with the baseline, or replace the baseline with them
+     * if asked to. Return a description of every regression, an empty list if there are none.
+     *
+     * @throws FileNotFoundException if there is no baseline to compare with
+     */
+    synchronized List<String> finish() throws IOException, JSONException {
+        JSONArray results = new JSONArray();
+        for (JSONObject result : mResults) {
+            results.put(result);
+        }
+        JSONObject report = new JSONObject();
+        report.put("java", System.getProperty("java.version"));
+        report.put("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+        report.put("results", results);
+
+        write(new File(System.getProperty(PROPERTY_RESULTS, DEFAULT_RESULTS)), report);
+        File baselineFile = new File(System.getProperty(PROPERTY_BASELINE, DEFAULT_BASELINE));
+        List<String> regressions = new ArrayList<>();
+        if (Boolean.getBoolean(PROPERTY_UPDATE_BASELINE)) {
+            write(baselineFile, report);
+            System.out.println("Baseline written to " + baselineFile);
+            return regressions;
+        }
+        if (!baselineFile.exists()) {
+            // Passing without a comparison would let every regression through unnoticed
+            throw new FileNotFoundException("No baseline at " + baselineFile + ", record one on "
+                    + "this machine with -P" + PROPERTY_UPDATE_BASELINE + "=true");
+        }
+
+        Map<String, Long> baseline = new HashMap<>();
+        JSONArray stored = read(baselineFile).getJSONArray("results");
+        for (int i = 0; i < stored.length(); i++) {
+            JSONObject result = stored.getJSONObject(i);
+            baseline.put(key(result), result.getLong("ns_per_op"));
+        }
+        double tolerance = Double.parseDouble(System.getProperty(PROPERTY_TOLERANCE,
+                String.valueOf(DEFAULT_TOLERANCE)));
+        for (JSONObject result : mResults) {
+            Long expected = baseline.get(key(result));
+            long actual = result.getLong("ns_per_op");
+            if (expected == null) {
+                System.out.println("No baseline for " + key(result));
+            } else if (actual > expected * (1 + tolerance)) {
+                regressions.add(String.format(Locale.US, "%s: %,d ns/op, baseline %,d ns/op (+%.0f%%)",
+                        key(result), actual, expected, (actual - expected) * 100.0 / expected));
+            }
+        }
+        return regressions;
+    }
+
+    /** Return the name and table size a result is matched to its baseline by */
+    private static String key(JSONObject result) throws JSONException {
+        return result.getString("name") + " at " + result.getInt("rows") + " rows";
+    }
+
+    private static JSONObject read(File file) throws IOException, JSONException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            StringBuilder text = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                text.append(buffer, 0, read);
+            }
+            return new JSONObject(text.toString());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void write(File file, JSONObject report) throws IOException, JSONException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create " + parent);
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(report.toString(2));
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.android.bookstore2.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times the everyday operations of {@link BookProvider} on a plain JVM, against tables of
+ * 1k, 100k and 1M books made up by {@link BookGenerator}, and fails if any got slower than the
+ * stored baseline allows. Run it with {@code ./gradlew testDebugUnitTest -Pbenchmark}, see
+ * {@link BenchmarkReport}.
+ *
+ * <p>Robolectric runs SQLite through sqlite4java on a single thread of its own, so the numbers
+ * are only comparable with a baseline taken on the same machine, and not with a device.
+ * Durations are read from {@link System#nanoTime()}, because Robolectric's SystemClock is fake.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BookProviderBenchmark {
+
+    private static final String TEST_DATABASE_NAME = "bookstore_benchmark.db";
+
+    /** Books inserted by each bulk insert, so a million of them needn't be in memory at once */
+    private static final int BULK_INSERT_CHUNK = 10000;
+
+    private static final int SINGLE_INSERTS = 1000;
+    private static final int POINT_QUERIES = 2000;
+    private static final int PAGE_QUERIES = 100;
+    private static final int PAGE_SIZE = 50;
+    private static final int SELL_THREADS = 4;
+    private static final int SALES_PER_THREAD = 1000;
+
+    /** Rows read by the repeated full list queries, so small tables are read more than once */
+    private static final int FULL_LIST_ROWS = 1000000;
+
+    private static final String[] LIST_PROJECTION = {
+            BookEntry._ID,
+            BookEntry.COLUMN_PRODUCT_NAME,
+            BookEntry.COLUMN_PRODUCT_PRICE,
+            BookEntry.COLUMN_PRODUCT_QUANTITY
+    };
+
+    private final Context mContext = RuntimeEnvironment.application;
+    private final Random mRandom = new Random(42);
+    private BookGenerator mGenerator;
+    private BookDbHelper mDbHelper;
+    private BookProvider mProvider;
+
+    @Test
+    public void dataLayer() throws Exception {
+        // A first small run, not recorded, so the JIT has compiled the paths being measured
+        run(1000, new BenchmarkReport());
+
+        BenchmarkReport report = new BenchmarkReport();
+        for (int size : BenchmarkReport.sizes()) {
+            run(size, report);
+        }
+        List<String> regressions = report.finish();
+        assertTrue("Slower than the baseline:\n" + join(regressions), regressions.isEmpty());
+    }
+
+    /** Run every benchmark against a new table of the given number of books. */
+    private void run(int size, BenchmarkReport report) throws Exception {
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mDbHelper = new BookDbHelper(mContext, TEST_DATABASE_NAME);
+        mProvider = new BookProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+        mGenerator = new BookGenerator(BookGenerator.DEFAULT_SEED);
+        try {
+            report.add("bulk_insert", size, size, bulkInsert(size));
+            report.add("point_query", size, POINT_QUERIES, pointQueries(size));
+            int passes = Math.max(1, FULL_LIST_ROWS / size);
+            report.add("full_list", size, passes, fullList(size, passes));
+            report.add("sorted_page", size, PAGE_QUERIES,
+                    pages(BookEntry.buildFirstPageUri(BookEntry.COLUMN_PRODUCT_PRICE, PAGE_SIZE)));
+            report.add("low_stock_page", size, PAGE_QUERIES, pages(
+                    BookEntry.buildFirstPageUri(BookEntry.COLUMN_PRODUCT_NAME, PAGE_SIZE).buildUpon()
+                            .appendQueryParameter(BookEntry.QUERY_PARAMETER_FILTER, BookEntry.FILTER_LOW_STOCK)
+                            .build()));
+            report.add("supplier_page", size, PAGE_QUERIES, pages(
+                    BookEntry.buildFirstPageUri(BookEntry.COLUMN_PRODUCT_NAME, PAGE_SIZE).buildUpon()
+                            .appendQueryParameter(BookEntry.QUERY_PARAMETER_SUPPLIER,
+                                    BookGenerator.supplierName(7))
+                            .build()));
+            report.add("insert", size, SINGLE_INSERTS, inserts());
+            report.add("sell_contention", size, SELL_THREADS * SALES_PER_THREAD, sellContention());
+            report.add("delete_all", size, 1, deleteAll(size + SINGLE_INSERTS));
+        } finally {
+            mDbHelper.close();
+            mContext.deleteDatabase(TEST_DATABASE_NAME);
+        }
+    }
+
+    private long bulkInsert(int size) {
+        long nanos = 0;
+        for (int first = 0; first < size; first += BULK_INSERT_CHUNK) {
+            ContentValues[] books = mGenerator.next(Math.min(BULK_INSERT_CHUNK, size - first));
+            long start = System.nanoTime();
+            assertEquals(books.length, mProvider.bulkInsert(BookEntry.CONTENT_URI, books));
+            nanos += System.nanoTime() - start;
+        }
+        return nanos;
+    }
+
+    /** Read random books by id. Ids start at 1 in a new table. */
+    private long pointQueries(int size) {
+        long start = System.nanoTime();
+        for (int i = 0; i < POINT_QUERIES; i++) {
+            Uri uri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, 1 + mRandom.nextInt(size));
+            assertEquals(1, readAll(mProvider.query(uri, null, null, null, null)));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long fullList(int size, int passes) {
+        long start = System.nanoTime();
+        for (int i = 0; i < passes; i++) {
+            assertEquals(size, readAll(mProvider.query(BookEntry.CONTENT_URI, LIST_PROJECTION,
+                    null, null, null)));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long pages(Uri uri) {
+        long start = System.nanoTime();
+        for (int i = 0; i < PAGE_QUERIES; i++) {
+            assertTrue(readAll(mProvider.query(uri, LIST_PROJECTION, null, null, null)) > 0);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long inserts() {
+        long start = System.nanoTime();
+        for (int i = 0; i < SINGLE_INSERTS; i++) {
+            assertNotNull(mProvider.insert(BookEntry.CONTENT_URI, mGenerator.next()));
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** Sell copies of one book from several threads at once, as the list and editor may. */
+    private long sellContention() throws Exception {
+        ContentValues stock = new ContentValues();
+        stock.put(BookEntry.COLUMN_PRODUCT_QUANTITY, SELL_THREADS * SALES_PER_THREAD);
+        assertEquals(1, mProvider.update(ContentUris.withAppendedId(BookEntry.CONTENT_URI, 1),
+                stock, null, null));
+
+        final CountDownLatch ready = new CountDownLatch(SELL_THREADS);
+        final CountDownLatch go = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[SELL_THREADS];
+        for (int t = 0; t < SELL_THREADS; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ready.countDown();
+                        go.await();
+                        for (int i = 0; i < SALES_PER_THREAD; i++) {
+                            mProvider.call(BookEntry.METHOD_SELL, "1", null);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long nanos = System.nanoTime() - start;
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        return nanos;
+    }
+
+    private long deleteAll(int books) {
+        long start = System.nanoTime();
+        assertEquals(books, mProvider.delete(BookEntry.CONTENT_URI, null, null));
+        return System.nanoTime() - start;
+    }
+
+    /** Read every row of a cursor, as the list does, and return how many there were */
+    private static int readAll(Cursor cursor) {
+        try {
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+                cursor.getString(1);
+                rows++;
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String join(List<String> lines) {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.android.bookstore2;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.v7.recyclerview.extensions.ListAdapter;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+import com.example.android.bookstore2.data.BookWriteQueue;
+
+import java.math.BigDecimal;
+import java.text.FieldPosition;
+import java.text.NumberFormat;
+import java.util.List;
+
+/**
+ * {@link BookListAdapter} is an adapter for a {@link RecyclerView} that shows a list of
+ * {@link BookRow}s. Every new list is compared with the one on screen on a background thread,
+ * and only the rows that changed are rebound: a sale that changes the stock of one book
+ * rebinds the summary of that one row.
+ *
+ * Binding a row allocates as little as possible, so scrolling a long list doesn't churn the
+ * garbage collector: the click listeners are shared by all rows, and the summary text is built
+ * in a reused buffer.
+ */
+public class BookListAdapter extends ListAdapter<BookRow, BookListAdapter.ViewHolder> {
+
+    /** Change payload for a row whose stock is all that changed */
+    private static final Object PAYLOAD_STOCK = new Object();
+
+    /**
+     * Rows are the same book if they have the same id, and need no rebinding if all their
+     * columns are equal.
+     */
+    private static final DiffUtil.ItemCallback<BookRow> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<BookRow>() {
+                @Override
+                public boolean areItemsTheSame(BookRow oldRow, BookRow newRow) {
+                    return oldRow.id == newRow.id;
+                }
+
+                @Override
+                public boolean areContentsTheSame(BookRow oldRow, BookRow newRow) {
+                    return oldRow.equals(newRow);
+                }
+
+                @Override
+                public Object getChangePayload(BookRow oldRow, BookRow newRow) {
+                    if (oldRow.price == newRow.price && (oldRow.name == null
+                            ? newRow.name == null : oldRow.name.equals(newRow.name))) {
+                        return PAYLOAD_STOCK;
+                    }
+                    return null;
+                }
+            };
+
+    /**
+     * The child views of a list item and the book it shows. The holder is also the tag of the
+     * item view and its sell button, for the shared click listeners.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView nameTextView;
+        final TextView summaryTextView;
+        final Button sellButton;
+
+        /** The book shown */
+        BookRow row;
+
+        ViewHolder(View view) {
+            super(view);
+            nameTextView = (TextView) view.findViewById(R.id.name);
+            summaryTextView = (TextView) view.findViewById(R.id.summary);
+            sellButton = (Button) view.findViewById(R.id.sell);
+        }
+    }
+
+    private final Context mContext;
+
+    /** Parts of the summary text, read from the resources once */
+    private final String mRrpLabel;
+    private final String mInStockLabel;
+
+    /** Formats prices like {@link BookEntry#formatPrice(long)}, without a new formatter per row */
+    private final NumberFormat mPriceFormat;
+    private final int mFractionDigits;
+    private final FieldPosition mFieldPosition = new FieldPosition(0);
+    private final StringBuffer mPriceBuffer = new StringBuffer();
+
+    /** The summary of the row being bound, built in place */
+    private final StringBuilder mSummary = new StringBuilder();
+
+    /**
+     * Opens the editor for the book of the clicked list item.
+     */
+    private final View.OnClickListener mItemClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            ViewHolder holder = (ViewHolder) v.getTag();
+            //Create a new intent to go to {@link EditorActivity
+            Intent editorIntent = new Intent(mContext, EditorActivity.class);
+            /**
+             * From the Content URI that represents the specific book that was clicked on
+             * by appending the ID onto the {@link BookEntry#CONTENT_URI}.
+             * For example the URI would be content://com.example.android.bookstore2/books/2
+             * if the book with ID 2 was clicked on.
+             */
+            Uri currentBookUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, holder.row.id);
+            //Set the URI on the data field of the intent
+            editorIntent.setData(currentBookUri);
+            //Launch the editor activity for the current book that was clicked on
+            mContext.startActivity(editorIntent);
+        }
+    };
+
+    /**
+     * Sells one copy of the book of the list item whose sell button was clicked. The sale is
+     * made on the write queue's thread, and quick taps on the same book are merged into one
+     * sale. The row is updated by the activity once the provider notifies the change.
+     */
+    private final View.OnClickListener mSellClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            ViewHolder holder = (ViewHolder) v.getTag();
+            // Sell one copy in a single atomic provider call, which refuses the sale if the
+            // book is out of stock, instead of writing back a stock value read earlier.
+            if (!BookWriteQueue.getInstance(mContext).sell(holder.row.id, 1, mSellCallback)) {
+                Toast.makeText(mContext, mContext.getString(R.string.write_queue_full),
+                        Toast.LENGTH_SHORT).show();
+            }
+        }
+    };
+
+    /**
+     * Tells the user whether a sale went through.
+     */
+    private final BookWriteQueue.Callback mSellCallback = new BookWriteQueue.Callback() {
+        @Override
+        public void onWriteDone(long stock) {
+            if (stock < 0) {
+                Toast.makeText(mContext, mContext.getString(R.string.out_of_stock), Toast.LENGTH_SHORT).show();
+            } else {
+                // Display a toast.
+                Toast.makeText(mContext, mContext.getString(R.string.editor_update_book_successful),
+                        Toast.LENGTH_SHORT).show();
+            }
+        }
+    };
+
+    /**
+     * Constructs a new {@link BookListAdapter}, with an empty list until
+     * {@link #submitList(List)} is called.
+     *
+     * @param context The context
+     */
+    public BookListAdapter(Context context) {
+        super(DIFF_CALLBACK);
+        mContext = context;
+        mRrpLabel = context.getString(R.string.label_rrp);
+        mInStockLabel = context.getString(R.string.label_book_in_stock);
+        mPriceFormat = NumberFormat.getCurrencyInstance();
+        mPriceFormat.setCurrency(BookEntry.STORE_CURRENCY);
+        mFractionDigits = BookEntry.STORE_CURRENCY.getDefaultFractionDigits();
+        // Rows keep their views across lists, so a changed row is rebound in place
+        setHasStableIds(true);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).id;
+    }
+
+    /**
+     * Makes a new blank list item view. No data is set (or bound) to the views yet, but the
+     * child views are looked up and the shared click listeners attached.
+     */
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
+        ViewHolder holder = new ViewHolder(view);
+        view.setTag(holder);
+        holder.sellButton.setTag(holder);
+        view.setOnClickListener(mItemClickListener);
+        holder.sellButton.setOnClickListener(mSellClickListener);
+        return holder;
+    }
+
+    /**
+     * This method binds the book at the given position to the list item of the holder.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        BookRow row = getItem(position);
+        holder.row = row;
+        holder.nameTextView.setText(row.name);
+        bindSummary(holder, row);
+    }
+
+    /**
+     * Rebind only the summary of a row whose stock is all that changed.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        for (Object payload : payloads) {
+            if (payload != PAYLOAD_STOCK) {
+                onBindViewHolder(holder, position);
+                return;
+            }
+        }
+        holder.row = getItem(position);
+        bindSummary(holder, holder.row);
+    }
+
+    /**
+     * Show the price and the stock in the summary of a list item, such as
+     * "RRP: $19.00 - 3 in stock".
+     */
+    private void bindSummary(ViewHolder holder, BookRow row) {
+        mPriceBuffer.setLength(0);
+        // Exact in cents, where a double would round some prices on their way to the format
+        mPriceFormat.format(BigDecimal.valueOf(row.price, mFractionDigits), mPriceBuffer,
+                mFieldPosition);
+
+        mSummary.setLength(0);
+        mSummary.append(mRrpLabel).append(mPriceBuffer).append(" - ").append(row.stock).append(mInStockLabel);
+        holder.summaryTextView.setText(mSummary);
+    }
+}
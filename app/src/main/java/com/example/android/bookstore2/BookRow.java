@@ -0,0 +1,121 @@
+package com.example.android.bookstore2;
+
+import android.database.Cursor;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+
+import java.util.ArrayList;
+
+/**
+ * An immutable copy of the columns of a book the list shows. The list keeps these instead of
+ * cursors, so an old and a new list can be compared off the main thread, and a cursor can be
+ * closed as soon as it has been read.
+ */
+final class BookRow {
+
+    /** _ID of the book */
+    final long id;
+    final String name;
+    /** Price in cents */
+    final long price;
+    final long stock;
+
+    BookRow(long id, String name, long price, long stock) {
+        this.id = id;
+        this.name = name;
+        this.price = price;
+        this.stock = stock;
+    }
+
+    /**
+     * Copy every row of the cursor, from the first one. The cursor needs the {@link BookEntry#_ID},
+     * {@link BookEntry#COLUMN_PRODUCT_NAME}, {@link BookEntry#COLUMN_PRODUCT_PRICE} and
+     * {@link BookEntry#COLUMN_PRODUCT_QUANTITY} columns.
+     */
+    static ArrayList<BookRow> readAll(Cursor cursor) {
+        ArrayList<BookRow> rows = new ArrayList<>(cursor.getCount());
+        int idIndex = cursor.getColumnIndexOrThrow(BookEntry._ID);
+        int nameIndex = cursor.getColumnIndexOrThrow(BookEntry.COLUMN_PRODUCT_NAME);
+        int priceIndex = cursor.getColumnIndexOrThrow(BookEntry.COLUMN_PRODUCT_PRICE);
+        int stockIndex = cursor.getColumnIndexOrThrow(BookEntry.COLUMN_PRODUCT_QUANTITY);
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            rows.add(new BookRow(cursor.getLong(idIndex), cursor.getString(nameIndex),
+                    cursor.getLong(priceIndex), cursor.getLong(stockIndex)));
+        }
+        return rows;
+    }
+
+    /**
+     * Return the value of the given sort column, as the text the paging URIs expect.
+     */
+    String sortValue(String sortColumn) {
+        switch (sortColumn) {
+            case BookEntry.COLUMN_PRODUCT_NAME:
+                return name;
+            case BookEntry.COLUMN_PRODUCT_PRICE:
+                return String.valueOf(price);
+            default:
+                return String.valueOf(id);
+        }
+    }
+
+    /**
+     * Compare this row with another in the order of a paged list sorted by the given column:
+     * by the column, then by {@link BookEntry#_ID}. Names are compared like SQLite's NOCASE
+     * collation, which only folds the case of ASCII letters.
+     */
+    int compareTo(BookRow other, String sortColumn) {
+        int result = 0;
+        if (sortColumn.equals(BookEntry.COLUMN_PRODUCT_NAME)) {
+            result = compareNoCase(name, other.name);
+        } else if (sortColumn.equals(BookEntry.COLUMN_PRODUCT_PRICE)) {
+            result = compare(price, other.price);
+        }
+        return result != 0 ? result : compare(id, other.id);
+    }
+
+    private static int compare(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    private static int compareNoCase(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(i);
+            if (ca >= 'A' && ca <= 'Z') {
+                ca += 'a' - 'A';
+            }
+            if (cb >= 'A' && cb <= 'Z') {
+                cb += 'a' - 'A';
+            }
+            if (ca != cb) {
+                return ca - cb;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BookRow)) {
+            return false;
+        }
+        BookRow other = (BookRow) o;
+        return id == other.id && price == other.price && stock == other.stock
+                && (name == null ? other.name == null : name.equals(other.name));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + (name == null ? 0 : name.hashCode());
+        result = 31 * result + (int) (price ^ (price >>> 32));
+        result = 31 * result + (int) (stock ^ (stock >>> 32));
+        return result;
+    }
+}
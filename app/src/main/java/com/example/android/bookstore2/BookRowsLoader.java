@@ -0,0 +1,109 @@
+package com.example.android.bookstore2;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads the books at a content URI as a list of {@link BookRow}s. The rows are copied on the
+ * loader's background thread and the cursor is closed right away.
+ *
+ * Unlike a {@link android.content.CursorLoader}, this loader does not watch its URI: every
+ * change to a single book would otherwise requery the whole list. The activity watches the
+ * books instead, patches the row of a changed book in place, and only restarts the loader
+ * when rows have to be added, removed or moved.
+ */
+class BookRowsLoader extends AsyncTaskLoader<List<BookRow>> {
+
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+
+    private List<BookRow> mRows;
+    private CancellationSignal mCancellationSignal;
+
+    BookRowsLoader(Context context, Uri uri, String[] projection, String selection,
+                   String[] selectionArgs) {
+        super(context);
+        mUri = uri;
+        mProjection = projection;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+    }
+
+    @Override
+    public List<BookRow> loadInBackground() {
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
+            }
+            mCancellationSignal = new CancellationSignal();
+        }
+        try {
+            Cursor cursor = getContext().getContentResolver().query(mUri, mProjection, mSelection,
+                    mSelectionArgs, null, mCancellationSignal);
+            if (cursor == null) {
+                return Collections.emptyList();
+            }
+            try {
+                return BookRow.readAll(cursor);
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            synchronized (this) {
+                mCancellationSignal = null;
+            }
+        }
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+        synchronized (this) {
+            if (mCancellationSignal != null) {
+                mCancellationSignal.cancel();
+            }
+        }
+    }
+
+    @Override
+    public void deliverResult(List<BookRow> rows) {
+        if (isReset()) {
+            return;
+        }
+        mRows = rows;
+        if (isStarted()) {
+            super.deliverResult(rows);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mRows != null) {
+            deliverResult(mRows);
+        }
+        if (takeContentChanged() || mRows == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mRows = null;
+    }
+}
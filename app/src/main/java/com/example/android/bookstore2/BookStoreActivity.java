@@ -2,36 +2,217 @@ package com.example.android.bookstore2;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
-import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
+import android.content.SharedPreferences;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.ListView;
+import android.widget.EditText;
 import android.support.design.widget.FloatingActionButton;
 import android.widget.Toast;
 
+import com.example.android.bookstore2.data.BookContract;
 import com.example.android.bookstore2.data.BookContract.BookEntry;
+import com.example.android.bookstore2.data.BookGenerator;
+import com.example.android.bookstore2.data.BookImporter;
+import com.example.android.bookstore2.data.BookWriteQueue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Displays list of books that were entered and stored in the app.
  */
-public class BookStoreActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor>{
+public class BookStoreActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<List<BookRow>>{
+
+    private static final String LOG_TAG = BookStoreActivity.class.getSimpleName();
 
     /**
      * Constant value for the book loader ID. We can choose any integer.
      * This really only comes into play if you're using multiple loaders.
      */
     private static final int BOOK_LOADER = 0;
+
+    /**
+     * Number of books fetched per page. Page n of the list is loaded by the loader with id
+     * BOOK_LOADER + n, so only the pages the user has scrolled to are ever queried.
+     */
+    private static final int PAGE_SIZE = 50;
+
+    /** Loader ID for the search results, kept apart from the page loaders */
+    private static final int SEARCH_LOADER = -1;
+
+    /** How long typing has to pause before a search is started */
+    private static final long SEARCH_DELAY_MILLIS = 250;
+
+    /** Maximum number of search results shown */
+    private static final int SEARCH_LIMIT = 100;
+
+    /** Loader argument key for the search text */
+    private static final String ARG_QUERY = "query";
+
+    /** The columns the list shows, and no others */
+    private static final String[] LIST_PROJECTION = BookEntry.LIST_COLUMNS;
+
+    /** The columns read to patch a changed book: the list columns, and the supplier to filter by */
+    private static final String[] CHANGED_BOOK_PROJECTION = {
+            BookEntry._ID,
+            BookEntry.COLUMN_PRODUCT_NAME,
+            BookEntry.COLUMN_PRODUCT_PRICE,
+            BookEntry.COLUMN_PRODUCT_QUANTITY,
+            BookEntry.COLUMN_SUPPLIER_NAME
+    };
+
+    /** Request code of the file picker for the catalogue to import */
+    private static final int IMPORT_REQUEST = 1;
+
+    /** Preferences keeping the checkpoint of each unfinished import, keyed by file URI */
+    private static final String IMPORT_PREFERENCES = "imports";
+
+    /** Numbers of dummy books that can be inserted, in the order of R.array.generate_sizes */
+    private static final int[] GENERATE_SIZES = {1, 1000, 10000, 100000, 1000000};
+
+    /** Loader argument keys for the row a page starts after */
+    private static final String ARG_AFTER_ID = "after_id";
+    private static final String ARG_AFTER_VALUE = "after_value";
+
+    /** Column the list is ordered by */
+    private String mSortColumn = BookEntry._ID;
+
+    /** Whether the list only shows the books running low */
+    private boolean mLowStockOnly;
+
+    /** Supplier whose books the list shows, or null for all suppliers */
+    private String mSupplierFilter;
+
+    /** Rows of the loaded pages, copied out of their loaders' cursors, in list order */
+    private final ArrayList<List<BookRow>> mPages = new ArrayList<>();
+
+    /** The loader arguments each page was started with, in list order */
+    private final ArrayList<Bundle> mPageStarts = new ArrayList<>();
+
+    /** The search being shown instead of the pages, or null when not searching */
+    private String mSearchQuery;
+
+    /** The search results on screen */
+    private List<BookRow> mSearchRows;
+
+    /** Search text waiting for the user to stop typing */
+    private String mPendingQuery;
+
+    private final Handler mHandler = new Handler();
+
+    /** The import running, or null */
+    private ImportTask mImportTask;
+
+    /** The dummy books being inserted, or null */
+    private GenerateTask mGenerateTask;
+
+    /** Starts the pending search once typing has paused */
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            startSearch(mPendingQuery);
+        }
+    };
+
+    /**
+     * Runs {@link #mBookObserver}, so the changed books are read neither on the main thread nor
+     * on the thread that made the change, which delivers the notification when the change is
+     * made in this process.
+     */
+    private final HandlerThread mObserverThread = new HandlerThread(LOG_TAG + " observer");
+
+    /** Watches the books, see {@link BookObserver} */
+    private ContentObserver mBookObserver;
+
+    /**
+     * Watches the books. The provider notifies the URI of the one book that changed when it
+     * can, and that book alone is read again, on {@link #mObserverThread}, then patched into
+     * the list on the main thread.
+     */
+    private class BookObserver extends ContentObserver {
+
+        BookObserver(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            final long bookId = bookIdOf(uri);
+            if (bookId == -1) {
+                // Several books changed, load everything on screen again
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        refreshAll();
+                    }
+                });
+                return;
+            }
+
+            BookRow row = null;
+            String supplier = null;
+            Cursor cursor = getContentResolver().query(
+                    ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId),
+                    CHANGED_BOOK_PROJECTION, null, null, null);
+            if (cursor != null) {
+                try {
+                    List<BookRow> rows = BookRow.readAll(cursor);
+                    if (!rows.isEmpty()) {
+                        row = rows.get(0);
+                        cursor.moveToFirst();
+                        supplier = cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_SUPPLIER_NAME));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            final BookRow changedRow = row;
+            final String changedSupplier = supplier;
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onBookChanged(bookId, changedRow, changedSupplier);
+                }
+            });
+        }
+    }
+
     // This is the Adapter being used to display the list's data.
-    BookCursorAdapter mCursorAdapter;
+    BookListAdapter mListAdapter;
+
+    /** Shown instead of the list while it has no books */
+    private View mEmptyView;
+
+    /** The first screen of the list as it was last shown */
+    private FirstScreenSnapshot mSnapshot;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -48,62 +229,507 @@ public class BookStoreActivity extends AppCompatActivity implements LoaderManage
             }
         });
 
-        // Find a reference to the {@link ListView} in the layout
-        final ListView bookListView = (ListView) findViewById(R.id.list_view_book);
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = (View) findViewById(R.id.empty_view);
-        bookListView.setEmptyView(emptyView);
+        // Find a reference to the {@link RecyclerView} in the layout
+        RecyclerView bookListView = (RecyclerView) findViewById(R.id.list_view_book);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        bookListView.setLayoutManager(layoutManager);
+        // Find the empty view, so that it only shows when the list has 0 items.
+        mEmptyView = findViewById(R.id.empty_view);
 
-        /* Setup an adapter to create a list item for each row of pet data in Cursor
-         * There is no book data yet (until the loader finishes), so pass in null for the Cursor
+        /* Setup an adapter to create a list item for each book row.
+         * There is no book data yet (until the loader finishes), so the list starts empty.
          */
-        mCursorAdapter = new BookCursorAdapter(this, null);
-        bookListView.setAdapter(mCursorAdapter);
+        mListAdapter = new BookListAdapter(this);
+        bookListView.setAdapter(mListAdapter);
+
+        // Show the first screen as it was last time until the first page is loaded. The
+        // provider has been opening the database since the process started.
+        mSnapshot = new FirstScreenSnapshot(this);
+        List<BookRow> snapshot = mSnapshot.read();
+        if (!snapshot.isEmpty()) {
+            showRows(snapshot);
+        }
 
-        // Start the loader
-        getLoaderManager().initLoader(BOOK_LOADER, null, this);
+        // Load the next page when the user gets close to the end of what is loaded
+        bookListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (mSearchQuery == null && layoutManager.findLastVisibleItemPosition()
+                        >= mListAdapter.getItemCount() - PAGE_SIZE / 2) {
+                    loadNextPage();
+                }
+            }
+        });
+
+        // Start the loader for the first page
+        startPage(0, new Bundle());
+
+        // The loaders don't watch the books themselves, changes are patched in from here
+        mObserverThread.start();
+        mBookObserver = new BookObserver(new Handler(mObserverThread.getLooper()));
+        getContentResolver().registerContentObserver(BookEntry.CONTENT_URI, true, mBookObserver);
+
+        // Report to this activity from the tasks started before a configuration change
+        RetainedTasks tasks = (RetainedTasks) getLastCustomNonConfigurationInstance();
+        if (tasks != null) {
+            mImportTask = tasks.importTask;
+            if (mImportTask != null) {
+                mImportTask.mActivity = this;
+            }
+            mGenerateTask = tasks.generateTask;
+            if (mGenerateTask != null) {
+                mGenerateTask.mActivity = this;
+            }
+        }
     }
 
+    /**
+     * Return the id of the book a change notification is about, or -1 if it is about more than
+     * one book.
+     */
+    private static long bookIdOf(Uri uri) {
+        if (uri == null) {
+            return -1;
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2 || !segments.get(0).equals(BookContract.PATH_BOOKS)
+                || !TextUtils.isDigitsOnly(segments.get(1)) || segments.get(1).isEmpty()) {
+            return -1;
+        }
+        return Long.parseLong(segments.get(1));
+    }
 
-    public void insertBook() {
+    /**
+     * Bring the list up to date with one changed book. A book that is still in the same place
+     * is replaced in its page, so only its row is rebound. Otherwise only the page the book
+     * leaves or joins is loaded again; the pages after it follow through the chain in
+     * {@link #onLoadFinished}.
+     *
+     * @param row      the book as it is now, or null if it was deleted
+     * @param supplier the book's supplier name, to check it against the supplier filter
+     */
+    private void onBookChanged(long bookId, BookRow row, String supplier) {
+        if (isDestroyed()) {
+            // The notification raced with onDestroy
+            return;
+        }
+        if (mSearchQuery != null && mSearchRows != null) {
+            int index = indexOf(mSearchRows, bookId);
+            BookRow old = index >= 0 ? mSearchRows.get(index) : null;
+            if (old != null && row != null && old.name.equals(row.name)) {
+                // The book still matches, show its new price and stock
+                List<BookRow> rows = new ArrayList<>(mSearchRows);
+                rows.set(index, row);
+                mSearchRows = rows;
+                showRows(rows);
+            } else if (old != null || row != null) {
+                // The book was deleted, added or renamed, search again
+                restartSearch();
+            }
+        }
 
-        // Create a new map of values, where column names are the keys
-        ContentValues values = new ContentValues();
-        values.put(BookEntry.COLUMN_PRODUCT_NAME, "Test Book");
-        values.put(BookEntry.COLUMN_PRODUCT_PRICE, 999);
-        values.put(BookEntry.COLUMN_PRODUCT_QUANTITY, 9);
-        values.put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier Name Test");
-        values.put(BookEntry.COLUMN_SUPPLIER_PHONE, 99999999);
+        boolean listed = row != null
+                && (!mLowStockOnly || row.stock < BookEntry.LOW_STOCK_THRESHOLD)
+                && (mSupplierFilter == null || mSupplierFilter.equals(supplier));
+        for (int page = 0; page < mPages.size(); page++) {
+            List<BookRow> rows = mPages.get(page);
+            int index = rows == null ? -1 : indexOf(rows, bookId);
+            if (index == -1) {
+                continue;
+            }
+            if (listed && rows.get(index).compareTo(row, mSortColumn) == 0) {
+                rows.set(index, row);
+                showPages();
+            } else if (!listed) {
+                startPage(page, mPageStarts.get(page));
+            } else {
+                // The book moved, load everything on screen again
+                refreshAll();
+            }
+            return;
+        }
 
-        // Insert a new row for Test Book into the provider using the ContentResolver.
-        // Use the {@link BookEntry#CONTENT_URI} to indicate that we want to insert
-        // into the books database table.
-        // Receive the new content URI that will allow us to access Test Book's data in the future.
-        Uri newUri = getContentResolver().insert(BookEntry.CONTENT_URI, values);
+        if (listed) {
+            // A new book, or one that now passes the filters: reload the page it falls into.
+            // If it falls after the loaded pages, it will be loaded with them.
+            for (int page = 0; page < mPages.size(); page++) {
+                List<BookRow> rows = mPages.get(page);
+                if (rows == null) {
+                    return;
+                }
+                boolean lastPage = page == mPages.size() - 1;
+                if ((lastPage && rows.size() < PAGE_SIZE) || (!rows.isEmpty()
+                        && row.compareTo(rows.get(rows.size() - 1), mSortColumn) < 0)) {
+                    startPage(page, mPageStarts.get(page));
+                    return;
+                }
+            }
+        }
+    }
 
+    /**
+     * Return the index of the book with the given id in the rows, or -1.
+     */
+    private static int indexOf(List<BookRow> rows, long bookId) {
+        for (int i = 0; i < rows.size(); i++) {
+            if (rows.get(i).id == bookId) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /**
-     * Perform the deletion of all entries in the database.
+     * Load every page on screen, and the search results if they are shown, again from where
+     * they start, after a change to more than one book.
      */
-    private void deleteAllBooks() {
-        int rowsDeleted = getContentResolver().delete(BookEntry.CONTENT_URI, null, null);
-        Cursor cursor = getContentResolver().query(BookEntry.CONTENT_URI, null, null, null, null);
-//        if (cursor!= null) {
-//            int countDeleted = cursor.getCount();
-//        }
-        // Show a toast message depending on whether or not the delete was successful.
-        if (!(cursor.getCount()==0)) {
-            // If no rows were deleted, then there was an error with the delete.
-            Toast.makeText(this, getString(R.string.delete_all_failed),
-                    Toast.LENGTH_SHORT).show();
+    private void refreshAll() {
+        if (isDestroyed()) {
+            return;
+        }
+        for (int page = 0; page < mPageStarts.size(); page++) {
+            getLoaderManager().restartLoader(BOOK_LOADER + page, mPageStarts.get(page), this);
+        }
+        if (mSearchQuery != null) {
+            restartSearch();
+        }
+    }
+
+    /**
+     * Start the loader of the given page, which begins after the row described by args.
+     */
+    private void startPage(int page, Bundle args) {
+        if (page < mPageStarts.size()) {
+            mPageStarts.set(page, args);
+            getLoaderManager().restartLoader(BOOK_LOADER + page, args, this);
         } else {
-            // Otherwise, the delete was successful and we can display a toast.
-            Toast.makeText(this, getString(R.string.delete_all_success)+ " (" + rowsDeleted + ")",
-                    Toast.LENGTH_SHORT).show();
+            mPageStarts.add(args);
+            mPages.add(null);
+            getLoaderManager().initLoader(BOOK_LOADER + page, args, this);
         }
-        cursor.close();
+    }
+
+    /**
+     * Describe the last row of a page, which is where the following page starts.
+     */
+    private Bundle nextPageStart(List<BookRow> page) {
+        Bundle args = new Bundle();
+        if (!page.isEmpty()) {
+            BookRow last = page.get(page.size() - 1);
+            args.putLong(ARG_AFTER_ID, last.id);
+            if (!mSortColumn.equals(BookEntry._ID)) {
+                args.putString(ARG_AFTER_VALUE, last.sortValue(mSortColumn));
+            }
+        }
+        return args;
+    }
+
+    /**
+     * Start loading the page after the last one, unless a page is still loading or the
+     * last page was not full (so there is nothing more to load).
+     */
+    private void loadNextPage() {
+        int last = mPages.size() - 1;
+        List<BookRow> lastPage = mPages.get(last);
+        if (lastPage == null || lastPage.size() < PAGE_SIZE) {
+            return;
+        }
+        startPage(last + 1, nextPageStart(lastPage));
+    }
 
+    /**
+     * Throw away the loaded pages and load the list again from the first page, after the sort
+     * order or a filter changed.
+     */
+    private void reloadPages() {
+        for (int page = 0; page < mPages.size(); page++) {
+            getLoaderManager().destroyLoader(BOOK_LOADER + page);
+        }
+        mPages.clear();
+        mPageStarts.clear();
+        startPage(0, new Bundle());
+    }
+
+    /**
+     * Show all the loaded pages in the list, one after the other.
+     */
+    private void showPages() {
+        // Keep the first screen of the unfiltered list for the next start
+        if (mSortColumn.equals(BookEntry._ID) && !mLowStockOnly && mSupplierFilter == null
+                && !mPages.isEmpty() && mPages.get(0) != null) {
+            mSnapshot.save(mPages.get(0));
+        }
+        if (mSearchQuery != null) {
+            // The search results are on screen, the pages are shown again when the search ends
+            return;
+        }
+        ArrayList<BookRow> rows = new ArrayList<>();
+        for (List<BookRow> page : mPages) {
+            if (page != null) {
+                rows.addAll(page);
+            }
+        }
+        showRows(rows);
+    }
+
+    /**
+     * Show the given rows in the list. The adapter compares them with the rows on screen on a
+     * background thread and only rebinds the ones that changed.
+     */
+    private void showRows(List<BookRow> rows) {
+        mListAdapter.submitList(rows);
+        mEmptyView.setVisibility(rows.isEmpty() ? View.VISIBLE : View.GONE);
+    }
+
+
+    /**
+     * Let the user pick how many dummy books to insert, then insert them in the background.
+     */
+    private void showGenerateDialog() {
+        if (mGenerateTask != null) {
+            Toast.makeText(this, getString(R.string.generate_running), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.generate_dialog_title);
+        builder.setItems(R.array.generate_sizes, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int which) {
+                if (mGenerateTask == null) {
+                    mGenerateTask = new GenerateTask(BookStoreActivity.this, GENERATE_SIZES[which]);
+                    mGenerateTask.execute();
+                }
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Show how many dummy books have been inserted so far, or nothing once they all are.
+     */
+    private void showGenerateProgress(int inserted, int count) {
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setSubtitle(inserted == count ? null
+                    : getString(R.string.generate_progress, inserted, count));
+        }
+    }
+
+    private void onGenerateDone(Integer inserted, int count) {
+        mGenerateTask = null;
+        showGenerateProgress(count, count);
+        if (inserted == null) {
+            Toast.makeText(this, getString(R.string.generate_failed), Toast.LENGTH_LONG).show();
+        } else {
+            Toast.makeText(this, getString(R.string.generate_done, inserted), Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Inserts made up books in the background, see {@link BookGenerator}. Every run uses the
+     * same seed, so the same number of books gives the same inventory on every device. The
+     * list picks up the new books from the provider's notifications.
+     */
+    private static class GenerateTask extends AsyncTask<Void, Integer, Integer> {
+        private final ContentResolver mResolver;
+        private final int mCount;
+
+        /** The activity to report to, or null once it is destroyed. Only used on the main thread. */
+        BookStoreActivity mActivity;
+
+        GenerateTask(BookStoreActivity activity, int count) {
+            mActivity = activity;
+            mResolver = activity.getApplicationContext().getContentResolver();
+            mCount = count;
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            try {
+                return new BookGenerator(BookGenerator.DEFAULT_SEED).insert(mResolver, mCount,
+                        new BookGenerator.Listener() {
+                            @Override
+                            public boolean onChunkInserted(int inserted) {
+                                publishProgress(inserted);
+                                return !isCancelled();
+                            }
+                        });
+            } catch (SQLException e) {
+                Log.e(LOG_TAG, "Inserting " + mCount + " dummy books failed", e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... inserted) {
+            if (mActivity != null) {
+                mActivity.showGenerateProgress(inserted[0], mCount);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Integer inserted) {
+            if (mActivity != null) {
+                mActivity.onGenerateDone(inserted, mCount);
+            }
+        }
+    }
+
+    /**
+     * Let the user pick a CSV file of books to import.
+     */
+    private void pickImportFile() {
+        if (mImportTask != null) {
+            Toast.makeText(this, getString(R.string.import_running), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        // Files are not always given the CSV type, so plain text is accepted too
+        intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[]{
+                BookEntry.MIME_TYPE_CSV, "text/comma-separated-values", "text/plain"});
+        startActivityForResult(intent, IMPORT_REQUEST);
+    }
+
+    /** The tasks handed over to the activity recreated after a configuration change */
+    private static class RetainedTasks {
+        ImportTask importTask;
+        GenerateTask generateTask;
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        if (mImportTask == null && mGenerateTask == null) {
+            return null;
+        }
+        RetainedTasks tasks = new RetainedTasks();
+        tasks.importTask = mImportTask;
+        tasks.generateTask = mGenerateTask;
+        return tasks;
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == IMPORT_REQUEST) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null
+                    && mImportTask == null) {
+                mImportTask = new ImportTask(this, data.getData());
+                mImportTask.execute();
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    /**
+     * Show how many books the running import has written so far, or nothing once it is done.
+     */
+    private void showImportProgress(BookImporter.Progress progress) {
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setSubtitle(progress == null ? null
+                    : getString(R.string.import_progress, progress.getImported()));
+        }
+    }
+
+    private void onImportDone(BookImporter.Progress progress) {
+        mImportTask = null;
+        showImportProgress(null);
+        if (progress == null) {
+            Toast.makeText(this, getString(R.string.import_failed), Toast.LENGTH_LONG).show();
+        } else {
+            Toast.makeText(this, getString(R.string.import_done, progress.getImported(),
+                    progress.getRejected()), Toast.LENGTH_LONG).show();
+        }
+    }
+
+    /**
+     * Imports a CSV file of books in the background. The checkpoint is saved after every chunk,
+     * so an import that is stopped resumes where it was when the same file is picked again.
+     * The list picks up the new books from the provider's notifications.
+     */
+    private static class ImportTask extends AsyncTask<Void, BookImporter.Progress, BookImporter.Progress> {
+        private final SharedPreferences mPreferences;
+        private final ContentResolver mResolver;
+        private final Uri mUri;
+
+        /** The activity to report to, or null once it is destroyed. Only used on the main thread. */
+        BookStoreActivity mActivity;
+
+        ImportTask(BookStoreActivity activity, Uri uri) {
+            mActivity = activity;
+            mResolver = activity.getApplicationContext().getContentResolver();
+            mPreferences = activity.getApplicationContext()
+                    .getSharedPreferences(IMPORT_PREFERENCES, MODE_PRIVATE);
+            mUri = uri;
+        }
+
+        @Override
+        protected BookImporter.Progress doInBackground(Void... params) {
+            final String key = mUri.toString();
+            try {
+                InputStream in = mResolver.openInputStream(mUri);
+                if (in == null) {
+                    throw new IOException("No content at " + mUri);
+                }
+                BookImporter.Progress progress = new BookImporter(mResolver).importBooks(
+                        new InputStreamReader(in, "UTF-8"), mPreferences.getLong(key, 0),
+                        new BookImporter.Listener() {
+                            @Override
+                            public boolean onChunkImported(BookImporter.Progress progress) {
+                                mPreferences.edit().putLong(key, progress.getCheckpoint()).apply();
+                                publishProgress(progress);
+                                return !isCancelled();
+                            }
+                        });
+                if (progress.isFinished()) {
+                    mPreferences.edit().remove(key).apply();
+                }
+                return progress;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Import of " + mUri + " failed", e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(BookImporter.Progress... progress) {
+            if (mActivity != null) {
+                mActivity.showImportProgress(progress[0]);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(BookImporter.Progress progress) {
+            if (mActivity != null) {
+                mActivity.onImportDone(progress);
+            }
+        }
+    }
+
+    /**
+     * Perform the deletion of all entries in the database.
+     */
+    private void deleteAllBooks() {
+        // Deleting a large inventory takes a while, so it is done on the write queue's thread
+        boolean queued = BookWriteQueue.getInstance(this).delete(BookEntry.CONTENT_URI, null, null,
+                new BookWriteQueue.Callback() {
+                    @Override
+                    public void onWriteDone(long rowsDeleted) {
+                        // Show a toast message depending on whether or not the delete was successful.
+                        if (rowsDeleted < 0) {
+                            // If the delete failed, then there was an error with the delete.
+                            Toast.makeText(BookStoreActivity.this, getString(R.string.delete_all_failed),
+                                    Toast.LENGTH_SHORT).show();
+                        } else {
+                            // Otherwise, the delete was successful and we can display a toast.
+                            Toast.makeText(BookStoreActivity.this,
+                                    getString(R.string.delete_all_success) + " (" + rowsDeleted + ")",
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                });
+        if (!queued) {
+            Toast.makeText(this, getString(R.string.write_queue_full), Toast.LENGTH_SHORT).show();
+        }
     }
 
     @Override
@@ -111,54 +737,202 @@ public class BookStoreActivity extends AppCompatActivity implements LoaderManage
         // Inflate the menu options from the res/menu/menu_bookstore.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_bookstore, menu);
+
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                mHandler.removeCallbacks(mSearchRunnable);
+                startSearch(query.trim());
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                // Wait for a pause in typing instead of searching on every keystroke
+                mHandler.removeCallbacks(mSearchRunnable);
+                mPendingQuery = newText.trim();
+                if (mPendingQuery.isEmpty()) {
+                    startSearch(mPendingQuery);
+                } else {
+                    mHandler.postDelayed(mSearchRunnable, SEARCH_DELAY_MILLIS);
+                }
+                return true;
+            }
+        });
         return true;
     }
 
+    /**
+     * Show the books matching the given text, or go back to the full list if it is empty.
+     * Restarting the search loader cancels a search that is still running for older text.
+     */
+    private void startSearch(String query) {
+        if (query.isEmpty()) {
+            if (mSearchQuery != null) {
+                mSearchQuery = null;
+                getLoaderManager().destroyLoader(SEARCH_LOADER);
+                showPages();
+            }
+            return;
+        }
+        if (query.equals(mSearchQuery)) {
+            return;
+        }
+        mSearchQuery = query;
+        restartSearch();
+    }
+
+    /**
+     * Run the current search again.
+     */
+    private void restartSearch() {
+        Bundle args = new Bundle();
+        args.putString(ARG_QUERY, mSearchQuery);
+        getLoaderManager().restartLoader(SEARCH_LOADER, args, this);
+    }
+
+    @Override
+    protected void onDestroy() {
+        getContentResolver().unregisterContentObserver(mBookObserver);
+        // A book being read carries on, and onBookChanged() ignores it once destroyed
+        mObserverThread.quit();
+        mHandler.removeCallbacksAndMessages(null);
+        if (mImportTask != null) {
+            mImportTask.mActivity = null;
+            // A running import carries on across a configuration change, see
+            // onRetainCustomNonConfigurationInstance()
+            if (isFinishing()) {
+                // Stop after the current chunk, picking the same file again resumes from there
+                mImportTask.cancel(false);
+            }
+        }
+        if (mGenerateTask != null) {
+            mGenerateTask.mActivity = null;
+            if (isFinishing()) {
+                mGenerateTask.cancel(false);
+            }
+        }
+        super.onDestroy();
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
             // Respond to a click on the "Insert dummy data" menu option
             case R.id.action_insert_dummy_data:
-                insertBook();
+                showGenerateDialog();
+                return true;
+            // Respond to a click on the "Import books" menu option
+            case R.id.action_import:
+                pickImportFile();
                 return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 showDeleteConfirmationDialog();
                 return true;
+            // Respond to the sort order choices, each one is backed by an index
+            case R.id.action_sort_added:
+                sortBy(item, BookEntry._ID);
+                return true;
+            case R.id.action_sort_name:
+                sortBy(item, BookEntry.COLUMN_PRODUCT_NAME);
+                return true;
+            case R.id.action_sort_price:
+                sortBy(item, BookEntry.COLUMN_PRODUCT_PRICE);
+                return true;
+            // Respond to a click on the "Low stock only" menu option
+            case R.id.action_filter_low_stock:
+                mLowStockOnly = !item.isChecked();
+                item.setChecked(mLowStockOnly);
+                reloadPages();
+                return true;
+            // Respond to a click on the "Filter by supplier" menu option
+            case R.id.action_filter_supplier:
+                showSupplierFilterDialog();
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Order the list by the given column and check the menu item of that choice.
+     */
+    private void sortBy(MenuItem item, String sortColumn) {
+        item.setChecked(true);
+        if (!sortColumn.equals(mSortColumn)) {
+            mSortColumn = sortColumn;
+            reloadPages();
+        }
+    }
+
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        String[] projection = {
-                BookEntry._ID,
-                BookEntry.COLUMN_PRODUCT_NAME,
-                BookEntry.COLUMN_PRODUCT_PRICE,
-                BookEntry.COLUMN_PRODUCT_QUANTITY,
-                BookEntry.COLUMN_SUPPLIER_NAME,
-                BookEntry.COLUMN_SUPPLIER_PHONE
-        };
-        return new CursorLoader(this,
-                BookEntry.CONTENT_URI,
-                projection,
-                null,
+    public Loader<List<BookRow>> onCreateLoader(int id, Bundle args) {
+        Uri pageUri;
+        if (id == SEARCH_LOADER) {
+            pageUri = BookEntry.buildSearchUri(args.getString(ARG_QUERY)).buildUpon()
+                    .appendQueryParameter(BookEntry.QUERY_PARAMETER_LIMIT, String.valueOf(SEARCH_LIMIT))
+                    .build();
+        } else if (args.containsKey(ARG_AFTER_ID)) {
+            pageUri = BookEntry.buildNextPageUri(mSortColumn, args.getString(ARG_AFTER_VALUE),
+                    args.getLong(ARG_AFTER_ID), PAGE_SIZE);
+        } else {
+            pageUri = BookEntry.buildFirstPageUri(mSortColumn, PAGE_SIZE);
+        }
+        if (id != SEARCH_LOADER && (mLowStockOnly || mSupplierFilter != null)) {
+            Uri.Builder builder = pageUri.buildUpon();
+            if (mLowStockOnly) {
+                builder.appendQueryParameter(BookEntry.QUERY_PARAMETER_FILTER, BookEntry.FILTER_LOW_STOCK);
+            }
+            if (mSupplierFilter != null) {
+                builder.appendQueryParameter(BookEntry.QUERY_PARAMETER_SUPPLIER, mSupplierFilter);
+            }
+            pageUri = builder.build();
+        }
+        return new BookRowsLoader(this,
+                pageUri,
+                LIST_PROJECTION,
                 null,
                 null);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Swap the new cursor in.  (The framework will take care of closing the
-        // old cursor once we return.)
-        mCursorAdapter.swapCursor(data);
+    public void onLoadFinished(Loader<List<BookRow>> loader, List<BookRow> rows) {
+        if (loader.getId() == SEARCH_LOADER) {
+            if (mSearchQuery != null) {
+                mSearchRows = rows;
+                showRows(rows);
+            }
+            return;
+        }
+        int page = loader.getId() - BOOK_LOADER;
+        // Copy the rows, changed books are patched into them
+        rows = new ArrayList<>(rows);
+        mPages.set(page, rows);
+
+        // If the page changed so that it now ends on a different row, the following page
+        // has to start from there, otherwise rows would be skipped or shown twice.
+        int next = page + 1;
+        if (next < mPages.size()) {
+            // An emptied page hands its own start on to the next one
+            Bundle nextStart = !rows.isEmpty() ? nextPageStart(rows) : mPageStarts.get(page);
+            Bundle currentStart = mPageStarts.get(next);
+            if (nextStart.getLong(ARG_AFTER_ID) != currentStart.getLong(ARG_AFTER_ID)) {
+                startPage(next, nextStart);
+            }
+        }
+
+        // Show the new pages
+        showPages();
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // Callback called when data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+    public void onLoaderReset(Loader<List<BookRow>> loader) {
+        // Callback called when data needs to be deleted. The list only holds copies of the
+        // rows, so there is no cursor to let go of, and the rows stay on screen until the
+        // next load replaces them.
     }
 
     private void showDeleteConfirmationDialog() {
@@ -186,4 +960,39 @@ public class BookStoreActivity extends AppCompatActivity implements LoaderManage
         AlertDialog alertDialog = builder.create();
         alertDialog.show();
     }
+
+    private void showSupplierFilterDialog() {
+        final EditText supplierEditText = new EditText(this);
+        supplierEditText.setSingleLine();
+        supplierEditText.setHint(R.string.hint_supplier_name);
+        if (mSupplierFilter != null) {
+            supplierEditText.setText(mSupplierFilter);
+        }
+
+        // Create an AlertDialog.Builder and set the message, the supplier field and click listeners
+        // for the positive and negative buttons on the dialog.
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(R.string.filter_supplier_dialog_msg);
+        builder.setView(supplierEditText);
+        builder.setPositiveButton(R.string.filter, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // User clicked the "Filter" button, so show the books of that supplier only
+                String supplier = supplierEditText.getText().toString().trim();
+                mSupplierFilter = supplier.isEmpty() ? null : supplier;
+                reloadPages();
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // User clicked the "Cancel" button, so dismiss the dialog
+                if (dialog != null) {
+                    dialog.dismiss();
+                }
+            }
+        });
+
+        // Create and show the AlertDialog
+        AlertDialog alertDialog = builder.create();
+        alertDialog.show();
+    }
 }
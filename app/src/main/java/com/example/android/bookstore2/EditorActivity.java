@@ -2,6 +2,7 @@ package com.example.android.bookstore2;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager.LoaderCallbacks;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
@@ -12,18 +13,21 @@ import android.net.Uri;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.text.Editable;
 import android.text.TextUtils;
-import android.view.KeyEvent;
+import android.text.TextWatcher;
 import android.view.Menu;
 import android.view.MenuItem;
-import android.view.MotionEvent;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
-import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.android.bookstore2.data.BookContract.BookEntry;
+import com.example.android.bookstore2.data.BookWriteQueue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
 
 /**
  * Allows user to create a new book or edit an existing one.
@@ -64,8 +68,23 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
     /** Content URI for the existing book (null if it's a new book) */
     private Uri mCurrentBookUri;
 
-    /** Track if there are any changes to the data */
-    private boolean mBookHasChanged = false;
+    /** Saved state key for the columns the user has changed */
+    private static final String STATE_DIRTY_COLUMNS = "dirty_columns";
+
+    /** Saved state key for the stock of the book as last read or written */
+    private static final String STATE_SAVED_STOCK = "saved_stock";
+
+    /** Saved state key for the stock changes not written to the database yet */
+    private static final String STATE_PENDING_STOCK_CHANGE = "pending_stock_change";
+
+    /** The columns the user has changed and not saved yet, see {@link DirtyWatcher} */
+    private final HashSet<String> mDirtyColumns = new HashSet<>();
+
+    /** Whether the fields are being filled in by the editor rather than by the user */
+    private boolean mBinding = false;
+
+    /** The writes of this editor on the write queue, kept across configuration changes */
+    private QueuedWrites mWrites;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -91,15 +110,25 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
         mMinusOne = (Button) findViewById(R.id.button_minus_one);
         mCallSupplier = (Button) findViewById(R.id.button_call_order);
 
+        // Writes still on the queue report to this editor from now on
+        mWrites = (QueuedWrites) getLastCustomNonConfigurationInstance();
+        if (mWrites == null) {
+            mWrites = new QueuedWrites();
+            if (savedInstanceState != null) {
+                // The process was restarted, so the stock changes that were on their way are
+                // either saved or lost; show what the user saw until the book is loaded again
+                mWrites.mSavedStock = savedInstanceState.getLong(STATE_SAVED_STOCK)
+                        + savedInstanceState.getLong(STATE_PENDING_STOCK_CHANGE);
+            }
+        }
+        mWrites.mActivity = this;
 
-        mBookNameEditText.setOnKeyListener(mKeyListener);
-        mBookNameEditText.setOnTouchListener(mTouchListener);
-        mBookPriceEditText.setOnTouchListener(mTouchListener);
-        mBookStockEditText.setOnTouchListener(mTouchListener);
-        mSupplierNameEditText.setOnTouchListener(mTouchListener);
-        mSupplierNumberEditText.setOnTouchListener(mTouchListener);
-        mPlusOne.setOnTouchListener(mTouchListener);
-        mMinusOne.setOnTouchListener(mTouchListener);
+        // Note which fields the user changes, so only those columns are saved
+        mBookNameEditText.addTextChangedListener(new DirtyWatcher(BookEntry.COLUMN_PRODUCT_NAME));
+        mBookPriceEditText.addTextChangedListener(new DirtyWatcher(BookEntry.COLUMN_PRODUCT_PRICE));
+        mBookStockEditText.addTextChangedListener(new DirtyWatcher(BookEntry.COLUMN_PRODUCT_QUANTITY));
+        mSupplierNameEditText.addTextChangedListener(new DirtyWatcher(BookEntry.COLUMN_SUPPLIER_NAME));
+        mSupplierNumberEditText.addTextChangedListener(new DirtyWatcher(BookEntry.COLUMN_SUPPLIER_PHONE));
 
         /**
          * Set the title of EditorActivity on which situation we have
@@ -127,6 +156,38 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
         }
     }
 
+    @Override
+    protected void onRestoreInstanceState(Bundle savedInstanceState) {
+        // The fields get back the text the user typed, which is still unsaved
+        mBinding = true;
+        super.onRestoreInstanceState(savedInstanceState);
+        mBinding = false;
+        ArrayList<String> dirtyColumns = savedInstanceState.getStringArrayList(STATE_DIRTY_COLUMNS);
+        if (dirtyColumns != null) {
+            mDirtyColumns.addAll(dirtyColumns);
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putStringArrayList(STATE_DIRTY_COLUMNS, new ArrayList<>(mDirtyColumns));
+        outState.putLong(STATE_SAVED_STOCK, mWrites.mSavedStock);
+        outState.putLong(STATE_PENDING_STOCK_CHANGE, mWrites.mPendingStockChange);
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return mWrites;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Writes that finish from now on report to the editor recreated in its place, if any
+        mWrites.mActivity = null;
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu options from the res/menu/menu_editor.xml file.
@@ -151,9 +212,14 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
     }
 
     /**
-     * Get user input from editor and save book into database.
+     * Get user input from editor and save book into database. A new book is saved whole, an
+     * existing one only in the columns the user changed: the stock changes of the +1 and -1
+     * buttons are saved as they are made.
      */
     public void saveBook() {
+        if (mWrites.mWriting) {
+            return;
+        }
 
         // Read from input fields
         // Use trim to eliminate leading or trailing white space
@@ -162,15 +228,18 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
         String bookStockString = mBookStockEditText.getText().toString().trim();
         String supplierNameString = mSupplierNameEditText.getText().toString().trim();
         String supplierPhoneString = mSupplierNumberEditText.getText().toString().trim();
-        float price;
+        long price = 0;
         long phone = 0;
         int stock = 0;
-        // If the price is not provided by the user, don't try to parse the string into an
-        // integer value. Use 0 by default.
+        // If the price is not provided by the user, don't try to parse the string into a
+        // value in cents. Use 0 by default.
         if (!bookPriceString.equals("")) {
-            price = Float.parseFloat(bookPriceString);
-        } else {
-            price = 0;
+            try {
+                price = BookEntry.toCents(bookPriceString);
+            } catch (NumberFormatException e) {
+                Toast.makeText(this, getString(R.string.editor_invalid_price), Toast.LENGTH_SHORT).show();
+                return;
+            }
         }
         if (!bookStockString.equals("")) {
             stock = Integer.parseInt(bookStockString);
@@ -182,11 +251,23 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
 
         // Create a new map of values, where column names are the keys
         ContentValues values = new ContentValues();
-        values.put(BookEntry.COLUMN_PRODUCT_NAME, bookNameString);
-        values.put(BookEntry.COLUMN_PRODUCT_PRICE, price);
-        values.put(BookEntry.COLUMN_PRODUCT_QUANTITY, stock);
-        values.put(BookEntry.COLUMN_SUPPLIER_NAME, supplierNameString);
-        values.put(BookEntry.COLUMN_SUPPLIER_PHONE, phone);
+        if (isUnsaved(BookEntry.COLUMN_PRODUCT_NAME)) {
+            values.put(BookEntry.COLUMN_PRODUCT_NAME, bookNameString);
+        }
+        if (isUnsaved(BookEntry.COLUMN_PRODUCT_PRICE)) {
+            values.put(BookEntry.COLUMN_PRODUCT_PRICE, price);
+        }
+        if (isUnsaved(BookEntry.COLUMN_PRODUCT_QUANTITY)) {
+            values.put(BookEntry.COLUMN_PRODUCT_QUANTITY, stock);
+        }
+        if (isUnsaved(BookEntry.COLUMN_SUPPLIER_NAME)) {
+            values.put(BookEntry.COLUMN_SUPPLIER_NAME, supplierNameString);
+        }
+        // The phone goes with a changed supplier name, which may name a supplier that is added
+        // with it
+        if (isUnsaved(BookEntry.COLUMN_SUPPLIER_NAME) || isUnsaved(BookEntry.COLUMN_SUPPLIER_PHONE)) {
+            values.put(BookEntry.COLUMN_SUPPLIER_PHONE, phone);
+        }
 
         if (mCurrentBookUri == null) {
             //Adding a New Book
@@ -199,53 +280,87 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
                 Toast.makeText(this, getString(R.string.editor_insert_book_failed),
                         Toast.LENGTH_LONG).show();
             } else {
-                // Insert a new pet into the provider, returning the content URI for the new pet.
-                Uri newUri = getContentResolver().insert(BookEntry.CONTENT_URI, values);
-                // Show a toast message depending on whether or not the insertion was successful
-                if (newUri == null) {
-                    // If the new content URI is null, then there was an error with insertion.
-                    Toast.makeText(this, getString(R.string.editor_insert_book_failed),
-                            Toast.LENGTH_SHORT).show();
-                } else {
-                    // Otherwise, the insertion was successful and we can display a toast.
-                    Toast.makeText(this, getString(R.string.editor_insert_book_successful),
-                            Toast.LENGTH_SHORT).show();
-                }
-                // If all went good adding a new book, finish this activity
-                finish();
+                // Insert a new book into the provider on the write queue's thread, then
+                // report the new _ID, or -1 on the main thread.
+                write(BookWriteQueue.getInstance(this).insert(values, mWrites.insertCallback()));
             }
         } else {
             //Editing an existing book
-            int rowsAffected;
             if (bookNameString.equals("") ||
                     TextUtils.isEmpty(bookStockString) ||
                     TextUtils.isEmpty(bookPriceString) ||
                     TextUtils.isEmpty(supplierNameString) ||
                     TextUtils.isEmpty(supplierPhoneString)) {
                 //The user didn't set all fields while editing the book
-                rowsAffected = 0;
+                onBookUpdated(0);
+            } else if (values.size() == 0) {
+                // Nothing was changed but the stock, which is saved already
+                finish();
             } else {
                 // Otherwise this is an EXISTING book, so update the book with content URI: mCurrentBookUri
-                // and pass in the new ContentValues. Pass in null for the selection and selection args
-                // because mCurrentBookUri will already identify the correct row in the database that
-                // we want to modify.
-                rowsAffected = getContentResolver().update(mCurrentBookUri, values, null, null);
-            }
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_update_book_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_update_book_successful),
-                        Toast.LENGTH_SHORT).show();
-                // If all went good editing the book, finish the activity
-                finish();
+                // and pass in the new ContentValues. The update is made on the write queue's thread.
+                write(BookWriteQueue.getInstance(this).update(mCurrentBookUri, values,
+                        mWrites.updateCallback()));
             }
         }
     }
 
+    /**
+     * Return true if the given column has to be saved: all of them for a new book, and the ones
+     * the user changed for an existing one.
+     */
+    private boolean isUnsaved(String column) {
+        return mCurrentBookUri == null || mDirtyColumns.contains(column);
+    }
+
+    /**
+     * Show whether the book was inserted, and finish the activity.
+     */
+    private void onBookInserted(long newId) {
+        // Show a toast message depending on whether or not the insertion was successful
+        if (newId == -1) {
+            // If there is no new ID, then there was an error with insertion.
+            Toast.makeText(this, getString(R.string.editor_insert_book_failed),
+                    Toast.LENGTH_SHORT).show();
+        } else {
+            // Otherwise, the insertion was successful and we can display a toast.
+            Toast.makeText(this, getString(R.string.editor_insert_book_successful),
+                    Toast.LENGTH_SHORT).show();
+        }
+        // If all went good adding a new book, finish this activity
+        finish();
+    }
+
+    /**
+     * Show whether the book was updated, and if it was, finish the activity.
+     */
+    private void onBookUpdated(long rowsAffected) {
+        // Show a toast message depending on whether or not the update was successful.
+        if (rowsAffected <= 0) {
+            // If no rows were affected, then there was an error with the update.
+            Toast.makeText(this, getString(R.string.editor_update_book_failed),
+                    Toast.LENGTH_SHORT).show();
+        } else {
+            // Otherwise, the update was successful and we can display a toast.
+            Toast.makeText(this, getString(R.string.editor_update_book_successful),
+                    Toast.LENGTH_SHORT).show();
+            // If all went good editing the book, finish the activity
+            finish();
+        }
+    }
+
+    /**
+     * Remember that a write was handed to the write queue, or tell the user to try again if
+     * the queue refused it.
+     */
+    private void write(boolean queued) {
+        if (queued) {
+            mWrites.mWriting = true;
+        } else {
+            Toast.makeText(this, getString(R.string.write_queue_full), Toast.LENGTH_SHORT).show();
+        }
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -275,7 +390,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
 
                 // If the book hasn't changed, continue with navigating up to parent activity
                 // which is the {@link CatalogActivity}.
-                if (!mBookHasChanged) {
+                if (mDirtyColumns.isEmpty()) {
                     NavUtils.navigateUpFromSameTask(EditorActivity.this);
                     return true;
                 }
@@ -301,16 +416,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
 
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        // Since the editor shows all book attributes, define a projection that contains
-        // all columns from the books table
-        String[] projection = {
-                BookEntry._ID,
-                BookEntry.COLUMN_PRODUCT_NAME,
-                BookEntry.COLUMN_PRODUCT_PRICE,
-                BookEntry.COLUMN_PRODUCT_QUANTITY,
-                BookEntry.COLUMN_SUPPLIER_NAME,
-                BookEntry.COLUMN_SUPPLIER_PHONE
-        };
+        // Since the editor shows all book attributes, use the detail profile of the books
+        String[] projection = BookEntry.DETAIL_COLUMNS;
         // This loader will execute the ContentProvider's query method on a background thread
         CursorLoader currentBookCursorLoader = new CursorLoader(
                 this,
@@ -327,28 +434,31 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
         // Proceed with moving to the first row of the cursor and reading data from it
         // (This should be the only row in the cursor)
         if (cursor.moveToFirst()) {
-            // Find fields
-            TextView bookNameEditText = (TextView) findViewById(R.id.edit_book_name);
-            TextView bookPriceEditText = (TextView) findViewById(R.id.edit_book_price);
-            TextView bookStockEditText = (TextView) findViewById(R.id.edit_book_quantity);
-            TextView supplierNameEditText = (TextView) findViewById(R.id.edit_supplier_name);
-            TextView supplierNumberEditText = (TextView) findViewById(R.id.edit_supplier_phone);
             // Extract properties from cursor
             String name = cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_PRODUCT_NAME));
             String supplierName = cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_SUPPLIER_NAME));
-            float price = cursor.getFloat(cursor.getColumnIndex(BookEntry.COLUMN_PRODUCT_PRICE));
+            long price = cursor.getLong(cursor.getColumnIndex(BookEntry.COLUMN_PRODUCT_PRICE));
             int stock = cursor.getInt(cursor.getColumnIndex(BookEntry.COLUMN_PRODUCT_QUANTITY));
             long phone = cursor.getLong(cursor.getColumnIndex(BookEntry.COLUMN_SUPPLIER_PHONE));
-            //Set data to views
-            bookNameEditText.setText(name);
-            supplierNameEditText.setText(supplierName);
-            if (price != 0) {
-                bookPriceEditText.setText(Float.valueOf(price).toString());
+            // Set data to views. The book is loaded again whenever it changes, the stock
+            // changes of the +1 and -1 buttons included, so the fields the user has changed
+            // keep what the user typed.
+            mBinding = true;
+            if (!mDirtyColumns.contains(BookEntry.COLUMN_PRODUCT_NAME)) {
+                mBookNameEditText.setText(name);
+            }
+            if (!mDirtyColumns.contains(BookEntry.COLUMN_SUPPLIER_NAME)) {
+                mSupplierNameEditText.setText(supplierName);
             }
-            bookStockEditText.setText(Integer.valueOf(stock).toString());
-            if (phone != 0) {
-                supplierNumberEditText.setText(Long.valueOf(phone).toString());
+            if (price != 0 && !mDirtyColumns.contains(BookEntry.COLUMN_PRODUCT_PRICE)) {
+                mBookPriceEditText.setText(BookEntry.toDecimalString(price));
             }
+            if (phone != 0 && !mDirtyColumns.contains(BookEntry.COLUMN_SUPPLIER_PHONE)) {
+                mSupplierNumberEditText.setText(Long.valueOf(phone).toString());
+            }
+            mBinding = false;
+            mWrites.mSavedStock = stock;
+            showStock();
 
             // Start the click listeners after the loader has finished
             minusClick();
@@ -363,27 +473,32 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
 
     }
 
-    // OnTouchListener that listens for any user touches on a View, implying that they are modifying
-    // the view, and we change the mBookHasChanged boolean to true.
+    /**
+     * TextWatcher that marks the column of a field changed when the user edits the field, but
+     * not when the editor fills it in.
+     */
+    private class DirtyWatcher implements TextWatcher {
+        private final String mColumn;
+
+        DirtyWatcher(String column) {
+            mColumn = column;
+        }
 
-    private View.OnTouchListener mTouchListener = new View.OnTouchListener() {
         @Override
-        public boolean onTouch(View view, MotionEvent motionEvent) {
-            mBookHasChanged = true;
-            return false;
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
         }
-    };
 
-    // OnKeyListener that listens for any user input on a View (on EditText), implying that they are
-    // writing something on the selected editText even without touching the view (keyboard, emulator),
-    // and we change the mBookHasChanged boolean to true.
-    private View.OnKeyListener mKeyListener = new View.OnKeyListener() {
         @Override
-        public boolean onKey(View v, int keyCode, KeyEvent event) {
-            mBookHasChanged = true;
-            return false;
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
         }
-    };
+
+        @Override
+        public void afterTextChanged(Editable s) {
+            if (!mBinding) {
+                mDirtyColumns.add(mColumn);
+            }
+        }
+    }
 
     private void showUnsavedChangesDialog(
             DialogInterface.OnClickListener discardButtonClickListener) {
@@ -409,8 +524,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
 
     @Override
     public void onBackPressed() {
-        // If the pet hasn't changed, continue with handling back button press
-        if (!mBookHasChanged) {
+        // If the book hasn't changed, continue with handling back button press
+        if (mDirtyColumns.isEmpty()) {
             super.onBackPressed();
             return;
         }
@@ -460,70 +575,114 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
      * Perform the deletion of the book in the database.
      */
     private void deleteBook() {
-        // Only perform the delete if this is an existing book.
-        if (mCurrentBookUri != null) {
-            int rowsDeleted = getContentResolver().delete(mCurrentBookUri, null, null);
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_book_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_book_successful),
-                        Toast.LENGTH_SHORT).show();
-                // If the book is deleted, finish this activity and return to CatalogActivity
-                finish();
-            }
+        // Only perform the delete if this is an existing book, and not already deleting it.
+        if (mCurrentBookUri != null && !mWrites.mWriting) {
+            write(BookWriteQueue.getInstance(this).delete(mCurrentBookUri, null, null,
+                    mWrites.deleteCallback()));
         }
     }
 
     /**
-     * Method to remove one item from the stock (only on display).
+     * Show whether the book was deleted, and if it was, finish the activity.
+     */
+    private void onBookDeleted(long rowsDeleted) {
+        // Show a toast message depending on whether or not the delete was successful.
+        if (rowsDeleted <= 0) {
+            // If no rows were deleted, then there was an error with the delete.
+            Toast.makeText(this, getString(R.string.editor_delete_book_failed),
+                    Toast.LENGTH_SHORT).show();
+        } else {
+            // Otherwise, the delete was successful and we can display a toast.
+            Toast.makeText(this, getString(R.string.editor_delete_book_successful),
+                    Toast.LENGTH_SHORT).show();
+            // If the book is deleted, finish this activity and return to CatalogActivity
+            finish();
+        }
+    }
+
+    /**
+     * Method to remove one item from the stock.
      */
     private void minusClick() {
         mMinusOne.setOnClickListener(new Button.OnClickListener() {
             @Override
             public void onClick(View v) {
-                int quantity;
-                if (TextUtils.isEmpty(mBookStockEditText.getText())) {
-                    quantity = 0;
-                } else {
-                    //Read the EditText with the current displayed quantity
-                    quantity = Integer.parseInt(mBookStockEditText.getText().toString());
-                }
-                if (quantity < 1) {
-                    Toast.makeText(EditorActivity.this, getString(R.string.out_of_stock), Toast.LENGTH_SHORT).show();
-                } else {
-                    quantity = quantity - 1;
-                    //Only update the quantity display without saving to database
-                    mBookStockEditText.setText(Integer.valueOf(quantity).toString());
-                }
+                stepStock(-1);
             }
         });
     }
 
     /**
-     * Method to add one item from the stock (only on display).
+     * Method to add one item to the stock.
      */
     private void plusClick() {
         mPlusOne.setOnClickListener(new Button.OnClickListener() {
             @Override
             public void onClick(View v) {
-                int quantity;
-                if (TextUtils.isEmpty(mBookStockEditText.getText())) {
-                    quantity = 0;
-                } else {
-                    //Read the EditText with the current displayed quantity
-                    quantity = Integer.parseInt(mBookStockEditText.getText().toString());
-                }
-                quantity = quantity + 1;
-                //Only update the quantity display without saving to database
-                mBookStockEditText.setText(Integer.valueOf(quantity).toString());
+                stepStock(1);
             }
         });
     }
 
+    /**
+     * Change the stock by the given count. The change of an existing book is saved at once, on
+     * the write queue, which merges a run of taps into one change of the stock. The stock of a
+     * new book, or one the user typed in, is only changed on display and saved with the book.
+     */
+    private void stepStock(int count) {
+        if (isUnsaved(BookEntry.COLUMN_PRODUCT_QUANTITY)) {
+            int quantity = 0;
+            if (!TextUtils.isEmpty(mBookStockEditText.getText())) {
+                //Read the EditText with the current displayed quantity
+                quantity = Integer.parseInt(mBookStockEditText.getText().toString());
+            }
+            if (quantity + count < 0) {
+                Toast.makeText(this, getString(R.string.out_of_stock), Toast.LENGTH_SHORT).show();
+            } else {
+                mBookStockEditText.setText(String.valueOf(quantity + count));
+            }
+            return;
+        }
+
+        if (mWrites.mSavedStock + mWrites.mPendingStockChange + count < 0) {
+            Toast.makeText(this, getString(R.string.out_of_stock), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        boolean queued = BookWriteQueue.getInstance(this).adjustStock(
+                ContentUris.parseId(mCurrentBookUri), count, mWrites.stockCallback(count));
+        if (!queued) {
+            Toast.makeText(this, getString(R.string.write_queue_full), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        mWrites.mPendingStockChange += count;
+        showStock();
+    }
+
+    /**
+     * Note that a change of the stock was made, or refused because the book was sold in the
+     * meantime, and show the stock.
+     */
+    private void onStockChanged(long stock) {
+        if (stock == -1) {
+            // Sold in the meantime, the book is loaded again with the stock left
+            Toast.makeText(this, getString(R.string.out_of_stock), Toast.LENGTH_SHORT).show();
+        }
+        showStock();
+    }
+
+    /**
+     * Show the stock as saved, with the changes still on their way to the database, unless
+     * the user has typed in a stock of their own.
+     */
+    private void showStock() {
+        if (mDirtyColumns.contains(BookEntry.COLUMN_PRODUCT_QUANTITY)) {
+            return;
+        }
+        mBinding = true;
+        mBookStockEditText.setText(String.valueOf(mWrites.mSavedStock + mWrites.mPendingStockChange));
+        mBinding = false;
+    }
+
     /**
      * Method to monitor the Call button and start the call Intent.
      */
@@ -543,4 +702,80 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
             }
         });
     }
+
+    /**
+     * The editor's writes on the write queue, and the stock they change. The callbacks of the
+     * writes hold this rather than the editor, so a write that finishes after the editor is
+     * destroyed does not touch it. It is handed over to the editor recreated after a
+     * configuration change, which gets the results of the writes still on their way.
+     */
+    private static class QueuedWrites {
+
+        /** The editor to report to, or null once it is destroyed. Only used on the main thread. */
+        EditorActivity mActivity;
+
+        /** Whether a save or delete is waiting on the write queue, so a second tap does not repeat it */
+        boolean mWriting = false;
+
+        /**
+         * The stock of the book as last read or written. The changes of the +1 and -1 buttons on
+         * their way to the database are in {@link #mPendingStockChange}.
+         */
+        long mSavedStock;
+
+        /** The sum of the changes of the +1 and -1 buttons not written to the database yet */
+        long mPendingStockChange;
+
+        BookWriteQueue.Callback insertCallback() {
+            return new BookWriteQueue.Callback() {
+                @Override
+                public void onWriteDone(long newId) {
+                    mWriting = false;
+                    if (mActivity != null) {
+                        mActivity.onBookInserted(newId);
+                    }
+                }
+            };
+        }
+
+        BookWriteQueue.Callback updateCallback() {
+            return new BookWriteQueue.Callback() {
+                @Override
+                public void onWriteDone(long rowsAffected) {
+                    mWriting = false;
+                    if (mActivity != null) {
+                        mActivity.onBookUpdated(rowsAffected);
+                    }
+                }
+            };
+        }
+
+        BookWriteQueue.Callback deleteCallback() {
+            return new BookWriteQueue.Callback() {
+                @Override
+                public void onWriteDone(long rowsDeleted) {
+                    mWriting = false;
+                    if (mActivity != null) {
+                        mActivity.onBookDeleted(rowsDeleted);
+                    }
+                }
+            };
+        }
+
+        /** Return the callback of a change of the stock by the given count */
+        BookWriteQueue.Callback stockCallback(final int count) {
+            return new BookWriteQueue.Callback() {
+                @Override
+                public void onWriteDone(long stock) {
+                    mPendingStockChange -= count;
+                    if (stock != -1) {
+                        mSavedStock = stock;
+                    }
+                    if (mActivity != null) {
+                        mActivity.onStockChanged(stock);
+                    }
+                }
+            };
+        }
+    }
 }
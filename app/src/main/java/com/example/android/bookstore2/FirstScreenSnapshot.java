@@ -0,0 +1,151 @@
+package com.example.android.bookstore2;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The first screen of the book list as it was last shown, kept in a small file so a cold start
+ * can show it before the database is even open. The list saves its first rows whenever they
+ * change, and shows the saved ones until the first page is loaded; the adapter then only
+ * rebinds the rows that changed in between.
+ *
+ * The file holds a version, the number of rows, and the {@link BookRow} columns of each row,
+ * the name as its length in UTF-8 bytes followed by the bytes. A file that cannot be read is
+ * no snapshot.
+ */
+final class FirstScreenSnapshot {
+
+    private static final String LOG_TAG = FirstScreenSnapshot.class.getSimpleName();
+
+    /** Name of the snapshot file, in the app's files directory */
+    static final String FILE_NAME = "first_screen.snapshot";
+
+    /** Version of the file format, a file of another version is ignored */
+    private static final int VERSION = 2;
+
+    /** Number of rows kept, more than a screen shows */
+    static final int MAX_ROWS = 20;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Writes the snapshots one after the other, in the order they are saved. A thread of its
+     * own, so a save never waits behind the long tasks on {@link android.os.AsyncTask}'s
+     * serial executor, such as an import.
+     */
+    static final ExecutorService WRITER = Executors.newSingleThreadExecutor();
+
+    private final File mBaseFile;
+    private final AtomicFile mFile;
+
+    /** The rows last read or saved, so the same rows are not written again. Main thread only. */
+    private List<BookRow> mSaved = Collections.emptyList();
+
+    FirstScreenSnapshot(Context context) {
+        mBaseFile = new File(context.getFilesDir(), FILE_NAME);
+        mFile = new AtomicFile(mBaseFile);
+    }
+
+    /**
+     * Return the saved rows, or an empty list if there are none. The file is a few KB at most,
+     * so it is read on the calling thread, which is the main thread while the activity is
+     * created.
+     */
+    List<BookRow> read() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mFile.openRead()));
+            if (in.readInt() != VERSION) {
+                return mSaved;
+            }
+            int count = in.readInt();
+            ArrayList<BookRow> rows = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                int nameLength = in.readInt();
+                if (nameLength < 0 || nameLength > mBaseFile.length()) {
+                    throw new IOException("Bad name length " + nameLength);
+                }
+                byte[] name = new byte[nameLength];
+                in.readFully(name);
+                rows.add(new BookRow(id, new String(name, UTF_8), in.readLong(), in.readLong()));
+            }
+            mSaved = rows;
+        } catch (FileNotFoundException e) {
+            // Nothing was saved yet
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to read the first screen", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Everything needed has been read
+                }
+            }
+        }
+        return mSaved;
+    }
+
+    /**
+     * Save the first {@link #MAX_ROWS} of the given rows, on a background thread, unless they
+     * are the rows saved last. Saves are written one after the other, in the order they are
+     * made.
+     */
+    void save(List<BookRow> rows) {
+        final List<BookRow> firstRows =
+                new ArrayList<>(rows.subList(0, Math.min(rows.size(), MAX_ROWS)));
+        if (firstRows.equals(mSaved)) {
+            return;
+        }
+        mSaved = firstRows;
+        WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(firstRows);
+            }
+        });
+    }
+
+    private void write(List<BookRow> rows) {
+        FileOutputStream stream = null;
+        try {
+            stream = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(VERSION);
+            out.writeInt(rows.size());
+            for (BookRow row : rows) {
+                out.writeLong(row.id);
+                // Not writeUTF(), which refuses names over 64K bytes
+                byte[] name = row.name.getBytes(UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+                out.writeLong(row.price);
+                out.writeLong(row.stock);
+            }
+            out.flush();
+            mFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to save the first screen", e);
+            if (stream != null) {
+                mFile.failWrite(stream);
+            }
+        }
+    }
+}
@@ -2,8 +2,15 @@ package com.example.android.bookstore2.data;
 
 import android.content.ContentResolver;
 import android.net.Uri;
+import android.os.Bundle;
 import android.provider.BaseColumns;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.NumberFormat;
+import java.util.Currency;
+import java.util.Locale;
+
 public final class BookContract {
 
     private BookContract() {}
@@ -30,14 +37,161 @@ public final class BookContract {
      */
     public static final String PATH_BOOKS = "books";
 
+    /**
+     * Path segment under {@link #PATH_BOOKS} for full-text searches, followed by the search text:
+     * content://com.example.android.bookstore2/books/search/<query>
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path segment under {@link #PATH_BOOKS} for the inventory totals:
+     * content://com.example.android.bookstore2/books/stats
+     */
+    public static final String PATH_STATS = "stats";
+
+    /**
+     * Path for the suppliers, and path segment under {@link #PATH_STATS} for the inventory
+     * totals per supplier:
+     * content://com.example.android.bookstore2/suppliers
+     * content://com.example.android.bookstore2/books/stats/suppliers
+     */
+    public static final String PATH_SUPPLIERS = "suppliers";
+
+    /**
+     * Path segment under {@link #PATH_BOOKS} for the export of every book as a text stream:
+     * content://com.example.android.bookstore2/books/export
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Path segment under {@link #PATH_BOOKS} for importing books in batches:
+     * content://com.example.android.bookstore2/books/import
+     */
+    public static final String PATH_IMPORT = "import";
+
+    /**
+     * Path for the provider's own timings:
+     * content://com.example.android.bookstore2/metrics
+     */
+    public static final String PATH_METRICS = "metrics";
+
+    /**
+     * Path segment under {@link #PATH_METRICS} for the slowest recent operations:
+     * content://com.example.android.bookstore2/metrics/slow
+     */
+    public static final String PATH_SLOW = "slow";
+
+    /**
+     * Path for the sales history:
+     * content://com.example.android.bookstore2/sales
+     */
+    public static final String PATH_SALES = "sales";
+
+    /**
+     * Path segment under {@link #PATH_SALES} for the units sold and the revenue per day and book:
+     * content://com.example.android.bookstore2/sales/daily
+     */
+    public static final String PATH_DAILY = "daily";
+
     public static abstract class BookEntry implements BaseColumns {
         public static final String TABLE_NAME = "books";
         public static final String _ID = BaseColumns._ID;
         public static final String COLUMN_PRODUCT_NAME = "name";
+        /** Price in cents of {@link #STORE_CURRENCY}, stored as an INTEGER */
         public static final String COLUMN_PRODUCT_PRICE = "price";
         public static final String COLUMN_PRODUCT_QUANTITY = "stock";
+        /**
+         * The name and phone of the book's supplier, joined in from {@link SupplierEntry}. A
+         * book written with a supplier name is linked to the supplier of that name, which is
+         * added if there is none; a phone written with it becomes that supplier's phone.
+         */
         public static final String COLUMN_SUPPLIER_NAME = "suppliername";
         public static final String COLUMN_SUPPLIER_PHONE = "suppliernumber";
+        /** The {@link SupplierEntry#_ID} of the book's supplier, or null. Read only. */
+        public static final String COLUMN_SUPPLIER_ID = "supplier_id";
+
+        // Projection profiles: the columns each kind of reader asks for. Every value travels
+        // through the CursorWindow, so a reader asks for the columns it shows and no others.
+        // The provider refuses any column that is not in ALL_COLUMNS.
+
+        /** The columns of a row of the list of books */
+        public static final String[] LIST_COLUMNS = {
+                _ID,
+                COLUMN_PRODUCT_NAME,
+                COLUMN_PRODUCT_PRICE,
+                COLUMN_PRODUCT_QUANTITY
+        };
+
+        /** The columns of a single book, as the editor shows it. Also read by a null projection. */
+        public static final String[] DETAIL_COLUMNS = {
+                _ID,
+                COLUMN_PRODUCT_NAME,
+                COLUMN_PRODUCT_PRICE,
+                COLUMN_PRODUCT_QUANTITY,
+                COLUMN_SUPPLIER_NAME,
+                COLUMN_SUPPLIER_PHONE
+        };
+
+        /** The columns of an exported book, in the order of the fields of {@link #EXPORT_URI} */
+        public static final String[] EXPORT_COLUMNS = {
+                _ID,
+                COLUMN_PRODUCT_NAME,
+                COLUMN_PRODUCT_PRICE,
+                COLUMN_PRODUCT_QUANTITY,
+                COLUMN_SUPPLIER_NAME,
+                COLUMN_SUPPLIER_PHONE
+        };
+
+        /** Every column books can be read with */
+        public static final String[] ALL_COLUMNS = {
+                _ID,
+                COLUMN_PRODUCT_NAME,
+                COLUMN_PRODUCT_PRICE,
+                COLUMN_PRODUCT_QUANTITY,
+                COLUMN_SUPPLIER_ID,
+                COLUMN_SUPPLIER_NAME,
+                COLUMN_SUPPLIER_PHONE
+        };
+
+        /** The currency all prices are in */
+        public static final Currency STORE_CURRENCY = Currency.getInstance("USD");
+
+        /**
+         * Convert a decimal price, as typed by the user, to the cents stored in
+         * {@link #COLUMN_PRODUCT_PRICE}. Fractions of a cent are rounded half up.
+         *
+         * @throws NumberFormatException if the text is not a decimal number
+         */
+        public static long toCents(String price) {
+            return new BigDecimal(price.trim())
+                    .setScale(STORE_CURRENCY.getDefaultFractionDigits(), RoundingMode.HALF_UP)
+                    .unscaledValue()
+                    .longValue();
+        }
+
+        /**
+         * Convert a price in cents to plain decimal text, such as "19.99", for editing.
+         */
+        public static String toDecimalString(long cents) {
+            return BigDecimal.valueOf(cents, STORE_CURRENCY.getDefaultFractionDigits()).toPlainString();
+        }
+
+        /**
+         * Format a price in cents for display, such as "$19.99", following the conventions of
+         * the default locale.
+         */
+        public static String formatPrice(long cents) {
+            return formatPrice(cents, Locale.getDefault());
+        }
+
+        /**
+         * Format a price in cents for display following the conventions of the given locale.
+         */
+        public static String formatPrice(long cents, Locale locale) {
+            NumberFormat format = NumberFormat.getCurrencyInstance(locale);
+            format.setCurrency(STORE_CURRENCY);
+            return format.format(BigDecimal.valueOf(cents, STORE_CURRENCY.getDefaultFractionDigits()));
+        }
 
         /** The content URI to access the book data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_BOOKS);
@@ -53,5 +207,350 @@ public final class BookContract {
          */
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_BOOKS;
+
+        /**
+         * The content URI of an export of every book, in {@link #_ID} order, to read with
+         * {@link ContentResolver#openInputStream} (as {@link #MIME_TYPE_CSV}) or
+         * {@link ContentResolver#openTypedAssetFileDescriptor} with one of the export types.
+         * Values are written as they are stored, prices in cents.
+         */
+        public static final Uri EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        /** Export type of comma separated values, with a header line of column names */
+        public static final String MIME_TYPE_CSV = "text/csv";
+
+        /** Export type of one JSON object per line, keyed by column name */
+        public static final String MIME_TYPE_JSON_LINES = "application/x-ndjson";
+
+        /**
+         * The content URI to {@link ContentResolver#bulkInsert} imported books into. A book with
+         * the same name, ignoring case, and the same supplier as an existing book replaces it
+         * instead of being added. The batch is validated and written in one transaction.
+         */
+        public static final Uri IMPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_IMPORT);
+
+        /**
+         * Query parameter for the maximum number of books to return. When it is present the
+         * {@link #CONTENT_URI} query is paged: rows come back ordered by {@link #QUERY_PARAMETER_SORT}
+         * and then {@link #_ID}, and any sort order given to the query is ignored.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameter for the column a paged query is ordered by: {@link #_ID} (the default),
+         * {@link #COLUMN_PRODUCT_NAME} or {@link #COLUMN_PRODUCT_PRICE}.
+         */
+        public static final String QUERY_PARAMETER_SORT = "sort";
+
+        /** Query parameter for the {@link #_ID} of the last row of the previous page. */
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+        /**
+         * Query parameter for the sort column value of the last row of the previous page.
+         * Not needed when the page is ordered by {@link #_ID}.
+         */
+        public static final String QUERY_PARAMETER_AFTER_VALUE = "after_value";
+
+        /**
+         * Query parameter that restricts the {@link #CONTENT_URI} query to a predefined filter,
+         * such as {@link #FILTER_LOW_STOCK}.
+         */
+        public static final String QUERY_PARAMETER_FILTER = "filter";
+
+        /** Filter for the books with fewer than {@link #LOW_STOCK_THRESHOLD} copies in stock */
+        public static final String FILTER_LOW_STOCK = "low_stock";
+
+        /** Query parameter that restricts the {@link #CONTENT_URI} query to one supplier name */
+        public static final String QUERY_PARAMETER_SUPPLIER = "supplier";
+
+        /** A book is running low when it has fewer copies than this in stock */
+        public static final int LOW_STOCK_THRESHOLD = 5;
+
+        /**
+         * The selection behind {@link #FILTER_LOW_STOCK}. The threshold is written out rather
+         * than bound, so that SQLite can match the query to the partial low stock index.
+         */
+        public static final String LOW_STOCK_SELECTION =
+                COLUMN_PRODUCT_QUANTITY + " < " + LOW_STOCK_THRESHOLD;
+
+        /**
+         * Build the URI for the first page of books ordered by the given column.
+         *
+         * @param sortColumn {@link #_ID}, {@link #COLUMN_PRODUCT_NAME} or {@link #COLUMN_PRODUCT_PRICE}
+         * @param limit      maximum number of rows on the page
+         */
+        public static Uri buildFirstPageUri(String sortColumn, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SORT, sortColumn)
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Build the URI for the page of books that follows the row with the given id and sort
+         * value. The lookup is a keyset seek on an index, so every page costs the same no
+         * matter how deep into the list it is.
+         *
+         * @param sortColumn {@link #_ID}, {@link #COLUMN_PRODUCT_NAME} or {@link #COLUMN_PRODUCT_PRICE}
+         * @param afterValue value of the sort column in the last row of the previous page
+         * @param afterId    {@link #_ID} of the last row of the previous page
+         * @param limit      maximum number of rows on the page
+         */
+        public static Uri buildNextPageUri(String sortColumn, String afterValue, long afterId, int limit) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SORT, sortColumn)
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+            if (afterValue != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER_VALUE, afterValue);
+            }
+            return builder.appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Build the URI that searches book names and supplier names for the given text. Every
+         * word of the text is matched as a prefix, and the best matches come first. The
+         * {@link #QUERY_PARAMETER_LIMIT} parameter can be added to cap the number of results.
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH)
+                    .appendPath(query)
+                    .build();
+        }
+
+        /**
+         * Provider method that sells copies of a book. The argument is the book's {@link #_ID}
+         * and {@link #EXTRA_QUANTITY} holds the number of copies (1 if missing). The stock is
+         * only decremented if enough copies are left, and the result holds the new stock in
+         * {@link #EXTRA_STOCK}, or -1 if the sale was refused.
+         */
+        public static final String METHOD_SELL = "sell";
+
+        /**
+         * Provider method that adds copies to the stock of a book, or takes them off it, as
+         * copies are received or counted. The argument is the book's {@link #_ID} and
+         * {@link #EXTRA_QUANTITY} holds the number of copies, negative to take them off. The
+         * stock is only changed if it stays at zero or above, and the result holds the new
+         * stock in {@link #EXTRA_STOCK}, or -1 if the change was refused. Unlike a sale, the
+         * change is not recorded in the sales.
+         */
+        public static final String METHOD_ADJUST_STOCK = "adjustStock";
+
+        /** Extra with the number of copies to sell, or to add to the stock */
+        public static final String EXTRA_QUANTITY = "quantity";
+
+        /** Result extra with the stock left after a sale or a change of the stock */
+        public static final String EXTRA_STOCK = "stock";
+
+        /**
+         * Sell copies of the book with the given id in a single atomic step.
+         *
+         * @return the stock left after the sale, or -1 if the book does not exist or does not
+         * have enough copies in stock
+         */
+        public static long sellBook(ContentResolver resolver, long bookId, int quantity) {
+            Bundle extras = new Bundle();
+            extras.putInt(EXTRA_QUANTITY, quantity);
+            Bundle result = resolver.call(CONTENT_URI, METHOD_SELL, String.valueOf(bookId), extras);
+            return result == null ? -1 : result.getLong(EXTRA_STOCK, -1);
+        }
+
+        /**
+         * Add copies to the stock of the book with the given id, or take them off it if count is
+         * negative, in a single atomic step.
+         *
+         * @return the stock after the change, or -1 if the book does not exist or the stock would
+         * go below zero
+         */
+        public static long adjustStock(ContentResolver resolver, long bookId, int count) {
+            Bundle extras = new Bundle();
+            extras.putInt(EXTRA_QUANTITY, count);
+            Bundle result = resolver.call(CONTENT_URI, METHOD_ADJUST_STOCK, String.valueOf(bookId), extras);
+            return result == null ? -1 : result.getLong(EXTRA_STOCK, -1);
+        }
+    }
+
+    /**
+     * The suppliers of the books. Each name is only there once, and its books link to it by
+     * {@link BookEntry#COLUMN_SUPPLIER_ID}, so renaming a supplier or changing its phone is a
+     * single row update. Deleting a supplier leaves its books without one.
+     */
+    public static abstract class SupplierEntry implements BaseColumns {
+        public static final String TABLE_NAME = "suppliers";
+        public static final String _ID = BaseColumns._ID;
+        /** The name of the supplier, unique and not null */
+        public static final String COLUMN_NAME = "name";
+        /** The phone number of the supplier */
+        public static final String COLUMN_PHONE = "phone";
+
+        /** The content URI of the suppliers, by name */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SUPPLIERS);
+
+        /** The MIME type of the {@link #CONTENT_URI} */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /** The MIME type of a single supplier */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+    }
+
+    /**
+     * Read-only inventory totals, computed over the whole books table. The values are integers,
+     * and stay exact however many books there are.
+     */
+    public static abstract class StatsEntry {
+        /** Number of books (titles) */
+        public static final String COLUMN_TITLES = "titles";
+        /** Total number of copies in stock */
+        public static final String COLUMN_UNITS = "units";
+        /** Total value of the stock in cents of {@link BookEntry#STORE_CURRENCY} */
+        public static final String COLUMN_VALUE = "value";
+        /** Number of books with no copy left in stock */
+        public static final String COLUMN_OUT_OF_STOCK = "out_of_stock";
+
+        /** The columns of a {@link #CONTENT_URI} row */
+        public static final String[] ALL_COLUMNS = {
+                COLUMN_TITLES, COLUMN_UNITS, COLUMN_VALUE, COLUMN_OUT_OF_STOCK
+        };
+
+        /**
+         * The columns of a {@link #SUPPLIERS_URI} row: the supplier name, then the totals of
+         * that supplier's books.
+         */
+        public static final String[] ALL_SUPPLIER_COLUMNS = {
+                BookEntry.COLUMN_SUPPLIER_NAME,
+                COLUMN_TITLES, COLUMN_UNITS, COLUMN_VALUE, COLUMN_OUT_OF_STOCK
+        };
+
+        /** The content URI of the totals over all books, a single row */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BookEntry.CONTENT_URI, PATH_STATS);
+
+        /** The content URI of the totals per supplier, one row per supplier name */
+        public static final Uri SUPPLIERS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SUPPLIERS);
+
+        /** The MIME type of the {@link #CONTENT_URI} */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /** The MIME type of the {@link #SUPPLIERS_URI} */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+    }
+
+    /**
+     * Read-only timings of the provider's operations since it started, for diagnostics. Durations
+     * are in microseconds, and percentiles are accurate to within 1/8.
+     */
+    public static abstract class MetricsEntry {
+        /** The kind of URI operated on, such as "books" or "book" */
+        public static final String COLUMN_MATCH = "match";
+        /**
+         * The operation: "query", "insert", "bulk_insert", "update", "delete" or "call". The
+         * row with the match "*" and the operation "window_fill" times the cursor window fills
+         * after the first one, and "transaction" the provider's own transactions.
+         */
+        public static final String COLUMN_OPERATION = "operation";
+        /** Number of operations */
+        public static final String COLUMN_COUNT = "count";
+        /** Total number of rows returned, or inserted, updated or deleted */
+        public static final String COLUMN_ROWS = "rows";
+        public static final String COLUMN_MEAN = "mean_us";
+        public static final String COLUMN_P50 = "p50_us";
+        public static final String COLUMN_P90 = "p90_us";
+        public static final String COLUMN_P99 = "p99_us";
+        public static final String COLUMN_MAX = "max_us";
+
+        /** The columns of a {@link #CONTENT_URI} row, one per match and operation */
+        public static final String[] ALL_COLUMNS = {
+                COLUMN_MATCH, COLUMN_OPERATION, COLUMN_COUNT, COLUMN_ROWS,
+                COLUMN_MEAN, COLUMN_P50, COLUMN_P90, COLUMN_P99, COLUMN_MAX
+        };
+
+        /** When a slow operation started, in milliseconds since the epoch */
+        public static final String COLUMN_TIME = "time";
+        /** The URI a slow operation was made on */
+        public static final String COLUMN_URI = "uri";
+        /** The selection of a slow operation, with its arguments left out */
+        public static final String COLUMN_SELECTION = "selection";
+        /** How long a slow operation took, in microseconds */
+        public static final String COLUMN_DURATION = "duration_us";
+
+        /** The columns of a {@link #SLOW_URI} row, oldest first */
+        public static final String[] SLOW_COLUMNS = {
+                COLUMN_TIME, COLUMN_OPERATION, COLUMN_URI, COLUMN_SELECTION, COLUMN_DURATION,
+                COLUMN_ROWS
+        };
+
+        /** The content URI of the timings, one row per kind of URI and operation seen */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_METRICS);
+
+        /**
+         * The content URI of the most recent operations that took longer than the slow
+         * operation threshold, see {@link #METHOD_SET_SLOW_THRESHOLD}.
+         */
+        public static final Uri SLOW_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SLOW);
+
+        /** The MIME type of the {@link #CONTENT_URI} and the {@link #SLOW_URI} */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+
+        /**
+         * Provider method setting how long an operation has to take to be logged as slow. The
+         * argument is the threshold in milliseconds.
+         */
+        public static final String METHOD_SET_SLOW_THRESHOLD = "setSlowThreshold";
+    }
+
+    /**
+     * The sales history. A sale appends a row to the {@link #TABLE_NAME} journal instead of
+     * rewriting the stock of its book; the stock the provider returns is the stock of the book
+     * less its journaled sales. The journal is compacted in the background: the sales are taken
+     * off the stock of their books and added to the per day totals of {@link #DAILY_TABLE_NAME}.
+     */
+    public static abstract class SalesEntry implements BaseColumns {
+        /** The journal of the sales not compacted yet */
+        public static final String TABLE_NAME = "sales";
+
+        /** The units sold and revenue per day and book, for the compacted sales */
+        public static final String DAILY_TABLE_NAME = "sales_daily";
+
+        /** The {@link BookEntry#_ID} of the book sold */
+        public static final String COLUMN_BOOK_ID = "book_id";
+        /** Number of copies sold */
+        public static final String COLUMN_QUANTITY = "quantity";
+        /** Price of one copy at the time of the sale, in cents */
+        public static final String COLUMN_PRICE = "price";
+        /** When the sale was made, in milliseconds since the epoch */
+        public static final String COLUMN_TIME = "time";
+        /** The local day of the sale, in days since the epoch */
+        public static final String COLUMN_DAY = "day";
+        /** Number of copies sold on the day */
+        public static final String COLUMN_UNITS = "units";
+        /** Revenue of the day, in cents */
+        public static final String COLUMN_REVENUE = "revenue";
+
+        /** The columns of a {@link #DAILY_URI} row */
+        public static final String[] DAILY_COLUMNS = {
+                COLUMN_DAY, COLUMN_BOOK_ID, COLUMN_UNITS, COLUMN_REVENUE
+        };
+
+        /**
+         * The content URI of the sales per day and book, compacted or not, latest day first.
+         * A selection on the {@link #DAILY_COLUMNS} narrows it down, for example to one book.
+         */
+        public static final Uri DAILY_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_SALES).appendPath(PATH_DAILY).build();
+
+        /** The MIME type of the {@link #DAILY_URI} */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SALES;
+
+        /**
+         * Provider method compacting the journal now rather than waiting for the background
+         * compaction. Takes no argument.
+         */
+        public static final String METHOD_COMPACT = "compactSales";
     }
 }
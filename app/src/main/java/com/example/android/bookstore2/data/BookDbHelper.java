@@ -1,47 +1,331 @@
 package com.example.android.bookstore2.data;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 
 import com.example.android.bookstore2.data.BookContract.BookEntry;
+import com.example.android.bookstore2.data.BookContract.SalesEntry;
+import com.example.android.bookstore2.data.BookContract.SupplierEntry;
 
 public class BookDbHelper extends SQLiteOpenHelper {
 
+    /** The suppliers, one row per name */
+    private static final String SQL_CREATE_SUPPLIERS_TABLE = "CREATE TABLE " + SupplierEntry.TABLE_NAME + " (" +
+            SupplierEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            SupplierEntry.COLUMN_NAME + " TEXT NOT NULL UNIQUE, " +
+            SupplierEntry.COLUMN_PHONE + " INTEGER" +
+            ");";
+
     public static final String SQL_CREATE_BOOKS_TABLE = "CREATE TABLE " + BookEntry.TABLE_NAME + " (" +
             BookEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
             BookEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, " +
-            BookEntry.COLUMN_PRODUCT_PRICE + " REAL NOT NULL DEFAULT 0, " +
+            BookEntry.COLUMN_PRODUCT_PRICE + " INTEGER NOT NULL DEFAULT 0, " +
             BookEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER NOT NULL DEFAULT 0, " +
-            BookEntry.COLUMN_SUPPLIER_NAME + " TEXT, " +
-            BookEntry.COLUMN_SUPPLIER_PHONE + " INTEGER" +
+            BookEntry.COLUMN_SUPPLIER_ID + " INTEGER REFERENCES " + SupplierEntry.TABLE_NAME +
+            " (" + SupplierEntry._ID + ") ON DELETE SET NULL" +
             ");";
 
-    // Database Version. If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 1;
+    /** Name of the full-text index over book names and supplier names */
+    public static final String SEARCH_TABLE_NAME = "books_search";
+
+    /**
+     * The full-text index. Its docid is the _id of the book, so search hits join straight back
+     * to the books table. The prefix option keeps short search-as-you-type prefixes fast.
+     */
+    private static final String SQL_CREATE_SEARCH_TABLE = "CREATE VIRTUAL TABLE " + SEARCH_TABLE_NAME +
+            " USING fts4(" + BookEntry.COLUMN_PRODUCT_NAME + ", " + BookEntry.COLUMN_SUPPLIER_NAME +
+            ", prefix=\"2,3\");";
+
+    /** The name of the supplier of the book in a trigger, taking "new" or "old" */
+    private static final String SUPPLIER_NAME_OF = "(SELECT " + SupplierEntry.COLUMN_NAME + " FROM " +
+            SupplierEntry.TABLE_NAME + " WHERE " + SupplierEntry._ID + " = %s." + BookEntry.COLUMN_SUPPLIER_ID + ")";
+
+    /**
+     * Triggers that keep the full-text index in step with the books table, and with the names
+     * of the suppliers.
+     */
+    private static final String[] SQL_CREATE_SEARCH_TRIGGERS = {
+            "CREATE TRIGGER " + SEARCH_TABLE_NAME + "_insert AFTER INSERT ON " + BookEntry.TABLE_NAME +
+                    " BEGIN INSERT INTO " + SEARCH_TABLE_NAME + "(docid, " + BookEntry.COLUMN_PRODUCT_NAME +
+                    ", " + BookEntry.COLUMN_SUPPLIER_NAME + ") VALUES (new." + BookEntry._ID +
+                    ", new." + BookEntry.COLUMN_PRODUCT_NAME + ", " + String.format(SUPPLIER_NAME_OF, "new") + "); END;",
+            "CREATE TRIGGER " + SEARCH_TABLE_NAME + "_update AFTER UPDATE OF " + BookEntry.COLUMN_PRODUCT_NAME +
+                    ", " + BookEntry.COLUMN_SUPPLIER_ID + " ON " + BookEntry.TABLE_NAME +
+                    " BEGIN UPDATE " + SEARCH_TABLE_NAME + " SET " + BookEntry.COLUMN_PRODUCT_NAME +
+                    " = new." + BookEntry.COLUMN_PRODUCT_NAME + ", " + BookEntry.COLUMN_SUPPLIER_NAME +
+                    " = " + String.format(SUPPLIER_NAME_OF, "new") + " WHERE docid = new." + BookEntry._ID + "; END;",
+            "CREATE TRIGGER " + SEARCH_TABLE_NAME + "_delete AFTER DELETE ON " + BookEntry.TABLE_NAME +
+                    " BEGIN DELETE FROM " + SEARCH_TABLE_NAME + " WHERE docid = old." + BookEntry._ID + "; END;",
+            "CREATE TRIGGER " + SEARCH_TABLE_NAME + "_rename AFTER UPDATE OF " + SupplierEntry.COLUMN_NAME +
+                    " ON " + SupplierEntry.TABLE_NAME + " BEGIN UPDATE " + SEARCH_TABLE_NAME + " SET " +
+                    BookEntry.COLUMN_SUPPLIER_NAME + " = new." + SupplierEntry.COLUMN_NAME + " WHERE docid IN (SELECT " +
+                    BookEntry._ID + " FROM " + BookEntry.TABLE_NAME + " WHERE " + BookEntry.COLUMN_SUPPLIER_ID +
+                    " = new." + SupplierEntry._ID + "); END;"
+    };
+
+    /**
+     * Indexes behind the sorted and filtered list views. Each one also holds the rowid, so
+     * ordering by (column, _id) for keyset paging needs no extra sort. The supplier index also
+     * keeps deleting a supplier from scanning the books.
+     */
+    private static final String[] SQL_CREATE_INDEXES = {
+            "CREATE INDEX " + BookEntry.TABLE_NAME + "_name ON " + BookEntry.TABLE_NAME +
+                    " (" + BookEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE);",
+            "CREATE INDEX " + BookEntry.TABLE_NAME + "_supplier ON " + BookEntry.TABLE_NAME +
+                    " (" + BookEntry.COLUMN_SUPPLIER_ID + ");",
+            "CREATE INDEX " + BookEntry.TABLE_NAME + "_price ON " + BookEntry.TABLE_NAME +
+                    " (" + BookEntry.COLUMN_PRODUCT_PRICE + ");"
+    };
+
+    /**
+     * Partial index holding only the books that are running low, in list order. It stays small
+     * however big the inventory gets. Queries only use it if their WHERE clause contains the
+     * exact same {@link BookEntry#LOW_STOCK_SELECTION}.
+     */
+    private static final String SQL_CREATE_LOW_STOCK_INDEX = "CREATE INDEX " + BookEntry.TABLE_NAME +
+            "_low_stock ON " + BookEntry.TABLE_NAME + " (" + BookEntry.COLUMN_PRODUCT_NAME +
+            " COLLATE NOCASE) WHERE " + BookEntry.LOW_STOCK_SELECTION + ";";
+
+    /** Partial indexes need SQLite 3.8.0 (Android 5.0). Older versions get a plain stock index. */
+    private static final String SQL_CREATE_STOCK_INDEX = "CREATE INDEX " + BookEntry.TABLE_NAME +
+            "_low_stock ON " + BookEntry.TABLE_NAME + " (" + BookEntry.COLUMN_PRODUCT_QUANTITY + ");";
+
+    /**
+     * View of the books with the name and phone of their supplier joined in, under the columns
+     * of {@link BookEntry}. The provider reads the books through it, under the name of the table.
+     */
+    public static final String BOOKS_VIEW_NAME = "books_full";
+
+    /**
+     * View of the books like {@link #BOOKS_VIEW_NAME}, with the sales still in the journal taken
+     * off their stock. The provider reads through it, under the name of the table, while there
+     * are sales left to compact.
+     */
+    public static final String STOCK_VIEW_NAME = "books_stock";
+
+    /** The sales of the book in the journal, for {@link #STOCK_VIEW_NAME} */
+    private static final String JOURNALED_SALES = "IFNULL((SELECT SUM(" + SalesEntry.COLUMN_QUANTITY +
+            ") FROM " + SalesEntry.TABLE_NAME + " WHERE " + SalesEntry.TABLE_NAME + "." +
+            SalesEntry.COLUMN_BOOK_ID + " = " + BookEntry.TABLE_NAME + "." + BookEntry._ID + "), 0)";
+
+    /**
+     * The sales journal, indexed by book for the stock view, and the daily totals the journal
+     * is compacted into.
+     */
+    private static final String[] SQL_CREATE_SALES = {
+            "CREATE TABLE " + SalesEntry.TABLE_NAME + " (" +
+                    SalesEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    SalesEntry.COLUMN_BOOK_ID + " INTEGER NOT NULL, " +
+                    SalesEntry.COLUMN_QUANTITY + " INTEGER NOT NULL, " +
+                    SalesEntry.COLUMN_PRICE + " INTEGER NOT NULL, " +
+                    SalesEntry.COLUMN_TIME + " INTEGER NOT NULL, " +
+                    SalesEntry.COLUMN_DAY + " INTEGER NOT NULL);",
+            "CREATE INDEX " + SalesEntry.TABLE_NAME + "_book ON " + SalesEntry.TABLE_NAME +
+                    " (" + SalesEntry.COLUMN_BOOK_ID + ");",
+            "CREATE TABLE " + SalesEntry.DAILY_TABLE_NAME + " (" +
+                    SalesEntry.COLUMN_DAY + " INTEGER NOT NULL, " +
+                    SalesEntry.COLUMN_BOOK_ID + " INTEGER NOT NULL, " +
+                    SalesEntry.COLUMN_UNITS + " INTEGER NOT NULL, " +
+                    SalesEntry.COLUMN_REVENUE + " INTEGER NOT NULL, " +
+                    "PRIMARY KEY (" + SalesEntry.COLUMN_DAY + ", " + SalesEntry.COLUMN_BOOK_ID + "));"
+    };
+
+    // Database Version. If you change the database schema, you must increment the database version
+    // and add the matching step to BookMigrations.
+    // Version 2 adds the full-text search index.
+    // Version 3 adds the indexes for sorting and filtering the list.
+    // Version 4 stores prices as integer cents instead of REAL.
+    // Version 5 adds the sales journal and the daily sales.
+    // Version 6 moves the suppliers to a table of their own.
+    static final int DATABASE_VERSION = 6;
     /* Database Name */
     private static final String DATABASE_NAME = "bookstore.db";
     // DELETE ENTRIES
-    private static final String SQL_DELETE_ENTRIES = "DROP TABLE IF EXISTS " + BookEntry.TABLE_NAME;
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createSuppliers(db);
         db.execSQL(SQL_CREATE_BOOKS_TABLE);
+        createSearchTable(db);
+        createSearchTriggers(db);
+        createIndexes(db);
+        createSales(db);
+        createViews(db);
+    }
+
+    static void createSuppliers(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_SUPPLIERS_TABLE);
+    }
+
+    static void createSales(SQLiteDatabase db) {
+        for (String statement : SQL_CREATE_SALES) {
+            db.execSQL(statement);
+        }
+    }
+
+    static void createViews(SQLiteDatabase db) {
+        db.execSQL("CREATE VIEW " + BOOKS_VIEW_NAME + " AS " + selectBooks(
+                BookEntry.TABLE_NAME + "." + BookEntry.COLUMN_PRODUCT_QUANTITY));
+        db.execSQL("CREATE VIEW " + STOCK_VIEW_NAME + " AS " + selectBooks(
+                BookEntry.TABLE_NAME + "." + BookEntry.COLUMN_PRODUCT_QUANTITY + " - " + JOURNALED_SALES));
+    }
+
+    /**
+     * Return the SELECT of the books with their supplier joined in, with the given expression as
+     * the stock.
+     */
+    private static String selectBooks(String stock) {
+        return "SELECT " + BookEntry.TABLE_NAME + "." + BookEntry._ID + " AS " + BookEntry._ID + ", " +
+                BookEntry.TABLE_NAME + "." + BookEntry.COLUMN_PRODUCT_NAME + " AS " + BookEntry.COLUMN_PRODUCT_NAME + ", " +
+                BookEntry.COLUMN_PRODUCT_PRICE + ", " +
+                stock + " AS " + BookEntry.COLUMN_PRODUCT_QUANTITY + ", " +
+                BookEntry.COLUMN_SUPPLIER_ID + ", " +
+                SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_NAME + " AS " + BookEntry.COLUMN_SUPPLIER_NAME + ", " +
+                SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_PHONE + " AS " + BookEntry.COLUMN_SUPPLIER_PHONE +
+                " FROM " + BookEntry.TABLE_NAME + " LEFT JOIN " + SupplierEntry.TABLE_NAME + " ON " +
+                SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + " = " +
+                BookEntry.TABLE_NAME + "." + BookEntry.COLUMN_SUPPLIER_ID;
+    }
+
+    static void createIndexes(SQLiteDatabase db) {
+        for (String index : SQL_CREATE_INDEXES) {
+            db.execSQL(index);
+        }
+        createLowStockIndex(db);
+    }
+
+    static void createLowStockIndex(SQLiteDatabase db) {
+        db.execSQL(supportsPartialIndexes(db) ? SQL_CREATE_LOW_STOCK_INDEX : SQL_CREATE_STOCK_INDEX);
+    }
+
+    /**
+     * Return whether the SQLite library is at least version 3.8.0.
+     */
+    static boolean supportsPartialIndexes(SQLiteDatabase db) {
+        String[] version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null).split("\\.");
+        int major = Integer.parseInt(version[0]);
+        int minor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+        return major > 3 || (major == 3 && minor >= 8);
+    }
+
+    static void createSearchTable(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_SEARCH_TABLE);
+    }
+
+    static void createSearchTriggers(SQLiteDatabase db) {
+        for (String trigger : SQL_CREATE_SEARCH_TRIGGERS) {
+            db.execSQL(trigger);
+        }
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        db.execSQL(SQL_DELETE_ENTRIES);
-        onCreate(db);
+        // This database is the only copy of the inventory, so upgrades migrate the existing
+        // data step by step instead of discarding it. SQLiteOpenHelper runs this inside a
+        // transaction: if a step fails, the database stays at the old version, untouched.
+        BookMigrations.migrate(db, oldVersion, newVersion);
     }
 
     @Override
     public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        onUpgrade(db, oldVersion, newVersion);
+        // An older version of the app doesn't know the newer schema, and dropping the tables
+        // would lose the inventory, so refuse to open the database.
+        throw new SQLiteException("Can't downgrade the book database from version "
+                + oldVersion + " to " + newVersion);
+    }
+
+    /**
+     * Connection settings applied every time the database is opened.
+     */
+    public static final class Config {
+
+        /**
+         * The app's settings: write-ahead logging lets the list read while a sale or an edit is
+         * being written, and NORMAL sync is still crash safe in WAL mode while saving an fsync
+         * per commit. The rest keeps more pages in memory and temp b-trees off the disk for the
+         * primary connection, which makes every write and every transaction.
+         */
+        public static final Config DEFAULT = new Config(true, "NORMAL", 2048, 4096, true);
+
+        /** SQLite's own defaults, which the app used before it was tuned. Kept for benchmarks. */
+        public static final Config LEGACY = new Config(false, null, 0, 0, false);
+
+        /** Whether to use a write-ahead log instead of the rollback journal */
+        public final boolean writeAheadLogging;
+
+        /** Value for PRAGMA synchronous (OFF, NORMAL or FULL), or null to keep SQLite's default */
+        public final String synchronous;
+
+        /** Page cache size of the primary connection in KiB, or 0 to keep SQLite's default */
+        public final int cacheSizeKib;
+
+        /** Page size in bytes, only used when the database file is created. 0 keeps the default. */
+        public final int pageSize;
+
+        /** Whether the primary connection keeps temporary tables and sort b-trees in memory */
+        public final boolean tempStoreInMemory;
+
+        public Config(boolean writeAheadLogging, String synchronous, int cacheSizeKib,
+                      int pageSize, boolean tempStoreInMemory) {
+            this.writeAheadLogging = writeAheadLogging;
+            this.synchronous = synchronous;
+            this.cacheSizeKib = cacheSizeKib;
+            this.pageSize = pageSize;
+            this.tempStoreInMemory = tempStoreInMemory;
+        }
     }
 
+    /** Connection settings for this database */
+    private final Config mConfig;
+
     public BookDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, Config.DEFAULT);
+    }
+
+    /**
+     * Opens the schema under a different file name. Used by the tests so they never touch the
+     * real inventory; a null name gives an in-memory database.
+     */
+    BookDbHelper(Context context, String name) {
+        this(context, name, Config.DEFAULT);
+    }
+
+    /**
+     * Opens the schema under the given file name with the given connection settings.
+     */
+    public BookDbHelper(Context context, String name, Config config) {
+        super(context, name, null, DATABASE_VERSION);
+        mConfig = config;
+    }
+
+    /**
+     * Apply the connection settings before the schema is created or upgraded.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Whatever the settings, so deleting a supplier unlinks its books
+        db.setForeignKeyConstraintsEnabled(true);
+        // The page size cannot change once the database is in WAL mode, so it goes first
+        if (mConfig.pageSize > 0) {
+            db.execSQL("PRAGMA page_size = " + mConfig.pageSize);
+        }
+        if (mConfig.writeAheadLogging) {
+            db.enableWriteAheadLogging();
+        }
+        if (mConfig.synchronous != null) {
+            db.execSQL("PRAGMA synchronous = " + mConfig.synchronous);
+        }
+        // Only the primary connection is configured here; the pool opens the reader
+        // connections itself, and they keep SQLite's cache size and temp store
+        if (mConfig.cacheSizeKib > 0) {
+            // A negative cache size is a size in KiB rather than in pages
+            db.execSQL("PRAGMA cache_size = -" + mConfig.cacheSizeKib);
+        }
+        if (mConfig.tempStoreInMemory) {
+            db.execSQL("PRAGMA temp_store = MEMORY");
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,242 @@
+package com.example.android.bookstore2.data;
+
+import android.content.ClipDescription;
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Writes the books of a database to the pipe of {@link BookEntry#EXPORT_URI}, as CSV or JSON
+ * Lines. The books are read in chunks of {@link #CHUNK_ROWS} in the order of their _ID, each
+ * chunk starting after the last _ID of the one before, and every row is written as soon as it
+ * is read, through a buffer of a fixed size. So an export takes the same memory however many
+ * books there are, and each chunk fits in one cursor window, which a cursor over all the books
+ * would have refilled by stepping its query again from the start.
+ *
+ * No transaction is held across the chunks, since it would hold the database's only writable
+ * connection for as long as the reader of the pipe takes, and every write would wait for it.
+ * Each chunk sees the books committed before its query instead. Walking forward by _ID, every
+ * book that stays in the store through the export is written exactly once, in its state at
+ * the time its chunk was read.
+ */
+final class BookExporter implements ContentProvider.PipeDataWriter<SQLiteDatabase> {
+
+    private static final String LOG_TAG = BookExporter.class.getSimpleName();
+
+    /** The exported columns, in order: the export profile of the books, _ID first */
+    static final String[] COLUMNS = BookEntry.EXPORT_COLUMNS;
+
+    /** Books read by each query of the export */
+    static final int CHUNK_ROWS = 1000;
+
+    /** The types an export can be read as, the default first */
+    static final String[] MIME_TYPES = {BookEntry.MIME_TYPE_CSV, BookEntry.MIME_TYPE_JSON_LINES};
+
+    /** Size of the buffer between the cursor and the pipe, in chars */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Return the export types matching the filter, such as "text/*", or null if none does.
+     */
+    static String[] matchingTypes(String mimeTypeFilter) {
+        ArrayList<String> types = new ArrayList<>();
+        for (String type : MIME_TYPES) {
+            if (ClipDescription.compareMimeTypes(type, mimeTypeFilter)) {
+                types.add(type);
+            }
+        }
+        return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+    }
+
+    /**
+     * Write the books to the pipe, on the background thread of
+     * {@link ContentProvider#openPipeHelper}.
+     */
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                Bundle opts, SQLiteDatabase database) {
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(output.getFileDescriptor()), UTF_8), BUFFER_SIZE);
+            write(database, mimeType, out);
+            out.flush();
+        } catch (IOException e) {
+            // Most likely the reader closed its end before the end of the export
+            Log.w(LOG_TAG, "Export of " + uri + " stopped", e);
+        } catch (SQLiteException e) {
+            // Nothing on this thread would catch it, so the reader sees the pipe end early
+            Log.e(LOG_TAG, "Export of " + uri + " failed", e);
+        }
+    }
+
+    /**
+     * Write every book in the given type. Through the stock view, so the journaled sales are
+     * taken off.
+     */
+    static void write(SQLiteDatabase database, String mimeType, Writer out) throws IOException {
+        boolean csv = BookEntry.MIME_TYPE_CSV.equals(mimeType);
+        if (csv) {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.write(COLUMNS[i]);
+            }
+            out.write("\r\n");
+        }
+        String limit = String.valueOf(CHUNK_ROWS);
+        long lastId = 0;
+        int rows;
+        do {
+            Cursor cursor = database.query(BookDbHelper.STOCK_VIEW_NAME, COLUMNS,
+                    BookEntry._ID + " > ?", new String[]{String.valueOf(lastId)},
+                    null, null, BookEntry._ID, limit);
+            try {
+                rows = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    if (csv) {
+                        writeCsvRow(cursor, out);
+                    } else {
+                        writeJsonRow(cursor, out);
+                    }
+                    lastId = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        } while (rows == CHUNK_ROWS);
+    }
+
+    /**
+     * Write a row as comma separated values, ending with CRLF as in RFC 4180. NULL is written
+     * as an empty field.
+     */
+    private static void writeCsvRow(Cursor cursor, Writer out) throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    out.write(Long.toString(cursor.getLong(i)));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    out.write(Double.toString(cursor.getDouble(i)));
+                    break;
+                default:
+                    writeCsvString(cursor.getString(i), out);
+                    break;
+            }
+        }
+        out.write("\r\n");
+    }
+
+    /**
+     * Write a text field, in double quotes if it holds a comma, a quote or a line break.
+     */
+    private static void writeCsvString(String value, Writer out) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.write('"');
+            }
+            out.write(c);
+        }
+        out.write('"');
+    }
+
+    /**
+     * Write a row as a JSON object on a line of its own.
+     */
+    private static void writeJsonRow(Cursor cursor, Writer out) throws IOException {
+        out.write('{');
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write('"');
+            out.write(COLUMNS[i]);
+            out.write("\":");
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    out.write("null");
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    out.write(Long.toString(cursor.getLong(i)));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    out.write(Double.toString(cursor.getDouble(i)));
+                    break;
+                default:
+                    writeJsonString(cursor.getString(i), out);
+                    break;
+            }
+        }
+        out.write("}\n");
+    }
+
+    /**
+     * Write a JSON string, escaping quotes, backslashes and control characters.
+     */
+    private static void writeJsonString(String value, Writer out) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format(Locale.US, "\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+                    break;
+            }
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.android.bookstore2.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+
+import java.util.Random;
+
+/**
+ * Makes up books for load testing, shaped like a real inventory rather than copies of one row:
+ * <ul>
+ * <li>a few suppliers carry most of the books, their popularity follows Zipf's law over
+ * {@link #SUPPLIERS} suppliers;</li>
+ * <li>most books have a handful of copies, some are out of stock or running low and a few
+ * have hundreds;</li>
+ * <li>titles run from one word to long subtitled ones, and some are in Greek, Cyrillic,
+ * Arabic, CJK or contain an emoji.</li>
+ * </ul>
+ * The same seed always gives the same books, on any device, so a slow list can be reproduced
+ * from the seed and the number of books alone.
+ */
+public final class BookGenerator {
+
+    /** The seed the menu and the benchmarks use */
+    public static final long DEFAULT_SEED = 4242L;
+
+    /** Books written per {@link ContentResolver#bulkInsert} transaction */
+    public static final int DEFAULT_CHUNK_SIZE = 5000;
+
+    /** Number of different suppliers */
+    public static final int SUPPLIERS = 200;
+
+    /** Zipf exponent of the supplier popularity, the most popular has twice the second's books */
+    private static final double SUPPLIER_SKEW = 1.0;
+
+    /**
+     * Receives the progress of {@link #insert}.
+     */
+    public interface Listener {
+        /**
+         * Called on the generating thread after each chunk is committed, with the number of
+         * books written so far. Return false to stop before the next chunk.
+         */
+        boolean onChunkInserted(int inserted);
+    }
+
+    private static final String[] WORDS = {
+            "river", "winter", "garden", "empire", "shadow", "harbour", "silver", "letters",
+            "night", "house", "journey", "stone", "light", "war", "peace", "sea", "mountain",
+            "city", "secret", "memory", "fire", "island", "forest", "daughter", "king", "song",
+            "glass", "road", "bridge", "storm", "summer", "clock", "mirror", "history", "field",
+            "guide", "art", "kitchen", "machine", "language", "birds", "thousand", "last", "first",
+            "little", "great", "lost", "hidden", "quiet", "red"
+    };
+
+    /**
+     * Words outside ASCII: Latin with accents, Greek, Cyrillic, Arabic, CJK and an emoji
+     * outside the Basic Multilingual Plane.
+     */
+    private static final String[] UNICODE_WORDS = {
+            "caf\u00E9", "Stra\u00DFe", "na\u00EFve", "\u0152uvres", "M\u00FCnchen", "Espa\u00F1a",
+            "\u039F\u03B4\u03CD\u03C3\u03C3\u03B5\u03B9\u03B1", "\u0412\u043E\u0439\u043D\u0430",
+            "\u043C\u0438\u0440", "\u0645\u0643\u062A\u0628\u0629", "\u6771\u4EAC", "\u7269\u8A9E",
+            "\u3055\u304F\u3089", "\uD83D\uDCDA"
+    };
+
+    /** One word in this many is taken from {@link #UNICODE_WORDS} */
+    private static final int UNICODE_WORD_ODDS = 20;
+
+    private static final String[] SUPPLIER_NAMES = {
+            "Penguin", "Harbour", "Atlas", "Northwind", "Kestrel", "Meridian", "Orchard",
+            "Lantern", "Granite", "Bluebell", "\u00C9toile", "Sch\u00F6nberg", "Vega", "Corvid",
+            "Juniper", "\u041F\u0435\u0442\u0440\u043E\u0432", "Tide", "Quill", "Ember", "Saga"
+    };
+
+    private static final String[] SUPPLIER_KINDS = {
+            "Books", "Press", "Publishing", "House", "Verlag", "\u00C9ditions", "Media",
+            "Distribution", "& Sons", "Editorial"
+    };
+
+    /** Cumulative supplier popularity, from the most popular to the least */
+    private static final double[] SUPPLIER_CUMULATIVE = new double[SUPPLIERS];
+
+    static {
+        double total = 0;
+        for (int rank = 0; rank < SUPPLIERS; rank++) {
+            total += 1 / StrictMath.pow(rank + 1, SUPPLIER_SKEW);
+            SUPPLIER_CUMULATIVE[rank] = total;
+        }
+        for (int rank = 0; rank < SUPPLIERS; rank++) {
+            SUPPLIER_CUMULATIVE[rank] /= total;
+        }
+    }
+
+    private final Random mRandom;
+    private final StringBuilder mTitle = new StringBuilder();
+
+    public BookGenerator(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /** Return the name of the supplier of the given popularity rank, 0 being the most popular. */
+    public static String supplierName(int rank) {
+        return SUPPLIER_NAMES[rank % SUPPLIER_NAMES.length] + " "
+                + SUPPLIER_KINDS[rank / SUPPLIER_NAMES.length % SUPPLIER_KINDS.length];
+    }
+
+    /** Return the phone number of the supplier of the given popularity rank. */
+    static long supplierPhone(int rank) {
+        return 2105550000L + rank * 37L;
+    }
+
+    /** Return the popularity rank of the supplier of the next book. */
+    int nextSupplier() {
+        double value = mRandom.nextDouble();
+        int low = 0;
+        int high = SUPPLIERS - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (SUPPLIER_CUMULATIVE[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Return the stock of the next book: 8% are out of stock, 12% running low, and the rest
+     * fall off exponentially above the low stock threshold, 25 on average with a tail of a few
+     * hundred.
+     */
+    int nextStock() {
+        int percent = mRandom.nextInt(100);
+        if (percent < 8) {
+            return 0;
+        }
+        if (percent < 20) {
+            return 1 + mRandom.nextInt(BookEntry.LOW_STOCK_THRESHOLD - 1);
+        }
+        double stock = BookEntry.LOW_STOCK_THRESHOLD - 20 * StrictMath.log(1 - mRandom.nextDouble());
+        return (int) Math.min(stock, 999);
+    }
+
+    /**
+     * Return the price of the next book in cents: around 15.00, mostly between 7.00 and 35.00,
+     * ending in 99 cents like shop prices do.
+     */
+    long nextPrice() {
+        double price = 1500 * StrictMath.exp(0.45 * mRandom.nextGaussian());
+        return Math.max(1, Math.round(price / 100)) * 100 - 1;
+    }
+
+    /**
+     * Return the title of the next book. A quarter have one or two words, one in ten is long
+     * with a subtitle, and the rest have three to six words.
+     */
+    String nextTitle() {
+        mTitle.setLength(0);
+        int kind = mRandom.nextInt(100);
+        if (kind < 25) {
+            appendWords(1 + mRandom.nextInt(2));
+        } else if (kind < 90) {
+            mTitle.append("The ");
+            appendWords(2 + mRandom.nextInt(4));
+        } else {
+            appendWords(3 + mRandom.nextInt(5));
+            mTitle.append(": ");
+            appendWords(6 + mRandom.nextInt(15));
+        }
+        return mTitle.toString();
+    }
+
+    private void appendWords(int count) {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                mTitle.append(' ');
+            }
+            String word = mRandom.nextInt(UNICODE_WORD_ODDS) == 0
+                    ? UNICODE_WORDS[mRandom.nextInt(UNICODE_WORDS.length)]
+                    : WORDS[mRandom.nextInt(WORDS.length)];
+            mTitle.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+        }
+    }
+
+    /** Return the values of the next book. */
+    public ContentValues next() {
+        int supplier = nextSupplier();
+        ContentValues values = new ContentValues(5);
+        values.put(BookEntry.COLUMN_PRODUCT_NAME, nextTitle());
+        values.put(BookEntry.COLUMN_PRODUCT_PRICE, nextPrice());
+        values.put(BookEntry.COLUMN_PRODUCT_QUANTITY, nextStock());
+        values.put(BookEntry.COLUMN_SUPPLIER_NAME, supplierName(supplier));
+        values.put(BookEntry.COLUMN_SUPPLIER_PHONE, supplierPhone(supplier));
+        return values;
+    }
+
+    /** Return the values of the given number of next books. */
+    public ContentValues[] next(int count) {
+        ContentValues[] books = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            books[i] = next();
+        }
+        return books;
+    }
+
+    /**
+     * Write the given number of next books through the provider's bulk insert, in chunks of
+     * {@link #DEFAULT_CHUNK_SIZE} books committed one at a time. Call it off the main thread.
+     *
+     * @param listener told after every chunk, may be null
+     * @return the number of books written, less than count if the listener stopped early
+     */
+    public int insert(ContentResolver resolver, int count, Listener listener) {
+        int generated = 0;
+        int inserted = 0;
+        while (generated < count) {
+            ContentValues[] chunk = next(Math.min(DEFAULT_CHUNK_SIZE, count - generated));
+            generated += chunk.length;
+            inserted += resolver.bulkInsert(BookEntry.CONTENT_URI, chunk);
+            if (listener != null && !listener.onChunkInserted(inserted)) {
+                break;
+            }
+        }
+        return inserted;
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.android.bookstore2.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.util.Log;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Imports a catalogue of books from comma separated values, such as a supplier's price list or
+ * an export of {@link BookEntry#EXPORT_URI}. The first record names the columns, with the names
+ * of the {@link BookEntry} columns; {@link BookEntry#_ID} and unknown columns are ignored. A
+ * book without a supplier needs no phone, as the export writes it with an empty one.
+ *
+ * The input is read one record at a time and sent to {@link BookEntry#IMPORT_URI} in chunks, one
+ * transaction each, so a book already in the inventory is replaced rather than added twice.
+ * Records that are not valid books are counted and left out. After every chunk the
+ * {@link Listener} is given a checkpoint an interrupted import can be resumed from.
+ */
+public final class BookImporter {
+
+    private static final String LOG_TAG = BookImporter.class.getSimpleName();
+
+    /** Books written per transaction */
+    public static final int DEFAULT_CHUNK_SIZE = 2000;
+
+    /** Most rejected records logged per import, the rest are only counted */
+    private static final int MAX_LOGGED_REJECTIONS = 20;
+
+    /** The columns every record must have; the supplier's name and phone are optional */
+    private static final String[] REQUIRED_COLUMNS = {
+            BookEntry.COLUMN_PRODUCT_NAME,
+            BookEntry.COLUMN_PRODUCT_PRICE,
+            BookEntry.COLUMN_PRODUCT_QUANTITY
+    };
+
+    /**
+     * Receives the progress of an import, on the importing thread.
+     */
+    public interface Listener {
+        /**
+         * Called after each chunk is committed.
+         *
+         * @return false to stop the import, which can be resumed from
+         * {@link Progress#getCheckpoint()}
+         */
+        boolean onChunkImported(Progress progress);
+    }
+
+    /**
+     * How far an import has got.
+     */
+    public static final class Progress {
+        private final long mCheckpoint;
+        private final long mImported;
+        private final long mRejected;
+        private final boolean mFinished;
+
+        Progress(long checkpoint, long imported, long rejected, boolean finished) {
+            mCheckpoint = checkpoint;
+            mImported = imported;
+            mRejected = rejected;
+            mFinished = finished;
+        }
+
+        /**
+         * Return the number of records after the header that have been read and committed, to
+         * pass to {@link #importBooks} to resume the import after them.
+         */
+        public long getCheckpoint() {
+            return mCheckpoint;
+        }
+
+        /** Return the number of books inserted or replaced so far. */
+        public long getImported() {
+            return mImported;
+        }
+
+        /** Return the number of records left out because they are not valid books. */
+        public long getRejected() {
+            return mRejected;
+        }
+
+        /** Return true if the whole input was imported. */
+        public boolean isFinished() {
+            return mFinished;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final int mChunkSize;
+
+    public BookImporter(ContentResolver resolver) {
+        this(resolver, DEFAULT_CHUNK_SIZE);
+    }
+
+    BookImporter(ContentResolver resolver, int chunkSize) {
+        mResolver = resolver;
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Import the books of the input, which is closed once read. Must not be called on the main
+     * thread.
+     *
+     * @param checkpoint the {@link Progress#getCheckpoint()} of an earlier, stopped import of the
+     *                   same input to resume, or 0 to start from the first record
+     * @param listener   told of the progress after each chunk, or null
+     * @return the progress made, {@link Progress#isFinished()} unless the listener stopped it
+     * @throws IOException if the input can't be read, isn't valid CSV, or lacks a column
+     */
+    public Progress importBooks(Reader input, long checkpoint, Listener listener) throws IOException {
+        CsvReader csv = new CsvReader(input);
+        try {
+            List<String> header = csv.readRecord();
+            if (header == null) {
+                return new Progress(0, 0, 0, true);
+            }
+            HashMap<String, Integer> columns = new HashMap<>();
+            for (int i = 0; i < header.size(); i++) {
+                columns.put(header.get(i).trim().toLowerCase(Locale.US), i);
+            }
+            for (String column : REQUIRED_COLUMNS) {
+                if (!columns.containsKey(column)) {
+                    throw new IOException("No " + column + " column");
+                }
+            }
+            int name = columns.get(BookEntry.COLUMN_PRODUCT_NAME);
+            int price = columns.get(BookEntry.COLUMN_PRODUCT_PRICE);
+            int stock = columns.get(BookEntry.COLUMN_PRODUCT_QUANTITY);
+            Integer phone = columns.get(BookEntry.COLUMN_SUPPLIER_PHONE);
+            Integer supplier = columns.get(BookEntry.COLUMN_SUPPLIER_NAME);
+
+            // Skip the records committed before the checkpoint
+            long records = 0;
+            while (records < checkpoint && csv.readRecord() != null) {
+                records++;
+            }
+
+            ContentValues[] chunk = new ContentValues[mChunkSize];
+            int chunkLength = 0;
+            long imported = 0;
+            long rejected = 0;
+            List<String> record;
+            while ((record = csv.readRecord()) != null) {
+                records++;
+                ContentValues values = new ContentValues();
+                try {
+                    values.put(BookEntry.COLUMN_PRODUCT_NAME, field(record, name));
+                    values.put(BookEntry.COLUMN_PRODUCT_PRICE, Long.parseLong(field(record, price).trim()));
+                    values.put(BookEntry.COLUMN_PRODUCT_QUANTITY, Integer.parseInt(field(record, stock).trim()));
+                    // An empty supplier is NULL, as the export writes it
+                    String supplierName = supplier == null ? "" : field(record, supplier);
+                    values.put(BookEntry.COLUMN_SUPPLIER_NAME, supplierName.isEmpty() ? null : supplierName);
+                    // Only a supplier needs a phone
+                    String phoneNumber = phone == null ? "" : field(record, phone).trim();
+                    if (!phoneNumber.isEmpty()) {
+                        values.put(BookEntry.COLUMN_SUPPLIER_PHONE, Long.parseLong(phoneNumber));
+                    } else if (!supplierName.isEmpty()) {
+                        throw new IllegalArgumentException("Supplier requires a phone");
+                    }
+                    // The same rules as a book inserted on its own, checked here so that one bad
+                    // record doesn't roll back the chunk it is in
+                    BookProvider.validateBook(values);
+                } catch (IllegalArgumentException e) {
+                    if (rejected++ < MAX_LOGGED_REJECTIONS) {
+                        Log.w(LOG_TAG, "Skipped line " + csv.getLineNumber() + ": " + e.getMessage());
+                    }
+                    continue;
+                }
+
+                chunk[chunkLength++] = values;
+                if (chunkLength == mChunkSize) {
+                    imported += mResolver.bulkInsert(BookEntry.IMPORT_URI, chunk);
+                    chunkLength = 0;
+                    if (listener != null && !listener.onChunkImported(
+                            new Progress(records, imported, rejected, false))) {
+                        return new Progress(records, imported, rejected, false);
+                    }
+                }
+            }
+            if (chunkLength > 0) {
+                ContentValues[] last = new ContentValues[chunkLength];
+                System.arraycopy(chunk, 0, last, 0, chunkLength);
+                imported += mResolver.bulkInsert(BookEntry.IMPORT_URI, last);
+            }
+            Progress progress = new Progress(records, imported, rejected, true);
+            if (listener != null) {
+                listener.onChunkImported(progress);
+            }
+            return progress;
+        } finally {
+            csv.close();
+        }
+    }
+
+    /**
+     * Return a field of the record, throwing an {@link IllegalArgumentException} if the record
+     * is too short to have it.
+     */
+    private static String field(List<String> record, int index) {
+        if (index >= record.size()) {
+            throw new IllegalArgumentException("Missing field " + (index + 1));
+        }
+        return record.get(index);
+    }
+}
@@ -0,0 +1,289 @@
+package com.example.android.bookstore2.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+import com.example.android.bookstore2.data.BookContract.SupplierEntry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The history of the database schema, as an ordered list of steps that each bring the schema
+ * up by one version. The database holds the only copy of the inventory, so the steps never drop
+ * data: they add to the schema, or copy a table into a new shape and swap it in.
+ *
+ * To change the schema, increment {@link BookDbHelper#DATABASE_VERSION}, update the CREATE
+ * statements in {@link BookDbHelper} for new installs, and append a {@link Migration} here that
+ * takes an existing database to the same result. A step must not depend on statements that
+ * later versions change: those are copied here as they were, with the version they belong to.
+ */
+final class BookMigrations {
+
+    private BookMigrations() {}
+
+    /**
+     * One step of the schema history.
+     */
+    abstract static class Migration {
+
+        /** The version the schema has after this step */
+        final int toVersion;
+
+        Migration(int toVersion) {
+            this.toVersion = toVersion;
+        }
+
+        /** Change the schema from toVersion - 1 to toVersion, keeping every row. */
+        abstract void migrate(SQLiteDatabase db);
+
+        /**
+         * Check the result of {@link #migrate}. Throwing rolls back the whole upgrade, which
+         * leaves the database at its old version with its data intact.
+         */
+        void verify(SQLiteDatabase db) {
+        }
+    }
+
+    /** The steps in version order. Step i takes the schema to version i + 2. */
+    private static final Migration[] MIGRATIONS = {
+            // Version 2: full-text search index over names and supplier names
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    BookDbHelper.createSearchTable(db);
+                    execAll(db, SQL_CREATE_SEARCH_TRIGGERS_V2);
+                    db.execSQL(SQL_FILL_SEARCH_TABLE_V2);
+                }
+
+                @Override
+                void verify(SQLiteDatabase db) {
+                    requireSameCount(db, BookEntry.TABLE_NAME, BookDbHelper.SEARCH_TABLE_NAME);
+                }
+            },
+            // Version 3: indexes for the sorted and filtered list views
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    execAll(db, SQL_CREATE_INDEXES_V3);
+                    BookDbHelper.createLowStockIndex(db);
+                }
+            },
+            // Version 4: prices in integer cents. The column type changes, so the table is
+            // rebuilt; the ids are kept, so the search index stays valid.
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    rebuildTable(db, BookEntry.TABLE_NAME, SQL_CREATE_BOOKS_TABLE_V4,
+                            "_id, name, price, stock, suppliername, suppliernumber",
+                            "_id, name, CAST(ROUND(price * 100) AS INTEGER), stock, suppliername, suppliernumber");
+                    execAll(db, SQL_CREATE_SEARCH_TRIGGERS_V2);
+                    execAll(db, SQL_CREATE_INDEXES_V3);
+                    BookDbHelper.createLowStockIndex(db);
+                }
+
+                @Override
+                void verify(SQLiteDatabase db) {
+                    if (DatabaseUtils.queryNumEntries(db, BookEntry.TABLE_NAME,
+                            "typeof(" + BookEntry.COLUMN_PRODUCT_PRICE + ") != 'integer'") != 0) {
+                        throw new SQLiteException("Prices left that are not in cents");
+                    }
+                }
+            },
+            // Version 5: the sales journal, and the daily sales it is compacted into
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    BookDbHelper.createSales(db);
+                    db.execSQL(SQL_CREATE_STOCK_VIEW_V5);
+                }
+            },
+            // Version 6: suppliers in a table of their own, linked from the books. Each name
+            // becomes one supplier, with the phone of its most recently added book. The books
+            // table is rebuilt without the supplier columns; the ids are kept, so the search
+            // index and the sales stay valid.
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // The view reads the old table, and would stop the rename
+                    db.execSQL("DROP VIEW books_stock");
+                    BookDbHelper.createSuppliers(db);
+                    db.execSQL(SQL_FILL_SUPPLIERS_V6);
+                    rebuildTable(db, BookEntry.TABLE_NAME, SQL_CREATE_BOOKS_TABLE_V6,
+                            "_id, name, price, stock, supplier_id",
+                            "_id, name, price, stock, (SELECT _id FROM suppliers WHERE suppliers.name = books.suppliername)");
+                    BookDbHelper.createSearchTriggers(db);
+                    BookDbHelper.createIndexes(db);
+                    BookDbHelper.createViews(db);
+                }
+
+                @Override
+                void verify(SQLiteDatabase db) {
+                    // Only the books without a supplier name have no supplier
+                    if (DatabaseUtils.queryNumEntries(db, BookDbHelper.SEARCH_TABLE_NAME,
+                            "suppliername IS NOT NULL AND docid IN (SELECT _id FROM books WHERE supplier_id IS NULL)") != 0) {
+                        throw new SQLiteException("Books left without their supplier");
+                    }
+                }
+            },
+    };
+
+    /** The search triggers of versions 2 to 5, when the books held their supplier's name */
+    private static final String[] SQL_CREATE_SEARCH_TRIGGERS_V2 = {
+            "CREATE TRIGGER books_search_insert AFTER INSERT ON books BEGIN " +
+                    "INSERT INTO books_search(docid, name, suppliername) " +
+                    "VALUES (new._id, new.name, new.suppliername); END;",
+            "CREATE TRIGGER books_search_update AFTER UPDATE OF name, suppliername ON books BEGIN " +
+                    "UPDATE books_search SET name = new.name, suppliername = new.suppliername " +
+                    "WHERE docid = new._id; END;",
+            "CREATE TRIGGER books_search_delete AFTER DELETE ON books BEGIN " +
+                    "DELETE FROM books_search WHERE docid = old._id; END;"
+    };
+
+    /** Indexes the books that were there before version 2 */
+    private static final String SQL_FILL_SEARCH_TABLE_V2 = "INSERT INTO books_search" +
+            "(docid, name, suppliername) SELECT _id, name, suppliername FROM books";
+
+    /** The list indexes of versions 3 to 5, but for the low stock one */
+    private static final String[] SQL_CREATE_INDEXES_V3 = {
+            "CREATE INDEX books_name ON books (name COLLATE NOCASE);",
+            "CREATE INDEX books_supplier ON books (suppliername);",
+            "CREATE INDEX books_price ON books (price);"
+    };
+
+    /** The stock view of version 5 */
+    private static final String SQL_CREATE_STOCK_VIEW_V5 = "CREATE VIEW books_stock AS SELECT " +
+            "_id, name, price, stock - IFNULL((SELECT SUM(quantity) FROM sales " +
+            "WHERE sales.book_id = books._id), 0) AS stock, suppliername, suppliernumber FROM books;";
+
+    /** One supplier per name, with the phone of the name's most recently added book */
+    private static final String SQL_FILL_SUPPLIERS_V6 = "INSERT INTO suppliers (name, phone) " +
+            "SELECT suppliername, suppliernumber FROM books WHERE _id IN " +
+            "(SELECT MAX(_id) FROM books WHERE suppliername IS NOT NULL GROUP BY suppliername)";
+
+    /** The books table of version 4, taking the table name as format argument */
+    private static final String SQL_CREATE_BOOKS_TABLE_V4 = "CREATE TABLE %s (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            "name TEXT NOT NULL, " +
+            "price INTEGER NOT NULL DEFAULT 0, " +
+            "stock INTEGER NOT NULL DEFAULT 0, " +
+            "suppliername TEXT, " +
+            "suppliernumber INTEGER);";
+
+    /** The books table of version 6, taking the table name as format argument */
+    private static final String SQL_CREATE_BOOKS_TABLE_V6 = "CREATE TABLE %s (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            "name TEXT NOT NULL, " +
+            "price INTEGER NOT NULL DEFAULT 0, " +
+            "stock INTEGER NOT NULL DEFAULT 0, " +
+            "supplier_id INTEGER REFERENCES suppliers (_id) ON DELETE SET NULL);";
+
+    private static void execAll(SQLiteDatabase db, String[] statements) {
+        for (String statement : statements) {
+            db.execSQL(statement);
+        }
+    }
+
+    /**
+     * Run every step from oldVersion up to newVersion in order. {@link BookDbHelper#onUpgrade}
+     * is called inside a transaction, so either every step is applied or none of them is.
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.toVersion > oldVersion && migration.toVersion <= newVersion) {
+                migration.migrate(db);
+                migration.verify(db);
+            }
+        }
+        verifySchema(db);
+    }
+
+    /**
+     * The version the last step leads to, which has to match
+     * {@link BookDbHelper#DATABASE_VERSION}.
+     */
+    static int latestVersion() {
+        return MIGRATIONS.length == 0 ? 1 : MIGRATIONS[MIGRATIONS.length - 1].toVersion;
+    }
+
+    /**
+     * Check that the migrated books table and the views the provider reads the books through
+     * have every column the provider uses.
+     */
+    static void verifySchema(SQLiteDatabase db) {
+        requireColumns(db, BookEntry.TABLE_NAME, BookEntry._ID, BookEntry.COLUMN_PRODUCT_NAME,
+                BookEntry.COLUMN_PRODUCT_PRICE, BookEntry.COLUMN_PRODUCT_QUANTITY,
+                BookEntry.COLUMN_SUPPLIER_ID);
+        requireColumns(db, SupplierEntry.TABLE_NAME, SupplierEntry._ID, SupplierEntry.COLUMN_NAME,
+                SupplierEntry.COLUMN_PHONE);
+        for (String view : new String[]{BookDbHelper.BOOKS_VIEW_NAME, BookDbHelper.STOCK_VIEW_NAME}) {
+            requireColumns(db, view, BookEntry._ID, BookEntry.COLUMN_PRODUCT_NAME,
+                    BookEntry.COLUMN_PRODUCT_PRICE, BookEntry.COLUMN_PRODUCT_QUANTITY,
+                    BookEntry.COLUMN_SUPPLIER_ID, BookEntry.COLUMN_SUPPLIER_NAME,
+                    BookEntry.COLUMN_SUPPLIER_PHONE);
+        }
+    }
+
+    private static void requireColumns(SQLiteDatabase db, String table, String... required) {
+        Set<String> columns = columnsOf(db, table);
+        for (String column : required) {
+            if (!columns.contains(column)) {
+                throw new SQLiteException("Migrated table " + table + " is missing column " + column);
+            }
+        }
+    }
+
+    /**
+     * Return the names of the columns of the given table.
+     */
+    static Set<String> columnsOf(SQLiteDatabase db, String table) {
+        Set<String> columns = new HashSet<>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(nameIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+
+    /**
+     * Replace a table by a new definition, keeping its rows, for the changes ALTER TABLE can't
+     * make. Following the SQLite recipe, the rows are copied into a new table, the old table is
+     * dropped and the new one renamed to take its place. Indexes and triggers on the old table
+     * are dropped with it and have to be created again.
+     *
+     * @param createSql  CREATE TABLE statement for the new definition, taking the table name as
+     *                   its only format argument
+     * @param newColumns columns of the new table to fill
+     * @param oldColumns expressions over the old table giving the values of newColumns
+     */
+    static void rebuildTable(SQLiteDatabase db, String table, String createSql,
+                             String newColumns, String oldColumns) {
+        String newTable = table + "_new";
+        db.execSQL(String.format(createSql, newTable));
+        db.execSQL("INSERT INTO " + newTable + " (" + newColumns + ") SELECT " + oldColumns
+                + " FROM " + table);
+        requireSameCount(db, table, newTable);
+        db.execSQL("DROP TABLE " + table);
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + table);
+    }
+
+    /**
+     * Throw if the two tables don't hold the same number of rows.
+     */
+    static void requireSameCount(SQLiteDatabase db, String expectedTable, String actualTable) {
+        long expected = DatabaseUtils.queryNumEntries(db, expectedTable);
+        long actual = DatabaseUtils.queryNumEntries(db, actualTable);
+        if (expected != actual) {
+            throw new SQLiteException("Migration lost rows: " + expectedTable + " has " + expected
+                    + ", " + actualTable + " has " + actual);
+        }
+    }
+}
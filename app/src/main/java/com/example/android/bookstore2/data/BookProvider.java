@@ -1,24 +1,110 @@
 package com.example.android.bookstore2.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.example.android.bookstore2.data.BookContract.BookEntry;
+import com.example.android.bookstore2.data.BookContract.MetricsEntry;
+import com.example.android.bookstore2.data.BookContract.SalesEntry;
+import com.example.android.bookstore2.data.BookContract.StatsEntry;
+import com.example.android.bookstore2.data.BookContract.SupplierEntry;
+
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 
 public class BookProvider extends ContentProvider {
 
     /** Tag for the log messages */
     public static final String LOG_TAG = BookProvider.class.getSimpleName();
 
-    /** Database helper object */
-    private BookDbHelper mDbHelper;
+    /** Database helper object, volatile for {@link #swapDbHelper} */
+    private volatile BookDbHelper mDbHelper;
+
+    /**
+     * Sends the change notifications: the URI of the one book that changed, or of the books
+     * table when several did. Notifications made inside a transaction are merged and sent
+     * when it commits.
+     */
+    private ChangeNotifier mNotifier;
+
+    /** The inventory totals, kept up to date by every write below. Volatile like mDbHelper. */
+    private volatile InventoryStats mStats = new InventoryStats();
+
+    /** The recently read books, dropped by every write that changes them */
+    private final BookRowCache mRowCache = new BookRowCache(BookRowCache.DEFAULT_MAX_BOOKS);
+
+    /** The recently used suppliers, so writing a book does not look its supplier up every time */
+    private final SupplierCache mSuppliers = new SupplierCache(SupplierCache.DEFAULT_MAX_SUPPLIERS);
+
+    /** The compiled statements of the frequent writes, for the current writable database */
+    private BookStatements mStatements;
+
+    /** Timings of the operations, see {@link MetricsEntry} */
+    private final ProviderMetrics mMetrics = new ProviderMetrics(BOOKS, MATCH_NAMES);
+
+    /**
+     * The sales not taken off the stock of their books yet, see {@link SalesEntry}. Volatile
+     * like mDbHelper.
+     */
+    private volatile SalesJournal mSales = new SalesJournal(mMetrics);
+
+    public BookProvider() {
+    }
+
+    /**
+     * Creates a provider on top of an existing helper, so tests can run it against their own
+     * database file. {@link #onCreate()} keeps the given helper.
+     */
+    BookProvider(BookDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Move the provider onto the database of the given helper, with empty caches and totals,
+     * and return the helper it used until now, still open. For benchmarks that drive the app's
+     * screens against a database file of their own, which the test constructor cannot do for
+     * the provider the process already runs.
+     *
+     * The fields swapped are volatile, so the next call on any thread sees the new database,
+     * but a call already running finishes on the old one: nothing may read or write through
+     * the provider while it moves. The compaction scheduled on the old database is dropped; its
+     * journaled sales stay in that database and are compacted once the provider is back on it.
+     */
+    synchronized BookDbHelper swapDbHelper(BookDbHelper dbHelper) {
+        BookDbHelper previous = mDbHelper;
+        mSales.close();
+        mDbHelper = dbHelper;
+        mStatements = null;
+        mStats = new InventoryStats();
+        mRowCache.beginWrite();
+        mRowCache.invalidateAll();
+        mRowCache.endWrite();
+        mSuppliers.invalidateAll();
+        mSales = new SalesJournal(mMetrics);
+        return previous;
+    }
 
     /** URI matcher code for the content URI for the books table */
     private static final int BOOKS = 100;
@@ -26,6 +112,63 @@ public class BookProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single listed item in the books table */
     private static final int BOOK_ID = 101;
 
+    /** URI matcher code for the content URI of a full-text search over the books */
+    private static final int BOOK_SEARCH = 102;
+
+    /** URI matcher code for the content URI of the inventory totals */
+    private static final int BOOK_STATS = 103;
+
+    /** URI matcher code for the content URI of the inventory totals per supplier */
+    private static final int SUPPLIER_STATS = 104;
+
+    /** URI matcher code for the content URI of the export of every book */
+    private static final int BOOK_EXPORT = 105;
+
+    /** URI matcher code for the content URI imported books are inserted into */
+    private static final int BOOK_IMPORT = 106;
+
+    /** URI matcher code for the content URI of the provider's timings */
+    private static final int METRICS = 107;
+
+    /** URI matcher code for the content URI of the slow operation log */
+    private static final int SLOW_METRICS = 108;
+
+    /** URI matcher code for the content URI of the sales per day and book */
+    private static final int SALES_DAILY = 109;
+
+    /** URI matcher code for the content URI for the suppliers table */
+    private static final int SUPPLIERS = 110;
+
+    /** URI matcher code for the content URI for a single supplier */
+    private static final int SUPPLIER_ID = 111;
+
+    /** The names of the URI matcher codes from BOOKS on, for the metrics */
+    private static final String[] MATCH_NAMES = {
+            "books", "book", "search", "stats", "supplier_stats", "export", "import", "metrics",
+            "slow_metrics", "sales_daily", "suppliers", "supplier"
+    };
+
+    /**
+     * Reads the stock, with the journaled sales taken off, the price and supplier of a book.
+     * Argument: _id.
+     */
+    private static final String SQL_SELECT_SOLD_BOOK = "SELECT " + BookEntry.COLUMN_PRODUCT_QUANTITY
+            + ", " + BookEntry.COLUMN_PRODUCT_PRICE + ", " + BookEntry.COLUMN_SUPPLIER_NAME
+            + " FROM " + BookDbHelper.STOCK_VIEW_NAME + " WHERE " + BookEntry._ID + " = ?";
+
+    /**
+     * The columns books can be read with, {@link BookEntry#ALL_COLUMNS}, each mapped to the SQL
+     * that reads it from the books view named as the books table. Any other column is refused.
+     */
+    private static final HashMap<String, String> sBookProjectionMap = new HashMap<>();
+
+    static {
+        for (String column : BookEntry.ALL_COLUMNS) {
+            sBookProjectionMap.put(column,
+                    BookEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+    }
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -40,22 +183,97 @@ public class BookProvider extends ContentProvider {
         // when a match is found.
         sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_BOOKS, BOOKS);
         sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_BOOKS + "/#", BOOK_ID);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_BOOKS + "/" + BookContract.PATH_SEARCH + "/*", BOOK_SEARCH);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_BOOKS + "/" + BookContract.PATH_STATS, BOOK_STATS);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_BOOKS + "/"
+                + BookContract.PATH_STATS + "/" + BookContract.PATH_SUPPLIERS, SUPPLIER_STATS);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_BOOKS + "/" + BookContract.PATH_EXPORT, BOOK_EXPORT);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_BOOKS + "/" + BookContract.PATH_IMPORT, BOOK_IMPORT);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_METRICS, METRICS);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_METRICS + "/" + BookContract.PATH_SLOW, SLOW_METRICS);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY,
+                BookContract.PATH_SALES + "/" + BookContract.PATH_DAILY, SALES_DAILY);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_SUPPLIERS, SUPPLIERS);
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_SUPPLIERS + "/#",
+                SUPPLIER_ID);
     }
 
     /**
-     * Initialize the provider and the database helper object.
+     * Initialize the provider and the database helper object. The provider is created as the
+     * process starts, before any activity, so the database is opened from here on a background
+     * thread: by the time the list's first query arrives, the file is open, migrated and its
+     * statements compiled, and the query waits for the open at most.
      */
     @Override
     public boolean onCreate() {
-        mDbHelper = new BookDbHelper(getContext());
+        if (mDbHelper == null) {
+            mDbHelper = new BookDbHelper(getContext());
+            warmUp();
+        }
+        mNotifier = new ChangeNotifier(new ChangeNotifier.Dispatcher() {
+            @Override
+            public void dispatch(Uri uri) {
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
+        });
         return true;
     }
 
+    /**
+     * Open the database and compile the statements on a background thread. The helper opens the
+     * database under its own lock, so a query that comes in meanwhile waits for this open rather
+     * than starting a second one. A failure is only logged, the first query fails the same way.
+     *
+     * The thread keeps the default priority: the first query may be waiting on it, and a
+     * background priority would let any other work of the process hold that query up.
+     */
+    private void warmUp() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    statements(mDbHelper.getWritableDatabase());
+                } catch (SQLException e) {
+                    Log.e(LOG_TAG, "Failed to open the database ahead of the first query", e);
+                }
+            }
+        }, LOG_TAG + " warm-up");
+        thread.start();
+    }
+
+    /**
+     * Return the compiled statements for the given writable database, compiling them again if
+     * the helper has opened a new database since they were.
+     */
+    private synchronized BookStatements statements(SQLiteDatabase database) {
+        if (mStatements == null || mStatements.getDatabase() != database) {
+            mStatements = new BookStatements(database);
+        }
+        return mStatements;
+    }
+
     /**
      * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
      */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Perform the query for the given URI. The cancellation signal lets a loader abandon a query
+     * that is no longer needed, such as a search for text the user has since typed over.
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
+        long start = mMetrics.begin();
+
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
@@ -66,12 +284,25 @@ public class BookProvider extends ContentProvider {
         int match = sUriMatcher.match(uri);
         switch (match) {
             case BOOKS:
-                // For the BOOKS code, query the books table directly with the given
-                // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the books table.
-                cursor = database.query(BookEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                // For the BOOKS code, query the books with the given projection, selection,
+                // selection arguments, and sort order, narrowed down by the filter and page
+                // parameters of the URI. The cursor could contain multiple rows of the books
+                // table. The books are read through a view that joins in their supplier, and
+                // while sales are waiting in the journal, takes them off the stock.
+                SqlQuery booksQuery = buildBooksQuery(mSales.booksTable(database), uri, projection,
+                        selection, selectionArgs, sortOrder);
+                cursor = database.rawQuery(booksQuery.sql, booksQuery.args, cancellationSignal);
                 break;
             case BOOK_ID:
+                // Recently read books are served from memory. The cache only knows the
+                // columns of the detail profile; anything else is queried below.
+                String[] columns = mapBookProjection(projection);
+                cursor = mRowCache.query(database, ContentUris.parseId(uri),
+                        projection != null ? projection : BookEntry.DETAIL_COLUMNS, cancellationSignal);
+                if (cursor != null) {
+                    break;
+                }
+
                 // For the BOOK_ID code, extract out the ID from the URI.
                 // For an example URI such as "content://com.example.android.bookstore2/books/3",
                 // the selection will be "_id=?" and the selection argument will be a
@@ -85,8 +316,42 @@ public class BookProvider extends ContentProvider {
 
                 // This will perform a query on the books table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(BookEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = database.query(false, mSales.booksTable(database), columns, selection,
+                        selectionArgs, null, null, sortOrder, null, cancellationSignal);
+                break;
+            case BOOK_SEARCH:
+                cursor = querySearch(database, uri, projection, selection, selectionArgs, sortOrder,
+                        cancellationSignal);
+                break;
+            case BOOK_STATS:
+                // The totals are computed in SQL once, then kept up to date in memory
+                cursor = mStats.totalsCursor(database, projection);
+                break;
+            case SUPPLIER_STATS:
+                cursor = mStats.supplierCursor(database, projection);
+                break;
+            case METRICS:
+                cursor = mMetrics.metricsCursor();
+                break;
+            case SLOW_METRICS:
+                cursor = mMetrics.slowCursor();
+                break;
+            case SALES_DAILY:
+                cursor = mSales.queryDaily(database, projection, selection, selectionArgs,
+                        sortOrder, cancellationSignal);
+                break;
+            case SUPPLIERS:
+                if (TextUtils.isEmpty(sortOrder)) {
+                    sortOrder = SupplierEntry.COLUMN_NAME;
+                }
+                cursor = database.query(false, SupplierEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, null, cancellationSignal);
+                break;
+            case SUPPLIER_ID:
+                selection = SupplierEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                cursor = database.query(false, SupplierEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder, null, cancellationSignal);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
@@ -94,10 +359,210 @@ public class BookProvider extends ContentProvider {
         // Set notification URI on the Cursor,
         // so we know what content URI the Cursor was created for.
         // If the data at this URI changes, then we know we need to update the Cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // The totals and the sales change with any book, so they watch the whole books URI.
+        boolean stats = match == BOOK_STATS || match == SUPPLIER_STATS || match == SALES_DAILY;
+        cursor.setNotificationUri(getContext().getContentResolver(),
+                stats ? BookEntry.CONTENT_URI : uri);
+
+        // Return the cursor, timed until its first window is filled
+        return mMetrics.track(cursor, match, start, uri, selection);
+    }
+
+    /**
+     * A SELECT statement with its arguments.
+     */
+    static final class SqlQuery {
+        final String sql;
+        final String[] args;
+
+        SqlQuery(String sql, String[] args) {
+            this.sql = sql;
+            this.args = args;
+        }
+    }
+
+    /**
+     * Build the query for the {@link #BOOKS} URI. The filter parameters of the URI are added to
+     * the selection. If the URI has a {@link BookEntry#QUERY_PARAMETER_LIMIT}, the query returns
+     * one page of books: the page starts right after the row given by the
+     * {@link BookEntry#QUERY_PARAMETER_AFTER_ID} and {@link BookEntry#QUERY_PARAMETER_AFTER_VALUE}
+     * parameters (or at the start of the list if they are missing). The start row is found with a
+     * keyset condition on (sort column, _id), so SQLite seeks straight to it instead of skipping
+     * over an OFFSET. The projection is checked against {@link BookEntry#ALL_COLUMNS}.
+     */
+    static SqlQuery buildBooksQuery(Uri uri, String[] projection, String selection,
+                                    String[] selectionArgs, String sortOrder) {
+        return buildBooksQuery(BookDbHelper.BOOKS_VIEW_NAME + " AS " + BookEntry.TABLE_NAME, uri,
+                projection, selection, selectionArgs, sortOrder);
+    }
+
+    /**
+     * Build the query for the {@link #BOOKS} URI, reading the books from the given table, such
+     * as one of the views of the books named as the books table.
+     */
+    static SqlQuery buildBooksQuery(String table, Uri uri, String[] projection, String selection,
+                                    String[] selectionArgs, String sortOrder) {
+        ArrayList<String> args = new ArrayList<>();
+        if (selectionArgs != null) {
+            args.addAll(Arrays.asList(selectionArgs));
+        }
+
+        // Filters
+        String filter = uri.getQueryParameter(BookEntry.QUERY_PARAMETER_FILTER);
+        if (filter != null) {
+            if (!filter.equals(BookEntry.FILTER_LOW_STOCK)) {
+                throw new IllegalArgumentException("Unknown filter " + filter);
+            }
+            selection = and(selection, BookEntry.LOW_STOCK_SELECTION);
+        }
+        String supplier = uri.getQueryParameter(BookEntry.QUERY_PARAMETER_SUPPLIER);
+        if (supplier != null) {
+            // Look the supplier up once, then walk its books along the supplier_id index
+            selection = and(selection, BookEntry.COLUMN_SUPPLIER_ID + " = (SELECT "
+                    + SupplierEntry._ID + " FROM " + SupplierEntry.TABLE_NAME + " WHERE "
+                    + SupplierEntry.COLUMN_NAME + " = ?)");
+            args.add(supplier);
+        }
+
+        String limit = uri.getQueryParameter(BookEntry.QUERY_PARAMETER_LIMIT);
+        if (limit != null) {
+            if (!TextUtils.isDigitsOnly(limit) || limit.isEmpty()) {
+                throw new IllegalArgumentException("Invalid page limit in " + uri);
+            }
+
+            // The sort column is part of the SQL, so only accept the columns we know about
+            String sortColumn = uri.getQueryParameter(BookEntry.QUERY_PARAMETER_SORT);
+            String orderedBy;
+            if (sortColumn == null || sortColumn.equals(BookEntry._ID)) {
+                sortColumn = BookEntry._ID;
+                orderedBy = BookEntry._ID;
+            } else if (sortColumn.equals(BookEntry.COLUMN_PRODUCT_NAME)) {
+                orderedBy = BookEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE";
+            } else if (sortColumn.equals(BookEntry.COLUMN_PRODUCT_PRICE)) {
+                orderedBy = BookEntry.COLUMN_PRODUCT_PRICE;
+            } else {
+                throw new IllegalArgumentException("Cannot page books by " + sortColumn);
+            }
+
+            String afterId = uri.getQueryParameter(BookEntry.QUERY_PARAMETER_AFTER_ID);
+            if (afterId != null) {
+                if (sortColumn.equals(BookEntry._ID)) {
+                    selection = and(selection, BookEntry._ID + " > ?");
+                    args.add(afterId);
+                } else {
+                    // (value, _id) > (afterValue, afterId), written out for SQLite. The leading
+                    // value >= afterValue term lets it seek the index to the start of the page.
+                    String afterValue = uri.getQueryParameter(BookEntry.QUERY_PARAMETER_AFTER_VALUE);
+                    if (afterValue == null) {
+                        throw new IllegalArgumentException("Missing page start value in " + uri);
+                    }
+                    selection = and(selection, orderedBy + " >= ? AND (" + orderedBy + " > ? OR "
+                            + BookEntry._ID + " > ?)");
+                    args.add(afterValue);
+                    args.add(afterValue);
+                    args.add(afterId);
+                }
+            }
+
+            // Pages are always in keyset order, whatever sort order was asked for
+            sortOrder = sortColumn.equals(BookEntry._ID)
+                    ? BookEntry._ID : orderedBy + ", " + BookEntry._ID;
+        }
+
+        String sql = SQLiteQueryBuilder.buildQueryString(false, table, mapBookProjection(projection),
+                selection, null, null, sortOrder, limit);
+        return new SqlQuery(sql, args.toArray(new String[args.size()]));
+    }
+
+    /**
+     * Return the SQL of the columns of a books query, through {@link #sBookProjectionMap}. A
+     * null projection reads the {@link BookEntry#DETAIL_COLUMNS}. Throws an
+     * {@link IllegalArgumentException} for any column books cannot be read with, so a typo or
+     * an expression fails instead of reading more than the caller meant to.
+     */
+    static String[] mapBookProjection(String[] projection) {
+        if (projection == null) {
+            projection = BookEntry.DETAIL_COLUMNS;
+        }
+        String[] columns = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = sBookProjectionMap.get(projection[i]);
+            if (columns[i] == null) {
+                throw new IllegalArgumentException("Cannot read books with column " + projection[i]);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Combine two selections with AND.
+     */
+    private static String and(String selection, String condition) {
+        return TextUtils.isEmpty(selection)
+                ? condition : "(" + selection + ") AND (" + condition + ")";
+    }
+
+    /**
+     * Search the full-text index for the text in the last segment of the URI and return the
+     * matching books, best matches first. A book ranks higher the more often the searched words occur
+     * in its name and supplier.
+     */
+    private Cursor querySearch(SQLiteDatabase database, Uri uri, String[] projection,
+                               String selection, String[] selectionArgs, String sortOrder,
+                               CancellationSignal cancellationSignal) {
+        String[] columns = mapBookProjection(projection);
+        String match = buildMatchQuery(uri.getLastPathSegment());
+        if (match == null) {
+            // Nothing searchable was typed, return an empty cursor with the requested columns
+            return database.query(false, BookDbHelper.BOOKS_VIEW_NAME + " AS " + BookEntry.TABLE_NAME,
+                    columns, "0", null, null, null, null, null, cancellationSignal);
+        }
+
+        // Join the hits back to the books. offsets() lists four space separated integers for
+        // each matched word, so counting its spaces gives the number of matches as the rank.
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(mSales.booksTable(database) + " JOIN (SELECT docid, (length(o)"
+                + " - length(replace(o, ' ', '')) + 1) / 4 AS rank FROM (SELECT docid, offsets("
+                + BookDbHelper.SEARCH_TABLE_NAME + ") AS o FROM " + BookDbHelper.SEARCH_TABLE_NAME
+                + " WHERE " + BookDbHelper.SEARCH_TABLE_NAME + " MATCH ?)) AS hits ON "
+                + BookEntry.TABLE_NAME + "." + BookEntry._ID + " = hits.docid");
+
+        // The MATCH argument comes first, it is bound before the selection arguments
+        ArrayList<String> args = new ArrayList<>();
+        args.add(match);
+        if (selectionArgs != null) {
+            args.addAll(Arrays.asList(selectionArgs));
+        }
+        if (TextUtils.isEmpty(sortOrder)) {
+            sortOrder = "hits.rank DESC, " + BookEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE";
+        }
+        return builder.query(database, columns, selection, args.toArray(new String[args.size()]),
+                null, null, sortOrder, uri.getQueryParameter(BookEntry.QUERY_PARAMETER_LIMIT),
+                cancellationSignal);
+    }
 
-        // Return the cursor
-        return cursor;
+    /**
+     * Turn the text typed by the user into an FTS MATCH expression that requires every word as a
+     * prefix, for example "harry pot" becomes "harry* pot*". Everything but letters and digits is
+     * dropped, so the text can't inject FTS operators. Returns null if no words are left.
+     */
+    static String buildMatchQuery(String text) {
+        StringBuilder match = new StringBuilder();
+        for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            // Lower case ASCII only, like the FTS tokenizer does, so OR and NEAR stay plain words
+            for (int i = 0; i < word.length(); i++) {
+                char c = word.charAt(i);
+                match.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+            }
+            match.append('*');
+        }
+        return match.length() == 0 ? null : match.toString();
     }
 
     /**
@@ -111,22 +576,102 @@ public class BookProvider extends ContentProvider {
                 return BookEntry.CONTENT_LIST_TYPE;
             case BOOK_ID:
                 return BookEntry.CONTENT_ITEM_TYPE;
+            case BOOK_SEARCH:
+                return BookEntry.CONTENT_LIST_TYPE;
+            case BOOK_STATS:
+                return StatsEntry.CONTENT_ITEM_TYPE;
+            case SUPPLIER_STATS:
+                return StatsEntry.CONTENT_LIST_TYPE;
+            case BOOK_EXPORT:
+                return BookEntry.MIME_TYPE_CSV;
+            case BOOK_IMPORT:
+                return BookEntry.CONTENT_LIST_TYPE;
+            case METRICS:
+            case SLOW_METRICS:
+                return MetricsEntry.CONTENT_LIST_TYPE;
+            case SALES_DAILY:
+                return SalesEntry.CONTENT_LIST_TYPE;
+            case SUPPLIERS:
+                return SupplierEntry.CONTENT_LIST_TYPE;
+            case SUPPLIER_ID:
+                return SupplierEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
 
+    /**
+     * Returns the types the export URI can be opened as that match the filter.
+     */
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        if (sUriMatcher.match(uri) != BOOK_EXPORT) {
+            return null;
+        }
+        return BookExporter.matchingTypes(mimeTypeFilter);
+    }
+
+    /**
+     * Open the export URI as the first export type matching the filter.
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != BOOK_EXPORT) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+        String[] types = BookExporter.matchingTypes(mimeTypeFilter);
+        if (types == null) {
+            throw new FileNotFoundException("Cannot export books as " + mimeTypeFilter);
+        }
+        return new AssetFileDescriptor(openExport(uri, types[0]), 0,
+                AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+    /**
+     * Open the export URI for reading, as CSV.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != BOOK_EXPORT) {
+            throw new FileNotFoundException("Cannot open " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("The export of the books can only be read");
+        }
+        return openExport(uri, BookEntry.MIME_TYPE_CSV);
+    }
+
+    /**
+     * Return the read end of a pipe the books are written to, in the given type. The rows are
+     * only read from the database once the writer thread starts, see {@link BookExporter}.
+     */
+    private ParcelFileDescriptor openExport(Uri uri, String mimeType) throws FileNotFoundException {
+        return openPipeHelper(uri, mimeType, null, mDbHelper.getReadableDatabase(),
+                new BookExporter());
+    }
+
     /**
      * Insert new data into the provider with the given ContentValues.
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
         final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case BOOKS:
-                return insertBook(uri, values);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        long start = mMetrics.begin();
+        Uri newUri = null;
+        try {
+            switch (match) {
+                case BOOKS:
+                    newUri = insertBook(uri, values);
+                    return newUri;
+                case SUPPLIERS:
+                    newUri = insertSupplier(uri, values);
+                    return newUri;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            mMetrics.end(ProviderMetrics.INSERT, match, start, newUri == null ? 0 : 1, uri, null);
         }
     }
 
@@ -140,104 +685,523 @@ public class BookProvider extends ContentProvider {
         if (bookName == null || bookName.equals("")) {
             Toast toast = Toast.makeText(getContext(), "Given name: " + bookName, Toast.LENGTH_LONG);
             toast.show();
+        }
+        validateBook(values);
+
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Insert the new book with the given values, linked to its supplier in the same
+        // transaction, and add it to the inventory totals
+        long id = -1;
+        boolean committed = false;
+        mStats.beginWrite();
+        mRowCache.beginWrite();
+        mNotifier.beginTransaction();
+        long transactionStart = mMetrics.begin();
+        database.beginTransaction();
+        try {
+            id = insertBookRow(database, statements(database), values, linkSupplier(database, values));
+            if (id != -1) {
+                addToStats(values);
+                // SQLite can reuse the ID of the last book after it is deleted
+                mRowCache.invalidate(id);
+                // Once we know the ID of the new row in the table, notify the listeners of that
+                // row, and through it those of the whole table, that it has been added
+                notifyChange(ContentUris.withAppendedId(BookEntry.CONTENT_URI, id));
+            }
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            if (!committed) {
+                mSuppliers.invalidateAll();
+            }
+            database.endTransaction();
+            mMetrics.endTransaction(transactionStart);
+            mRowCache.endWrite();
+            mStats.endWrite(committed && id != -1);
+            mNotifier.endTransaction(committed);
+        }
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // Return the new URI with the ID appended to the end of it
+        return ContentUris.withAppendedId(BookEntry.CONTENT_URI, id);
+    }
+
+    /**
+     * Insert a book of the given supplier, through the compiled statement when the values allow
+     * it. Return the _ID of the new book, or -1 if it could not be inserted.
+     */
+    private static long insertBookRow(SQLiteDatabase database, BookStatements statements,
+                                      ContentValues values, Long supplierId) {
+        return BookStatements.canInsert(values)
+                ? statements.insert(values, supplierId)
+                : database.insert(BookEntry.TABLE_NAME, null, toBookRow(values, supplierId));
+    }
+
+    /**
+     * Return the columns of the books table for the given book values: the supplier name and
+     * phone are replaced by the _ID of the supplier.
+     */
+    private static ContentValues toBookRow(ContentValues values, Long supplierId) {
+        ContentValues row = new ContentValues(values);
+        row.remove(BookEntry.COLUMN_SUPPLIER_NAME);
+        row.remove(BookEntry.COLUMN_SUPPLIER_PHONE);
+        row.put(BookEntry.COLUMN_SUPPLIER_ID, supplierId);
+        return row;
+    }
+
+    /**
+     * Return the _ID of the supplier named in the given book values, or null if they name none.
+     * The supplier is added if there is no supplier of that name yet, and a phone in the values
+     * becomes its phone. Must be called inside the transaction of the write, between the
+     * {@link BookRowCache#beginWrite} and {@link BookRowCache#endWrite} of the row cache.
+     */
+    private Long linkSupplier(SQLiteDatabase database, ContentValues values) {
+        // An empty name, as the editor saves when the field is left blank, is no supplier
+        String name = values.getAsString(BookEntry.COLUMN_SUPPLIER_NAME);
+        if (TextUtils.isEmpty(name)) {
+            return null;
+        }
+        Long phone = values.getAsLong(BookEntry.COLUMN_SUPPLIER_PHONE);
+        SupplierCache.Supplier supplier = mSuppliers.find(database, name);
+        if (supplier == null) {
+            supplier = mSuppliers.add(database, name, phone);
+            notifyChange(SupplierEntry.CONTENT_URI);
+        } else if (values.containsKey(BookEntry.COLUMN_SUPPLIER_PHONE)
+                && mSuppliers.setPhone(database, name, supplier, phone)) {
+            // Every book of the supplier shows the new phone
+            mRowCache.invalidateAll();
+            notifyChange(SupplierEntry.CONTENT_URI);
+            notifyChange(BookEntry.CONTENT_URI);
+        }
+        return supplier.id;
+    }
+
+    /**
+     * Insert a supplier into the database with the given content values. Return the new content
+     * URI of the supplier, or null if it could not be inserted, such as when its name is taken.
+     */
+    private Uri insertSupplier(Uri uri, ContentValues values) {
+        if (TextUtils.isEmpty(values.getAsString(SupplierEntry.COLUMN_NAME))) {
+            throw new IllegalArgumentException("Supplier requires a name");
+        }
+        long id = mDbHelper.getWritableDatabase().insert(SupplierEntry.TABLE_NAME, null, values);
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+        Uri supplierUri = ContentUris.withAppendedId(SupplierEntry.CONTENT_URI, id);
+        notifyChange(supplierUri);
+        return supplierUri;
+    }
+
+    /**
+     * Check that the given values describe a valid new book, throwing an
+     * {@link IllegalArgumentException} otherwise. Shared by the single row and the batch inserts.
+     */
+    static void validateBook(ContentValues values) {
+        // Check that the name is not null
+        String bookName = values.getAsString(BookEntry.COLUMN_PRODUCT_NAME);
+        if (bookName == null || bookName.equals("")) {
             throw new IllegalArgumentException("Book requires a name");
         }
 
-        // Check that the price is not less than 0
-        float price = values.getAsFloat(BookEntry.COLUMN_PRODUCT_PRICE);
-        if (price < 0) {
+        // Check that the price (in cents) is not less than 0
+        Long price = values.getAsLong(BookEntry.COLUMN_PRODUCT_PRICE);
+        if (price == null || price < 0) {
             throw new IllegalArgumentException("Book requires valid price");
         }
 
-        // Check that the stock is not negative
-        int stock = values.getAsInteger(BookEntry.COLUMN_PRODUCT_QUANTITY);
-        if (stock < 0) {
+        // Check that the stock is given and not negative
+        Integer stock = values.getAsInteger(BookEntry.COLUMN_PRODUCT_QUANTITY);
+        if (stock == null || stock < 0) {
             throw new IllegalArgumentException("Stock requires valid value");
         }
 
-        //Check the phone number
+        // Check the phone number, which a book without a supplier has no need of
         Long phone = values.getAsLong(BookEntry.COLUMN_SUPPLIER_PHONE);
-        if (phone < 0) {
+        if (phone != null && phone < 0) {
             throw new IllegalArgumentException("Phone requires a valid number");
         }
+    }
 
-        // Get writable database
+    /**
+     * Add a newly inserted book to the inventory totals.
+     */
+    private void addToStats(ContentValues values) {
+        mStats.addBook(values.getAsString(BookEntry.COLUMN_SUPPLIER_NAME),
+                values.getAsLong(BookEntry.COLUMN_PRODUCT_QUANTITY),
+                values.getAsLong(BookEntry.COLUMN_PRODUCT_PRICE));
+    }
+
+    /**
+     * Insert all the given books in a single transaction. Every row is validated like
+     * {@link #insertBook}, and listeners are notified once when the whole batch is committed.
+     * If any row is invalid nothing is inserted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        long start = mMetrics.begin();
+        int rowsInserted = 0;
+        try {
+            if (match == BOOK_IMPORT) {
+                rowsInserted = importBooks(values);
+            } else if (match == BOOKS) {
+                rowsInserted = insertBooks(uri, values);
+            } else {
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+            return rowsInserted;
+        } finally {
+            mMetrics.end(ProviderMetrics.BULK_INSERT, match, start, rowsInserted, uri, null);
+        }
+    }
+
+    /**
+     * Insert the given books for {@link #bulkInsert}.
+     */
+    private int insertBooks(Uri uri, ContentValues[] values) {
+
+        // Get writable database and its statements once for the whole batch
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        BookStatements statements = statements(database);
 
-        // Insert the new book with the given values
-        long id = database.insert(BookEntry.TABLE_NAME, null, values);
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+        int rowsInserted = 0;
+        boolean committed = false;
+        mStats.beginWrite();
+        mRowCache.beginWrite();
+        mNotifier.beginTransaction();
+        long transactionStart = mMetrics.begin();
+        database.beginTransaction();
+        try {
+            for (ContentValues bookValues : values) {
+                validateBook(bookValues);
+                long id = insertBookRow(database, statements, bookValues,
+                        linkSupplier(database, bookValues));
+                if (id == -1) {
+                    Log.e(LOG_TAG, "Failed to insert row for " + uri);
+                } else {
+                    addToStats(bookValues);
+                    mRowCache.invalidate(id);
+                    notifyChange(ContentUris.withAppendedId(BookEntry.CONTENT_URI, id));
+                    rowsInserted++;
+                }
+            }
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            if (!committed) {
+                mSuppliers.invalidateAll();
+            }
+            database.endTransaction();
+            mMetrics.endTransaction(transactionStart);
+            mRowCache.endWrite();
+            mStats.endWrite(committed);
+            // One notification for the whole batch
+            mNotifier.endTransaction(committed);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Import the given books in a single transaction: a book with the same name, ignoring case,
+     * and supplier as an existing one replaces it, any other book is inserted. Every row is
+     * validated like {@link #insertBook}, and if any is invalid nothing is imported. Listeners
+     * of the whole table are notified once. Return the number of books inserted or replaced.
+     */
+    private int importBooks(ContentValues[] values) {
+        // Get writable database and its statements once for the whole batch
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        BookStatements statements = statements(database);
+
+        int rowsImported = 0;
+        boolean replaced = false;
+        boolean committed = false;
+        boolean outermost = !database.inTransaction();
+        mStats.beginWrite();
+        mRowCache.beginWrite();
+        long transactionStart = mMetrics.begin();
+        database.beginTransaction();
+        try {
+            // The imported stock replaces the stock left, so take the journaled sales off
+            // first, in the same transaction so no sale can come in between
+            mSales.compact(database);
+
+            for (ContentValues bookValues : values) {
+                validateBook(bookValues);
+                Long supplierId = linkSupplier(database, bookValues);
+                long id = statements.find(bookValues.getAsString(BookEntry.COLUMN_PRODUCT_NAME),
+                        supplierId);
+                if (id == -1) {
+                    id = insertBookRow(database, statements, bookValues, supplierId);
+                    if (id != -1) {
+                        addToStats(bookValues);
+                    }
+                } else if (statements.replace(id, bookValues, supplierId) == 1) {
+                    replaced = true;
+                } else {
+                    id = -1;
+                }
+                if (id == -1) {
+                    Log.e(LOG_TAG, "Failed to import " + bookValues);
+                } else {
+                    mRowCache.invalidate(id);
+                    rowsImported++;
+                }
+            }
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            if (!committed) {
+                mSuppliers.invalidateAll();
+            }
+            database.endTransaction();
+            mMetrics.endTransaction(transactionStart);
+            if (outermost) {
+                mSales.endTransaction(committed);
+            }
+            mRowCache.endWrite();
+            // The old values of the replaced books are unknown, so the totals are computed again
+            mStats.endWrite(committed && !replaced);
         }
-        // Notify all listeners that the data has changed for the pet content URI
-        getContext().getContentResolver().notifyChange(uri, null);
 
-        // Once we know the ID of the new row in the table,
-        // return the new URI with the ID appended to the end of it
-        return ContentUris.withAppendedId(uri, id);
+        if (rowsImported != 0) {
+            notifyChange(BookEntry.CONTENT_URI);
+        }
+        return rowsImported;
+    }
+
+    /**
+     * Apply the given operations in a single transaction. The notifications of the individual
+     * operations are merged into one, sent after the commit.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        ContentProviderResult[] results;
+        boolean committed = false;
+        mNotifier.beginTransaction();
+        mStats.beginWrite();
+        // The operations end their own writes of the row cache before the batch commits, so
+        // the batch is a write of its own: no book read meanwhile is cached
+        mRowCache.beginWrite();
+        long transactionStart = mMetrics.begin();
+        database.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            if (!committed) {
+                // The operations may have cached suppliers they added
+                mSuppliers.invalidateAll();
+            }
+            database.endTransaction();
+            mMetrics.endTransaction(transactionStart);
+            mSales.endTransaction(committed);
+            mRowCache.endWrite();
+            // The operations kept the totals up to date, unless the batch is rolled back
+            mStats.endWrite(committed);
+            mNotifier.endTransaction(committed);
+        }
+        return results;
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed. Observers registered
+     * for descendants of {@link BookEntry#CONTENT_URI} receive the URI of a single book, so
+     * they can update just that book. The notification is merged with others made in the same
+     * transaction, or within a short window, see {@link ChangeNotifier}.
+     */
+    private void notifyChange(Uri uri) {
+        mNotifier.notifyChange(uri);
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        final int match = sUriMatcher.match(uri);
+        long start = mMetrics.begin();
+        int rowsDeleted = 0;
+        try {
+            if (match == SUPPLIERS || match == SUPPLIER_ID) {
+                rowsDeleted = writeSuppliers(uri, match, null, selection, selectionArgs);
+            } else {
+                rowsDeleted = deleteBooks(uri, match, selection, selectionArgs);
+            }
+            return rowsDeleted;
+        } finally {
+            mMetrics.end(ProviderMetrics.DELETE, match, start, rowsDeleted, uri, selection);
+        }
+    }
+
+    /**
+     * Delete the single book or the books matching the selection, for {@link #delete}.
+     */
+    private int deleteBooks(Uri uri, int match, String selection, String[] selectionArgs) {
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
         // Track the number of rows that were deleted
-        int rowsDeleted;
+        int rowsDeleted = 0;
+
+        // The URI to notify: the deleted book, or the whole table for a selection
+        Uri changedUri;
+
+        // The book to delete, or -1 to delete by selection
+        long bookId = -1;
 
-        final int match = sUriMatcher.match(uri);
         switch (match) {
             case BOOKS:
-                // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(BookEntry.TABLE_NAME, selection, selectionArgs);
+                changedUri = BookEntry.CONTENT_URI;
                 break;
             case BOOK_ID:
                 // Delete a single row given by the ID in the URI
-                selection = BookEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(BookEntry.TABLE_NAME, selection, selectionArgs);
+                bookId = ContentUris.parseId(uri);
+                changedUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId);
                 break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
-        // If 1 or more rows were deleted, then notify all listeners that the data at th
+
+        // Delete all rows that match the selection and selection args, and drop them from the
+        // row cache. The deleted books are unknown, so the inventory totals are computed again
+        // if anything was deleted.
+        boolean committed = false;
+        boolean outermost = !database.inTransaction();
+        mStats.beginWrite();
+        mRowCache.beginWrite();
+        long transactionStart = mMetrics.begin();
+        database.beginTransaction();
+        try {
+            // Take the journaled sales off the books first, the journal only holds sales of
+            // books that exist. In the same transaction, so no sale can come in between.
+            mSales.compact(database);
+
+            if (bookId != -1) {
+                mRowCache.invalidate(bookId);
+                rowsDeleted = statements(database).delete(bookId);
+            } else {
+                // Look up the books to drop in the same transaction as the delete
+                String booksTable = mSales.booksTable(database);
+                invalidateCachedBooks(database, booksTable, selection, selectionArgs);
+                rowsDeleted = database.delete(BookEntry.TABLE_NAME,
+                        selectFromView(booksTable, selection), selectionArgs);
+            }
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            database.endTransaction();
+            mMetrics.endTransaction(transactionStart);
+            if (outermost) {
+                mSales.endTransaction(committed);
+            }
+            mRowCache.endWrite();
+            mStats.endWrite(committed && rowsDeleted == 0);
+            if (!committed) {
+                rowsDeleted = 0;
+            }
+        }
+        // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(changedUri);
         }
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    /**
+     * Drop the books matching the selection in the given books view from the row cache. Called
+     * inside the transaction of the write that changes them, so no other write can change which
+     * books match in between.
+     */
+    private void invalidateCachedBooks(SQLiteDatabase database, String booksTable,
+                                       String selection, String[] selectionArgs) {
+        if (mRowCache.isEmpty()) {
+            // Nothing to drop, and nothing can be cached until the write ends
+            return;
+        }
+        if (TextUtils.isEmpty(selection)) {
+            mRowCache.invalidateAll();
+            return;
+        }
+        Cursor books = database.query(booksTable, new String[]{BookEntry._ID},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (books.moveToNext()) {
+                mRowCache.invalidate(books.getLong(0));
+            }
+        } finally {
+            books.close();
+        }
+    }
+
+    /**
+     * Return a selection of the books table for the books the given selection matches in the
+     * given books view, {@link SalesJournal#booksTable}, where it can also name the supplier
+     * columns.
+     */
+    private static String selectFromView(String booksTable, String selection) {
+        return TextUtils.isEmpty(selection) ? selection : BookEntry._ID + " IN (SELECT "
+                + BookEntry._ID + " FROM " + booksTable + " WHERE " + selection + ")";
+    }
+
     /**
      * Updates the data at the given selection and selection arguments, with the new ContentValues.
      */
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case BOOKS:
-                return updateBook(uri, contentValues, selection, selectionArgs);
-            case BOOK_ID:
-                // For the BOOK_ID code, extract out the ID from the URI,
-                // so we know which row to update. Selection will be "_id=?" and selection
-                // arguments will be a String array containing the actual ID.
-                selection = BookEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updateBook(uri, contentValues, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException("Update is not supported for " + uri);
+        long start = mMetrics.begin();
+        int rowsUpdated = 0;
+        try {
+            switch (match) {
+                case BOOKS:
+                    rowsUpdated = updateBook(BookEntry.CONTENT_URI, -1, contentValues, selection,
+                            selectionArgs);
+                    return rowsUpdated;
+                case BOOK_ID:
+                    // For the BOOK_ID code, extract out the ID from the URI,
+                    // so we know which row to update. Selection will be "_id=?" and selection
+                    // arguments will be a String array containing the actual ID.
+                    long id = ContentUris.parseId(uri);
+                    rowsUpdated = updateBook(ContentUris.withAppendedId(BookEntry.CONTENT_URI, id), id,
+                            contentValues, BookEntry._ID + "=?", new String[] { String.valueOf(id) });
+                    return rowsUpdated;
+                case SUPPLIERS:
+                case SUPPLIER_ID:
+                    if (contentValues.containsKey(SupplierEntry.COLUMN_NAME)
+                            && TextUtils.isEmpty(contentValues.getAsString(SupplierEntry.COLUMN_NAME))) {
+                        throw new IllegalArgumentException("Supplier requires a name");
+                    }
+                    rowsUpdated = writeSuppliers(uri, match, contentValues, selection, selectionArgs);
+                    return rowsUpdated;
+                default:
+                    throw new IllegalArgumentException("Update is not supported for " + uri);
+            }
+        } finally {
+            mMetrics.end(ProviderMetrics.UPDATE, match, start, rowsUpdated, uri, selection);
         }
     }
 
     /**
      * Update pets in the database with the given content values. Apply the changes to the rows
      * specified in the selection and selection arguments (which could be 0 or 1 or more pets).
-     * Return the number of rows that were successfully updated.
+     * Return the number of rows that were successfully updated. If any were, the listeners of
+     * the given URI, the single book or the whole table, are notified.
+     *
+     * @param bookId the _ID of the single book the selection is limited to, or -1
      */
-    private int updateBook(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+    private int updateBook(Uri uri, long bookId, ContentValues values, String selection,
+                           String[] selectionArgs) {
 
         // If the {@link BookEntry#COLUMN_PRODUCT_NAME} key is present,
         // check that the name value is not null.
@@ -251,7 +1215,7 @@ public class BookProvider extends ContentProvider {
         // If the {@link BookEntry#COLUMN_PRODUCT_PRICE} key is present,
         // check that the price value is valid.
         if (values.containsKey(BookEntry.COLUMN_PRODUCT_PRICE)) {
-            Float price = values.getAsFloat(BookEntry.COLUMN_PRODUCT_PRICE);
+            Long price = values.getAsLong(BookEntry.COLUMN_PRODUCT_PRICE);
             if (price == null || price < 0) {
                 throw new IllegalArgumentException("Book requires valid price");
             }
@@ -275,7 +1239,9 @@ public class BookProvider extends ContentProvider {
             }
         }
 
-        // No need to check the supplier name, any value is valid (including null).
+        // No need to check the supplier name, any value is valid (including null, which
+        // leaves the book without a supplier). A phone without a name is the phone of the
+        // supplier the book already has.
 
         // If there are no values to update, then don't try to update the database
         if (values.size() == 0) {
@@ -285,16 +1251,318 @@ public class BookProvider extends ContentProvider {
         // Get writable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(BookEntry.TABLE_NAME, values, selection, selectionArgs);
+        // Perform the update on the database and get the number of rows affected, and drop
+        // the updated books from the row cache. The old values are unknown, so the inventory
+        // totals are computed again if anything changed. The books are linked to their new
+        // supplier in the same transaction.
+        int rowsUpdated = 0;
+        boolean committed = false;
+        boolean outermost = !database.inTransaction();
+        mStats.beginWrite();
+        mRowCache.beginWrite();
+        mNotifier.beginTransaction();
+        long transactionStart = mMetrics.begin();
+        database.beginTransaction();
+        try {
+            // A new stock replaces the stock left, so take the journaled sales off first, in
+            // the same transaction so no sale can come in between
+            mSales.compact(database);
 
-        // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
-        if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            // Look up the books to drop in the same transaction as the update
+            if (bookId != -1) {
+                mRowCache.invalidate(bookId);
+            } else {
+                String booksTable = mSales.booksTable(database);
+                invalidateCachedBooks(database, booksTable, selection, selectionArgs);
+                selection = selectFromView(booksTable, selection);
+            }
+
+            ContentValues bookValues = values;
+            if (values.containsKey(BookEntry.COLUMN_SUPPLIER_NAME)) {
+                bookValues = toBookRow(values, linkSupplier(database, values));
+            } else if (values.containsKey(BookEntry.COLUMN_SUPPLIER_PHONE)) {
+                setSupplierPhone(database, values.getAsLong(BookEntry.COLUMN_SUPPLIER_PHONE),
+                        selection, selectionArgs);
+                bookValues = new ContentValues(values);
+                bookValues.remove(BookEntry.COLUMN_SUPPLIER_PHONE);
+            }
+
+            // Setting the stock is the most frequent edit, it has a statement of its own
+            Long stock = bookValues.getAsLong(BookEntry.COLUMN_PRODUCT_QUANTITY);
+            if (bookValues.size() == 0) {
+                // Only the phone of the supplier changed, count the books that show it
+                rowsUpdated = (int) DatabaseUtils.queryNumEntries(database, BookEntry.TABLE_NAME,
+                        selection, selectionArgs);
+            } else if (bookId != -1 && bookValues.size() == 1 && stock != null) {
+                rowsUpdated = statements(database).updateStock(bookId, stock);
+            } else {
+                rowsUpdated = database.update(BookEntry.TABLE_NAME, bookValues, selection,
+                        selectionArgs);
+            }
+
+            // If 1 or more rows were updated, then notify all listeners that the data at the
+            // given URI has changed
+            if (rowsUpdated != 0) {
+                notifyChange(uri);
+            }
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            if (!committed) {
+                mSuppliers.invalidateAll();
+            }
+            database.endTransaction();
+            mMetrics.endTransaction(transactionStart);
+            if (outermost) {
+                mSales.endTransaction(committed);
+            }
+            mRowCache.endWrite();
+            mStats.endWrite(rowsUpdated == 0);
+            mNotifier.endTransaction(committed);
         }
 
         // Return the number of rows updated
         return rowsUpdated;
     }
+
+    /**
+     * Set the phone of the suppliers of the books matching the selection, inside the
+     * transaction of the update and between the {@link BookRowCache#beginWrite} and
+     * {@link BookRowCache#endWrite} of the row cache.
+     */
+    private void setSupplierPhone(SQLiteDatabase database, Long phone, String selection,
+                                  String[] selectionArgs) {
+        ContentValues values = new ContentValues();
+        values.put(SupplierEntry.COLUMN_PHONE, phone);
+        int suppliersUpdated = database.update(SupplierEntry.TABLE_NAME, values,
+                SupplierEntry._ID + " IN (SELECT " + BookEntry.COLUMN_SUPPLIER_ID + " FROM "
+                        + BookEntry.TABLE_NAME + (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection)
+                        + ")", selectionArgs);
+        if (suppliersUpdated != 0) {
+            // Every book of the suppliers shows the new phone
+            mSuppliers.invalidateAll();
+            mRowCache.invalidateAll();
+            notifyChange(SupplierEntry.CONTENT_URI);
+            notifyChange(BookEntry.CONTENT_URI);
+        }
+    }
+
+    /**
+     * Update or delete the suppliers matching the selection, or the single supplier of the URI,
+     * for {@link #update} and {@link #delete}. Their books show the name and phone of their
+     * supplier, so the cached suppliers and books are dropped, the inventory totals per supplier
+     * are computed again, and the listeners of the books are notified too. A deleted supplier's
+     * books are left without a supplier.
+     *
+     * @param values the new values of the suppliers, or null to delete them
+     */
+    private int writeSuppliers(Uri uri, int match, ContentValues values, String selection,
+                               String[] selectionArgs) {
+        if (match == SUPPLIER_ID) {
+            selection = SupplierEntry._ID + "=?";
+            selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+        }
+
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int rowsChanged = 0;
+        mStats.beginWrite();
+        mRowCache.beginWrite();
+        // Dropped before and after, so no lookup made in between is cached
+        mSuppliers.invalidateAll();
+        try {
+            rowsChanged = values == null
+                    ? database.delete(SupplierEntry.TABLE_NAME, selection, selectionArgs)
+                    : database.update(SupplierEntry.TABLE_NAME, values, selection, selectionArgs);
+            if (rowsChanged != 0) {
+                mRowCache.invalidateAll();
+            }
+        } finally {
+            mSuppliers.invalidateAll();
+            mRowCache.endWrite();
+            mStats.endWrite(rowsChanged == 0);
+        }
+
+        if (rowsChanged != 0) {
+            notifyChange(match == SUPPLIER_ID ? uri : SupplierEntry.CONTENT_URI);
+            notifyChange(BookEntry.CONTENT_URI);
+        }
+        return rowsChanged;
+    }
+
+    /**
+     * Handle the provider methods declared in the contract, see {@link BookEntry#METHOD_SELL},
+     * {@link BookEntry#METHOD_ADJUST_STOCK}, {@link SalesEntry#METHOD_COMPACT} and
+     * {@link MetricsEntry#METHOD_SET_SLOW_THRESHOLD}.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (BookEntry.METHOD_SELL.equals(method)) {
+            long start = mMetrics.begin();
+            long stock = -1;
+            try {
+                long bookId = Long.parseLong(arg);
+                int quantity = extras == null ? 1 : extras.getInt(BookEntry.EXTRA_QUANTITY, 1);
+                if (quantity < 1) {
+                    throw new IllegalArgumentException("Sale requires a positive quantity");
+                }
+                stock = sellBook(bookId, quantity);
+            } finally {
+                mMetrics.end(ProviderMetrics.CALL, BOOK_ID, start, stock == -1 ? 0 : 1,
+                        BookEntry.CONTENT_URI, method);
+            }
+            Bundle result = new Bundle();
+            result.putLong(BookEntry.EXTRA_STOCK, stock);
+            return result;
+        }
+        if (BookEntry.METHOD_ADJUST_STOCK.equals(method)) {
+            long start = mMetrics.begin();
+            long stock = -1;
+            try {
+                long bookId = Long.parseLong(arg);
+                int count = extras == null ? 0 : extras.getInt(BookEntry.EXTRA_QUANTITY, 0);
+                stock = adjustStock(bookId, count);
+            } finally {
+                mMetrics.end(ProviderMetrics.CALL, BOOK_ID, start, stock == -1 ? 0 : 1,
+                        BookEntry.CONTENT_URI, method);
+            }
+            Bundle result = new Bundle();
+            result.putLong(BookEntry.EXTRA_STOCK, stock);
+            return result;
+        }
+        if (SalesEntry.METHOD_COMPACT.equals(method)) {
+            mSales.compact(mDbHelper.getWritableDatabase());
+            return null;
+        }
+        if (MetricsEntry.METHOD_SET_SLOW_THRESHOLD.equals(method)) {
+            mMetrics.setSlowThresholdMillis(Long.parseLong(arg));
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Take the given number of copies of a book out of stock, if there are enough of them, by
+     * appending the sale to the journal. Return the stock left, or -1 if the sale was refused.
+     */
+    private long sellBook(long bookId, int quantity) {
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        long stock = -1;
+        int appended = 0;
+        boolean committed = false;
+        mStats.beginWrite();
+        mRowCache.beginWrite();
+        long transactionStart = mMetrics.begin();
+        database.beginTransaction();
+        try {
+            // Read the stock left inside the transaction, so no other sale can take it in between
+            Cursor book = database.rawQuery(SQL_SELECT_SOLD_BOOK,
+                    new String[]{String.valueOf(bookId)});
+            try {
+                if (book.moveToFirst() && book.getLong(0) >= quantity) {
+                    appended = mSales.append(statements(database), bookId, quantity,
+                            book.getLong(1));
+                    if (appended != 0) {
+                        // Take the sale off the inventory totals
+                        stock = book.getLong(0) - quantity;
+                        mStats.sell(book.getString(2), quantity, book.getLong(1), stock);
+                        mRowCache.invalidate(bookId);
+                    }
+                }
+            } finally {
+                book.close();
+            }
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            database.endTransaction();
+            mMetrics.endTransaction(transactionStart);
+            if (!committed) {
+                mSales.rolledBack(appended);
+            }
+            mRowCache.endWrite();
+            mStats.endWrite(committed);
+        }
+
+        // Only the sold book has changed
+        if (stock != -1) {
+            mSales.scheduleCompaction(database);
+            notifyChange(ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId));
+        }
+        return stock;
+    }
+
+    /**
+     * Add the given number of copies to the stock of a book, or take them off it if count is
+     * negative, unless the stock left would go below zero. The stock left has the journaled
+     * sales taken off, and they stay in the journal: only the stored stock changes. Return the
+     * stock left after the change, or -1 if it was refused.
+     */
+    private long adjustStock(long bookId, int count) {
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        long stock = -1;
+        boolean committed = false;
+        mStats.beginWrite();
+        mRowCache.beginWrite();
+        long transactionStart = mMetrics.begin();
+        database.beginTransaction();
+        try {
+            // Read the stock left inside the transaction, so no sale can take it in between
+            Cursor book = database.rawQuery(SQL_SELECT_SOLD_BOOK,
+                    new String[]{String.valueOf(bookId)});
+            try {
+                if (book.moveToFirst() && book.getLong(0) + count >= 0
+                        && statements(database).addStock(bookId, count) == 1) {
+                    stock = book.getLong(0) + count;
+                    mStats.adjustStock(book.getString(2), count, book.getLong(1), stock);
+                    mRowCache.invalidate(bookId);
+                }
+            } finally {
+                book.close();
+            }
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            database.endTransaction();
+            mMetrics.endTransaction(transactionStart);
+            mRowCache.endWrite();
+            mStats.endWrite(committed);
+        }
+
+        // Only the adjusted book has changed
+        if (stock != -1 && count != 0) {
+            notifyChange(ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId));
+        }
+        return stock;
+    }
+
+    /**
+     * Return the cache of recently read books, so tests can check its hit, miss and eviction
+     * counters.
+     */
+    BookRowCache getRowCache() {
+        return mRowCache;
+    }
+
+    /**
+     * Return the timings of the operations, so tests and benchmarks can turn them off.
+     */
+    ProviderMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Print the row and supplier cache counters and the timings, for "adb shell dumpsys activity provider BookProvider".
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println(mRowCache);
+        writer.println(mSuppliers);
+        mMetrics.dump(writer);
+    }
 }
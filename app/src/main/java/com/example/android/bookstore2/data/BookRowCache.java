@@ -0,0 +1,211 @@
+package com.example.android.bookstore2.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.util.LruCache;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+
+/**
+ * The most recently read books, by {@link BookEntry#_ID}, so opening a book that was seen
+ * recently does not go to SQLite. {@link BookProvider} serves its single book queries from here.
+ *
+ * Every write that changes a book drops it with {@link #invalidate}. Writes are also bracketed
+ * by {@link #beginWrite} and {@link #endWrite}, like those of {@link InventoryStats}: a row read
+ * while a write was in flight, or read across the start or end of one, is returned but not
+ * cached, as it may or may not include that write.
+ */
+final class BookRowCache {
+
+    /** Number of books kept by the provider's cache */
+    static final int DEFAULT_MAX_BOOKS = 256;
+
+    /** The columns of a cached row, in order */
+    private static final String[] COLUMNS = {
+            BookEntry._ID,
+            BookEntry.COLUMN_PRODUCT_NAME,
+            BookEntry.COLUMN_PRODUCT_PRICE,
+            BookEntry.COLUMN_PRODUCT_QUANTITY,
+            BookEntry.COLUMN_SUPPLIER_NAME,
+            BookEntry.COLUMN_SUPPLIER_PHONE
+    };
+
+    /**
+     * Reads the columns of a book, with the journaled sales taken off its stock, so the cached
+     * row stays right when the journal is compacted. Argument: _id.
+     */
+    private static final String SQL_SELECT_BOOK = "SELECT " + BookEntry._ID + ", "
+            + BookEntry.COLUMN_PRODUCT_NAME + ", " + BookEntry.COLUMN_PRODUCT_PRICE + ", "
+            + BookEntry.COLUMN_PRODUCT_QUANTITY + ", " + BookEntry.COLUMN_SUPPLIER_NAME + ", "
+            + BookEntry.COLUMN_SUPPLIER_PHONE + " FROM " + BookDbHelper.STOCK_VIEW_NAME
+            + " WHERE " + BookEntry._ID + " = ?";
+
+    /** The cached rows, values in {@link #COLUMNS} order. Rows are never modified once cached. */
+    private final LruCache<Long, Object[]> mBooks;
+
+    /** Incremented when a write begins or ends */
+    private long mGeneration;
+
+    /** Number of writes that have begun but not yet ended */
+    private int mWritesInFlight;
+
+    BookRowCache(int maxBooks) {
+        mBooks = new LruCache<>(maxBooks);
+    }
+
+    /**
+     * Mark the start of a write. Must be called before the write can be committed, and be
+     * followed by {@link #endWrite} once it is committed or rolled back.
+     */
+    synchronized void beginWrite() {
+        mWritesInFlight++;
+        mGeneration++;
+    }
+
+    /** Mark the end of a write. */
+    synchronized void endWrite() {
+        mWritesInFlight--;
+        mGeneration++;
+    }
+
+    /**
+     * Drop a book. A write that changes an existing book calls this between {@link #beginWrite}
+     * and {@link #endWrite}.
+     */
+    void invalidate(long bookId) {
+        mBooks.remove(bookId);
+    }
+
+    /** Drop every book, between {@link #beginWrite} and {@link #endWrite}. */
+    void invalidateAll() {
+        // Not evictAll(), which would count the books as evictions
+        for (Long bookId : mBooks.snapshot().keySet()) {
+            mBooks.remove(bookId);
+        }
+    }
+
+    /** Return true if no book is cached, so a write has nothing to drop. */
+    boolean isEmpty() {
+        return mBooks.size() == 0;
+    }
+
+    /**
+     * Return the book with the given ID as a cursor with the given columns, or with all the
+     * columns of the books table if projection is null. The cursor is empty if there is no
+     * such book. Returns null if a column is not a plain column of the books table, in which
+     * case the caller has to query the database itself.
+     */
+    Cursor query(SQLiteDatabase db, long bookId, String[] projection,
+                 CancellationSignal cancellationSignal) {
+        String[] columns = projection != null ? projection : COLUMNS;
+        int[] indexes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            indexes[i] = indexOf(columns[i]);
+            if (indexes[i] == -1) {
+                return null;
+            }
+        }
+
+        Object[] book = mBooks.get(bookId);
+        if (book == null) {
+            book = read(db, bookId, cancellationSignal);
+        } else if (cancellationSignal != null) {
+            cancellationSignal.throwIfCanceled();
+        }
+
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        if (book != null) {
+            Object[] row = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                row[i] = book[indexes[i]];
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Read a book from the database and cache it, unless a write may have changed it in the
+     * meantime. Returns null if there is no such book. The query runs without holding the
+     * lock, so writers never wait for it.
+     */
+    private Object[] read(SQLiteDatabase db, long bookId, CancellationSignal cancellationSignal) {
+        long generation;
+        boolean cacheable;
+        synchronized (this) {
+            generation = mGeneration;
+            cacheable = mWritesInFlight == 0;
+        }
+
+        Object[] book = null;
+        Cursor cursor = db.rawQuery(SQL_SELECT_BOOK, new String[]{String.valueOf(bookId)},
+                cancellationSignal);
+        try {
+            if (cursor.moveToFirst()) {
+                book = new Object[COLUMNS.length];
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    book[i] = valueAt(cursor, i);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (book != null) {
+            synchronized (this) {
+                if (cacheable && generation == mGeneration) {
+                    mBooks.put(bookId, book);
+                }
+            }
+        }
+        return book;
+    }
+
+    private static Object valueAt(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_STRING:
+                return cursor.getString(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return null;
+        }
+    }
+
+    /** Number of queries served from the cache */
+    int hitCount() {
+        return mBooks.hitCount();
+    }
+
+    /** Number of queries that had to read the database */
+    int missCount() {
+        return mBooks.missCount();
+    }
+
+    /** Number of books dropped to make room for others, not counting invalidated ones */
+    int evictionCount() {
+        return mBooks.evictionCount();
+    }
+
+    @Override
+    public String toString() {
+        return "BookRowCache[size=" + mBooks.size() + "/" + mBooks.maxSize()
+                + ", hits=" + hitCount() + ", misses=" + missCount()
+                + ", evictions=" + evictionCount() + "]";
+    }
+}
@@ -0,0 +1,279 @@
+package com.example.android.bookstore2.data;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+import com.example.android.bookstore2.data.BookContract.SalesEntry;
+
+/**
+ * Compiled statements for the writes {@link BookProvider} makes all the time: inserting a book,
+ * setting or adding to the stock of a book, journaling a sale and deleting a book, and for
+ * finding and replacing the imported books that are already there. Unlike
+ * {@link SQLiteDatabase#insert}, {@link SQLiteDatabase#update} and {@link SQLiteDatabase#delete},
+ * they do not build their SQL again on every call, and take their arguments as primitives.
+ *
+ * A statement holds its bound arguments, so only one thread can use it at a time. A thread takes
+ * the idle statement of a kind, or compiles another one if it is in use, and gives it back once
+ * it has run. No lock is held while a statement runs, so a thread holding the database in a
+ * transaction never waits for a thread that is waiting for the database.
+ */
+final class BookStatements {
+
+    private static final String LOG_TAG = BookStatements.class.getSimpleName();
+
+    /**
+     * The columns {@link #insert} takes. The supplier name and phone are not columns of the books
+     * table, the caller turns them into the supplier's _ID.
+     */
+    private static final String[] INSERT_COLUMNS = {
+            BookEntry.COLUMN_PRODUCT_NAME,
+            BookEntry.COLUMN_PRODUCT_PRICE,
+            BookEntry.COLUMN_PRODUCT_QUANTITY,
+            BookEntry.COLUMN_SUPPLIER_NAME,
+            BookEntry.COLUMN_SUPPLIER_PHONE
+    };
+
+    /** Inserts a book. Arguments: name, price, stock, supplier_id. */
+    private static final String SQL_INSERT = "INSERT INTO " + BookEntry.TABLE_NAME + " ("
+            + BookEntry.COLUMN_PRODUCT_NAME + ", " + BookEntry.COLUMN_PRODUCT_PRICE + ", "
+            + BookEntry.COLUMN_PRODUCT_QUANTITY + ", " + BookEntry.COLUMN_SUPPLIER_ID
+            + ") VALUES (?, ?, ?, ?)";
+
+    /** Sets the stock of a book. Arguments: stock, _id. */
+    private static final String SQL_UPDATE_STOCK = "UPDATE " + BookEntry.TABLE_NAME
+            + " SET " + BookEntry.COLUMN_PRODUCT_QUANTITY + " = ? WHERE " + BookEntry._ID + " = ?";
+
+    /**
+     * Adds to the stock of a book, or takes off it for a negative count. Arguments: count, _id.
+     */
+    private static final String SQL_ADD_STOCK = "UPDATE " + BookEntry.TABLE_NAME
+            + " SET " + BookEntry.COLUMN_PRODUCT_QUANTITY + " = " + BookEntry.COLUMN_PRODUCT_QUANTITY + " + ?"
+            + " WHERE " + BookEntry._ID + " = ?";
+
+    /** Appends a sale to the journal. Arguments: book_id, quantity, price, time, day. */
+    private static final String SQL_APPEND_SALE = "INSERT INTO " + SalesEntry.TABLE_NAME + " ("
+            + SalesEntry.COLUMN_BOOK_ID + ", " + SalesEntry.COLUMN_QUANTITY + ", "
+            + SalesEntry.COLUMN_PRICE + ", " + SalesEntry.COLUMN_TIME + ", "
+            + SalesEntry.COLUMN_DAY + ") VALUES (?, ?, ?, ?, ?)";
+
+    /** Deletes a book. Argument: _id. */
+    private static final String SQL_DELETE = "DELETE FROM " + BookEntry.TABLE_NAME
+            + " WHERE " + BookEntry._ID + " = ?";
+
+    /**
+     * Finds a book by its name, ignoring case, and supplier, through the name index. Arguments:
+     * name, supplier_id.
+     */
+    private static final String SQL_FIND = "SELECT " + BookEntry._ID + " FROM " + BookEntry.TABLE_NAME
+            + " WHERE " + BookEntry.COLUMN_PRODUCT_NAME + " = ? COLLATE NOCASE"
+            + " AND " + BookEntry.COLUMN_SUPPLIER_ID + " IS ? LIMIT 1";
+
+    /** Replaces the values of an imported book. Arguments: like {@link #SQL_INSERT}, then _id. */
+    private static final String SQL_REPLACE = "UPDATE " + BookEntry.TABLE_NAME + " SET "
+            + BookEntry.COLUMN_PRODUCT_NAME + " = ?, " + BookEntry.COLUMN_PRODUCT_PRICE + " = ?, "
+            + BookEntry.COLUMN_PRODUCT_QUANTITY + " = ?, " + BookEntry.COLUMN_SUPPLIER_ID + " = ?"
+            + " WHERE " + BookEntry._ID + " = ?";
+
+    private static final int INSERT = 0;
+    private static final int UPDATE_STOCK = 1;
+    private static final int DELETE = 2;
+    private static final int FIND = 3;
+    private static final int REPLACE = 4;
+    private static final int APPEND_SALE = 5;
+    private static final int ADD_STOCK = 6;
+
+    /** The SQL of each kind of statement, by kind */
+    private static final String[] SQL = {SQL_INSERT, SQL_UPDATE_STOCK, SQL_DELETE, SQL_FIND,
+            SQL_REPLACE, SQL_APPEND_SALE, SQL_ADD_STOCK};
+
+    private final SQLiteDatabase mDatabase;
+
+    /** The idle statement of each kind, by kind, or null */
+    private final SQLiteStatement[] mIdle = new SQLiteStatement[SQL.length];
+
+    BookStatements(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /** Return the database the statements are compiled for. */
+    SQLiteDatabase getDatabase() {
+        return mDatabase;
+    }
+
+    /**
+     * Return true if the values only hold columns {@link #insert} knows about. Missing columns
+     * are inserted as NULL, so the values must also hold every column that has a default.
+     */
+    static boolean canInsert(ContentValues values) {
+        if (!values.containsKey(BookEntry.COLUMN_PRODUCT_PRICE)
+                || !values.containsKey(BookEntry.COLUMN_PRODUCT_QUANTITY)) {
+            return false;
+        }
+        int known = 0;
+        for (String column : INSERT_COLUMNS) {
+            if (values.containsKey(column)) {
+                known++;
+            }
+        }
+        return known == values.size();
+    }
+
+    /**
+     * Insert a book of the given supplier, see {@link #canInsert}. Return the _ID of the new
+     * book, or -1 if it could not be inserted, like {@link SQLiteDatabase#insert}.
+     *
+     * @param supplierId the _ID of the book's supplier, or null
+     */
+    long insert(ContentValues values, Long supplierId) {
+        SQLiteStatement insert = acquire(INSERT);
+        try {
+            insert.clearBindings();
+            bindBook(insert, values, supplierId);
+            return insert.executeInsert();
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error inserting " + values, e);
+            return -1;
+        } finally {
+            release(INSERT, insert);
+        }
+    }
+
+    /** Set the stock of a book. Return the number of books updated, 0 or 1. */
+    int updateStock(long bookId, long stock) {
+        SQLiteStatement update = acquire(UPDATE_STOCK);
+        try {
+            update.bindLong(1, stock);
+            update.bindLong(2, bookId);
+            return update.executeUpdateDelete();
+        } finally {
+            release(UPDATE_STOCK, update);
+        }
+    }
+
+    /**
+     * Add the given count to the stock of a book, which the caller has checked stays at zero or
+     * above. Return the number of books updated, 0 or 1.
+     */
+    int addStock(long bookId, long count) {
+        SQLiteStatement add = acquire(ADD_STOCK);
+        try {
+            add.bindLong(1, count);
+            add.bindLong(2, bookId);
+            return add.executeUpdateDelete();
+        } finally {
+            release(ADD_STOCK, add);
+        }
+    }
+
+    /**
+     * Append a sale to the journal, see {@link SalesJournal}. Return the _ID of the new journal
+     * row, or -1 if it could not be appended.
+     */
+    long appendSale(long bookId, long quantity, long price, long time, long day) {
+        SQLiteStatement append = acquire(APPEND_SALE);
+        try {
+            append.bindLong(1, bookId);
+            append.bindLong(2, quantity);
+            append.bindLong(3, price);
+            append.bindLong(4, time);
+            append.bindLong(5, day);
+            return append.executeInsert();
+        } finally {
+            release(APPEND_SALE, append);
+        }
+    }
+
+    /** Delete a book. Return the number of books deleted, 0 or 1. */
+    int delete(long bookId) {
+        SQLiteStatement delete = acquire(DELETE);
+        try {
+            delete.bindLong(1, bookId);
+            return delete.executeUpdateDelete();
+        } finally {
+            release(DELETE, delete);
+        }
+    }
+
+    /**
+     * Return the _ID of the book with the given name, ignoring case, and supplier, or -1 if
+     * there is none.
+     */
+    long find(String name, Long supplierId) {
+        SQLiteStatement find = acquire(FIND);
+        try {
+            bindString(find, 1, name);
+            bindLong(find, 2, supplierId);
+            return find.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return -1;
+        } finally {
+            release(FIND, find);
+        }
+    }
+
+    /**
+     * Replace the name, price, stock and supplier of a book with the given values, a missing one
+     * with NULL. Return the number of books updated, 0 or 1.
+     */
+    int replace(long bookId, ContentValues values, Long supplierId) {
+        SQLiteStatement replace = acquire(REPLACE);
+        try {
+            bindBook(replace, values, supplierId);
+            replace.bindLong(5, bookId);
+            return replace.executeUpdateDelete();
+        } finally {
+            release(REPLACE, replace);
+        }
+    }
+
+    /** Bind the name, price, stock and supplier of a book to the first arguments of a statement */
+    private static void bindBook(SQLiteStatement statement, ContentValues values, Long supplierId) {
+        bindString(statement, 1, values.getAsString(BookEntry.COLUMN_PRODUCT_NAME));
+        bindLong(statement, 2, values.getAsLong(BookEntry.COLUMN_PRODUCT_PRICE));
+        bindLong(statement, 3, values.getAsLong(BookEntry.COLUMN_PRODUCT_QUANTITY));
+        bindLong(statement, 4, supplierId);
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private static void bindLong(SQLiteStatement statement, int index, Long value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, value);
+        }
+    }
+
+    private SQLiteStatement acquire(int kind) {
+        synchronized (mIdle) {
+            SQLiteStatement statement = mIdle[kind];
+            if (statement != null) {
+                mIdle[kind] = null;
+                return statement;
+            }
+        }
+        return mDatabase.compileStatement(SQL[kind]);
+    }
+
+    private void release(int kind, SQLiteStatement statement) {
+        synchronized (mIdle) {
+            if (mIdle[kind] == null) {
+                mIdle[kind] = statement;
+                return;
+            }
+        }
+        // Another thread compiled one too, keep only one of each kind
+        statement.close();
+    }
+}
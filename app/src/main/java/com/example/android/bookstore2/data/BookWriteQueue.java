@@ -0,0 +1,356 @@
+package com.example.android.bookstore2.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Makes the app's changes to the books on a single background thread, one after the other, so
+ * the main thread never waits for the database. Every write reports its result to an optional
+ * {@link Callback} on the main thread.
+ *
+ * A write that follows a waiting write on the same book is merged into it: ten sales of a book
+ * become one sale of ten copies, and two updates of a book become one update with the values of
+ * both. At most {@link #MAX_PENDING} writes wait at a time; past that, new writes are refused
+ * and the caller should ask the user to try again.
+ *
+ * Changes of the stock, as the editor's +1 and -1 buttons make them, are held back until
+ * {@link #ADJUST_DELAY_MILLIS} after the last of them when nothing else is waiting, so a run of
+ * taps is merged into one change of the stock. Any other write sends them on at once.
+ */
+public final class BookWriteQueue {
+
+    private static final String LOG_TAG = BookWriteQueue.class.getSimpleName();
+
+    /** The most writes that can wait to be made, after merging */
+    static final int MAX_PENDING = 64;
+
+    /** How long a change of the stock waits for the next change before it is made */
+    static final long ADJUST_DELAY_MILLIS = 500;
+
+    /**
+     * Receives the result of a write, on the main thread.
+     */
+    public interface Callback {
+        /**
+         * @param result for an insert, the _ID of the new book; for an update or a delete, the
+         *               number of books changed; for a sale or a change of the stock, the
+         *               stock left. -1 if the write failed or the sale or change was refused.
+         */
+        void onWriteDone(long result);
+    }
+
+    private static final int INSERT = 0;
+    private static final int UPDATE = 1;
+    private static final int DELETE = 2;
+    private static final int SELL = 3;
+    private static final int ADJUST = 4;
+
+    /**
+     * A write waiting to be made, with the callbacks of every write merged into it.
+     */
+    private static final class Write {
+        final int kind;
+        final Uri uri;
+        final ContentValues values;
+        final String selection;
+        final String[] selectionArgs;
+        /** The quantity of each merged sale, or the count of each merged change of the stock, in order */
+        final ArrayList<Integer> quantities = new ArrayList<>();
+        final ArrayList<Callback> callbacks = new ArrayList<>();
+
+        Write(int kind, Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            this.kind = kind;
+            this.uri = uri;
+            this.values = values;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+        }
+
+        /**
+         * Merge the next write into this one if both are sales, changes of the stock or updates
+         * of the same book. Return false if they can't be merged.
+         */
+        boolean merge(Write next) {
+            if (next.kind != kind || !uri.equals(next.uri)) {
+                return false;
+            }
+            if (kind == SELL || kind == ADJUST) {
+                quantities.addAll(next.quantities);
+            } else if (kind == UPDATE) {
+                values.putAll(next.values);
+            } else {
+                return false;
+            }
+            callbacks.addAll(next.callbacks);
+            return true;
+        }
+    }
+
+    private static BookWriteQueue sInstance;
+
+    private final ContentResolver mResolver;
+    private final Handler mWriteHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** The writes waiting to be made, oldest first. Guarded by itself. */
+    private final ArrayDeque<Write> mPending = new ArrayDeque<>();
+
+    /** Whether {@link #mDrainRunnable} is posted or running. Guarded by {@link #mPending}. */
+    private boolean mDraining;
+
+    /**
+     * Whether {@link #mDrainRunnable} is posted with the delay of a change of the stock, and has
+     * not started yet. Guarded by {@link #mPending}.
+     */
+    private boolean mDrainDelayed;
+
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Return the app's write queue, starting its thread on first use.
+     */
+    public static synchronized BookWriteQueue getInstance(Context context) {
+        if (sInstance == null) {
+            HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sInstance = new BookWriteQueue(context.getApplicationContext().getContentResolver(),
+                    thread.getLooper());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Creates a queue that makes its writes through the given resolver on the given looper's
+     * thread, so tests can control when the writes run.
+     */
+    BookWriteQueue(ContentResolver resolver, Looper writeLooper) {
+        mResolver = resolver;
+        mWriteHandler = new Handler(writeLooper);
+    }
+
+    /**
+     * Insert a new book. Returns false if too many writes are waiting.
+     */
+    public boolean insert(ContentValues values, Callback callback) {
+        return enqueue(new Write(INSERT, BookEntry.CONTENT_URI, new ContentValues(values), null, null),
+                callback);
+    }
+
+    /**
+     * Update a single book. Returns false if too many writes are waiting.
+     */
+    public boolean update(Uri bookUri, ContentValues values, Callback callback) {
+        return enqueue(new Write(UPDATE, bookUri, new ContentValues(values), null, null), callback);
+    }
+
+    /**
+     * Delete a single book, or the books at {@link BookEntry#CONTENT_URI} matching the
+     * selection. Returns false if too many writes are waiting.
+     */
+    public boolean delete(Uri uri, String selection, String[] selectionArgs, Callback callback) {
+        return enqueue(new Write(DELETE, uri, null, selection, selectionArgs), callback);
+    }
+
+    /**
+     * Sell copies of a book, see {@link BookEntry#sellBook}. Returns false if too many writes
+     * are waiting.
+     */
+    public boolean sell(long bookId, int quantity, Callback callback) {
+        Write write = new Write(SELL, ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId),
+                null, null, null);
+        write.quantities.add(quantity);
+        return enqueue(write, callback);
+    }
+
+    /**
+     * Add copies to the stock of a book, or take them off it if count is negative, see
+     * {@link BookEntry#adjustStock}. Changes of the same book made in quick succession are
+     * merged into one. Returns false if too many writes are waiting.
+     */
+    public boolean adjustStock(long bookId, int count, Callback callback) {
+        Write write = new Write(ADJUST, ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId),
+                null, null, null);
+        write.quantities.add(count);
+        return enqueue(write, callback);
+    }
+
+    /** Return the number of writes waiting to be made, after merging. */
+    int pendingCount() {
+        synchronized (mPending) {
+            return mPending.size();
+        }
+    }
+
+    private boolean enqueue(Write write, Callback callback) {
+        write.callbacks.add(callback);
+        synchronized (mPending) {
+            // Only the last write can be merged into, the ones before it must keep their order
+            Write last = mPending.peekLast();
+            if (last != null && last.merge(write)) {
+                if (mDrainDelayed) {
+                    // Another tap, so wait for the stock to settle from this one on
+                    mWriteHandler.removeCallbacks(mDrainRunnable);
+                    mWriteHandler.postDelayed(mDrainRunnable, ADJUST_DELAY_MILLIS);
+                }
+                return true;
+            }
+            if (mPending.size() >= MAX_PENDING) {
+                return false;
+            }
+            mPending.addLast(write);
+            if (!mDraining) {
+                mDraining = true;
+                mDrainDelayed = write.kind == ADJUST;
+                mWriteHandler.postDelayed(mDrainRunnable, mDrainDelayed ? ADJUST_DELAY_MILLIS : 0);
+            } else if (mDrainDelayed) {
+                mWriteHandler.removeCallbacks(mDrainRunnable);
+                if (write.kind == ADJUST) {
+                    mWriteHandler.postDelayed(mDrainRunnable, ADJUST_DELAY_MILLIS);
+                } else {
+                    // Don't keep other writes waiting for the stock to settle
+                    mDrainDelayed = false;
+                    mWriteHandler.post(mDrainRunnable);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Make the waiting writes, on the write thread. A write leaves the queue when it starts, so
+     * later writes are never merged into one that is already being made.
+     */
+    private void drain() {
+        while (true) {
+            Write write;
+            synchronized (mPending) {
+                mDrainDelayed = false;
+                write = mPending.pollFirst();
+                if (write == null) {
+                    mDraining = false;
+                    return;
+                }
+            }
+            deliver(write.callbacks, run(write));
+        }
+    }
+
+    /**
+     * Make a write and return the result of each of its callbacks.
+     */
+    private long[] run(Write write) {
+        long[] results = new long[write.callbacks.size()];
+        try {
+            switch (write.kind) {
+                case INSERT:
+                    Uri newUri = mResolver.insert(write.uri, write.values);
+                    fill(results, newUri == null ? -1 : ContentUris.parseId(newUri));
+                    break;
+                case UPDATE:
+                    fill(results, mResolver.update(write.uri, write.values, null, null));
+                    break;
+                case DELETE:
+                    fill(results, mResolver.delete(write.uri, write.selection, write.selectionArgs));
+                    break;
+                case SELL:
+                    sell(ContentUris.parseId(write.uri), write.quantities, results);
+                    break;
+                case ADJUST:
+                    adjustStock(ContentUris.parseId(write.uri), write.quantities, results);
+                    break;
+            }
+        } catch (RuntimeException e) {
+            // A bad write must not stop the ones after it
+            Log.e(LOG_TAG, "Write to " + write.uri + " failed", e);
+            fill(results, -1);
+        }
+        return results;
+    }
+
+    /**
+     * Make the merged sales of a book as one sale. If there aren't enough copies for all of them,
+     * make them one by one instead, so as many go through as there are copies. Each sale's
+     * result is the stock left right after it.
+     */
+    private void sell(long bookId, ArrayList<Integer> quantities, long[] results) {
+        int total = 0;
+        for (int quantity : quantities) {
+            total += quantity;
+        }
+        if (quantities.size() > 1) {
+            long stock = BookEntry.sellBook(mResolver, bookId, total);
+            if (stock != -1) {
+                for (int i = quantities.size() - 1; i >= 0; i--) {
+                    results[i] = stock;
+                    stock += quantities.get(i);
+                }
+                return;
+            }
+        }
+        for (int i = 0; i < quantities.size(); i++) {
+            results[i] = BookEntry.sellBook(mResolver, bookId, quantities.get(i));
+        }
+    }
+
+    /**
+     * Make the merged changes of the stock of a book as one change. If it is refused, because
+     * the stock would go below zero, make them one by one instead, so as many go through as the
+     * stock allows. Each change's result is the stock left right after it.
+     */
+    private void adjustStock(long bookId, ArrayList<Integer> counts, long[] results) {
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        if (counts.size() > 1) {
+            long stock = BookEntry.adjustStock(mResolver, bookId, total);
+            if (stock != -1) {
+                for (int i = counts.size() - 1; i >= 0; i--) {
+                    results[i] = stock;
+                    stock -= counts.get(i);
+                }
+                return;
+            }
+        }
+        for (int i = 0; i < counts.size(); i++) {
+            results[i] = BookEntry.adjustStock(mResolver, bookId, counts.get(i));
+        }
+    }
+
+    private static void fill(long[] results, long result) {
+        for (int i = 0; i < results.length; i++) {
+            results[i] = result;
+        }
+    }
+
+    private void deliver(final ArrayList<Callback> callbacks, final long[] results) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < callbacks.size(); i++) {
+                    if (callbacks.get(i) != null) {
+                        callbacks.get(i).onWriteDone(results[i]);
+                    }
+                }
+            }
+        });
+    }
+}
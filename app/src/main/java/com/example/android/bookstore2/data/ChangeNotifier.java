@@ -0,0 +1,147 @@
+package com.example.android.bookstore2.data;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.List;
+
+/**
+ * Sends the change notifications of {@link BookProvider}, merging the ones that come close
+ * together into a single dispatch.
+ *
+ * Notifications made inside {@link #beginTransaction} and {@link #endTransaction} are held
+ * until the outermost transaction commits, and dropped if it rolls back. Notifications made
+ * outside a transaction are held for {@link #WINDOW_MILLIS}, so a burst of writes, such as a
+ * user tapping sell repeatedly, is dispatched once.
+ *
+ * Held notifications are merged into one URI: the same URI stays itself, so observers can
+ * still patch a single row in place, and different URIs merge into their closest common
+ * ancestor, such as {@link BookContract.BookEntry#CONTENT_URI} for several books.
+ */
+final class ChangeNotifier {
+
+    /**
+     * Sends one notification, normally through {@link android.content.ContentResolver#notifyChange}.
+     */
+    interface Dispatcher {
+        void dispatch(Uri uri);
+    }
+
+    /** How long a notification made outside a transaction waits for others to merge with */
+    static final long WINDOW_MILLIS = 30;
+
+    /**
+     * The notifications held by the transactions of one thread.
+     */
+    private static final class Transaction {
+        int depth;
+        boolean failed;
+        Uri pending;
+    }
+
+    private final Dispatcher mDispatcher;
+    private final Handler mHandler;
+    private final ThreadLocal<Transaction> mTransaction = new ThreadLocal<>();
+
+    /** The notification waiting for the end of the window, or null */
+    private Uri mPending;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    ChangeNotifier(Dispatcher dispatcher) {
+        mDispatcher = dispatcher;
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Notify that the data at the given URI has changed, once the current transaction commits
+     * or the window is over.
+     */
+    void notifyChange(Uri uri) {
+        Transaction transaction = mTransaction.get();
+        if (transaction != null) {
+            transaction.pending = merge(transaction.pending, uri);
+            return;
+        }
+        synchronized (this) {
+            if (mPending == null) {
+                mHandler.postDelayed(mFlushRunnable, WINDOW_MILLIS);
+            }
+            mPending = merge(mPending, uri);
+        }
+    }
+
+    /**
+     * Start holding the notifications of the calling thread. Transactions nest; every call
+     * must be followed by {@link #endTransaction}.
+     */
+    void beginTransaction() {
+        Transaction transaction = mTransaction.get();
+        if (transaction == null) {
+            transaction = new Transaction();
+            mTransaction.set(transaction);
+        }
+        transaction.depth++;
+    }
+
+    /**
+     * End a transaction. When the outermost one ends, the notifications it held are sent as a
+     * single dispatch, unless any of the nested transactions failed.
+     *
+     * @param committed whether this transaction was committed
+     */
+    void endTransaction(boolean committed) {
+        Transaction transaction = mTransaction.get();
+        if (!committed) {
+            transaction.failed = true;
+        }
+        if (--transaction.depth > 0) {
+            return;
+        }
+        mTransaction.remove();
+        if (!transaction.failed && transaction.pending != null) {
+            mDispatcher.dispatch(transaction.pending);
+        }
+    }
+
+    /**
+     * Send the notification waiting for the end of the window now, if there is one.
+     */
+    void flush() {
+        Uri pending;
+        synchronized (this) {
+            pending = mPending;
+            mPending = null;
+            mHandler.removeCallbacks(mFlushRunnable);
+        }
+        if (pending != null) {
+            mDispatcher.dispatch(pending);
+        }
+    }
+
+    /**
+     * Merge two notification URIs into one that covers both: the URI itself if they are the
+     * same, otherwise the path they have in common, without query parameters.
+     */
+    static Uri merge(Uri held, Uri uri) {
+        if (held == null || held.equals(uri)) {
+            return uri;
+        }
+        List<String> heldSegments = held.getPathSegments();
+        List<String> segments = uri.getPathSegments();
+        Uri.Builder builder = BookContract.BASE_CONTENT_URI.buildUpon();
+        for (int i = 0; i < heldSegments.size() && i < segments.size(); i++) {
+            if (!heldSegments.get(i).equals(segments.get(i))) {
+                break;
+            }
+            builder.appendPath(segments.get(i));
+        }
+        return builder.build();
+    }
+}
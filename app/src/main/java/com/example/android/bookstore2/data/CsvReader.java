@@ -0,0 +1,156 @@
+package com.example.android.bookstore2.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads comma separated values one record at a time, as described by RFC 4180: fields holding
+ * a comma, a quote or a line break are quoted, and a quote inside them is doubled. Records end
+ * with CRLF, LF or CR. Only one record is held in memory, so a file of any size can be read.
+ *
+ * Blank lines are skipped, and a byte order mark at the start of the input is ignored.
+ */
+final class CsvReader implements Closeable {
+
+    /** Size of the buffer the input is read through, in chars */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final int END = -1;
+
+    private final Reader mReader;
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+    private int mPosition;
+    private int mLimit;
+
+    /** The fields of the current record, reused for the next one */
+    private final ArrayList<String> mFields = new ArrayList<>();
+    private final StringBuilder mField = new StringBuilder();
+
+    /** The line the next char is on, from 1 */
+    private long mLine = 1;
+
+    /** The line the current record starts on */
+    private long mRecordLine;
+
+    private boolean mStarted;
+
+    CsvReader(Reader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Read the next record. Return its fields, or null at the end of the input. The list is
+     * only valid until the next call.
+     *
+     * @throws IOException if the input can't be read, or a quoted field is malformed
+     */
+    List<String> readRecord() throws IOException {
+        if (!mStarted) {
+            mStarted = true;
+            if (peek() == '\uFEFF') {
+                mPosition++;
+            }
+        }
+        int c = read();
+        while (c == '\r' || c == '\n') {
+            endLine(c);
+            c = read();
+        }
+        if (c == END) {
+            return null;
+        }
+
+        mFields.clear();
+        mRecordLine = mLine;
+        while (true) {
+            mField.setLength(0);
+            if (c == '"') {
+                c = readQuoted();
+            } else {
+                while (c != ',' && c != '\r' && c != '\n' && c != END) {
+                    mField.append((char) c);
+                    c = read();
+                }
+            }
+            mFields.add(mField.toString());
+            if (c != ',') {
+                break;
+            }
+            c = read();
+        }
+        endLine(c);
+        return mFields;
+    }
+
+    /**
+     * Return the line the last record read starts on, from 1, for error messages.
+     */
+    long getLineNumber() {
+        return mRecordLine;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    /**
+     * Read a quoted field into {@link #mField}, after its opening quote. Return the char after
+     * the closing quote.
+     */
+    private int readQuoted() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == END) {
+                throw new IOException("Unterminated quoted field at line " + mRecordLine);
+            }
+            if (c == '"') {
+                c = read();
+                if (c != '"') {
+                    if (c != ',' && c != '\r' && c != '\n' && c != END) {
+                        throw new IOException("Unexpected character after quoted field at line "
+                                + mLine);
+                    }
+                    return c;
+                }
+            } else if (c == '\n' || (c == '\r' && peek() != '\n')) {
+                mLine++;
+            }
+            mField.append((char) c);
+        }
+    }
+
+    /** Count the line ended by the given char, taking the LF of a CRLF with it. */
+    private void endLine(int c) throws IOException {
+        if (c == '\r' && peek() == '\n') {
+            mPosition++;
+        }
+        if (c != END) {
+            mLine++;
+        }
+    }
+
+    private int read() throws IOException {
+        int c = peek();
+        if (c != END) {
+            mPosition++;
+        }
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (mPosition == mLimit) {
+            int read = mReader.read(mBuffer, 0, mBuffer.length);
+            if (read <= 0) {
+                // A Reader only returns 0 for an empty buffer, so this is the end
+                return END;
+            }
+            mPosition = 0;
+            mLimit = read;
+        }
+        return mBuffer[mPosition];
+    }
+}
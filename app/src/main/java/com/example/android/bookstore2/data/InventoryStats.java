@@ -0,0 +1,281 @@
+package com.example.android.bookstore2.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+import com.example.android.bookstore2.data.BookContract.StatsEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Inventory totals, overall and per supplier, as served by {@link StatsEntry#CONTENT_URI}.
+ *
+ * {@link BookProvider} keeps one instance in memory. The totals are computed with a single
+ * aggregate query, then kept up to date by the provider's writes: inserts and sales apply their
+ * change to the cached totals, other writes drop them so they are computed again on next use.
+ *
+ * Writes are bracketed by {@link #beginWrite} and {@link #endWrite}. Totals computed while a
+ * write was in flight are returned but not cached, as they may or may not include that write.
+ */
+final class InventoryStats {
+
+    /**
+     * The totals of one group of books.
+     */
+    static final class Totals {
+        long titles;
+        long units;
+        long value;
+        long outOfStock;
+
+        Totals copy() {
+            Totals copy = new Totals();
+            copy.titles = titles;
+            copy.units = units;
+            copy.value = value;
+            copy.outOfStock = outOfStock;
+            return copy;
+        }
+
+        Object valueOf(String column) {
+            switch (column) {
+                case StatsEntry.COLUMN_TITLES:
+                    return titles;
+                case StatsEntry.COLUMN_UNITS:
+                    return units;
+                case StatsEntry.COLUMN_VALUE:
+                    return value;
+                case StatsEntry.COLUMN_OUT_OF_STOCK:
+                    return outOfStock;
+                default:
+                    throw new IllegalArgumentException("Unknown stats column " + column);
+            }
+        }
+    }
+
+    /**
+     * One row per supplier: titles, total units, total value in cents and sold out titles. Read
+     * through the stock view, so the sales still in the journal are taken off.
+     */
+    private static final String SQL_AGGREGATE = "SELECT " + BookEntry.COLUMN_SUPPLIER_NAME
+            + ", count(*), sum(" + BookEntry.COLUMN_PRODUCT_QUANTITY
+            + "), sum(" + BookEntry.COLUMN_PRODUCT_QUANTITY + " * " + BookEntry.COLUMN_PRODUCT_PRICE
+            + "), sum(" + BookEntry.COLUMN_PRODUCT_QUANTITY + " = 0) FROM " + BookDbHelper.STOCK_VIEW_NAME
+            + " GROUP BY " + BookEntry.COLUMN_SUPPLIER_NAME;
+
+    /** The cached totals, both null when they have to be computed again */
+    private Totals mTotal;
+    private Map<String, Totals> mBySupplier;
+
+    /** Incremented when a write begins or ends */
+    private long mGeneration;
+
+    /** Number of writes that have begun but not yet ended */
+    private int mWritesInFlight;
+
+    /**
+     * Mark the start of a write. Must be called before the write can be committed, and be
+     * followed by {@link #endWrite} once it is committed or rolled back.
+     */
+    synchronized void beginWrite() {
+        mWritesInFlight++;
+        mGeneration++;
+    }
+
+    /**
+     * Mark the end of a write.
+     *
+     * @param keepTotals false if the write was rolled back, or changed the books in a way that
+     *                   was not applied to the totals with {@link #addBook} or {@link #sell}
+     */
+    synchronized void endWrite(boolean keepTotals) {
+        mWritesInFlight--;
+        mGeneration++;
+        if (!keepTotals) {
+            mTotal = null;
+            mBySupplier = null;
+        }
+    }
+
+    /** Add a new book to the cached totals, between {@link #beginWrite} and {@link #endWrite}. */
+    synchronized void addBook(String supplier, long stock, long price) {
+        if (mTotal == null) {
+            return;
+        }
+        add(mTotal, stock, price);
+        Totals supplierTotals = mBySupplier.get(supplierKey(supplier));
+        if (supplierTotals == null) {
+            supplierTotals = new Totals();
+            mBySupplier.put(supplierKey(supplier), supplierTotals);
+        }
+        add(supplierTotals, stock, price);
+    }
+
+    /** Take a sale off the cached totals, between {@link #beginWrite} and {@link #endWrite}. */
+    synchronized void sell(String supplier, long quantity, long price, long stockLeft) {
+        if (mTotal == null) {
+            return;
+        }
+        applySale(mTotal, quantity, price, stockLeft);
+        applySale(mBySupplier.get(supplierKey(supplier)), quantity, price, stockLeft);
+    }
+
+    /**
+     * Apply a change of the stock of a book to the cached totals, between {@link #beginWrite}
+     * and {@link #endWrite}.
+     *
+     * @param count     copies added to the stock, or taken off it if negative
+     * @param stockLeft the stock of the book after the change
+     */
+    synchronized void adjustStock(String supplier, long count, long price, long stockLeft) {
+        if (mTotal == null) {
+            return;
+        }
+        applyAdjustment(mTotal, count, price, stockLeft);
+        applyAdjustment(mBySupplier.get(supplierKey(supplier)), count, price, stockLeft);
+    }
+
+    /**
+     * Return the key of the totals of the given supplier name. An empty name is no supplier,
+     * as in {@link BookProvider}, so its books are counted with the others that have none.
+     */
+    private static String supplierKey(String supplier) {
+        return TextUtils.isEmpty(supplier) ? null : supplier;
+    }
+
+    private static void add(Totals totals, long stock, long price) {
+        totals.titles++;
+        totals.units += stock;
+        totals.value += stock * price;
+        if (stock == 0) {
+            totals.outOfStock++;
+        }
+    }
+
+    private static void applyAdjustment(Totals totals, long count, long price, long stockLeft) {
+        totals.units += count;
+        totals.value += count * price;
+        if (stockLeft == 0 && count != 0) {
+            totals.outOfStock++;
+        } else if (stockLeft == count && count != 0) {
+            // The book was out of stock before
+            totals.outOfStock--;
+        }
+    }
+
+    private static void applySale(Totals totals, long quantity, long price, long stockLeft) {
+        totals.units -= quantity;
+        totals.value -= quantity * price;
+        if (stockLeft == 0) {
+            totals.outOfStock++;
+        }
+    }
+
+    /**
+     * Return the overall totals as a single row with the given columns, or
+     * {@link StatsEntry#ALL_COLUMNS} if projection is null.
+     */
+    Cursor totalsCursor(SQLiteDatabase db, String[] projection) {
+        String[] columns = projection != null ? projection : StatsEntry.ALL_COLUMNS;
+        Map<String, Totals> bySupplier = new HashMap<>();
+        Totals total = snapshot(db, bySupplier);
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        cursor.addRow(rowOf(columns, null, total));
+        return cursor;
+    }
+
+    /**
+     * Return the totals per supplier, one row each in supplier name order, with the given
+     * columns, or {@link StatsEntry#ALL_SUPPLIER_COLUMNS} if projection is null. Books without
+     * a supplier are counted in a first row whose supplier name is null.
+     */
+    Cursor supplierCursor(SQLiteDatabase db, String[] projection) {
+        String[] columns = projection != null ? projection : StatsEntry.ALL_SUPPLIER_COLUMNS;
+        Map<String, Totals> bySupplier = new HashMap<>();
+        snapshot(db, bySupplier);
+
+        ArrayList<String> suppliers = new ArrayList<>(bySupplier.keySet());
+        boolean hasUnknownSupplier = suppliers.remove(null);
+        Collections.sort(suppliers);
+        if (hasUnknownSupplier) {
+            suppliers.add(0, null);
+        }
+
+        MatrixCursor cursor = new MatrixCursor(columns, suppliers.size());
+        for (String supplier : suppliers) {
+            cursor.addRow(rowOf(columns, supplier, bySupplier.get(supplier)));
+        }
+        return cursor;
+    }
+
+    private static Object[] rowOf(String[] columns, String supplier, Totals totals) {
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            row[i] = columns[i].equals(BookEntry.COLUMN_SUPPLIER_NAME)
+                    ? supplier : totals.valueOf(columns[i]);
+        }
+        return row;
+    }
+
+    /**
+     * Copy the current totals per supplier into bySupplier and return the overall totals,
+     * computing them if they are not cached. The query runs without holding the lock, so
+     * writers never wait for it.
+     *
+     * While a write is in flight the cached totals already hold its changes, which may yet be
+     * rolled back and which other connections cannot see, so the totals are read from the
+     * database instead.
+     */
+    private Totals snapshot(SQLiteDatabase db, Map<String, Totals> bySupplier) {
+        long generation;
+        boolean cacheable;
+        synchronized (this) {
+            if (mTotal != null && mWritesInFlight == 0) {
+                for (Map.Entry<String, Totals> entry : mBySupplier.entrySet()) {
+                    bySupplier.put(entry.getKey(), entry.getValue().copy());
+                }
+                return mTotal.copy();
+            }
+            generation = mGeneration;
+            cacheable = mWritesInFlight == 0;
+        }
+
+        Totals total = new Totals();
+        Cursor cursor = db.rawQuery(SQL_AGGREGATE, null);
+        try {
+            while (cursor.moveToNext()) {
+                Totals supplierTotals = new Totals();
+                supplierTotals.titles = cursor.getLong(1);
+                supplierTotals.units = cursor.getLong(2);
+                supplierTotals.value = cursor.getLong(3);
+                supplierTotals.outOfStock = cursor.getLong(4);
+                bySupplier.put(cursor.isNull(0) ? null : cursor.getString(0), supplierTotals);
+
+                total.titles += supplierTotals.titles;
+                total.units += supplierTotals.units;
+                total.value += supplierTotals.value;
+                total.outOfStock += supplierTotals.outOfStock;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        synchronized (this) {
+            // Any write that began or ended since may be missing from what was just read
+            if (cacheable && generation == mGeneration) {
+                mTotal = total.copy();
+                mBySupplier = new HashMap<>();
+                for (Map.Entry<String, Totals> entry : bySupplier.entrySet()) {
+                    mBySupplier.put(entry.getKey(), entry.getValue().copy());
+                }
+            }
+        }
+        return total;
+    }
+}
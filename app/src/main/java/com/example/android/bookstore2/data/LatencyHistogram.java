@@ -0,0 +1,111 @@
+package com.example.android.bookstore2.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in buckets whose width grows with the value, like an HDR histogram: every
+ * power of two is split into {@link #SUB_BUCKETS} buckets, so a recorded value is known to
+ * within 1/8 of itself from a nanosecond up to minutes, in a fixed {@link #BUCKETS} counters.
+ * Recording takes no lock, so any thread can record while another reads the percentiles.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /** Buckets per power of two */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Values of 2^MAX_EXPONENT nanoseconds, about 18 minutes, and above go in the last bucket */
+    private static final int MAX_EXPONENT = 40;
+
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mTotal = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /** Return the bucket of a value. Values below {@link #SUB_BUCKETS} have a bucket each. */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /** Return the lowest value that goes in a bucket. */
+    static long lowestValueOf(int bucket) {
+        int tier = bucket / SUB_BUCKETS;
+        int subBucket = bucket % SUB_BUCKETS;
+        if (tier == 0) {
+            return subBucket;
+        }
+        return (long) (SUB_BUCKETS + subBucket) << (tier - 1);
+    }
+
+    /** Record a duration, in nanoseconds. */
+    void record(long nanos) {
+        mCounts.incrementAndGet(bucketOf(nanos));
+        mTotal.addAndGet(nanos);
+        long max = mMax.get();
+        while (nanos > max && !mMax.compareAndSet(max, nanos)) {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     * Return the number of durations recorded. The buckets are added up, so that recording
+     * doesn't have to keep a count of its own.
+     */
+    long getCount() {
+        long count = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            count += mCounts.get(bucket);
+        }
+        return count;
+    }
+
+    /** Return the sum of the durations recorded, in nanoseconds. */
+    long getTotal() {
+        return mTotal.get();
+    }
+
+    /** Return the longest duration recorded, in nanoseconds. */
+    long getMax() {
+        return mMax.get();
+    }
+
+    /** Return the mean duration, in nanoseconds, or 0 if none was recorded. */
+    long getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : mTotal.get() / count;
+    }
+
+    /**
+     * Return the duration the given percentage of the recorded ones are no longer than, in
+     * nanoseconds: the highest value of its bucket, or the maximum if that is lower. Return 0
+     * if none was recorded.
+     */
+    long getValueAtPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += mCounts.get(bucket);
+            if (seen >= rank) {
+                long highest = bucket == BUCKETS - 1 ? Long.MAX_VALUE : lowestValueOf(bucket + 1) - 1;
+                return Math.min(highest, mMax.get());
+            }
+        }
+        // Not reached, the buckets only ever add up to more than the count read above
+        return mMax.get();
+    }
+}
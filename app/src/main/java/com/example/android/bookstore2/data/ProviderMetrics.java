@@ -0,0 +1,361 @@
+package com.example.android.bookstore2.data;
+
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.CrossProcessCursorWrapper;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.example.android.bookstore2.data.BookContract.MetricsEntry;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Times the operations of {@link BookProvider}, per kind of URI and operation, in
+ * {@link LatencyHistogram}s, and keeps the last {@link #SLOW_LOG_SIZE} operations that took
+ * longer than a threshold. Also times the cursor window fills and the provider's transactions.
+ *
+ * A query's SQL only runs when its cursor first fills a window, so a query is timed from the
+ * call until the cursor is first counted, which is where the first window is filled.
+ *
+ * An operation is recorded with two clock reads and a few atomic increments, without a lock.
+ */
+final class ProviderMetrics {
+
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+    static final int CALL = 5;
+
+    /** The names of the operations, by operation */
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "bulk_insert", "update", "delete", "call"
+    };
+
+    /** The match name of the rows that are not about one kind of URI */
+    private static final String ALL_MATCHES = "*";
+
+    /** Operations at least this slow are logged, until {@link #setSlowThresholdMillis} */
+    static final long DEFAULT_SLOW_THRESHOLD_MILLIS = 100;
+
+    /** Number of slow operations kept, the oldest is dropped past that */
+    static final int SLOW_LOG_SIZE = 50;
+
+    /** The times and rows of one operation on one kind of URI */
+    private static final class OperationStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong rows = new AtomicLong();
+    }
+
+    /** An operation that took longer than the threshold */
+    private static final class SlowOperation {
+        final long time;
+        final String operation;
+        final String uri;
+        final String selection;
+        final long nanos;
+        final long rows;
+
+        SlowOperation(long time, String operation, String uri, String selection, long nanos,
+                      long rows) {
+            this.time = time;
+            this.operation = operation;
+            this.uri = uri;
+            this.selection = selection;
+            this.nanos = nanos;
+            this.rows = rows;
+        }
+    }
+
+    /** The URI matcher code of the first match name */
+    private final int mFirstMatch;
+
+    /** The names of the matches from {@link #mFirstMatch} on, then the name of unknown URIs */
+    private final String[] mMatchNames;
+
+    /** The stats of each match and operation, made on first use */
+    private final AtomicReferenceArray<OperationStats> mStats;
+
+    private final LatencyHistogram mWindowFills = new LatencyHistogram();
+    private final LatencyHistogram mTransactions = new LatencyHistogram();
+
+    private volatile boolean mEnabled = true;
+    private volatile long mSlowThresholdNanos =
+            TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_THRESHOLD_MILLIS);
+
+    /** The slow operations, in a ring. Guarded by itself. */
+    private final SlowOperation[] mSlowLog = new SlowOperation[SLOW_LOG_SIZE];
+
+    /** The number of slow operations ever logged. Guarded by {@link #mSlowLog}. */
+    private long mSlowCount;
+
+    /**
+     * @param firstMatch the URI matcher code of the first name
+     * @param matchNames the names of the consecutive URI matcher codes from firstMatch on
+     */
+    ProviderMetrics(int firstMatch, String[] matchNames) {
+        mFirstMatch = firstMatch;
+        mMatchNames = new String[matchNames.length + 1];
+        System.arraycopy(matchNames, 0, mMatchNames, 0, matchNames.length);
+        mMatchNames[matchNames.length] = "unknown";
+        mStats = new AtomicReferenceArray<>(mMatchNames.length * OPERATION_NAMES.length);
+    }
+
+    /**
+     * Turn the recording on or off, so benchmarks can measure what it costs. Operations begun
+     * while it is off are not recorded.
+     */
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    void setSlowThresholdMillis(long millis) {
+        mSlowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Return the start time to pass to {@link #end}, {@link #track}, {@link #endTransaction}, or
+     * 0 if recording is off.
+     */
+    long begin() {
+        return mEnabled ? SystemClock.elapsedRealtimeNanos() : 0;
+    }
+
+    /**
+     * Record an operation begun at the given {@link #begin} time, which returned or changed the
+     * given number of rows.
+     */
+    void end(int operation, int match, long start, long rows, Uri uri, String selection) {
+        if (start != 0) {
+            record(operation, match, SystemClock.elapsedRealtimeNanos() - start, rows, uri,
+                    selection);
+        }
+    }
+
+    /**
+     * Record a query begun at the given {@link #begin} time. A cursor that fills windows from
+     * the database is returned wrapped, to be recorded once it is first counted and to time its
+     * later window fills; any other cursor is recorded now.
+     */
+    Cursor track(Cursor cursor, int match, long start, Uri uri, String selection) {
+        if (start == 0) {
+            return cursor;
+        }
+        if (cursor instanceof AbstractWindowedCursor) {
+            return new TrackedCursor(cursor, match, start, uri, selection);
+        }
+        end(QUERY, match, start, cursor.getCount(), uri, selection);
+        return cursor;
+    }
+
+    /** Record a transaction begun at the given {@link #begin} time, once it has ended. */
+    void endTransaction(long start) {
+        if (start != 0) {
+            mTransactions.record(SystemClock.elapsedRealtimeNanos() - start);
+        }
+    }
+
+    private void record(int operation, int match, long nanos, long rows, Uri uri,
+                        String selection) {
+        int matchIndex = match - mFirstMatch;
+        if (matchIndex < 0 || matchIndex >= mMatchNames.length - 1) {
+            matchIndex = mMatchNames.length - 1;
+        }
+        int index = matchIndex * OPERATION_NAMES.length + operation;
+        OperationStats stats = mStats.get(index);
+        if (stats == null) {
+            mStats.compareAndSet(index, null, new OperationStats());
+            stats = mStats.get(index);
+        }
+        stats.latency.record(nanos);
+        stats.rows.addAndGet(rows);
+
+        if (nanos >= mSlowThresholdNanos) {
+            SlowOperation slow = new SlowOperation(System.currentTimeMillis()
+                    - TimeUnit.NANOSECONDS.toMillis(nanos), OPERATION_NAMES[operation],
+                    String.valueOf(uri), selection, nanos, rows);
+            synchronized (mSlowLog) {
+                mSlowLog[(int) (mSlowCount++ % SLOW_LOG_SIZE)] = slow;
+            }
+        }
+    }
+
+    /**
+     * Return the timings as a cursor of {@link MetricsEntry#ALL_COLUMNS}, one row for each match
+     * and operation recorded, then the window fills and the transactions.
+     */
+    Cursor metricsCursor() {
+        MatrixCursor cursor = new MatrixCursor(MetricsEntry.ALL_COLUMNS);
+        for (int i = 0; i < mStats.length(); i++) {
+            OperationStats stats = mStats.get(i);
+            if (stats != null) {
+                addRow(cursor, mMatchNames[i / OPERATION_NAMES.length],
+                        OPERATION_NAMES[i % OPERATION_NAMES.length], stats.latency,
+                        stats.rows.get());
+            }
+        }
+        addRow(cursor, ALL_MATCHES, "window_fill", mWindowFills, 0);
+        addRow(cursor, ALL_MATCHES, "transaction", mTransactions, 0);
+        return cursor;
+    }
+
+    private static void addRow(MatrixCursor cursor, String match, String operation,
+                               LatencyHistogram latency, long rows) {
+        cursor.addRow(new Object[]{match, operation, latency.getCount(), rows,
+                micros(latency.getMean()), micros(latency.getValueAtPercentile(50)),
+                micros(latency.getValueAtPercentile(90)), micros(latency.getValueAtPercentile(99)),
+                micros(latency.getMax())});
+    }
+
+    /** Return the logged slow operations as a cursor of {@link MetricsEntry#SLOW_COLUMNS}. */
+    Cursor slowCursor() {
+        MatrixCursor cursor = new MatrixCursor(MetricsEntry.SLOW_COLUMNS);
+        for (SlowOperation slow : slowOperations()) {
+            cursor.addRow(new Object[]{slow.time, slow.operation, slow.uri, slow.selection,
+                    micros(slow.nanos), slow.rows});
+        }
+        return cursor;
+    }
+
+    /** Return the logged slow operations, oldest first. */
+    private SlowOperation[] slowOperations() {
+        synchronized (mSlowLog) {
+            int size = (int) Math.min(mSlowCount, SLOW_LOG_SIZE);
+            SlowOperation[] operations = new SlowOperation[size];
+            for (int i = 0; i < size; i++) {
+                operations[i] = mSlowLog[(int) ((mSlowCount - size + i) % SLOW_LOG_SIZE)];
+            }
+            return operations;
+        }
+    }
+
+    /**
+     * Print the timings and the slow operations, for dumpsys.
+     */
+    void dump(PrintWriter writer) {
+        writer.println("Provider metrics (us): match operation count rows mean p50 p90 p99 max");
+        Cursor metrics = metricsCursor();
+        try {
+            while (metrics.moveToNext()) {
+                StringBuilder line = new StringBuilder("  ");
+                for (int i = 0; i < metrics.getColumnCount(); i++) {
+                    line.append(i == 0 ? "" : " ").append(metrics.getString(i));
+                }
+                writer.println(line);
+            }
+        } finally {
+            metrics.close();
+        }
+        writer.println("Slow operations (>= "
+                + TimeUnit.NANOSECONDS.toMillis(mSlowThresholdNanos) + " ms):");
+        for (SlowOperation slow : slowOperations()) {
+            writer.println("  " + slow.time + " " + slow.operation + " " + slow.uri
+                    + (slow.selection == null ? "" : " [" + slow.selection + "]") + " "
+                    + micros(slow.nanos) + " us, " + slow.rows + " rows");
+        }
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * Records the query of the cursor it wraps when it is first counted, and times the window
+     * fills after that: those made when moving out of the current window, and those made for
+     * another process.
+     */
+    private final class TrackedCursor extends CrossProcessCursorWrapper {
+        private final AbstractWindowedCursor mCursor;
+        private final int mMatch;
+        private final long mStart;
+        private final Uri mUri;
+        private final String mSelection;
+        private boolean mCounted;
+
+        TrackedCursor(Cursor cursor, int match, long start, Uri uri, String selection) {
+            super(cursor);
+            mCursor = (AbstractWindowedCursor) cursor;
+            mMatch = match;
+            mStart = start;
+            mUri = uri;
+            mSelection = selection;
+        }
+
+        @Override
+        public int getCount() {
+            if (mCounted) {
+                return super.getCount();
+            }
+            // The first count runs the query and fills the first window
+            mCounted = true;
+            int count = super.getCount();
+            end(QUERY, mMatch, mStart, count, mUri, mSelection);
+            return count;
+        }
+
+        @Override
+        public boolean moveToPosition(int position) {
+            int count = getCount();
+            CursorWindow window = mCursor.getWindow();
+            if (position < 0 || position >= count || (window != null
+                    && position >= window.getStartPosition()
+                    && position < window.getStartPosition() + window.getNumRows())) {
+                return super.moveToPosition(position);
+            }
+            long start = SystemClock.elapsedRealtimeNanos();
+            boolean moved = super.moveToPosition(position);
+            mWindowFills.record(SystemClock.elapsedRealtimeNanos() - start);
+            return moved;
+        }
+
+        @Override
+        public boolean move(int offset) {
+            return moveToPosition(getPosition() + offset);
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            return moveToPosition(0);
+        }
+
+        @Override
+        public boolean moveToLast() {
+            return moveToPosition(getCount() - 1);
+        }
+
+        @Override
+        public boolean moveToNext() {
+            return moveToPosition(getPosition() + 1);
+        }
+
+        @Override
+        public boolean moveToPrevious() {
+            return moveToPosition(getPosition() - 1);
+        }
+
+        @Override
+        public void fillWindow(int position, CursorWindow window) {
+            getCount();
+            long start = SystemClock.elapsedRealtimeNanos();
+            super.fillWindow(position, window);
+            mWindowFills.record(SystemClock.elapsedRealtimeNanos() - start);
+        }
+
+        @Override
+        public void close() {
+            if (!mCounted) {
+                // Never read, only the call is timed
+                mCounted = true;
+                end(QUERY, mMatch, mStart, 0, mUri, mSelection);
+            }
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.example.android.bookstore2.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.bookstore2.data.BookContract.BookEntry;
+import com.example.android.bookstore2.data.BookContract.SalesEntry;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The sales journal of {@link BookProvider}, see {@link SalesEntry}.
+ *
+ * A sale appends a row to the journal instead of updating its book, so selling never rewrites
+ * a page of the books table. While the journal has rows, the provider reads the books through
+ * the {@link BookDbHelper#STOCK_VIEW_NAME} view, which takes them off the stock; once it is
+ * empty it reads the table again. The journal keeps count of its rows in memory, so deciding
+ * which one to read costs nothing.
+ *
+ * The journal is compacted on a background thread, {@link #COMPACT_DELAY_MILLIS} after the
+ * last sale or as soon as {@link #COMPACT_AFTER_SALES} are waiting: in one transaction, the
+ * sales are taken off the stock of their books, added to the daily totals and deleted. The
+ * stock read through the view is the same before and after, so listeners are not notified.
+ */
+final class SalesJournal {
+
+    private static final String LOG_TAG = SalesJournal.class.getSimpleName();
+
+    /** How long the compaction waits for more sales after the last one */
+    static final long COMPACT_DELAY_MILLIS = 5000;
+
+    /** Number of waiting sales that are compacted without waiting any longer */
+    static final int COMPACT_AFTER_SALES = 500;
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /** Matches a journal row to the book table row it is about */
+    private static final String SALES_OF_BOOK = SalesEntry.TABLE_NAME + "."
+            + SalesEntry.COLUMN_BOOK_ID + " = " + BookEntry.TABLE_NAME + "." + BookEntry._ID;
+
+    /** Matches a journal row to the daily row it is added to */
+    private static final String SALES_OF_DAY = SalesEntry.TABLE_NAME + "." + SalesEntry.COLUMN_DAY
+            + " = " + SalesEntry.DAILY_TABLE_NAME + "." + SalesEntry.COLUMN_DAY + " AND "
+            + SalesEntry.TABLE_NAME + "." + SalesEntry.COLUMN_BOOK_ID + " = "
+            + SalesEntry.DAILY_TABLE_NAME + "." + SalesEntry.COLUMN_BOOK_ID;
+
+    /** Takes the journaled sales off the stock of the books sold, through the primary key */
+    private static final String SQL_FOLD_STOCK = "UPDATE " + BookEntry.TABLE_NAME + " SET "
+            + BookEntry.COLUMN_PRODUCT_QUANTITY + " = " + BookEntry.COLUMN_PRODUCT_QUANTITY
+            + " - (SELECT SUM(" + SalesEntry.COLUMN_QUANTITY + ") FROM " + SalesEntry.TABLE_NAME
+            + " WHERE " + SALES_OF_BOOK + ") WHERE " + BookEntry._ID + " IN (SELECT "
+            + SalesEntry.COLUMN_BOOK_ID + " FROM " + SalesEntry.TABLE_NAME + ")";
+
+    /** Adds the missing daily rows of the journaled sales, with nothing sold yet */
+    private static final String SQL_ADD_DAYS = "INSERT OR IGNORE INTO " + SalesEntry.DAILY_TABLE_NAME
+            + " (" + SalesEntry.COLUMN_DAY + ", " + SalesEntry.COLUMN_BOOK_ID + ", "
+            + SalesEntry.COLUMN_UNITS + ", " + SalesEntry.COLUMN_REVENUE + ") SELECT DISTINCT "
+            + SalesEntry.COLUMN_DAY + ", " + SalesEntry.COLUMN_BOOK_ID + ", 0, 0 FROM "
+            + SalesEntry.TABLE_NAME;
+
+    /**
+     * Adds the journaled sales to their daily rows. Only the days from the oldest journaled sale
+     * on are looked at, so the history does not slow the compaction down as it grows.
+     */
+    private static final String SQL_ADD_SALES = "UPDATE " + SalesEntry.DAILY_TABLE_NAME + " SET "
+            + SalesEntry.COLUMN_UNITS + " = " + SalesEntry.COLUMN_UNITS + " + (SELECT SUM("
+            + SalesEntry.COLUMN_QUANTITY + ") FROM " + SalesEntry.TABLE_NAME + " WHERE "
+            + SALES_OF_DAY + "), " + SalesEntry.COLUMN_REVENUE + " = " + SalesEntry.COLUMN_REVENUE
+            + " + (SELECT SUM(" + SalesEntry.COLUMN_QUANTITY + " * " + SalesEntry.COLUMN_PRICE
+            + ") FROM " + SalesEntry.TABLE_NAME + " WHERE " + SALES_OF_DAY + ") WHERE "
+            + SalesEntry.COLUMN_DAY + " >= (SELECT MIN(" + SalesEntry.COLUMN_DAY + ") FROM "
+            + SalesEntry.TABLE_NAME + ") AND EXISTS (SELECT 1 FROM " + SalesEntry.TABLE_NAME
+            + " WHERE " + SALES_OF_DAY + ")";
+
+    private static final String SQL_CLEAR = "DELETE FROM " + SalesEntry.TABLE_NAME;
+
+    /**
+     * The daily rows with the journaled sales added, for {@link SalesEntry#DAILY_URI}. The
+     * selection and sort order of the query apply to it as a table.
+     */
+    private static final String DAILY_TABLES = "(SELECT " + SalesEntry.COLUMN_DAY + ", "
+            + SalesEntry.COLUMN_BOOK_ID + ", SUM(" + SalesEntry.COLUMN_UNITS + ") AS "
+            + SalesEntry.COLUMN_UNITS + ", SUM(" + SalesEntry.COLUMN_REVENUE + ") AS "
+            + SalesEntry.COLUMN_REVENUE + " FROM (SELECT " + SalesEntry.COLUMN_DAY + ", "
+            + SalesEntry.COLUMN_BOOK_ID + ", " + SalesEntry.COLUMN_UNITS + ", "
+            + SalesEntry.COLUMN_REVENUE + " FROM " + SalesEntry.DAILY_TABLE_NAME
+            + " UNION ALL SELECT " + SalesEntry.COLUMN_DAY + ", " + SalesEntry.COLUMN_BOOK_ID
+            + ", " + SalesEntry.COLUMN_QUANTITY + ", " + SalesEntry.COLUMN_QUANTITY + " * "
+            + SalesEntry.COLUMN_PRICE + " FROM " + SalesEntry.TABLE_NAME + ") GROUP BY "
+            + SalesEntry.COLUMN_DAY + ", " + SalesEntry.COLUMN_BOOK_ID + ")";
+
+    private static final String DAILY_SORT_ORDER = SalesEntry.COLUMN_DAY + " DESC, "
+            + SalesEntry.COLUMN_BOOK_ID;
+
+    private final ProviderMetrics mMetrics;
+
+    /**
+     * Number of sales in the journal, counting those being appended and not those being
+     * compacted, so it is never less than the committed count. -1 until read from the database.
+     */
+    private final AtomicLong mPending = new AtomicLong(-1);
+
+    /**
+     * Number of sales compacted inside a transaction of the caller, taken off
+     * {@link #mPending} once it commits. Only the thread holding that transaction uses it.
+     */
+    private long mCompactedInTransaction;
+
+    /** Runs the compaction, started on the first sale */
+    private Handler mHandler;
+
+    /** The database {@link #mCompactRunnable} compacts */
+    private volatile SQLiteDatabase mCompactDatabase;
+
+    private final Runnable mCompactRunnable = new Runnable() {
+        @Override
+        public void run() {
+            SQLiteDatabase database = mCompactDatabase;
+            // The helper may have been closed since, don't open it again
+            if (database == null || !database.isOpen()) {
+                return;
+            }
+            try {
+                compact(database);
+            } catch (SQLException e) {
+                Log.e(LOG_TAG, "Failed to compact the sales", e);
+            }
+        }
+    };
+
+    SalesJournal(ProviderMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Return the number of sales in the journal, counting them on first use.
+     */
+    long pending(SQLiteDatabase database) {
+        long pending = mPending.get();
+        if (pending != -1) {
+            return pending;
+        }
+        synchronized (mPending) {
+            if (mPending.get() == -1) {
+                mPending.set(DatabaseUtils.queryNumEntries(database, SalesEntry.TABLE_NAME));
+            }
+            return mPending.get();
+        }
+    }
+
+    /**
+     * Return what the books are read from, under the name of the books table: the stock view
+     * while there are sales in the journal, the plain view of the books otherwise.
+     */
+    String booksTable(SQLiteDatabase database) {
+        return (pending(database) == 0 ? BookDbHelper.BOOKS_VIEW_NAME : BookDbHelper.STOCK_VIEW_NAME)
+                + " AS " + BookEntry.TABLE_NAME;
+    }
+
+    /**
+     * Append a sale inside the caller's transaction. If the transaction rolls back, the caller
+     * must call {@link #rolledBack} with the returned count.
+     *
+     * @param price price of one copy, in cents
+     * @return the number of sales appended, 1, or 0 if it could not be
+     */
+    int append(BookStatements statements, long bookId, int quantity, long price) {
+        pending(statements.getDatabase());
+        // Counted before the sale is visible, so the books are never read past it
+        mPending.incrementAndGet();
+        long time = System.currentTimeMillis();
+        if (statements.appendSale(bookId, quantity, price, time, dayOf(time)) == -1) {
+            mPending.decrementAndGet();
+            return 0;
+        }
+        return 1;
+    }
+
+    /** Take the sales appended by a rolled back transaction off the count. */
+    void rolledBack(int appended) {
+        mPending.addAndGet(-appended);
+    }
+
+    /**
+     * Return the local day of the given time, in days since the epoch.
+     */
+    static long dayOf(long timeMillis) {
+        long local = timeMillis + TimeZone.getDefault().getOffset(timeMillis);
+        return (local >= 0 ? local : local - DAY_MILLIS + 1) / DAY_MILLIS;
+    }
+
+    /**
+     * Compact the journal on the background thread soon, see {@link SalesJournal}.
+     */
+    synchronized void scheduleCompaction(SQLiteDatabase database) {
+        if (mHandler == null) {
+            HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mHandler = new Handler(thread.getLooper());
+        }
+        mCompactDatabase = database;
+        mHandler.removeCallbacks(mCompactRunnable);
+        if (mPending.get() >= COMPACT_AFTER_SALES) {
+            mHandler.post(mCompactRunnable);
+        } else {
+            mHandler.postDelayed(mCompactRunnable, COMPACT_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Stop compacting on the background thread: drop the scheduled compaction and let the
+     * thread end. A compaction already running finishes. The sales still in the journal stay in
+     * the database, where the next journal over it counts and compacts them.
+     */
+    synchronized void close() {
+        if (mHandler != null) {
+            mHandler.removeCallbacks(mCompactRunnable);
+            mHandler.getLooper().quitSafely();
+            mHandler = null;
+        }
+        mCompactDatabase = null;
+    }
+
+    /**
+     * Compact the journal if it has any sales, see {@link SalesJournal}. Inside a transaction
+     * of the caller, the sales only come off the count once the caller calls
+     * {@link #endTransaction}. Return the number of sales compacted.
+     */
+    int compact(SQLiteDatabase database) {
+        if (pending(database) == 0) {
+            return 0;
+        }
+        boolean nested = database.inTransaction();
+        int compacted;
+        long transactionStart = mMetrics.begin();
+        database.beginTransaction();
+        try {
+            database.execSQL(SQL_FOLD_STOCK);
+            database.execSQL(SQL_ADD_DAYS);
+            database.execSQL(SQL_ADD_SALES);
+            SQLiteStatement clear = database.compileStatement(SQL_CLEAR);
+            try {
+                compacted = clear.executeUpdateDelete();
+            } finally {
+                clear.close();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mMetrics.endTransaction(transactionStart);
+        }
+        // Only off the count once committed, the books are read through the view until then
+        if (nested) {
+            mCompactedInTransaction += compacted;
+        } else {
+            mPending.addAndGet(-compacted);
+        }
+        return compacted;
+    }
+
+    /**
+     * End a transaction the caller began, in which the journal may have been compacted.
+     */
+    void endTransaction(boolean committed) {
+        if (committed) {
+            mPending.addAndGet(-mCompactedInTransaction);
+        }
+        mCompactedInTransaction = 0;
+    }
+
+    /**
+     * Query the units sold and the revenue per day and book, compacted or not, latest day
+     * first unless another sort order is given.
+     */
+    Cursor queryDaily(SQLiteDatabase database, String[] projection, String selection,
+                      String[] selectionArgs, String sortOrder,
+                      CancellationSignal cancellationSignal) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(DAILY_TABLES);
+        return builder.query(database, projection != null ? projection : SalesEntry.DAILY_COLUMNS,
+                selection, selectionArgs, null, null,
+                TextUtils.isEmpty(sortOrder) ? DAILY_SORT_ORDER : sortOrder, null,
+                cancellationSignal);
+    }
+}
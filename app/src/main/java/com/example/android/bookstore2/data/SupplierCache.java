@@ -0,0 +1,137 @@
+package com.example.android.bookstore2.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.LruCache;
+
+import com.example.android.bookstore2.data.BookContract.SupplierEntry;
+
+/**
+ * The _ID and phone of the most recently used suppliers, by name, so writing a book with the
+ * name of a supplier seen recently does not go to SQLite to look it up. The editor saves the
+ * supplier with every book, and an import names the same few suppliers over and over.
+ *
+ * Suppliers are looked up, added and changed inside the transaction of the write that links a
+ * book to them, so the cache can hold a supplier that is not committed yet. A transaction that
+ * is rolled back calls {@link #invalidateAll} before it ends, while no other write can read the
+ * cache, and so do the writes to the suppliers URI. Lookups that began before it forget their
+ * result.
+ */
+final class SupplierCache {
+
+    /** Number of suppliers kept by the provider's cache */
+    static final int DEFAULT_MAX_SUPPLIERS = 1000;
+
+    private static final String[] COLUMNS = {SupplierEntry._ID, SupplierEntry.COLUMN_PHONE};
+
+    private static final String SELECTION_NAME = SupplierEntry.COLUMN_NAME + " = ?";
+
+    /** A supplier as it is in the database. Never modified once cached. */
+    static final class Supplier {
+        final long id;
+        final Long phone;
+
+        Supplier(long id, Long phone) {
+            this.id = id;
+            this.phone = phone;
+        }
+    }
+
+    /** The cached suppliers, by name */
+    private final LruCache<String, Supplier> mSuppliers;
+
+    /** Incremented by {@link #invalidateAll} */
+    private long mGeneration;
+
+    SupplierCache(int maxSuppliers) {
+        mSuppliers = new LruCache<>(maxSuppliers);
+    }
+
+    /**
+     * Return the supplier with the given name, or null if there is none. Must be called inside
+     * the transaction of the write that links a book to it.
+     */
+    Supplier find(SQLiteDatabase database, String name) {
+        Supplier supplier = mSuppliers.get(name);
+        if (supplier != null) {
+            return supplier;
+        }
+
+        long generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+        Cursor cursor = database.query(SupplierEntry.TABLE_NAME, COLUMNS, SELECTION_NAME,
+                new String[]{name}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            supplier = new Supplier(cursor.getLong(0), cursor.isNull(1) ? null : cursor.getLong(1));
+        } finally {
+            cursor.close();
+        }
+        put(generation, name, supplier);
+        return supplier;
+    }
+
+    /**
+     * Add a supplier that {@link #find} did not find, inside the same transaction. Throws an
+     * {@link android.database.SQLException} if it could not be added.
+     */
+    Supplier add(SQLiteDatabase database, String name, Long phone) {
+        long generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+        ContentValues values = new ContentValues();
+        values.put(SupplierEntry.COLUMN_NAME, name);
+        values.put(SupplierEntry.COLUMN_PHONE, phone);
+        Supplier supplier = new Supplier(
+                database.insertOrThrow(SupplierEntry.TABLE_NAME, null, values), phone);
+        put(generation, name, supplier);
+        return supplier;
+    }
+
+    /**
+     * Set the phone of a supplier returned by {@link #find} or {@link #add}, inside the caller's transaction.
+     * Return false if it already had that phone, so nothing was written.
+     */
+    boolean setPhone(SQLiteDatabase database, String name, Supplier supplier, Long phone) {
+        if (phone == null ? supplier.phone == null : phone.equals(supplier.phone)) {
+            return false;
+        }
+        long generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+        ContentValues values = new ContentValues();
+        values.put(SupplierEntry.COLUMN_PHONE, phone);
+        database.update(SupplierEntry.TABLE_NAME, values, SupplierEntry._ID + " = ?",
+                new String[]{String.valueOf(supplier.id)});
+        put(generation, name, new Supplier(supplier.id, phone));
+        return true;
+    }
+
+    private synchronized void put(long generation, String name, Supplier supplier) {
+        if (generation == mGeneration) {
+            mSuppliers.put(name, supplier);
+        }
+    }
+
+    /**
+     * Drop every supplier: the suppliers were changed through their own URI, or a transaction
+     * that may have added or changed one is about to be rolled back.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mSuppliers.evictAll();
+    }
+
+    @Override
+    public String toString() {
+        return "SupplierCache[size=" + mSuppliers.size() + "/" + mSuppliers.maxSize()
+                + ", hits=" + mSuppliers.hitCount() + ", misses=" + mSuppliers.missCount() + "]";
+    }
+}
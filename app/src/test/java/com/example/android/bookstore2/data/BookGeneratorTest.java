@@ -0,0 +1,126 @@
+package com.example.android.bookstore2.data;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the distributions of {@link BookGenerator}.
+ */
+public class BookGeneratorTest {
+
+    private static final int SAMPLES = 100000;
+
+    @Test
+    public void sameSeed_givesSameBooks() {
+        BookGenerator first = new BookGenerator(7);
+        BookGenerator second = new BookGenerator(7);
+        BookGenerator other = new BookGenerator(8);
+        boolean differs = false;
+        for (int i = 0; i < 1000; i++) {
+            String title = first.nextTitle();
+            assertEquals(title, second.nextTitle());
+            assertEquals(first.nextStock(), second.nextStock());
+            assertEquals(first.nextPrice(), second.nextPrice());
+            assertEquals(first.nextSupplier(), second.nextSupplier());
+            differs |= !title.equals(other.nextTitle());
+        }
+        assertTrue(differs);
+    }
+
+    @Test
+    public void suppliers_followZipf() {
+        BookGenerator generator = new BookGenerator(BookGenerator.DEFAULT_SEED);
+        int[] books = new int[BookGenerator.SUPPLIERS];
+        for (int i = 0; i < SAMPLES; i++) {
+            books[generator.nextSupplier()]++;
+        }
+        // The most popular of 200 has 1 / H(200) = 17% of the books, twice the second's
+        double first = (double) books[0] / SAMPLES;
+        assertTrue("Most popular " + first, first > 0.16 && first < 0.18);
+        double ratio = (double) books[0] / books[1];
+        assertTrue("Ratio " + ratio, ratio > 1.8 && ratio < 2.2);
+        // Yet even the least popular has some
+        assertTrue(books[BookGenerator.SUPPLIERS - 1] > 0);
+    }
+
+    @Test
+    public void supplierNames_areUnique() {
+        Set<String> names = new HashSet<>();
+        for (int rank = 0; rank < BookGenerator.SUPPLIERS; rank++) {
+            assertTrue(names.add(BookGenerator.supplierName(rank)));
+        }
+    }
+
+    @Test
+    public void stock_isSkewed() {
+        BookGenerator generator = new BookGenerator(BookGenerator.DEFAULT_SEED);
+        int outOfStock = 0;
+        int low = 0;
+        int hundreds = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            int stock = generator.nextStock();
+            assertTrue(stock >= 0 && stock <= 999);
+            if (stock == 0) {
+                outOfStock++;
+            } else if (stock < BookContract.BookEntry.LOW_STOCK_THRESHOLD) {
+                low++;
+            } else if (stock >= 100) {
+                hundreds++;
+            }
+        }
+        assertEquals(0.08, (double) outOfStock / SAMPLES, 0.01);
+        assertEquals(0.12, (double) low / SAMPLES, 0.01);
+        assertTrue(hundreds > 0 && hundreds < SAMPLES / 50);
+    }
+
+    @Test
+    public void prices_lookLikeShopPrices() {
+        BookGenerator generator = new BookGenerator(BookGenerator.DEFAULT_SEED);
+        int between7And35 = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            long price = generator.nextPrice();
+            assertTrue(price > 0);
+            assertEquals(99, price % 100);
+            if (price >= 700 && price <= 3500) {
+                between7And35++;
+            }
+        }
+        assertTrue(between7And35 > SAMPLES * 9 / 10);
+    }
+
+    @Test
+    public void titles_areShortLongAndUnicode() {
+        BookGenerator generator = new BookGenerator(BookGenerator.DEFAULT_SEED);
+        int oneWord = 0;
+        int subtitled = 0;
+        int unicode = 0;
+        int supplementary = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            String title = generator.nextTitle();
+            assertFalse(title.isEmpty());
+            if (title.indexOf(' ') == -1) {
+                oneWord++;
+            }
+            if (title.contains(": ")) {
+                subtitled++;
+            }
+            for (int c = 0; c < title.length(); c++) {
+                if (title.charAt(c) > 127) {
+                    unicode++;
+                    break;
+                }
+            }
+            if (title.codePointCount(0, title.length()) < title.length()) {
+                supplementary++;
+            }
+        }
+        assertEquals(0.125, (double) oneWord / SAMPLES, 0.01);
+        assertEquals(0.10, (double) subtitled / SAMPLES, 0.01);
+        assertTrue(unicode > SAMPLES / 10);
+        assertTrue(supplementary > 0);
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.android.bookstore2.data;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link CsvReader}.
+ */
+public class CsvReaderTest {
+
+    /** Read every record of the input */
+    private static List<List<String>> readAll(Reader input) throws IOException {
+        CsvReader csv = new CsvReader(input);
+        List<List<String>> records = new ArrayList<>();
+        List<String> record;
+        while ((record = csv.readRecord()) != null) {
+            records.add(new ArrayList<>(record));
+        }
+        csv.close();
+        return records;
+    }
+
+    private static List<List<String>> readAll(String input) throws IOException {
+        return readAll(new StringReader(input));
+    }
+
+    /** A reader handing out one char per read, so records span many refills of the buffer */
+    private static Reader oneCharAtATime(final String input) {
+        return new Reader() {
+            private int mPosition;
+
+            @Override
+            public int read(char[] buffer, int offset, int length) {
+                if (mPosition == input.length()) {
+                    return -1;
+                }
+                buffer[offset] = input.charAt(mPosition++);
+                return 1;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Test
+    public void plainFields_areSplitOnCommas() throws IOException {
+        assertEquals(Arrays.asList(
+                Arrays.asList("name", "price", "stock"),
+                Arrays.asList("Dune", "999", "3"),
+                Arrays.asList("", "", "")),
+                readAll("name,price,stock\nDune,999,3\n,,\n"));
+    }
+
+    @Test
+    public void everyLineEnding_endsARecord() throws IOException {
+        assertEquals(Arrays.asList(
+                Arrays.asList("a", "1"),
+                Arrays.asList("b", "2"),
+                Arrays.asList("c", "3"),
+                Arrays.asList("d", "4")),
+                readAll("a,1\r\nb,2\nc,3\rd,4"));
+    }
+
+    @Test
+    public void quotedFields_keepCommasQuotesAndLineBreaks() throws IOException {
+        assertEquals(Arrays.asList(
+                Arrays.asList("Tale, \"Two\" Cities", "Line\r\nbreak", ""),
+                Arrays.asList("after", "x", "y")),
+                readAll("\"Tale, \"\"Two\"\" Cities\",\"Line\r\nbreak\",\"\"\r\nafter,x,y\r\n"));
+    }
+
+    @Test
+    public void blankLinesAndByteOrderMark_areSkipped() throws IOException {
+        assertEquals(Arrays.asList(
+                Arrays.asList("name", "stock"),
+                Arrays.asList("Dune", "3")),
+                readAll("\uFEFFname,stock\r\n\r\n\nDune,3\n\n"));
+    }
+
+    @Test
+    public void lineNumbers_countLineBreaksInsideQuotes() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader("a\n\"b\nc\"\n\nd\n"));
+        csv.readRecord();
+        assertEquals(1, csv.getLineNumber());
+        csv.readRecord();
+        assertEquals(2, csv.getLineNumber());
+        assertEquals(Arrays.asList("d"), csv.readRecord());
+        assertEquals(5, csv.getLineNumber());
+        assertNull(csv.readRecord());
+    }
+
+    @Test
+    public void recordsAcrossBufferRefills_areReadTheSame() throws IOException {
+        StringBuilder input = new StringBuilder("name,price\r\n");
+        for (int i = 0; i < 5000; i++) {
+            input.append("\"Book, ").append(i).append("\",").append(i).append("\r\n");
+        }
+        List<List<String>> whole = readAll(input.toString());
+        assertEquals(5001, whole.size());
+        assertEquals(Arrays.asList("Book, 4999", "4999"), whole.get(5000));
+        assertEquals(whole, readAll(oneCharAtATime(input.toString())));
+    }
+
+    @Test(expected = IOException.class)
+    public void unterminatedQuote_isAnError() throws IOException {
+        readAll("name\n\"Dune\n");
+    }
+
+    @Test(expected = IOException.class)
+    public void textAfterClosingQuote_isAnError() throws IOException {
+        readAll("\"Dune\"x,3\n");
+    }
+}
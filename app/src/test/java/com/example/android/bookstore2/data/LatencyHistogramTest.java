@@ -0,0 +1,72 @@
+package com.example.android.bookstore2.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_coverEveryValueInOrder() {
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS - 1; bucket++) {
+            long lowest = LatencyHistogram.lowestValueOf(bucket);
+            long next = LatencyHistogram.lowestValueOf(bucket + 1);
+            assertTrue(next > lowest);
+            assertEquals(bucket, LatencyHistogram.bucketOf(lowest));
+            assertEquals(bucket, LatencyHistogram.bucketOf(next - 1));
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+        assertEquals(0, LatencyHistogram.bucketOf(-5));
+    }
+
+    @Test
+    public void buckets_areNoWiderThanAnEighthOfTheirValues() {
+        for (int bucket = 8; bucket < LatencyHistogram.BUCKETS - 1; bucket++) {
+            long lowest = LatencyHistogram.lowestValueOf(bucket);
+            long width = LatencyHistogram.lowestValueOf(bucket + 1) - lowest;
+            assertTrue(width * 8 <= lowest);
+        }
+    }
+
+    @Test
+    public void percentiles_areWithinTheirBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1 to 1000 microseconds
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500500, histogram.getMean());
+        assertWithinAnEighth(500000, histogram.getValueAtPercentile(50));
+        assertWithinAnEighth(990000, histogram.getValueAtPercentile(99));
+        assertEquals(1000000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void percentiles_ofOneSlowValue_showOnlyAtTheTail() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(20000);
+        }
+        histogram.record(5000000000L);
+        assertWithinAnEighth(20000, histogram.getValueAtPercentile(99));
+        assertEquals(5000000000L, histogram.getValueAtPercentile(99.9));
+    }
+
+    @Test
+    public void emptyHistogram_isAllZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    private static void assertWithinAnEighth(long expected, long actual) {
+        assertTrue(actual + " is not within 1/8 of " + expected,
+                actual >= expected && actual - expected <= expected / 8);
+    }
+}